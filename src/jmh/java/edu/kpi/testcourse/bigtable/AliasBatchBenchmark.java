@@ -0,0 +1,66 @@
+package edu.kpi.testcourse.bigtable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Storing one chunk of {@code POST /urls/batch}: {@code single} adds the aliases one by one with
+ * {@link AliasDao#putIfAbsent}, {@code batch} with {@link AliasDaoImpl#putAllIfAbsent}, which
+ * locks each stripe once per chunk. Every call stores new aliases, so the table grows during an
+ * iteration the same way for both. Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class AliasBatchBenchmark {
+
+  @Param({"1000"})
+  public int chunk;
+
+  @Param({"single", "batch"})
+  public String mode;
+
+  private AliasDaoImpl table;
+  private int next;
+
+  /**
+   * Starts every iteration with an empty table.
+   */
+  @Setup(Level.Iteration)
+  public void empty() {
+    table = new AliasDaoImpl();
+  }
+
+  @Benchmark
+  public List<Alias> store() {
+    List<Alias> aliases = new ArrayList<>(chunk);
+    for (int i = 0; i < chunk; i++) {
+      String shorten = "batch-" + next++;
+      aliases.add(new Alias(shorten, "https://example.com/" + next % 5000, "user" + next % 100));
+    }
+    if ("batch".equals(mode)) {
+      return table.putAllIfAbsent(aliases);
+    }
+    List<Alias> taken = new ArrayList<>(chunk);
+    for (Alias alias : aliases) {
+      taken.add(table.putIfAbsent(alias.getShorten(), alias));
+    }
+    return taken;
+  }
+}
@@ -0,0 +1,110 @@
+package edu.kpi.testcourse.bigtable;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Heap taken by the alias table, reported as the {@code bytesPerAlias} counter.
+ *
+ * <p>{@code plain} keeps an {@link Alias} with its own strings for every row, in the table and
+ * in the per-user index, the way the table stored aliases before; {@code compact} is
+ * {@link AliasDaoImpl}. The data set has many aliases
+ * per user and a small set of popular URLs, like real traffic. Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class AliasFootprintBenchmark {
+
+  @Param({"200000"})
+  public int aliases;
+
+  @Param({"1000"})
+  public int users;
+
+  @Param({"5000"})
+  public int urls;
+
+  @Param({"plain", "compact"})
+  public String layout;
+
+  /**
+   * Counters reported next to the time of the benchmark.
+   */
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class Footprint {
+
+    public long bytesPerAlias;
+  }
+
+  /**
+   * Fills a table and measures how much heap it retains.
+   *
+   * @param footprint receives the measurement
+   * @return the table, so it stays reachable until it is measured
+   */
+  @Benchmark
+  public Object fill(Footprint footprint) {
+    long before = usedHeap();
+    Object table = "compact".equals(layout) ? compact() : plain();
+    footprint.bytesPerAlias = (usedHeap() - before) / aliases;
+    return table;
+  }
+
+  private Object plain() {
+    VersionedMap<String, Alias> table = new VersionedMap<>();
+    Map<String, UserAliases> byUser = new HashMap<>();
+    for (int i = 0; i < aliases; i++) {
+      Alias alias = alias(i);
+      table.put(alias.getShorten(), alias);
+      byUser.computeIfAbsent(alias.getUsername(), user -> new UserAliases()).add(alias);
+    }
+    return new Object[] {table, byUser};
+  }
+
+  private AliasDaoImpl compact() {
+    AliasDaoImpl table = new AliasDaoImpl();
+    for (int i = 0; i < aliases; i++) {
+      Alias alias = alias(i);
+      table.add(alias.getShorten(), alias);
+    }
+    return table;
+  }
+
+  /**
+   * Builds the i-th alias from fresh strings, as if it came from a request or a dump. The alias
+   * is eight lowercase letters, like a generated one, so it is also kept in the
+   * {@link ShortAliasIndex}.
+   */
+  private Alias alias(int i) {
+    char[] shorten = new char[8];
+    for (int j = shorten.length - 1, rest = i; j >= 0; j--, rest /= 26) {
+      shorten[j] = (char) ('a' + rest % 26);
+    }
+    return new Alias(new String(shorten), "https://example.com/page/" + i % urls,
+        "user" + i % users + "@mail.com", 1_600_000_000_000L + i);
+  }
+
+  private static long usedHeap() {
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return memory.getHeapMemoryUsage().getUsed();
+  }
+}
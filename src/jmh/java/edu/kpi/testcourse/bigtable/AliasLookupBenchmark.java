@@ -0,0 +1,61 @@
+package edu.kpi.testcourse.bigtable;
+
+import edu.kpi.testcourse.utils.ShortenGenerator;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Redirect lookups by generated aliases, which go through the primitive index, and by longer
+ * custom aliases, which go through the main table. Run with {@code ./gradlew jmh} and
+ * {@code -prof gc} to see that either kind allocates only the returned alias.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class AliasLookupBenchmark {
+
+  @Param({"100000"})
+  public int aliases;
+
+  @Param({"generated", "custom"})
+  public String kind;
+
+  private AliasDaoImpl table;
+  private String[] keys;
+  private int next;
+
+  /**
+   * Fills the table with aliases of the chosen kind.
+   */
+  @Setup
+  public void fill() {
+    table = new AliasDaoImpl();
+    keys = new String[aliases];
+    for (int i = 0; i < aliases; i++) {
+      String shorten = "generated".equals(kind)
+          ? ShortenGenerator.generate()
+          : "custom-link-" + i;
+      keys[i] = shorten;
+      table.add(shorten, new Alias(shorten, "https://example.com/" + i, "user" + i % 100));
+    }
+  }
+
+  @Benchmark
+  public Alias get() {
+    next = next + 1 == keys.length ? 0 : next + 1;
+    return table.get(keys[next]);
+  }
+}
@@ -0,0 +1,118 @@
+package edu.kpi.testcourse.bigtable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Dump and restore of the alias table for every snapshot format and compression level, see
+ * {@link SnapshotCompression}. {@code dump} and {@code restore} report the time, and the size of
+ * the dump is reported as the {@code bytes} counter of {@code dump}. The data set has many
+ * aliases per user and a small set of popular URLs, like real traffic. Run with
+ * {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SnapshotCompressionBenchmark {
+
+  @Param({"200000"})
+  public int aliases;
+
+  @Param({"1000"})
+  public int users;
+
+  @Param({"5000"})
+  public int urls;
+
+  @Param({"json", "binary"})
+  public String format;
+
+  @Param({"0", "1", "6", "9"})
+  public int level;
+
+  private SnapshotFormat snapshotFormat;
+  private AliasDaoImpl table;
+  private byte[] dump;
+
+  /**
+   * Counters reported next to the time of the benchmark.
+   */
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class Size {
+
+    public long bytes;
+  }
+
+  /**
+   * Fills the table and writes the dump that {@link #restore} reads.
+   *
+   * @throws IOException never, the dump is kept in memory
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    snapshotFormat = SnapshotFormat.of(format);
+    table = new AliasDaoImpl();
+    for (int i = 0; i < aliases; i++) {
+      Alias alias = new Alias("a" + Integer.toString(i, 36), "https://example.com/page/" + i % urls,
+          "user" + i % users + "@mail.com", 1_600_000_000_000L + i);
+      table.add(alias.getShorten(), alias);
+    }
+    dump = write();
+  }
+
+  /**
+   * Writes the whole table.
+   *
+   * @param size receives the size of the dump
+   * @return the dump
+   * @throws IOException never, the dump is kept in memory
+   */
+  @Benchmark
+  public byte[] dump(Size size) throws IOException {
+    byte[] written = write();
+    size.bytes = written.length;
+    return written;
+  }
+
+  /**
+   * Reads the whole table back, decompressing on the fly.
+   *
+   * @return the restored table
+   * @throws IOException if the dump is broken
+   */
+  @Benchmark
+  public AliasDao restore() throws IOException {
+    AliasDaoImpl restored = new AliasDaoImpl();
+    snapshotFormat.read(restored,
+        SnapshotCompression.decompress(new ByteArrayInputStream(dump)));
+    return restored;
+  }
+
+  private byte[] write() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 20);
+    OutputStream out = SnapshotCompression.compress(bytes, level);
+    snapshotFormat.write(table, 0, out);
+    SnapshotCompression.finish(out);
+    return bytes.toByteArray();
+  }
+}
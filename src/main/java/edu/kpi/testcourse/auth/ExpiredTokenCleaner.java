@@ -1,11 +1,8 @@
 package edu.kpi.testcourse.auth;
 
+import edu.kpi.testcourse.bigtable.SessionDao;
 import edu.kpi.testcourse.bigtable.TokenDao;
 import io.micronaut.scheduling.annotation.Scheduled;
-import io.micronaut.security.token.jwt.validator.ExpirationJwtClaimsValidator;
-import java.text.ParseException;
-import java.util.Map;
-import java.util.Set;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.slf4j.Logger;
@@ -13,6 +10,9 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Scheduler to delete expired JWT tokens.
+ *
+ * <p>The revoked tokens are indexed by their expiration time, so a run only drops the tokens
+ * that have expired since the previous one and costs nothing when there are none.
  */
 @Singleton
 public class ExpiredTokenCleaner {
@@ -23,26 +23,18 @@ public class ExpiredTokenCleaner {
   private TokenDao tokenDao;
 
   @Inject
-  private ExpirationJwtClaimsValidator validator;
+  private SessionDao sessionDao;
 
   /**
-   * Removes invalid JWT tokens that have expired.
-   *
-   * @throws ParseException if the string couldn't be parsed to a valid JWT token.
+   * Removes invalid JWT tokens that have expired, and sign-out marks older than any living token.
    */
-  @Scheduled(fixedRate = "15m", initialDelay = "15m")
-  public void removeExpiredTokens() throws ParseException {
-    logger.info("Remove expired tokens");
-
-    Map<String, Set<String>> tokens = tokenDao.getAll();
-    for (String email : tokens.keySet()) {
-      for (String token : tokens.get(email)) {
-
-        boolean tokenExpired = validator.validate(JwtUtils.getClaims(token), null);
-        if (tokenExpired) {
-          tokenDao.remove(email, token);
-        }
-      }
+  @Scheduled(fixedRate = "1m", initialDelay = "1m")
+  public void removeExpiredTokens() {
+    long now = System.currentTimeMillis();
+    int removed = tokenDao.removeExpired(now);
+    int marks = sessionDao.removeExpired(now);
+    if (removed > 0 || marks > 0) {
+      logger.info("Removed {} expired tokens and {} sign-out marks", removed, marks);
     }
   }
 
@@ -1,5 +1,7 @@
 package edu.kpi.testcourse.auth;
 
+import com.nimbusds.jwt.JWTClaimsSet;
+import edu.kpi.testcourse.bigtable.SessionDao;
 import edu.kpi.testcourse.bigtable.TokenDao;
 import io.micronaut.core.async.publisher.Publishers;
 import io.micronaut.http.HttpRequest;
@@ -11,12 +13,13 @@ import io.micronaut.http.filter.ServerFilterChain;
 import io.micronaut.http.filter.ServerFilterPhase;
 import io.micronaut.http.hateoas.JsonError;
 import java.text.ParseException;
-import java.util.Set;
+import java.util.Date;
 import javax.inject.Inject;
 import org.reactivestreams.Publisher;
 
 /**
- * Security Filter to not allow invalid tokens.
+ * Security Filter to not allow invalid tokens: tokens signed out one by one, and tokens of users
+ * who have signed out everywhere after the tokens were issued.
  */
 @Filter(Filter.MATCH_ALL_PATTERN)
 public class InvalidTokenSecurityFilter extends OncePerRequestHttpServerFilter {
@@ -24,6 +27,9 @@ public class InvalidTokenSecurityFilter extends OncePerRequestHttpServerFilter {
   @Inject
   private TokenDao tokenDao;
 
+  @Inject
+  private SessionDao sessionDao;
+
   private static final Integer ORDER = ServerFilterPhase.SECURITY.order();
 
   @Override
@@ -39,10 +45,7 @@ public class InvalidTokenSecurityFilter extends OncePerRequestHttpServerFilter {
 
       if (authorization != null) {
         String token = JwtUtils.getToken(authorization);
-        String email = JwtUtils.getUsername(token);
-
-        Set<String> invalidTokens = tokenDao.get(email);
-        if (invalidTokens != null && invalidTokens.contains(token)) {
+        if (tokenDao.isRevoked(token) || isSignedOutEverywhere(token)) {
           return Publishers
             .just(HttpResponse.unauthorized().body(new JsonError("Token is invalid")));
         }
@@ -54,4 +57,26 @@ public class InvalidTokenSecurityFilter extends OncePerRequestHttpServerFilter {
     return doFilter(request, chain);
   }
 
+  /**
+   * Compares the issue time of the token with the sign-out mark of its user. The token is parsed
+   * only if some user has a mark. Both are in whole seconds and the mark is rounded up, so a
+   * token issued in the second of the sign-out is rejected too, and one issued from the next
+   * second on is let through.
+   */
+  private boolean isSignedOutEverywhere(String token) throws ParseException {
+    if (sessionDao.isEmpty()) {
+      return false;
+    }
+    JWTClaimsSet claims = JwtUtils.getClaimsSet(token);
+    if (claims.getSubject() == null) {
+      return false;
+    }
+    long revokedUntil = sessionDao.revokedUntil(claims.getSubject());
+    if (revokedUntil == 0) {
+      return false;
+    }
+    Date issued = claims.getIssueTime();
+    return issued == null || issued.getTime() < revokedUntil;
+  }
+
 }
@@ -1,10 +1,12 @@
 package edu.kpi.testcourse.auth;
 
 import com.nimbusds.jwt.JWT;
+import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.JWTParser;
 import io.micronaut.security.token.jwt.generator.claims.JwtClaims;
 import io.micronaut.security.token.jwt.generator.claims.JwtClaimsSetAdapter;
 import java.text.ParseException;
+import java.util.Date;
 
 /**
  * Utils to parse JWT tokens.
@@ -19,6 +21,29 @@ public class JwtUtils {
     return (String) getClaims(token).get(JwtClaims.SUBJECT);
   }
 
+  /**
+   * Reads the expiration time of a token.
+   *
+   * @param token JWT token
+   * @return expiration time in milliseconds since the epoch, 0 if the token has none
+   * @throws ParseException if the token could not be parsed
+   */
+  public static long getExpirationTime(String token) throws ParseException {
+    Date expiration = JWTParser.parse(token).getJWTClaimsSet().getExpirationTime();
+    return expiration == null ? 0 : expiration.getTime();
+  }
+
+  /**
+   * Parses the claims of a token, with the standard ones typed.
+   *
+   * @param token JWT token
+   * @return claims of the token
+   * @throws ParseException if the token could not be parsed
+   */
+  public static JWTClaimsSet getClaimsSet(String token) throws ParseException {
+    return JWTParser.parse(token).getJWTClaimsSet();
+  }
+
   public static JwtClaimsSetAdapter getClaims(String token) throws ParseException {
     return parseToken(token);
   }
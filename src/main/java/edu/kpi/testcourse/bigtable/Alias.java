@@ -1,5 +1,9 @@
 package edu.kpi.testcourse.bigtable;
 
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
 import java.util.Objects;
 
 /**
@@ -10,6 +14,9 @@ public class Alias {
   private String shorten;
   private String url;
   private String username;
+  private long createdAt;
+  private long expiresAt;
+  private transient URI location;
 
   /**
    * Об'єкт Alias`a.
@@ -20,9 +27,75 @@ public class Alias {
    *
    */
   public Alias(String shorten, String url, String username) {
+    this(shorten, url, username, 0);
+  }
+
+  /**
+   * Об'єкт Alias`a з часом створення.
+   *
+   * @param shorten Короткий урл.
+   * @param url Оригінальний урл.
+   * @param username Юзер хто цей урл зареєстрував.
+   * @param createdAt Час створення у мілісекундах від епохи, 0 якщо невідомий.
+   *
+   */
+  public Alias(String shorten, String url, String username, long createdAt) {
+    this(shorten, url, username, createdAt, 0);
+  }
+
+  /**
+   * Об'єкт Alias`a з часом створення та часом, коли він перестає діяти.
+   *
+   * @param shorten Короткий урл.
+   * @param url Оригінальний урл.
+   * @param username Юзер хто цей урл зареєстрував.
+   * @param createdAt Час створення у мілісекундах від епохи, 0 якщо невідомий.
+   * @param expiresAt Час у мілісекундах від епохи, з якого аліас не діє,
+   *     0 якщо безстроковий.
+   *
+   */
+  public Alias(String shorten, String url, String username, long createdAt, long expiresAt) {
+    this(shorten, url, username, createdAt, expiresAt, null);
+  }
+
+  /**
+   * Об'єкт Alias`a з уже розібраним урлом, на який він перенаправляє.
+   *
+   * @param shorten Короткий урл.
+   * @param url Оригінальний урл.
+   * @param username Юзер хто цей урл зареєстрував.
+   * @param createdAt Час створення у мілісекундах від епохи, 0 якщо невідомий.
+   * @param expiresAt Час у мілісекундах від епохи, з якого аліас не діє,
+   *     0 якщо безстроковий.
+   * @param location Урл, розібраний {@link #parseLocation}, або null, якщо його ще не
+   *     розбирали.
+   *
+   */
+  public Alias(String shorten, String url, String username, long createdAt, long expiresAt,
+      URI location) {
     this.shorten = shorten;
     this.url = url;
     this.username = username;
+    this.createdAt = createdAt;
+    this.expiresAt = expiresAt;
+    this.location = location;
+  }
+
+  /**
+   * Перевіряє урл і приводить його до канонічного вигляду.
+   *
+   * @param url Оригінальний урл.
+   * @return Розібраний урл, або null, якщо урл недійсний.
+   */
+  public static URI parseLocation(String url) {
+    if (url == null) {
+      return null;
+    }
+    try {
+      return new URL(url).toURI();
+    } catch (MalformedURLException | URISyntaxException e) {
+      return null;
+    }
   }
 
   public String getShorten() {
@@ -39,6 +112,30 @@ public class Alias {
 
   public void setUrl(String url) {
     this.url = url;
+    this.location = null;
+  }
+
+  /**
+   * Урл, на який перенаправляє аліас. Розбирається не більше одного разу на об'єкт. Таблиця
+   * аліасів зберігає урл уже в канонічному вигляді, тож для редіректу він розбирається за один
+   * прохід.
+   *
+   * @return Розібраний урл, або null, якщо урл недійсний.
+   */
+  public URI getLocation() {
+    URI parsed = location;
+    if (parsed == null) {
+      parsed = parseLocation(url);
+      location = parsed;
+    }
+    return parsed;
+  }
+
+  /**
+   * Розібраний урл, якщо його вже розбирали.
+   */
+  URI cachedLocation() {
+    return location;
   }
 
   public String getUsername() {
@@ -49,6 +146,32 @@ public class Alias {
     this.username = username;
   }
 
+  public long getCreatedAt() {
+    return createdAt;
+  }
+
+  public void setCreatedAt(long createdAt) {
+    this.createdAt = createdAt;
+  }
+
+  public long getExpiresAt() {
+    return expiresAt;
+  }
+
+  public void setExpiresAt(long expiresAt) {
+    this.expiresAt = expiresAt;
+  }
+
+  /**
+   * Чи аліас уже не діє.
+   *
+   * @param now Поточний час у мілісекундах від епохи.
+   * @return true, якщо строк дії аліаса минув.
+   */
+  public boolean isExpired(long now) {
+    return expiresAt != 0 && expiresAt <= now;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -58,13 +181,14 @@ public class Alias {
       return false;
     }
     Alias alias = (Alias) o;
-    return Objects.equals(shorten, alias.shorten) && Objects
+    return createdAt == alias.createdAt && expiresAt == alias.expiresAt
+      && Objects.equals(shorten, alias.shorten) && Objects
       .equals(url, alias.url) && Objects.equals(username, alias.username);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(shorten, url, username);
+    return Objects.hash(shorten, url, username, createdAt, expiresAt);
   }
 
   @Override
@@ -73,6 +197,8 @@ public class Alias {
       + "shorten='" + shorten + '\''
       + ", url='" + url + '\''
       + ", username='" + username + '\''
+      + ", createdAt=" + createdAt
+      + ", expiresAt=" + expiresAt
       + '}';
   }
 }
@@ -1,6 +1,9 @@
 package edu.kpi.testcourse.bigtable;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -10,11 +13,123 @@ public interface AliasDao extends Serializible {
 
   void add(String shorten, Alias alias);
 
+  /**
+   * Atomically adds the alias unless the shorten is already taken.
+   *
+   * @param shorten short name of the alias
+   * @param alias alias to add
+   * @return alias that already holds the shorten, or null if the alias was added
+   */
+  Alias putIfAbsent(String shorten, Alias alias);
+
+  /**
+   * Adds many aliases, each one unless its shorten is already taken, like {@link #putIfAbsent}
+   * for every alias but in one pass over the table where the storage allows it.
+   *
+   * @param aliases aliases to add, under their own shortens
+   * @return for each alias, the alias that already holds its shorten, or null if it was added
+   */
+  default List<Alias> putAllIfAbsent(List<Alias> aliases) {
+    List<Alias> taken = new ArrayList<>(aliases.size());
+    for (Alias alias : aliases) {
+      taken.add(putIfAbsent(alias.getShorten(), alias));
+    }
+    return taken;
+  }
+
+  /**
+   * Looks an alias up. This is the redirect path. Every call returns an alias of its own, so
+   * the caller may modify it without touching the table.
+   *
+   * @param shorten short name of the alias
+   * @return the alias, or null if there is none
+   */
   Alias get(String shorten);
 
   Map<String, Alias> getAll();
 
+  /**
+   * Iterates over the live aliases as they are at the time of the call, without copying the
+   * table where the storage allows it. Writers are not held up and later changes do not show
+   * through.
+   *
+   * @return the aliases, in no particular order
+   */
+  Iterator<Alias> scan();
+
+  /**
+   * Removes the aliases whose time to live has run out. Lookups never return an expired alias
+   * anyway; this frees the room it takes and makes its short name free to be taken again.
+   *
+   * @param now current time in milliseconds since the epoch
+   * @return number of aliases removed
+   */
+  int evictExpired(long now);
+
   ArrayList<Alias> getAllByUser(String userName);
 
+  /**
+   * Iterates over the live aliases of the user, read lazily from the index of the user, so they
+   * are neither gathered in memory nor copied, and writers are not held up. Unlike
+   * {@link #scan()}, this is not a view of one moment: every alias is read as it is when the
+   * walk reaches it, so an alias of the user created, changed or removed during the walk may or
+   * may not show, and shows as it is then.
+   *
+   * @param userName owner of the aliases
+   * @return the aliases, in no particular order
+   */
+  Iterator<Alias> scanByUser(String userName);
+
+  /**
+   * Reads one page of the user's aliases.
+   *
+   * @param userName owner of the aliases
+   * @param order sort order of the listing
+   * @param cursor {@link AliasPage#next()} of the previous page, or null for the first page
+   * @param limit maximum number of aliases on the page
+   * @return the page
+   * @throws IllegalArgumentException if the cursor is malformed
+   */
+  AliasPage getPageByUser(String userName, AliasOrder order, String cursor, int limit);
+
   void remove(String alias);
+
+  /**
+   * Atomically removes the alias if it belongs to the user.
+   *
+   * @param alias short name of the alias
+   * @param userName expected owner
+   * @return true if the alias was removed
+   */
+  boolean removeIfOwnedBy(String alias, String userName);
+
+  /**
+   * Removes those of the aliases that belong to the user, all in one change where the storage
+   * allows it.
+   *
+   * @param aliases short names of the aliases
+   * @param userName expected owner
+   * @return number of aliases removed
+   */
+  int removeAllOwnedBy(Collection<String> aliases, String userName);
+
+  /**
+   * Removes the aliases of the user created before the time, found through the per-user index,
+   * all in one change where the storage allows it.
+   *
+   * @param userName owner of the aliases
+   * @param createdBefore creation time in milliseconds since the epoch, exclusive
+   * @return number of aliases removed
+   */
+  int removeAllCreatedBefore(String userName, long createdBefore);
+
+  /**
+   * Atomically replaces the alias if it is still equal to the expected one.
+   *
+   * @param shorten short name of the alias
+   * @param expected alias the caller has seen
+   * @param alias new alias
+   * @return true if the alias was replaced
+   */
+  boolean replace(String shorten, Alias expected, Alias alias);
 }
@@ -1,63 +1,307 @@
 package edu.kpi.testcourse.bigtable;
 
-import com.google.gson.reflect.TypeToken;
-import edu.kpi.testcourse.Main;
-import java.lang.reflect.Type;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.annotation.Value;
+import java.io.IOException;
+import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.StreamSupport;
+import javax.inject.Inject;
 import javax.inject.Singleton;
 
 
 @Singleton
+@Requires(property = "bigtable.alias-storage", value = "heap", defaultValue = "heap")
 class AliasDaoImpl implements AliasDao {
 
-  private final Map<String, Alias> map = new HashMap<>();
+  /** Precision of the expiry of aliases with a time to live. */
+  static final long EXPIRY_TICK_MILLIS = 1000;
+
+  /**
+   * Rows of the table and their indexes. They are replaced as a whole by {@link #replaceWith},
+   * so every call reads them once and works on that one set.
+   */
+  private volatile Rows rows = new Rows();
+
+  private final int shards;
+
+  private final MutationLog log;
+
+  AliasDaoImpl() {
+    this(new MutationLog());
+  }
+
+  AliasDaoImpl(MutationLog log) {
+    this(log, 1);
+  }
+
+  /**
+   * Creates the table.
+   *
+   * @param log journal of changes
+   * @param shards number of dump files; every shard is a range of the lock stripes of the map,
+   *     so it is snapshotted without stopping writers of other shards
+   */
+  @Inject
+  AliasDaoImpl(MutationLog log, @Value("${bigtable.alias.shards:1}") int shards) {
+    this.log = log;
+    this.shards = Math.max(1, Math.min(shards, rows.map.stripeCount()));
+  }
 
   @Override
   public void add(String shorten, Alias alias) {
-    map.put(shorten, alias);
+    Rows rows = this.rows;
+    rows.map.put(shorten, rows.record(alias));
+  }
+
+  @Override
+  public Alias putIfAbsent(String shorten, Alias alias) {
+    Rows rows = this.rows;
+    AliasRecord row = rows.record(alias);
+    while (true) {
+      AliasRecord old = rows.map.putIfAbsent(shorten, row);
+      if (old == null || !old.isExpired(System.currentTimeMillis())) {
+        return toAlias(shorten, old);
+      }
+      if (rows.map.replace(shorten, old, row)) {
+        return null;
+      }
+    }
+  }
+
+  @Override
+  public List<Alias> putAllIfAbsent(List<Alias> aliases) {
+    Rows rows = this.rows;
+    List<String> shortens = new ArrayList<>(aliases.size());
+    List<AliasRecord> records = new ArrayList<>(aliases.size());
+    for (Alias alias : aliases) {
+      shortens.add(alias.getShorten());
+      records.add(rows.record(alias));
+    }
+    long now = System.currentTimeMillis();
+    List<AliasRecord> kept = rows.map.putAllIfAbsent(shortens, records,
+        old -> old.isExpired(now));
+    List<Alias> taken = new ArrayList<>(kept.size());
+    for (int i = 0; i < kept.size(); i++) {
+      taken.add(toAlias(shortens.get(i), kept.get(i)));
+    }
+    return taken;
   }
 
   @Override
   public void remove(String alias) {
-    map.remove(alias);
+    rows.map.remove(alias);
+  }
+
+  @Override
+  public boolean removeIfOwnedBy(String alias, String userName) {
+    return rows.map.remove(alias, row -> row.username().equals(userName));
+  }
+
+  @Override
+  public int removeAllOwnedBy(Collection<String> aliases, String userName) {
+    return rows.map.removeAll(aliases, row -> row.username().equals(userName));
+  }
+
+  @Override
+  public int removeAllCreatedBefore(String userName, long createdBefore) {
+    Rows rows = this.rows;
+    UserAliases aliases = rows.byUser.get(userName);
+    if (aliases == null) {
+      return 0;
+    }
+    return rows.map.removeAll(aliases.createdBefore(createdBefore),
+        row -> row.username().equals(userName) && row.createdAt() < createdBefore);
+  }
+
+  @Override
+  public boolean replace(String shorten, Alias expected, Alias alias) {
+    Rows rows = this.rows;
+    return rows.map.replace(shorten, rows.record(expected), rows.record(alias));
   }
 
   @Override
   public Alias get(String shorten) {
-    return map.get(shorten);
+    Rows rows = this.rows;
+    long key = ShortAliasIndex.encode(shorten);
+    AliasRecord row = key != ShortAliasIndex.NONE
+        ? rows.shortAliases.get(key) : rows.map.get(shorten);
+    return isLive(row) ? row.toParsedAlias(shorten) : null;
   }
 
   @Override
   public Map<String, Alias> getAll() {
-    return map;
+    Map<String, AliasRecord> records = rows.map.snapshot();
+    Map<String, Alias> aliases = new HashMap<>(records.size() * 4 / 3 + 1);
+    long now = System.currentTimeMillis();
+    records.forEach((shorten, row) -> {
+      if (!row.isExpired(now)) {
+        aliases.put(shorten, row.toAlias(shorten));
+      }
+    });
+    return Collections.unmodifiableMap(aliases);
+  }
+
+  /**
+   * Walks a {@link VersionedMap#snapshot()}, which is taken in a moment and never copied.
+   */
+  @Override
+  public Iterator<Alias> scan() {
+    long now = System.currentTimeMillis();
+    return rows.map.snapshot().entrySet().stream()
+        .filter(row -> !row.getValue().isExpired(now))
+        .map(row -> row.getValue().toAlias(row.getKey()))
+        .iterator();
   }
 
   @Override
   public ArrayList<Alias> getAllByUser(String userName) {
-    ArrayList<Alias> aliases = new ArrayList<>();
-    for (Alias alias : map.values()) {
-      if (alias.getUsername().equals(userName)) {
-        aliases.add(alias);
+    UserAliases aliases = rows.byUser.get(userName);
+    return aliases == null ? new ArrayList<>() : resolve(userName, aliases.all());
+  }
+
+  /**
+   * Walks the index of the user lazily and looks every alias up as it is reached.
+   */
+  @Override
+  public Iterator<Alias> scanByUser(String userName) {
+    UserAliases aliases = rows.byUser.get(userName);
+    if (aliases == null) {
+      return Collections.emptyIterator();
+    }
+    return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(aliases.iterator(), Spliterator.ORDERED), false)
+        .map(key -> get(key.getShorten()))
+        .filter(alias -> alias != null && userName.equals(alias.getUsername()))
+        .iterator();
+  }
+
+  @Override
+  public AliasPage getPageByUser(String userName, AliasOrder order, String cursor, int limit) {
+    UserAliases aliases = rows.byUser.get(userName);
+    if (aliases == null) {
+      return UserAliases.emptyPage();
+    }
+    AliasPage keys = aliases.page(order, cursor, limit);
+    return new AliasPage(resolve(userName, keys.aliases()), keys.next());
+  }
+
+  @Override
+  public int evictExpired(long now) {
+    Rows rows = this.rows;
+    int evicted = 0;
+    for (String shorten : rows.expiry.advance(now)) {
+      if (rows.map.remove(shorten, row -> row.isExpired(now))) {
+        evicted++;
       }
     }
-    return aliases;
+    return evicted;
   }
 
   @Override
-  public String toJson() {
-    Map<String, Alias> users = this.getAll();
-    return Main.getGson().toJson(users);
+  public int getShardCount() {
+    return shards;
   }
 
   @Override
-  public void fromJson(String aliasJson) {
+  public void writeJson(JsonWriter out) throws IOException {
+    writeJson(out, rows.map.snapshot());
+  }
+
+  @Override
+  public void writeJson(JsonWriter out, int shard) throws IOException {
+    writeJson(out, rows.map.snapshot(shard, shards));
+  }
+
+  private static void writeJson(JsonWriter out, Map<String, AliasRecord> rows)
+      throws IOException {
+    out.beginObject();
+    for (Map.Entry<String, AliasRecord> entry : rows.entrySet()) {
+      Alias alias = entry.getValue().toAlias(entry.getKey());
+      out.name(entry.getKey()).beginObject()
+          .name("shorten").value(alias.getShorten())
+          .name("url").value(alias.getUrl())
+          .name("username").value(alias.getUsername());
+      if (alias.getCreatedAt() != 0) {
+        out.name("createdAt").value(alias.getCreatedAt());
+      }
+      if (alias.getExpiresAt() != 0) {
+        out.name("expiresAt").value(alias.getExpiresAt());
+      }
+      out.endObject();
+    }
+    out.endObject();
+    out.flush();
+  }
+
+  @Override
+  public void readJson(JsonReader in) throws IOException {
+    Rows rows = this.rows;
+    in.beginObject();
+    while (in.hasNext()) {
+      String key = in.nextName();
+      rows.map.put(key, rows.record(readAlias(in)));
+    }
+    in.endObject();
+  }
 
-    Type typeOfAliasMap = new TypeToken<Map<String, Alias>>() { }.getType();
-    Map<String, Alias> aliasMap = Main.getGson().fromJson(aliasJson, typeOfAliasMap);
-    map.putAll(aliasMap);
+  @Override
+  public void writeBinary(SnapshotWriter out) throws IOException {
+    writeBinary(out, rows.map.snapshot());
+  }
+
+  @Override
+  public void writeBinary(SnapshotWriter out, int shard) throws IOException {
+    writeBinary(out, rows.map.snapshot(shard, shards));
+  }
+
+  private static void writeBinary(SnapshotWriter out, Map<String, AliasRecord> rows)
+      throws IOException {
+    for (Map.Entry<String, AliasRecord> entry : rows.entrySet()) {
+      AliasRecord row = entry.getValue();
+      out.writeString(entry.getKey());
+      out.writeString(row.url());
+      out.writeString(row.username());
+      out.writeVarLong(row.createdAt());
+      out.writeVarLong(row.expiresAt());
+      out.endRecord();
+    }
+    out.finish();
+  }
+
+  @Override
+  public void readBinary(SnapshotReader in) throws IOException {
+    Rows rows = this.rows;
+    while (in.nextRecord()) {
+      String shorten = in.readString();
+      String url = in.readString();
+      String username = in.readString();
+      long createdAt = in.readVarLong();
+      long expiresAt = in.version() >= 2 ? in.readVarLong() : 0;
+      rows.map.put(shorten, rows.record(url, username, createdAt, expiresAt));
+    }
+  }
+
+  @Override
+  public void clear() {
+    Rows rows = this.rows;
+    rows.map.clear();
+    rows.shortAliases.clear();
+    rows.byUser.clear();
+    rows.urls.clear();
+    rows.usernames.clear();
   }
 
   @Override
@@ -65,4 +309,223 @@ class AliasDaoImpl implements AliasDao {
     return "alias.json";
   }
 
+  @Override
+  public String getTableName() {
+    return "alias";
+  }
+
+  @Override
+  public void apply(Mutation mutation) {
+    Rows rows = this.rows;
+    String shorten = mutation.fields()[0];
+    if (mutation.op() == Mutation.PUT) {
+      String[] fields = mutation.fields();
+      long createdAt = fields.length > 3 ? Long.parseLong(fields[3]) : 0;
+      long expiresAt = fields.length > 4 ? Long.parseLong(fields[4]) : 0;
+      rows.map.put(shorten, rows.record(fields[1], fields[2], createdAt, expiresAt));
+    } else if (mutation.op() == Mutation.REMOVE) {
+      rows.map.remove(shorten);
+    }
+  }
+
+  /**
+   * Number of distinct usernames and URLs the table holds, for footprint measurements.
+   *
+   * @return distinct usernames plus distinct URLs
+   */
+  int sharedValueCount() {
+    Rows rows = this.rows;
+    return rows.usernames.size() + rows.urls.size();
+  }
+
+  /**
+   * Creates an empty table that journals to the log of this one, to be loaded and then swapped in
+   * with {@link #replaceWith}.
+   *
+   * @return empty table
+   */
+  AliasDaoImpl newStaging() {
+    return new AliasDaoImpl(log, shards);
+  }
+
+  /**
+   * Serves the rows of a loaded table from now on. The rows are swapped in one write, so a reader
+   * sees either all the old rows or all the new ones, and the old rows are left to the garbage
+   * collector once the calls that read them return. A write that races with the swap may land in
+   * the old rows and be lost. The loaded table must not be used afterwards.
+   *
+   * @param loaded table made by {@link #newStaging}
+   */
+  void replaceWith(AliasDaoImpl loaded) {
+    rows = loaded.rows;
+  }
+
+  /**
+   * Hides a row that has expired but has not been evicted yet. The clock is read only for the
+   * rows that have a time to live.
+   */
+  private static boolean isLive(AliasRecord row) {
+    return row != null && (row.expiresAt() == 0 || !row.isExpired(System.currentTimeMillis()));
+  }
+
+  private static Alias toAlias(String shorten, AliasRecord row) {
+    return row == null ? null : row.toAlias(shorten);
+  }
+
+  /**
+   * Reads the aliases of the index keys of a user. An alias that has been removed and taken by
+   * another user since the keys were read is skipped.
+   */
+  private ArrayList<Alias> resolve(String userName, List<Alias> keys) {
+    ArrayList<Alias> aliases = new ArrayList<>(keys.size());
+    for (Alias key : keys) {
+      Alias alias = get(key.getShorten());
+      if (alias != null && userName.equals(alias.getUsername())) {
+        aliases.add(alias);
+      }
+    }
+    return aliases;
+  }
+
+  private void journal(String shorten, AliasRecord row) {
+    if (row == null) {
+      log.append(getTableName(), Mutation.REMOVE, shorten);
+    } else {
+      Alias alias = row.toAlias(shorten);
+      log.append(getTableName(), Mutation.PUT, shorten, alias.getUrl(), alias.getUsername(),
+          Long.toString(alias.getCreatedAt()), Long.toString(alias.getExpiresAt()));
+    }
+  }
+
+  /**
+   * Rows of the table with the indexes and the interned values that follow them. The listener of
+   * the map keeps the rest up to date and journals every change to the log of the table.
+   */
+  private final class Rows {
+
+    /**
+     * Rows are kept as compact {@link AliasRecord}s keyed by the alias; {@link Alias} objects
+     * are built only for callers.
+     */
+    private final VersionedMap<String, AliasRecord> map = new VersionedMap<>(this::changed);
+
+    private final Interner<String, String> usernames = new Interner<>(Function.identity());
+    private final Interner<String, String> urls = new Interner<>(Function.identity());
+
+    /**
+     * Rows of the aliases that fit into a {@code long}, so the redirect path looks them up
+     * without hashing the string. The index shares the rows of the main table. Longer custom
+     * aliases are read from the main table.
+     */
+    private final ShortAliasIndex shortAliases = new ShortAliasIndex();
+
+    /**
+     * Deadlines of the aliases with a time to live. An expired alias is hidden by the lookups at
+     * once and removed from the table when the wheel reaches it in {@link #evictExpired}.
+     */
+    private final TimingWheel expiry = new TimingWheel(EXPIRY_TICK_MILLIS,
+        System.currentTimeMillis());
+
+    /**
+     * Secondary index: username to the aliases of that user. It is updated from the listener of
+     * the main table, so it follows every add, remove and replay. The listener holds the stripe
+     * lock of the changed alias only; aliases of one user lie in different stripes, so the entry
+     * of the user is changed atomically by {@link ConcurrentHashMap#compute}, not by that lock.
+     * A reader may see the index a moment before or after the table. It holds only the sort keys
+     * of the aliases.
+     */
+    private final ConcurrentHashMap<String, UserAliases> byUser = new ConcurrentHashMap<>();
+
+    private AliasRecord record(Alias alias) {
+      return record(alias.getUrl(), alias.getUsername(), alias.getCreatedAt(),
+          alias.getExpiresAt(), alias.cachedLocation());
+    }
+
+    private AliasRecord record(String url, String username, long createdAt, long expiresAt) {
+      return record(url, username, createdAt, expiresAt, null);
+    }
+
+    private AliasRecord record(String url, String username, long createdAt, long expiresAt,
+        URI location) {
+      return new AliasRecord(urls.canonical(url), usernames.canonical(username), createdAt,
+          expiresAt, location);
+    }
+
+    private void changed(String shorten, AliasRecord oldRow, AliasRecord row) {
+      if (row != null) {
+        urls.retain(row.url());
+        usernames.retain(row.username());
+      }
+      long shortKey = ShortAliasIndex.encode(shorten);
+      if (shortKey != ShortAliasIndex.NONE) {
+        shortAliases.put(shortKey, row);
+      }
+      if (oldRow != null) {
+        urls.release(oldRow.url());
+        usernames.release(oldRow.username());
+        Alias key = new Alias(shorten, null, null, oldRow.createdAt());
+        byUser.computeIfPresent(oldRow.username(), (user, aliases) -> {
+          aliases.remove(key);
+          return aliases.isEmpty() ? null : aliases;
+        });
+      }
+      if (row != null && row.expiresAt() != 0
+          && (oldRow == null || oldRow.expiresAt() != row.expiresAt())) {
+        expiry.schedule(shorten, row.expiresAt());
+      }
+      if (row != null) {
+        Alias key = new Alias(shorten, null, null, row.createdAt());
+        byUser.compute(row.username(), (user, aliases) -> {
+          UserAliases updated = aliases == null ? new UserAliases() : aliases;
+          updated.add(key);
+          return updated;
+        });
+      }
+      journal(shorten, row);
+    }
+  }
+
+  /**
+   * Writes an alias as one snapshot record. The key is not written separately: it is always the
+   * shortened alias itself.
+   */
+  static void writeAlias(SnapshotWriter out, Alias alias) throws IOException {
+    out.writeString(alias.getShorten());
+    out.writeString(alias.getUrl());
+    out.writeString(alias.getUsername());
+    out.writeVarLong(alias.getCreatedAt());
+    out.writeVarLong(alias.getExpiresAt());
+    out.endRecord();
+  }
+
+  static Alias readAlias(SnapshotReader in) throws IOException {
+    String shorten = in.readString();
+    String url = in.readString();
+    String username = in.readString();
+    long createdAt = in.readVarLong();
+    long expiresAt = in.version() >= 2 ? in.readVarLong() : 0;
+    return new Alias(shorten, url, username, createdAt, expiresAt);
+  }
+
+  static Alias readAlias(JsonReader in) throws IOException {
+    String shorten = null;
+    String url = null;
+    String username = null;
+    long createdAt = 0;
+    long expiresAt = 0;
+    in.beginObject();
+    while (in.hasNext()) {
+      switch (in.nextName()) {
+        case "shorten" -> shorten = in.nextString();
+        case "url" -> url = in.nextString();
+        case "username" -> username = in.nextString();
+        case "createdAt" -> createdAt = in.nextLong();
+        case "expiresAt" -> expiresAt = in.nextLong();
+        default -> in.skipValue();
+      }
+    }
+    in.endObject();
+    return new Alias(shorten, url, username, createdAt, expiresAt);
+  }
+
 }
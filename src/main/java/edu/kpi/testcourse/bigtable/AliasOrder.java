@@ -0,0 +1,18 @@
+package edu.kpi.testcourse.bigtable;
+
+/**
+ * Order in which aliases of a user are listed.
+ */
+public enum AliasOrder {
+
+  /**
+   * Oldest aliases first, aliases created at the same millisecond ordered by name.
+   */
+  CREATED,
+
+  /**
+   * Lexicographically by the short name.
+   */
+  ALIAS
+
+}
@@ -0,0 +1,38 @@
+package edu.kpi.testcourse.bigtable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One page of a user's aliases.
+ *
+ * @param aliases aliases of the page, in the requested order
+ * @param next opaque cursor of the next page, or null if this page is the last one
+ */
+public record AliasPage(List<Alias> aliases, String next) {
+
+  /**
+   * Merges pages that were read with the same order, cursor and limit from the parts of the
+   * aliases of a user kept on different nodes, into the page one table would have returned.
+   *
+   * @param pages pages of every part
+   * @param order order the pages were read in
+   * @param limit limit the pages were read with
+   * @return the merged page, with a cursor that is valid for every part
+   */
+  public static AliasPage merge(List<AliasPage> pages, AliasOrder order, int limit) {
+    List<Alias> all = new ArrayList<>();
+    boolean more = false;
+    for (AliasPage page : pages) {
+      all.addAll(page.aliases());
+      more |= page.next() != null;
+    }
+    all.sort(UserAliases.comparator(order));
+    if (all.size() <= limit && !more) {
+      return new AliasPage(all, null);
+    }
+    List<Alias> first = new ArrayList<>(all.subList(0, Math.min(limit, all.size())));
+    return new AliasPage(first,
+        first.isEmpty() ? null : UserAliases.encode(first.get(first.size() - 1)));
+  }
+}
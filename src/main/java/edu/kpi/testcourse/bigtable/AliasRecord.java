@@ -0,0 +1,101 @@
+package edu.kpi.testcourse.bigtable;
+
+import java.net.URI;
+import java.util.Objects;
+
+/**
+ * Compact row of the alias table.
+ *
+ * <p>The alias itself is the key of the row and is not repeated here. The URL and the username
+ * are shared between all rows that hold an equal one (see {@link Interner}). An {@link Alias} is
+ * built from the row only when it is asked for.
+ *
+ * <p>The row does not keep the URL parsed for redirects: a {@link URI} with its parts takes more
+ * heap than the rest of the row. It keeps a flag instead, set once the URL is found valid and in
+ * the canonical form {@link Alias#parseLocation} gives, which is how the API stores every URL.
+ * Such a URL is turned into a {@link URI} by a single pass of {@link URI#create} per redirect,
+ * without the {@link java.net.URL} round trip. Other URLs, only found in rows stored before URLs
+ * were checked, are parsed for every redirect. The flag fits into the alignment padding of the
+ * row and is not part of its value.
+ */
+final class AliasRecord {
+
+  private final String url;
+  private final String username;
+  private final long createdAt;
+  private final long expiresAt;
+  private boolean canonical;
+
+  /**
+   * Creates the row.
+   *
+   * @param location the URL parsed by {@link Alias#parseLocation}, or null if it has not been
+   *     parsed yet
+   */
+  AliasRecord(String url, String username, long createdAt, long expiresAt, URI location) {
+    this.url = url;
+    this.username = username;
+    this.createdAt = createdAt;
+    this.expiresAt = expiresAt;
+    this.canonical = location != null && location.toString().equals(url);
+  }
+
+  String url() {
+    return url;
+  }
+
+  String username() {
+    return username;
+  }
+
+  long createdAt() {
+    return createdAt;
+  }
+
+  long expiresAt() {
+    return expiresAt;
+  }
+
+  boolean isExpired(long now) {
+    return expiresAt != 0 && expiresAt <= now;
+  }
+
+  Alias toAlias(String shorten) {
+    return new Alias(shorten, url, username, createdAt, expiresAt);
+  }
+
+  /**
+   * Builds the alias with its URL parsed. A racing check just stores the same flag.
+   */
+  Alias toParsedAlias(String shorten) {
+    URI location;
+    if (canonical) {
+      location = URI.create(url);
+    } else {
+      location = Alias.parseLocation(url);
+      canonical = location != null && location.toString().equals(url);
+    }
+    return new Alias(shorten, url, username, createdAt, expiresAt, location);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof AliasRecord)) {
+      return false;
+    }
+    AliasRecord that = (AliasRecord) o;
+    return createdAt == that.createdAt
+        && expiresAt == that.expiresAt
+        && Objects.equals(url, that.url)
+        && Objects.equals(username, that.username);
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = 31 * Objects.hashCode(url) + Objects.hashCode(username);
+    return 31 * (31 * hash + Long.hashCode(createdAt)) + Long.hashCode(expiresAt);
+  }
+}
@@ -1,14 +1,37 @@
 package edu.kpi.testcourse.bigtable;
 
 import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.annotation.Value;
 import io.micronaut.context.env.Environment;
 import io.micronaut.discovery.event.ServiceReadyEvent;
 import io.micronaut.runtime.event.annotation.EventListener;
 import io.micronaut.scheduling.annotation.Scheduled;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.slf4j.Logger;
@@ -16,6 +39,15 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Відповідає за дамп і відновлення данних.
+ *
+ * <p>Кожна зміна DAO одразу пишеться у {@link MutationLog}, а дамп є лише чекпоінтом, після
+ * якого старі сегменти журналу можна видалити. Таблиці {@link SelfPersisting} на чекпоінті
+ * лише скидають свої файли на диск.
+ *
+ * <p>Дампи пишуться у {@code bigtable.snapshot.directory}, звідки їх читає і
+ * {@link SnapshotReplica}. На репліці дампів і журналу немає: її дані приходять з дампів
+ * основного вузла. Репліка, що стала лідером, дампить у свою
+ * {@link Replication#promotedDirectory()}.
  */
 @Singleton
 @Requires(notEnv = Environment.TEST)
@@ -26,26 +58,191 @@ public class BigTableManager {
   @Inject
   private List<Serializible> daos;
 
+  @Inject
+  private MutationLog log;
+
+  @Inject
+  private Replication replication;
+
+  @Value("${bigtable.snapshot.format:binary}")
+  private String snapshotFormat;
+
+  @Value("${bigtable.snapshot.compression-level:0}")
+  private int compressionLevel;
+
+  @Value("${bigtable.snapshot.directory:.}")
+  private String snapshotDirectory;
+
+  private volatile boolean restored;
+
   /**
-   * Метод, який за розклад дампить дату у файли.
+   * Метод, який за розклад робить чекпоінт: дампить дату у файли та обрізає журнал. Після
+   * всіх шардів таблиці публікується її {@link SnapshotManifest}. Репліка чекпоінтів не робить,
+   * як і вузол, що не відновив дані: інакше неповні таблиці перезаписали б дампи, а журнал, з
+   * якого їх ще можна відновити, було б обрізано.
    *
    * @throws IOException Якщо раптом не вийде зробити дамп.
    *
    */
-  @Scheduled(fixedRate = "1m", initialDelay = "1m")
+  @Scheduled(fixedRate = "${bigtable.checkpoint-interval:1m}",
+      initialDelay = "${bigtable.checkpoint-interval:1m}")
   public void dumpData() throws IOException {
+    if (!restored || replication.isReplica()) {
+      return;
+    }
     logger.info("Start dump data");
-    for (Serializible dao : daos) {
-      Path path = Path.of(dao.getFileName());
-      String json = dao.toJson();
-      Files.writeString(path, json);
+    long checkpoint = System.currentTimeMillis();
+    long firstKept = log.rotate();
+    SnapshotFormat format = format();
+    Files.createDirectories(directory());
+    Map<Serializible, long[]> checksums = new HashMap<>();
+    ExecutorService writers = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors());
+    try {
+      List<CompletableFuture<Void>> dumps = new ArrayList<>();
+      for (Serializible dao : daos) {
+        if (dao instanceof SelfPersisting) {
+          dumps.add(async(((SelfPersisting) dao)::force, writers));
+          continue;
+        }
+        long[] crcs = new long[dao.getShardCount()];
+        checksums.put(dao, crcs);
+        for (int shard = 0; shard < crcs.length; shard++) {
+          int current = shard;
+          dumps.add(async(() -> crcs[current] = publish(dao, current, format), writers));
+        }
+      }
+      await(dumps);
+    } finally {
+      writers.shutdown();
     }
+    for (Map.Entry<Serializible, long[]> dumped : checksums.entrySet()) {
+      Serializible dao = dumped.getKey();
+      long[] crcs = dumped.getValue();
+      Map<String, Long> files = new LinkedHashMap<>();
+      for (int shard = 0; shard < crcs.length; shard++) {
+        files.put(format.path(dao, shard).getFileName().toString(), crcs[shard]);
+      }
+      new SnapshotManifest(checkpoint, format, files)
+          .write(SnapshotManifest.path(dao, directory()));
+      removeStale(dao, format);
+    }
+    log.truncateBefore(firstKept);
     logger.info("End dump data");
   }
 
   /**
-   * Даний метод запускає відновлення данних з дампу.
-   * Відбувається під час запуску додатку.
+   * Атомарно публікує дамп шарду таблиці: пише у тимчасовий файл, робить fsync і
+   * перейменовує. Шард пишеться з його незмінної версії, тож записи під час дампу не
+   * блокуються. Дамп стискається на льоту, якщо задано рівень стиснення, див.
+   * {@link SnapshotCompression}.
+   *
+   * @param dao таблиця.
+   * @param shard номер шарду.
+   * @param format формат дампу.
+   * @return CRC32 записаного файлу, для {@link SnapshotManifest}.
+   * @throws IOException якщо не вдалося записати файл.
+   */
+  private long publish(Serializible dao, int shard, SnapshotFormat format) throws IOException {
+    Path path = directory().resolve(format.path(dao, shard));
+    Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    CheckedOutputStream checked;
+    try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      checked = new CheckedOutputStream(Channels.newOutputStream(channel), new CRC32());
+      OutputStream out = SnapshotCompression.compress(
+          new BufferedOutputStream(checked, 1 << 16), compressionLevel);
+      format.write(dao, shard, out);
+      SnapshotCompression.finish(out);
+      channel.force(true);
+    }
+    Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    return checked.getChecksum().getValue();
+  }
+
+  /**
+   * Видаляє дампи таблиці, що не були щойно записані: в іншому форматі або з іншою кількістю
+   * шардів. Інакше після зміни конфігурації таблиця відновилась би і зі старих файлів.
+   * Викликається до обрізання журналу, тож поки старі файли ще є, журнал виправляє їх дані.
+   *
+   * @param dao таблиця.
+   * @param format формат щойно записаного дампу.
+   * @throws IOException якщо не вдалося видалити файл.
+   */
+  private void removeStale(Serializible dao, SnapshotFormat format) throws IOException {
+    Set<Path> written = new HashSet<>();
+    for (int shard = 0; shard < dao.getShardCount(); shard++) {
+      written.add(directory().resolve(format.path(dao, shard)).toAbsolutePath());
+    }
+    for (SnapshotFormat other : SnapshotFormat.values()) {
+      for (Path file : other.existing(dao, directory().toAbsolutePath())) {
+        if (!written.contains(file)) {
+          Files.deleteIfExists(file);
+        }
+      }
+    }
+  }
+
+  /**
+   * Запускає читання всіх файлів дампу таблиці: у налаштованому форматі, а якщо їх немає, то
+   * в іншому форматі, що лишився від попередньої конфігурації. Шарди читаються паралельно.
+   * Стиснені дампи розпаковуються на льоту, з будь-яким рівнем стиснення.
+   *
+   * @param dao таблиця.
+   * @param readers пул, на якому читаються файли.
+   * @param decoders пул, на якому розбираються частини дампу.
+   * @param parallelism кількість потоків пулу розбору.
+   * @return читання, що виконуються.
+   * @throws IOException якщо не вдалося переглянути каталог.
+   */
+  private List<CompletableFuture<Void>> restore(Serializible dao, ExecutorService readers,
+      ExecutorService decoders, int parallelism) throws IOException {
+    SnapshotFormat configured = format();
+    List<SnapshotFormat> formats = new ArrayList<>(List.of(SnapshotFormat.values()));
+    formats.remove(configured);
+    formats.add(0, configured);
+    for (SnapshotFormat format : formats) {
+      List<Path> files = format.existing(dao, directory());
+      if (!files.isEmpty()) {
+        List<CompletableFuture<Void>> reads = new ArrayList<>();
+        for (Path file : files) {
+          reads.add(async(() -> {
+            try (InputStream in = SnapshotCompression.decompress(Files.newInputStream(file))) {
+              format.read(dao, in, decoders, parallelism);
+            }
+          }, readers));
+        }
+        return reads;
+      }
+    }
+    logger.info("Restore file {} doesnt exist", directory().resolve(configured.path(dao)));
+    return List.of();
+  }
+
+  private SnapshotFormat format() {
+    return SnapshotFormat.of(snapshotFormat);
+  }
+
+  private Path directory() {
+    Path promoted = replication.promotedDirectory();
+    return promoted != null ? promoted : Path.of(snapshotDirectory);
+  }
+
+  /**
+   * Чи відновлені дані. До того {@link DataReadinessFilter} не пропускає запити.
+   *
+   * @return true, коли дамп і журнал вже застосовані.
+   */
+  public boolean isRestored() {
+    return restored;
+  }
+
+  /**
+   * Даний метод запускає відновлення данних з дампу та хвоста журналу.
+   * Відбувається під час запуску додатку. Таблиці відновлюються паралельно, а двійкові дампи
+   * ще й розбираються блоками на пулі потоків. Журнал застосовується вже після всіх дампів,
+   * по порядку. Після цього запускається {@link Replication}. Репліка не читає ні дампів, ні
+   * журналу, а одразу запускає {@link Replication}, яка завантажує дампи основного вузла.
    *
    * @param event ServiceReadyEvent Івент Мікронавту, що додаток запустився.
    *
@@ -53,15 +250,70 @@ public class BigTableManager {
   @EventListener
   public void restoreData(final ServiceReadyEvent event) {
     logger.info("Restore data from file");
+    long start = System.nanoTime();
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    ExecutorService decoders = new ForkJoinPool(parallelism);
+    ExecutorService readers = Executors.newCachedThreadPool();
     try {
+      if (replication.isReplica()) {
+        replication.start();
+        restored = true;
+        logger.info("Replica skips local dumps and journal");
+        return;
+      }
+      Map<String, Serializible> tables = new HashMap<>();
+      List<CompletableFuture<Void>> restores = new ArrayList<>();
       for (Serializible dao : daos) {
-        Path path = Path.of(dao.getFileName());
-        String json = Files.readString(path);
-        dao.fromJson(json);
+        tables.put(dao.getTableName(), dao);
+        if (!(dao instanceof SelfPersisting)) {
+          restores.addAll(restore(dao, readers, decoders, parallelism));
+        }
+      }
+      await(restores);
+      log.replay(mutation -> {
+        Serializible dao = tables.get(mutation.table());
+        if (dao != null) {
+          dao.apply(mutation);
+        }
+      });
+      log.open();
+      replication.start();
+      restored = true;
+      logger.info("End restore data from file in {} ms",
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    } catch (IOException | CompletionException e) {
+      logger.error("Could not restore data, requests stay refused", e);
+    } finally {
+      readers.shutdown();
+      decoders.shutdown();
+    }
+  }
+
+  private interface IoTask {
+    void run() throws IOException;
+  }
+
+  private static CompletableFuture<Void> async(IoTask task, ExecutorService pool) {
+    return CompletableFuture.runAsync(() -> {
+      try {
+        task.run();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }, pool);
+  }
+
+  /**
+   * Чекає на всі задачі і кидає першу помилку вводу-виводу, якщо вона була.
+   */
+  private static void await(List<CompletableFuture<Void>> tasks) throws IOException {
+    try {
+      CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) e.getCause()).getCause();
       }
-      logger.info("End restore data from file");
-    } catch (IOException e) {
-      logger.info("Restore file doesnt exist");
+      throw e;
     }
   }
 }
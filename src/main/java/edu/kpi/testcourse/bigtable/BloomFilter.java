@@ -0,0 +1,76 @@
+package edu.kpi.testcourse.bigtable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-size bloom filter over string keys.
+ *
+ * <p>Uses about ten bits per expected key and seven probes, which gives roughly one percent of
+ * false positives. The probes are derived from two mixes of the key hash (double hashing).
+ */
+final class BloomFilter {
+
+  private static final int BITS_PER_KEY = 10;
+  private static final int PROBES = 7;
+
+  private final long[] words;
+
+  private BloomFilter(long[] words) {
+    this.words = words;
+  }
+
+  static BloomFilter create(int expectedKeys) {
+    long bits = Math.max(64, (long) expectedKeys * BITS_PER_KEY);
+    return new BloomFilter(new long[(int) Math.min(Integer.MAX_VALUE - 8, (bits + 63) / 64)]);
+  }
+
+  static BloomFilter read(ByteBuffer in) {
+    long[] words = new long[in.getInt()];
+    for (int i = 0; i < words.length; i++) {
+      words[i] = in.getLong();
+    }
+    return new BloomFilter(words);
+  }
+
+  void write(ByteBuffer out) {
+    out.putInt(words.length);
+    for (long word : words) {
+      out.putLong(word);
+    }
+  }
+
+  int serializedSize() {
+    return 4 + words.length * 8;
+  }
+
+  void add(String key) {
+    long bits = (long) words.length * 64;
+    int h1 = mix(key.hashCode());
+    int h2 = mix(h1 ^ 0x5bd1e995) | 1;
+    for (int i = 0; i < PROBES; i++) {
+      long bit = Integer.toUnsignedLong(h1 + i * h2) % bits;
+      words[(int) (bit >>> 6)] |= 1L << bit;
+    }
+  }
+
+  boolean mightContain(String key) {
+    long bits = (long) words.length * 64;
+    int h1 = mix(key.hashCode());
+    int h2 = mix(h1 ^ 0x5bd1e995) | 1;
+    for (int i = 0; i < PROBES; i++) {
+      long bit = Integer.toUnsignedLong(h1 + i * h2) % bits;
+      if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    return h ^ (h >>> 16);
+  }
+}
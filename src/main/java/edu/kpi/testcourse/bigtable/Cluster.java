@@ -0,0 +1,429 @@
+package edu.kpi.testcourse.bigtable;
+
+import edu.kpi.testcourse.Main;
+import io.micronaut.context.annotation.Value;
+import io.micronaut.http.HttpHeaders;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.HttpStatus;
+import io.micronaut.http.MediaType;
+import io.micronaut.http.MutableHttpRequest;
+import io.micronaut.http.MutableHttpResponse;
+import io.micronaut.http.client.DefaultHttpClientConfiguration;
+import io.micronaut.http.client.RxHttpClient;
+import io.micronaut.http.client.exceptions.HttpClientException;
+import io.micronaut.http.client.exceptions.HttpClientResponseException;
+import io.micronaut.http.client.netty.DefaultHttpClient;
+import io.micronaut.http.hateoas.JsonError;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Partitioning of the aliases across the nodes of a cluster.
+ *
+ * <p>Every node is configured with its own base URL ({@code bigtable.cluster.self}) and the base
+ * URLs of all nodes ({@code bigtable.cluster.nodes}, comma-separated). The aliases are spread
+ * over the nodes by a {@link HashRing}; a node keeps only the aliases it owns and forwards
+ * requests about other aliases to their owners with {@link #forward}. Without nodes the cluster
+ * is off and every alias is local.
+ *
+ * <p>When the nodes change ({@link #setNodes}), every node sends the aliases it no longer owns
+ * to their new owners and drops them, streaming them from one walk of its aliases in bounded
+ * batches. Only the aliases of the ranges that moved are sent. Until every node has handed its
+ * aliases over and the change is {@link #settle settled}, a node remembers the ring before the
+ * change: an alias it does not have yet is looked up at its previous owner
+ * ({@link #previousOwnerOf}), and creating or deleting an alias that moved is refused
+ * ({@link #isMoving}), so neither can race the handover.
+ *
+ * <p>The nodes set at runtime, with the ring before an unsettled change, are kept in
+ * {@code bigtable.cluster.state-file} and win over {@code bigtable.cluster.nodes} after a restart;
+ * delete the file to go back to the configuration.
+ *
+ * <p>Nodes talk to each other with {@value #SECRET_HEADER} set to {@code bigtable.cluster.secret}.
+ */
+@Singleton
+public class Cluster implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(Cluster.class);
+
+  /**
+   * Marks a request forwarded by another node. Such a request is served locally whatever the
+   * ring says, so nodes that briefly disagree about the ring never forward in circles.
+   */
+  public static final String HOP_HEADER = "X-Cluster-Hop";
+
+  public static final String SECRET_HEADER = "X-Cluster-Secret";
+
+  private static final int BATCH_SIZE = 1000;
+  private static final String[] RELAYED_HEADERS = {
+      HttpHeaders.CONTENT_TYPE, HttpHeaders.LOCATION, HttpHeaders.RETRY_AFTER, "X-Next-Cursor"
+  };
+
+  private final AliasDao aliases;
+  private final String self;
+  private final int virtualNodes;
+  private final byte[] secret;
+  private final Path stateFile;
+  private final Map<String, RxHttpClient> clients = new ConcurrentHashMap<>();
+  private volatile HashRing ring;
+
+  /** Ring before the last change of the nodes, null once the change is settled. */
+  private volatile HashRing previous;
+
+  /**
+   * Result of handing aliases over to their new owners.
+   *
+   * @param moved number of aliases handed over
+   * @param failures nodes that did not take their aliases, with the reason; those aliases stay
+   *     here and are sent again by the next {@link #setNodes}
+   */
+  public record Handover(int moved, Map<String, String> failures) {
+  }
+
+  /**
+   * Creates the cluster view of this node.
+   *
+   * @param aliases local part of the aliases
+   * @param self base URL of this node, as the other nodes reach it
+   * @param nodes comma-separated base URLs of all nodes, empty when there is no cluster
+   * @param virtualNodes points of every node on the ring
+   * @param secret shared secret of the nodes
+   * @param stateFile file that keeps the nodes set at runtime
+   */
+  @Inject
+  public Cluster(AliasDao aliases,
+      @Value("${bigtable.cluster.self:}") String self,
+      @Value("${bigtable.cluster.nodes:}") String nodes,
+      @Value("${bigtable.cluster.virtual-nodes:128}") int virtualNodes,
+      @Value("${bigtable.cluster.secret:}") String secret,
+      @Value("${bigtable.cluster.state-file:cluster-nodes.txt}") String stateFile) {
+    this.aliases = aliases;
+    this.self = self;
+    this.virtualNodes = virtualNodes;
+    this.secret = secret.getBytes(StandardCharsets.UTF_8);
+    this.stateFile = Path.of(stateFile);
+    this.ring = new HashRing(split(nodes), virtualNodes);
+    loadState();
+    if (isEnabled() && this.secret.length == 0) {
+      throw new IllegalStateException("bigtable.cluster.secret is required in a cluster");
+    }
+  }
+
+  public boolean isEnabled() {
+    return !ring.nodes().isEmpty();
+  }
+
+  public String self() {
+    return self;
+  }
+
+  public List<String> nodes() {
+    return ring.nodes();
+  }
+
+  /**
+   * Finds the node that owns the alias.
+   *
+   * @param alias short name of the alias
+   * @return base URL of the owner, this node if the cluster is off
+   */
+  public String ownerOf(String alias) {
+    String owner = ring.owner(alias);
+    return owner == null ? self : owner;
+  }
+
+  public boolean isLocal(String alias) {
+    return ownerOf(alias).equals(self);
+  }
+
+  /**
+   * Finds the node that owned the alias before the last change of the nodes, while the aliases
+   * of that change may still be on their way.
+   *
+   * @param alias short name of the alias
+   * @return base URL of the previous owner, or null if the change is settled or the alias has
+   *     not moved
+   */
+  public String previousOwnerOf(String alias) {
+    HashRing before = previous;
+    if (before == null) {
+      return null;
+    }
+    String owner = before.owner(alias);
+    return owner == null || owner.equals(ownerOf(alias)) ? null : owner;
+  }
+
+  /**
+   * Whether every node has handed its aliases over since the last change of the nodes.
+   *
+   * @return false while the ring before the change is kept
+   */
+  public boolean isSettled() {
+    return previous == null;
+  }
+
+  /**
+   * Whether the alias belongs to a range that changed owner in a change that is not settled yet,
+   * so it may still be on its way to its new owner.
+   *
+   * @param alias short name of the alias
+   * @return true until the change is settled, if the alias has moved
+   */
+  public boolean isMoving(String alias) {
+    return previousOwnerOf(alias) != null;
+  }
+
+  /**
+   * Checks the secret another node has sent.
+   *
+   * @param sent value of {@value #SECRET_HEADER}, may be null
+   * @return true if the secret is configured and matches
+   */
+  public boolean isTrusted(String sent) {
+    return secret.length > 0 && sent != null
+        && MessageDigest.isEqual(secret, sent.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Whether the request was forwarded by another node of the cluster.
+   *
+   * @param request incoming request
+   * @return true if it carries the hop mark and the secret of the cluster
+   */
+  public boolean isForwarded(HttpRequest<?> request) {
+    return request.getHeaders().get(HOP_HEADER) != null
+        && isTrusted(request.getHeaders().get(SECRET_HEADER));
+  }
+
+  /**
+   * Sends the request to another node on behalf of the client, with the same method, path and
+   * credentials, and relays the answer back.
+   *
+   * @param node base URL of the node
+   * @param request request of the client
+   * @param body JSON body to send, or null
+   * @return the answer of the node, or 502 if it could not be reached
+   */
+  public Publisher<MutableHttpResponse<?>> forward(String node, HttpRequest<?> request,
+      String body) {
+    MutableHttpRequest<String> forwarded = HttpRequest.create(request.getMethod(),
+        request.getUri().toString());
+    forwarded.header(HOP_HEADER, self);
+    forwarded.header(SECRET_HEADER, new String(secret, StandardCharsets.UTF_8));
+    String authorization = request.getHeaders().get(HttpHeaders.AUTHORIZATION);
+    if (authorization != null) {
+      forwarded.header(HttpHeaders.AUTHORIZATION, authorization);
+    }
+    if (body != null) {
+      forwarded.contentType(MediaType.APPLICATION_JSON_TYPE).body(body);
+    }
+    return client(node).exchange(forwarded, String.class)
+        .map(Cluster::relay)
+        .onErrorReturn(e -> e instanceof HttpClientResponseException
+            ? relay(((HttpClientResponseException) e).getResponse())
+            : HttpResponse.status(HttpStatus.BAD_GATEWAY)
+                .body(new JsonError("Node " + node + " is unavailable")));
+  }
+
+  /**
+   * Sends a request to another node and waits for the answer.
+   *
+   * @param node base URL of the node
+   * @param request request to send
+   * @return body of the answer
+   * @throws HttpClientResponseException if the node answered with an error
+   */
+  public String exchange(String node, MutableHttpRequest<?> request) {
+    request.header(SECRET_HEADER, new String(secret, StandardCharsets.UTF_8));
+    return client(node).toBlocking().exchange(request, String.class).body();
+  }
+
+  /**
+   * Switches to a new set of nodes and hands the aliases this node no longer owns over to their
+   * new owners. The aliases are walked once with {@link AliasDao#scan()} and sent as they come,
+   * in batches of {@value #BATCH_SIZE} per owner, so at most one batch per node is held at a
+   * time. An alias is dropped here only after its owner has stored it. A node that cannot be
+   * reached does not stop the others; its aliases stay here.
+   *
+   * <p>The ring before the change is kept until {@link #settle()}. If an earlier change is not
+   * settled yet, its ring is kept instead, since some aliases may still wait there.
+   *
+   * @param nodes base URLs of all nodes
+   * @return aliases handed over and the nodes that did not take theirs
+   */
+  public synchronized Handover setNodes(List<String> nodes) {
+    if (previous == null) {
+      previous = ring;
+    }
+    ring = new HashRing(nodes, virtualNodes);
+    saveState();
+    Map<String, List<Alias>> batches = new HashMap<>();
+    Map<String, String> failures = new TreeMap<>();
+    int count = 0;
+    for (Iterator<Alias> it = aliases.scan(); it.hasNext(); ) {
+      Alias alias = it.next();
+      String owner = ownerOf(alias.getShorten());
+      if (owner.equals(self) || failures.containsKey(owner)) {
+        continue;
+      }
+      List<Alias> batch = batches.computeIfAbsent(owner, node -> new ArrayList<>(BATCH_SIZE));
+      batch.add(alias);
+      if (batch.size() == BATCH_SIZE) {
+        count += handOver(owner, batch, failures);
+      }
+    }
+    for (Map.Entry<String, List<Alias>> batch : batches.entrySet()) {
+      if (!batch.getValue().isEmpty() && !failures.containsKey(batch.getKey())) {
+        count += handOver(batch.getKey(), batch.getValue(), failures);
+      }
+    }
+    logger.info("Cluster is now {}, handed {} aliases over", ring.nodes(), count);
+    return new Handover(count, failures);
+  }
+
+  /**
+   * Sends a batch to its new owner and drops the aliases here once it has stored them. The batch
+   * is emptied for the next aliases either way; a node that failed gets no more batches.
+   *
+   * @return number of aliases handed over
+   */
+  private int handOver(String node, List<Alias> batch, Map<String, String> failures) {
+    int sent = 0;
+    try {
+      exchange(node, HttpRequest.POST("/cluster/aliases", Main.getGson().toJson(batch))
+          .contentType(MediaType.APPLICATION_JSON_TYPE));
+      for (Alias alias : batch) {
+        aliases.remove(alias.getShorten());
+      }
+      sent = batch.size();
+    } catch (HttpClientException e) {
+      logger.warn("Could not hand aliases over to {}: {}", node, e.getMessage());
+      failures.put(node, e.getMessage());
+    }
+    batch.clear();
+    return sent;
+  }
+
+  /**
+   * Forgets the ring before the last change, once every node has handed its aliases over.
+   */
+  public synchronized void settle() {
+    if (previous != null) {
+      previous = null;
+      saveState();
+      logger.info("Cluster change to {} is settled", ring.nodes());
+    }
+  }
+
+  @PreDestroy
+  @Override
+  public void close() {
+    clients.values().forEach(RxHttpClient::close);
+    clients.clear();
+  }
+
+  private RxHttpClient client(String node) {
+    return clients.computeIfAbsent(node, url -> {
+      DefaultHttpClientConfiguration configuration = new DefaultHttpClientConfiguration();
+      configuration.setFollowRedirects(false);
+      try {
+        return new DefaultHttpClient(new URL(url), configuration);
+      } catch (MalformedURLException e) {
+        throw new IllegalArgumentException("Bad node URL " + url, e);
+      }
+    });
+  }
+
+  /**
+   * Reads the nodes set at runtime: a line {@code nodes=} with the current nodes and, while a
+   * change is not settled, a line {@code previous=} with the nodes before it.
+   */
+  private void loadState() {
+    if (!Files.exists(stateFile)) {
+      return;
+    }
+    try {
+      for (String line : Files.readAllLines(stateFile, StandardCharsets.UTF_8)) {
+        int equals = line.indexOf('=');
+        if (equals < 0) {
+          continue;
+        }
+        HashRing read = new HashRing(split(line.substring(equals + 1)), virtualNodes);
+        switch (line.substring(0, equals).trim()) {
+          case "nodes" -> ring = read;
+          case "previous" -> previous = read;
+          default -> logger.warn("Unknown line in {}: {}", stateFile, line);
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not read cluster state " + stateFile, e);
+    }
+    logger.info("Cluster nodes {} restored from {}", ring.nodes(), stateFile);
+  }
+
+  /**
+   * Replaces the state file atomically, so a crash leaves either the old or the new nodes.
+   */
+  private void saveState() {
+    StringBuilder lines = new StringBuilder("nodes=")
+        .append(String.join(",", ring.nodes())).append('\n');
+    if (previous != null) {
+      lines.append("previous=").append(String.join(",", previous.nodes())).append('\n');
+    }
+    Path tmp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+    try {
+      Files.writeString(tmp, lines, StandardCharsets.UTF_8);
+      try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+        channel.force(true);
+      }
+      Files.move(tmp, stateFile, StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not save cluster state " + stateFile, e);
+    }
+  }
+
+  private static MutableHttpResponse<?> relay(HttpResponse<?> response) {
+    MutableHttpResponse<String> relayed = HttpResponse.status(response.getStatus());
+    for (String name : RELAYED_HEADERS) {
+      String value = response.getHeaders().get(name);
+      if (value != null) {
+        relayed.header(name, value);
+      }
+    }
+    response.getBody(String.class).ifPresent(relayed::body);
+    return relayed;
+  }
+
+  private static List<String> split(String nodes) {
+    return Arrays.stream(nodes.split(","))
+        .map(String::trim)
+        .filter(node -> !node.isEmpty())
+        .collect(Collectors.toList());
+  }
+}
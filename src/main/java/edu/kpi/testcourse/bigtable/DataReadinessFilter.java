@@ -0,0 +1,48 @@
+package edu.kpi.testcourse.bigtable;
+
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.env.Environment;
+import io.micronaut.core.async.publisher.Publishers;
+import io.micronaut.http.HttpHeaders;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.HttpStatus;
+import io.micronaut.http.MutableHttpResponse;
+import io.micronaut.http.annotation.Filter;
+import io.micronaut.http.filter.OncePerRequestHttpServerFilter;
+import io.micronaut.http.filter.ServerFilterChain;
+import io.micronaut.http.filter.ServerFilterPhase;
+import io.micronaut.http.hateoas.JsonError;
+import javax.inject.Inject;
+import org.reactivestreams.Publisher;
+
+/**
+ * Refuses requests with 503 until {@link BigTableManager} has restored the data, so clients
+ * never see missing aliases or users just because the server has started before the restore.
+ */
+@Filter(Filter.MATCH_ALL_PATTERN)
+@Requires(notEnv = Environment.TEST)
+public class DataReadinessFilter extends OncePerRequestHttpServerFilter {
+
+  private static final String RETRY_AFTER_SECONDS = "1";
+
+  @Inject
+  private BigTableManager manager;
+
+  @Override
+  public int getOrder() {
+    return ServerFilterPhase.FIRST.order();
+  }
+
+  @Override
+  protected Publisher<MutableHttpResponse<?>> doFilterOnce(HttpRequest<?> request,
+      ServerFilterChain chain) {
+    if (!manager.isRestored()) {
+      return Publishers.just(HttpResponse.status(HttpStatus.SERVICE_UNAVAILABLE)
+          .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+          .body(new JsonError("Data is being restored")));
+    }
+    return chain.proceed(request);
+  }
+
+}
@@ -0,0 +1,158 @@
+package edu.kpi.testcourse.bigtable;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Open-addressing map from {@link TokenDigest}s to a {@code long} time, in primitive arrays.
+ *
+ * <p>Every entry takes three {@code long}s and no object, whatever the length of the token it
+ * stands for. {@link #get} neither locks nor allocates: it reads the published table with linear
+ * probing. Writers are serialized by the monitor of the set. A removed digest stays in its slot
+ * with no time as a tombstone, so concurrent readers never see entries move; tombstones are
+ * dropped when the table is rebuilt. Zero is never a valid time, and a zero {@code hi} marks an
+ * empty slot, which {@link TokenDigest} never has.
+ */
+final class DigestSet {
+
+  static final long NONE = 0;
+
+  private static final int MIN_CAPACITY = 16;
+
+  private volatile Table table = new Table(MIN_CAPACITY);
+  private int size;
+
+  /**
+   * Looks the digest up.
+   *
+   * @param hi {@link TokenDigest#hi()}
+   * @param lo {@link TokenDigest#lo()}
+   * @return time bound to the digest, or {@link #NONE}
+   */
+  long get(long hi, long lo) {
+    Table current = table;
+    int mask = current.times.length() - 1;
+    for (int i = slot(lo, mask); ; i = (i + 1) & mask) {
+      long foundHi = current.keys.get(2 * i);
+      if (foundHi == 0) {
+        return NONE;
+      }
+      if (foundHi == hi && current.keys.get(2 * i + 1) == lo) {
+        return current.times.get(i);
+      }
+    }
+  }
+
+  /**
+   * Binds the time to the digest, or removes the digest if the time is {@link #NONE}.
+   *
+   * @param hi {@link TokenDigest#hi()}
+   * @param lo {@link TokenDigest#lo()}
+   * @param time time or {@link #NONE}
+   * @return time bound before, or {@link #NONE}
+   * @throws IllegalArgumentException if {@code hi} is zero
+   */
+  synchronized long put(long hi, long lo, long time) {
+    if (hi == 0) {
+      throw new IllegalArgumentException("Digest with zero hi");
+    }
+    Table current = table;
+    int mask = current.times.length() - 1;
+    int i = slot(lo, mask);
+    for (long foundHi = current.keys.get(2 * i); foundHi != 0; foundHi = current.keys.get(2 * i)) {
+      if (foundHi == hi && current.keys.get(2 * i + 1) == lo) {
+        long old = current.times.getAndSet(i, time);
+        size += (time == NONE ? 0 : 1) - (old == NONE ? 0 : 1);
+        return old;
+      }
+      i = (i + 1) & mask;
+    }
+    if (time == NONE) {
+      return NONE;
+    }
+    current.times.set(i, time);
+    current.keys.set(2 * i + 1, lo);
+    current.keys.set(2 * i, hi);
+    size++;
+    if (++current.used > current.times.length() * 3 / 4) {
+      table = rebuild(current, size);
+    }
+    return NONE;
+  }
+
+  synchronized void clear() {
+    table = new Table(MIN_CAPACITY);
+    size = 0;
+  }
+
+  synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Copies the entries out.
+   *
+   * @return {@code [hi, lo, time]} of every entry, one after another
+   */
+  synchronized long[] snapshot() {
+    Table current = table;
+    long[] entries = new long[3 * size];
+    int n = 0;
+    for (int i = 0; i < current.times.length(); i++) {
+      long time = current.times.get(i);
+      if (time != NONE) {
+        entries[n++] = current.keys.get(2 * i);
+        entries[n++] = current.keys.get(2 * i + 1);
+        entries[n++] = time;
+      }
+    }
+    return entries;
+  }
+
+  private static Table rebuild(Table old, int size) {
+    int capacity = MIN_CAPACITY;
+    while (capacity * 3 / 4 < size * 2) {
+      capacity <<= 1;
+    }
+    Table rebuilt = new Table(capacity);
+    int mask = capacity - 1;
+    for (int j = 0; j < old.times.length(); j++) {
+      long time = old.times.get(j);
+      if (time != NONE) {
+        long hi = old.keys.get(2 * j);
+        long lo = old.keys.get(2 * j + 1);
+        int i = slot(lo, mask);
+        while (rebuilt.keys.get(2 * i) != 0) {
+          i = (i + 1) & mask;
+        }
+        rebuilt.times.set(i, time);
+        rebuilt.keys.set(2 * i + 1, lo);
+        rebuilt.keys.set(2 * i, hi);
+        rebuilt.used++;
+      }
+    }
+    return rebuilt;
+  }
+
+  /**
+   * The digest is already uniformly distributed, so its low bits are the slot.
+   */
+  private static int slot(long lo, int mask) {
+    return (int) lo & mask;
+  }
+
+  /**
+   * Arrays of one size. The first half of a key is published last, so a reader that sees it sees
+   * the rest of the key and the time too.
+   */
+  private static final class Table {
+
+    final AtomicLongArray keys;
+    final AtomicLongArray times;
+    int used;
+
+    Table(int capacity) {
+      this.keys = new AtomicLongArray(2 * capacity);
+      this.times = new AtomicLongArray(capacity);
+    }
+  }
+}
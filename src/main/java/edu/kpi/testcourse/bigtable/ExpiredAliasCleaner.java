@@ -0,0 +1,34 @@
+package edu.kpi.testcourse.bigtable;
+
+import io.micronaut.scheduling.annotation.Scheduled;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Scheduler to remove aliases whose time to live has run out.
+ *
+ * <p>Every run only turns the timing wheel of the alias table up to the current time, so it
+ * costs nothing while no alias expires and never scans the table.
+ */
+@Singleton
+public class ExpiredAliasCleaner {
+
+  private static final Logger logger = LoggerFactory.getLogger(ExpiredAliasCleaner.class);
+
+  @Inject
+  private AliasDao aliasDao;
+
+  /**
+   * Removes the aliases that have expired by now.
+   */
+  @Scheduled(fixedDelay = "${bigtable.alias.expiry-interval:1s}",
+      initialDelay = "${bigtable.alias.expiry-interval:1s}")
+  public void removeExpiredAliases() {
+    int evicted = aliasDao.evictExpired(System.currentTimeMillis());
+    if (evicted > 0) {
+      logger.debug("Removed {} expired aliases", evicted);
+    }
+  }
+}
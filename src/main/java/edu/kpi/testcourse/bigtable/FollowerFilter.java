@@ -0,0 +1,62 @@
+package edu.kpi.testcourse.bigtable;
+
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.env.Environment;
+import io.micronaut.core.async.publisher.Publishers;
+import io.micronaut.http.HttpHeaders;
+import io.micronaut.http.HttpMethod;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.HttpStatus;
+import io.micronaut.http.MutableHttpResponse;
+import io.micronaut.http.annotation.Filter;
+import io.micronaut.http.filter.OncePerRequestHttpServerFilter;
+import io.micronaut.http.filter.ServerFilterChain;
+import io.micronaut.http.filter.ServerFilterPhase;
+import io.micronaut.http.hateoas.JsonError;
+import javax.inject.Inject;
+import org.reactivestreams.Publisher;
+
+/**
+ * Lets a follower or a replica (see {@link Replication}) serve redirects only. Anything else may
+ * write to the tables (even {@code GET /signout} does), and such writes would never reach the
+ * leader and would be lost on the next sync. Redirects are refused too while the follower
+ * reloads the tables of its leader. Replication endpoints are always let through, so a follower
+ * can be promoted.
+ */
+@Filter(Filter.MATCH_ALL_PATTERN)
+@Requires(notEnv = Environment.TEST)
+public class FollowerFilter extends OncePerRequestHttpServerFilter {
+
+  private static final String RETRY_AFTER_SECONDS = "1";
+  private static final String REPLICATION_PATH = "/replication/";
+  private static final String REDIRECT_PATH = "/r/";
+
+  @Inject
+  private Replication replication;
+
+  @Override
+  public int getOrder() {
+    return ServerFilterPhase.FIRST.after();
+  }
+
+  @Override
+  protected Publisher<MutableHttpResponse<?>> doFilterOnce(HttpRequest<?> request,
+      ServerFilterChain chain) {
+    if (!replication.isFollower() || request.getPath().startsWith(REPLICATION_PATH)) {
+      return chain.proceed(request);
+    }
+    if (!replication.isServing()) {
+      return Publishers.just(HttpResponse.status(HttpStatus.SERVICE_UNAVAILABLE)
+          .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+          .body(new JsonError("Follower is syncing with its leader")));
+    }
+    if (!request.getPath().startsWith(REDIRECT_PATH)
+        || request.getMethod() != HttpMethod.GET && request.getMethod() != HttpMethod.HEAD) {
+      return Publishers.just(HttpResponse.status(HttpStatus.SERVICE_UNAVAILABLE)
+          .body(new JsonError("This node is a read-only follower, use the leader")));
+    }
+    return chain.proceed(request);
+  }
+
+}
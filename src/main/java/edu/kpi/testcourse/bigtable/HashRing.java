@@ -0,0 +1,87 @@
+package edu.kpi.testcourse.bigtable;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Consistent-hash ring that assigns keys to nodes.
+ *
+ * <p>Every node owns {@code virtualNodes} points of a 64-bit ring, and a key belongs to the node
+ * of the first point at or after the hash of the key. When a node joins or leaves, only the keys
+ * between its points and the points before them change their owner. Rings built from the same
+ * nodes are equal on every node, whatever the order the nodes are listed in.
+ *
+ * <p>Immutable.
+ */
+final class HashRing {
+
+  private final List<String> nodes;
+  private final long[] points;
+  private final String[] owners;
+
+  /**
+   * Builds a ring.
+   *
+   * @param nodes nodes of the ring, duplicates are ignored
+   * @param virtualNodes number of points of every node
+   */
+  HashRing(Collection<String> nodes, int virtualNodes) {
+    this.nodes = List.copyOf(new TreeSet<>(nodes));
+    TreeMap<Long, String> ring = new TreeMap<>();
+    for (String node : this.nodes) {
+      for (int i = 0; i < virtualNodes; i++) {
+        ring.putIfAbsent(hash(node + '#' + i), node);
+      }
+    }
+    this.points = new long[ring.size()];
+    this.owners = new String[ring.size()];
+    int i = 0;
+    for (Map.Entry<Long, String> point : ring.entrySet()) {
+      points[i] = point.getKey();
+      owners[i] = point.getValue();
+      i++;
+    }
+  }
+
+  List<String> nodes() {
+    return nodes;
+  }
+
+  /**
+   * Finds the owner of a key.
+   *
+   * @param key key
+   * @return the owning node, or null if the ring is empty
+   */
+  String owner(String key) {
+    if (points.length == 0) {
+      return null;
+    }
+    int i = Arrays.binarySearch(points, hash(key));
+    if (i < 0) {
+      i = -i - 1;
+    }
+    return owners[i == points.length ? 0 : i];
+  }
+
+  /**
+   * 64-bit FNV-1a of the characters with a final avalanche, so that similar keys land far from
+   * each other. Unlike {@link String#hashCode()} it spreads over the whole ring.
+   */
+  static long hash(String key) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < key.length(); i++) {
+      hash ^= key.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    return hash ^ hash >>> 33;
+  }
+}
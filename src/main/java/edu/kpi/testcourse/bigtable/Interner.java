@@ -0,0 +1,81 @@
+package edu.kpi.testcourse.bigtable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Pool of shared copies of equal values, so a table keeps one copy of a username or of a URL no
+ * matter how many rows hold it.
+ *
+ * <p>Values are reference counted: {@link #retain} and {@link #release} are called when a row
+ * starts and stops holding a value, and a value is dropped from the pool with its last row.
+ * {@link #canonical} only looks the shared copy up, so a row that is built but never stored does
+ * not leak into the pool.
+ *
+ * @param <V> type of values
+ * @param <K> type of lookup keys, with equality by content
+ */
+final class Interner<V, K> {
+
+  private final Function<V, K> key;
+  private final ConcurrentHashMap<K, Shared<V>> values = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a pool.
+   *
+   * @param key maps a value to a key that is equal for equal values
+   */
+  Interner(Function<V, K> key) {
+    this.key = key;
+  }
+
+  /**
+   * Returns the shared copy equal to the value, or the value itself if there is none yet.
+   *
+   * @param value value, may be null
+   * @return shared copy or the value
+   */
+  V canonical(V value) {
+    if (value == null) {
+      return null;
+    }
+    Shared<V> shared = values.get(key.apply(value));
+    return shared == null ? value : shared.value;
+  }
+
+  void retain(V value) {
+    if (value != null) {
+      values.compute(key.apply(value), (k, shared) -> {
+        if (shared == null) {
+          return new Shared<>(value);
+        }
+        shared.count++;
+        return shared;
+      });
+    }
+  }
+
+  void release(V value) {
+    if (value != null) {
+      values.computeIfPresent(key.apply(value), (k, shared) -> --shared.count == 0 ? null : shared);
+    }
+  }
+
+  void clear() {
+    values.clear();
+  }
+
+  int size() {
+    return values.size();
+  }
+
+  private static final class Shared<V> {
+
+    final V value;
+    int count = 1;
+
+    Shared(V value) {
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,557 @@
+package edu.kpi.testcourse.bigtable;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.annotation.Value;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.StreamSupport;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Alias table on top of {@link LsmStore}, so the aliases do not have to fit in the heap.
+ *
+ * <p>The key is the alias and the value is {@code [createdAt][url][username]}, followed by
+ * {@code [expiresAt]} for an alias with a time to live. Conditional
+ * operations are made atomic per key with striped locks around the read and the write. Every
+ * change is journaled, and a checkpoint flushes the memtable to a segment, after which the
+ * journal up to it is no longer needed.
+ *
+ * <p>The per-user and expiry indexes live in the same store, as key ranges below every alias:
+ * {@code \0a<user>\0<alias>} lists the aliases of a user by name,
+ * {@code \0c<user>\0<createdAt><alias>} by creation time, and
+ * {@code \0e<expiresAt><alias>} the aliases with a time to live by expiry. Times are written as
+ * fixed-width hex, so the keys sort by them. Index keys are written under the lock of their alias
+ * together with it, are not journaled themselves and are flushed with the aliases, so opening the
+ * table reads nothing but the segment indexes. An alias can therefore not start with
+ * {@code \0}.
+ *
+ * <p>Enabled with {@code bigtable.alias-storage: lsm}.
+ */
+@Singleton
+@Requires(property = "bigtable.alias-storage", value = "lsm")
+class LsmAliasDaoImpl implements AliasDao, SelfPersisting, Closeable {
+
+  private static final int STRIPES = 64;
+
+  private static final String BY_ALIAS = "\0a";
+  private static final String BY_CREATED = "\0c";
+  private static final String EXPIRING = "\0e";
+  private static final String INDEXED = "\0v";
+  private static final String FIRST_ALIAS = "\1";
+  private static final int TIME_LENGTH = 16;
+  private static final byte[] PRESENT = {1};
+
+  private final LsmStore lsm;
+  private final MutationLog log;
+  private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+  @Inject
+  LsmAliasDaoImpl(
+      @Value("${bigtable.lsm.directory:lsm}") String directory,
+      @Value("${bigtable.lsm.memtable-bytes:4194304}") long memtableBytes,
+      MutationLog log
+  ) {
+    for (int i = 0; i < STRIPES; i++) {
+      locks[i] = new ReentrantLock();
+    }
+    this.log = log;
+    try {
+      this.lsm = new LsmStore(Path.of(directory), memtableBytes);
+      if (lsm.get(INDEXED) == null) {
+        buildIndexes();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not open alias storage in " + directory, e);
+    }
+  }
+
+  @Override
+  public void add(String shorten, Alias alias) {
+    locked(shorten, () -> {
+      Alias old = stored(shorten);
+      if (!alias.equals(old)) {
+        store(shorten, old, alias);
+      }
+      return null;
+    });
+  }
+
+  @Override
+  public Alias putIfAbsent(String shorten, Alias alias) {
+    return locked(shorten, () -> {
+      Alias old = stored(shorten);
+      if (old == null || old.isExpired(System.currentTimeMillis())) {
+        store(shorten, old, alias);
+        return null;
+      }
+      return old;
+    });
+  }
+
+  @Override
+  public Alias get(String shorten) {
+    Alias alias = stored(shorten);
+    return alias == null || alias.isExpired(System.currentTimeMillis()) ? null : alias;
+  }
+
+  @Override
+  public Map<String, Alias> getAll() {
+    Map<String, Alias> all = new HashMap<>();
+    for (Iterator<Alias> it = scan(); it.hasNext(); ) {
+      Alias alias = it.next();
+      all.put(alias.getShorten(), alias);
+    }
+    return Collections.unmodifiableMap(all);
+  }
+
+  /**
+   * Merges the memtables and segments lazily, like {@link LsmStore#forEach}, skipping the index
+   * keys.
+   */
+  @Override
+  public Iterator<Alias> scan() {
+    long now = System.currentTimeMillis();
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+            lsm.iterator(FIRST_ALIAS, null), Spliterator.ORDERED), false)
+        .map(entry -> decode(entry.getKey(), entry.getValue()))
+        .filter(alias -> !alias.isExpired(now))
+        .iterator();
+  }
+
+  /**
+   * Walks the expiry range up to the time, so only the due aliases are read.
+   */
+  @Override
+  public int evictExpired(long now) {
+    int evicted = 0;
+    Iterator<Map.Entry<String, byte[]>> due = lsm.iterator(EXPIRING,
+        EXPIRING + sortable(now + 1));
+    while (due.hasNext()) {
+      String key = due.next().getKey();
+      String shorten = key.substring(EXPIRING.length() + TIME_LENGTH);
+      boolean removed = locked(shorten, () -> {
+        Alias old = stored(shorten);
+        if (old == null || !key.equals(expiryKey(old))) {
+          lsm.remove(key);
+          return false;
+        }
+        if (!old.isExpired(now)) {
+          return false;
+        }
+        store(shorten, old, null);
+        return true;
+      });
+      if (removed) {
+        evicted++;
+      }
+    }
+    return evicted;
+  }
+
+  @Override
+  public ArrayList<Alias> getAllByUser(String userName) {
+    ArrayList<Alias> aliases = new ArrayList<>();
+    Iterator<Alias> byCreated = byUser(userName, AliasOrder.CREATED, null);
+    while (byCreated.hasNext()) {
+      aliases.add(byCreated.next());
+    }
+    return aliases;
+  }
+
+  /**
+   * Walks the creation-time range of the user, oldest first.
+   */
+  @Override
+  public Iterator<Alias> scanByUser(String userName) {
+    return byUser(userName, AliasOrder.CREATED, null);
+  }
+
+  /**
+   * Seeks to the cursor in the index range of the order and reads one alias past the page, so
+   * a page costs a seek and the page itself.
+   */
+  @Override
+  public AliasPage getPageByUser(String userName, AliasOrder order, String cursor, int limit) {
+    Alias after = cursor == null ? null : UserAliases.decode(cursor);
+    Iterator<Alias> aliases = byUser(userName, order, after);
+    List<Alias> page = new ArrayList<>(Math.min(limit, 256));
+    while (page.size() < limit && aliases.hasNext()) {
+      page.add(aliases.next());
+    }
+    if (page.isEmpty() || !aliases.hasNext()) {
+      return new AliasPage(page, null);
+    }
+    return new AliasPage(page, UserAliases.encode(page.get(page.size() - 1)));
+  }
+
+  @Override
+  public void remove(String alias) {
+    locked(alias, () -> {
+      Alias old = stored(alias);
+      if (old != null) {
+        store(alias, old, null);
+      }
+      return null;
+    });
+  }
+
+  @Override
+  public int removeAllOwnedBy(Collection<String> aliases, String userName) {
+    return removeAll(aliases, alias -> alias.getUsername().equals(userName));
+  }
+
+  @Override
+  public int removeAllCreatedBefore(String userName, long createdBefore) {
+    String prefix = BY_CREATED + userName + "\0";
+    List<String> shortens = new ArrayList<>();
+    Iterator<Map.Entry<String, byte[]>> keys = lsm.iterator(prefix,
+        prefix + sortable(createdBefore));
+    while (keys.hasNext()) {
+      shortens.add(keys.next().getKey().substring(prefix.length() + TIME_LENGTH));
+    }
+    return removeAll(shortens, alias ->
+        alias.getUsername().equals(userName) && alias.getCreatedAt() < createdBefore);
+  }
+  /**
+   * Removes the aliases that match the condition holding the locks of all of them at once,
+   * taken in ascending order so that two batches cannot deadlock.
+   */
+  private int removeAll(Collection<String> shortens, Predicate<Alias> condition) {
+    BitSet held = new BitSet(locks.length);
+    for (String shorten : shortens) {
+      held.set(lockIndex(shorten));
+    }
+    for (int i = held.nextSetBit(0); i >= 0; i = held.nextSetBit(i + 1)) {
+      locks[i].lock();
+    }
+    try {
+      int removed = 0;
+      for (String shorten : shortens) {
+        Alias old = get(shorten);
+        if (old != null && condition.test(old)) {
+          store(shorten, old, null);
+          removed++;
+        }
+      }
+      return removed;
+    } finally {
+      for (int i = held.nextSetBit(0); i >= 0; i = held.nextSetBit(i + 1)) {
+        locks[i].unlock();
+      }
+    }
+  }
+
+  @Override
+  public boolean removeIfOwnedBy(String alias, String userName) {
+    return locked(alias, () -> {
+      Alias old = get(alias);
+      if (old == null || !old.getUsername().equals(userName)) {
+        return false;
+      }
+      store(alias, old, null);
+      return true;
+    });
+  }
+
+  @Override
+  public boolean replace(String shorten, Alias expected, Alias alias) {
+    return locked(shorten, () -> {
+      Alias old = get(shorten);
+      if (old == null || !old.equals(expected)) {
+        return false;
+      }
+      store(shorten, old, alias);
+      return true;
+    });
+  }
+
+  @Override
+  public void writeJson(JsonWriter out) throws IOException {
+    out.beginObject();
+    for (Iterator<Alias> it = scan(); it.hasNext(); ) {
+      Alias alias = it.next();
+      out.name(alias.getShorten()).beginObject()
+          .name("shorten").value(alias.getShorten())
+          .name("url").value(alias.getUrl())
+          .name("username").value(alias.getUsername());
+      if (alias.getCreatedAt() != 0) {
+        out.name("createdAt").value(alias.getCreatedAt());
+      }
+      if (alias.getExpiresAt() != 0) {
+        out.name("expiresAt").value(alias.getExpiresAt());
+      }
+      out.endObject();
+    }
+    out.endObject();
+    out.flush();
+  }
+
+  @Override
+  public void readJson(JsonReader in) throws IOException {
+    in.beginObject();
+    while (in.hasNext()) {
+      String shorten = in.nextName();
+      add(shorten, AliasDaoImpl.readAlias(in));
+    }
+    in.endObject();
+  }
+
+  @Override
+  public void writeBinary(SnapshotWriter out) throws IOException {
+    Iterator<Map.Entry<String, byte[]>> entries = lsm.iterator(FIRST_ALIAS, null);
+    while (entries.hasNext()) {
+      Map.Entry<String, byte[]> entry = entries.next();
+      AliasDaoImpl.writeAlias(out, decode(entry.getKey(), entry.getValue()));
+    }
+    out.finish();
+  }
+
+  @Override
+  public void readBinary(SnapshotReader in) throws IOException {
+    while (in.nextRecord()) {
+      Alias alias = AliasDaoImpl.readAlias(in);
+      add(alias.getShorten(), alias);
+    }
+  }
+
+  /**
+   * Drops the segments for good, see {@link LsmStore#clear}. Journaled as
+   * {@link Mutation#CLEAR}, so that replaying older mutations does not bring the aliases back.
+   */
+  @Override
+  public void clear() {
+    reset();
+    log.append(getTableName(), Mutation.CLEAR);
+  }
+
+  /**
+   * Name of a JSON export of the table, which must not be taken for a dump of
+   * {@link AliasDaoImpl} in the same directory.
+   */
+  @Override
+  public String getFileName() {
+    return "alias-lsm.json";
+  }
+
+  @Override
+  public String getTableName() {
+    return "alias";
+  }
+
+  @Override
+  public void apply(Mutation mutation) {
+    if (mutation.op() == Mutation.CLEAR) {
+      reset();
+      return;
+    }
+    String shorten = mutation.fields()[0];
+    if (mutation.op() == Mutation.PUT) {
+      String[] fields = mutation.fields();
+      long createdAt = fields.length > 3 ? Long.parseLong(fields[3]) : 0;
+      long expiresAt = fields.length > 4 ? Long.parseLong(fields[4]) : 0;
+      add(shorten, new Alias(shorten, fields[1], fields[2], createdAt, expiresAt));
+    } else if (mutation.op() == Mutation.REMOVE) {
+      remove(shorten);
+    }
+  }
+
+  @Override
+  public void force() throws IOException {
+    lsm.flush();
+  }
+
+  @PreDestroy
+  @Override
+  public void close() throws IOException {
+    lsm.close();
+  }
+
+  private <T> T locked(String shorten, Supplier<T> action) {
+    ReentrantLock lock = locks[lockIndex(shorten)];
+    lock.lock();
+    try {
+      return action.get();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static int lockIndex(String shorten) {
+    return (shorten.hashCode() * 0x9E3779B9) >>> 26;
+  }
+
+  private void store(String shorten, Alias old, Alias alias) {
+    if (alias == null) {
+      lsm.remove(shorten);
+      log.append(getTableName(), Mutation.REMOVE, shorten);
+    } else {
+      if (shorten.isEmpty() || shorten.charAt(0) == '\0') {
+        throw new IllegalArgumentException("Alias can not start with \\0");
+      }
+      lsm.put(shorten, encode(alias));
+      log.append(getTableName(), Mutation.PUT, shorten, alias.getUrl(), alias.getUsername(),
+          Long.toString(alias.getCreatedAt()), Long.toString(alias.getExpiresAt()));
+    }
+    List<String> before = indexKeys(old);
+    List<String> after = indexKeys(alias);
+    for (String key : before) {
+      if (!after.contains(key)) {
+        lsm.remove(key);
+      }
+    }
+    for (String key : after) {
+      if (!before.contains(key)) {
+        lsm.put(key, PRESENT);
+      }
+    }
+  }
+
+  private void reset() {
+    try {
+      lsm.clear();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    lsm.put(INDEXED, PRESENT);
+  }
+
+  /**
+   * Writes the index keys of a store that has none yet, which is the only time opening the
+   * table reads all aliases.
+   */
+  private void buildIndexes() throws IOException {
+    Iterator<Map.Entry<String, byte[]>> entries = lsm.iterator(FIRST_ALIAS, null);
+    while (entries.hasNext()) {
+      Map.Entry<String, byte[]> entry = entries.next();
+      for (String key : indexKeys(decode(entry.getKey(), entry.getValue()))) {
+        lsm.put(key, PRESENT);
+      }
+    }
+    lsm.put(INDEXED, PRESENT);
+    lsm.flush();
+  }
+
+  /**
+   * Reads the stored value of a key, even if the alias has expired.
+   */
+  private Alias stored(String shorten) {
+    byte[] value = lsm.get(shorten);
+    return value == null ? null : decode(shorten, value);
+  }
+
+  /**
+   * Walks the index range of a user in the order, from after the cursor alias, and reads the
+   * aliases lazily. An index key whose alias has expired, or has been removed and taken by
+   * another user since the key was read, is skipped.
+   */
+  private Iterator<Alias> byUser(String userName, AliasOrder order, Alias after) {
+    String prefix = (order == AliasOrder.ALIAS ? BY_ALIAS : BY_CREATED) + userName + "\0";
+    String from = after == null ? prefix : prefix + indexSuffix(order, after) + "\0";
+    int skip = prefix.length() + (order == AliasOrder.ALIAS ? 0 : TIME_LENGTH);
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+            lsm.iterator(from, prefix.substring(0, prefix.length() - 1) + "\1"),
+            Spliterator.ORDERED), false)
+        .map(entry -> get(entry.getKey().substring(skip)))
+        .filter(alias -> alias != null && userName.equals(alias.getUsername()))
+        .iterator();
+  }
+
+  private static String indexSuffix(AliasOrder order, Alias alias) {
+    return order == AliasOrder.ALIAS ? alias.getShorten()
+        : sortable(alias.getCreatedAt()) + alias.getShorten();
+  }
+
+  private static List<String> indexKeys(Alias alias) {
+    if (alias == null) {
+      return List.of();
+    }
+    String user = alias.getUsername() + "\0";
+    String byAlias = BY_ALIAS + user + indexSuffix(AliasOrder.ALIAS, alias);
+    String byCreated = BY_CREATED + user + indexSuffix(AliasOrder.CREATED, alias);
+    return alias.getExpiresAt() == 0 ? List.of(byAlias, byCreated)
+        : List.of(byAlias, byCreated, expiryKey(alias));
+  }
+
+  private static String expiryKey(Alias alias) {
+    return EXPIRING + sortable(alias.getExpiresAt()) + alias.getShorten();
+  }
+
+  /**
+   * Writes the time as fixed-width hex with the sign bit flipped, so the strings sort like the
+   * numbers.
+   */
+  private static String sortable(long time) {
+    String hex = Long.toHexString(time ^ Long.MIN_VALUE);
+    return "0".repeat(TIME_LENGTH - hex.length()) + hex;
+  }
+
+  private static byte[] encode(Alias alias) {
+    byte[] url = bytes(alias.getUrl());
+    byte[] username = bytes(alias.getUsername());
+    long expiresAt = alias.getExpiresAt();
+    ByteBuffer out = ByteBuffer.allocate(8 + 8 + length(url) + length(username)
+        + (expiresAt == 0 ? 0 : 8));
+    out.putLong(alias.getCreatedAt());
+    putBytes(out, url);
+    putBytes(out, username);
+    if (expiresAt != 0) {
+      out.putLong(expiresAt);
+    }
+    return out.array();
+  }
+
+  private static Alias decode(String shorten, byte[] value) {
+    ByteBuffer in = ByteBuffer.wrap(value);
+    long createdAt = in.getLong();
+    String url = getString(in);
+    String username = getString(in);
+    long expiresAt = in.remaining() >= 8 ? in.getLong() : 0;
+    return new Alias(shorten, url, username, createdAt, expiresAt);
+  }
+
+  private static byte[] bytes(String value) {
+    return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static int length(byte[] value) {
+    return value == null ? 0 : value.length;
+  }
+
+  private static void putBytes(ByteBuffer out, byte[] value) {
+    out.putInt(value == null ? -1 : value.length);
+    if (value != null) {
+      out.put(value);
+    }
+  }
+
+  private static String getString(ByteBuffer in) {
+    int length = in.getInt();
+    if (length < 0) {
+      return null;
+    }
+    String value = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+    in.position(in.position() + length);
+    return value;
+  }
+}
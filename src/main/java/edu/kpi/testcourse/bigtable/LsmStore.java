@@ -0,0 +1,505 @@
+package edu.kpi.testcourse.bigtable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Log-structured merge store of string keys and binary values.
+ *
+ * <p>Writes go to a concurrent sorted memtable. When it grows over the limit it is frozen and a
+ * background thread writes it out as a {@link SortedSegment}; writers switch to a fresh memtable
+ * at once and never wait for the disk. A lookup checks the memtable, then the frozen ones, then
+ * the segments from the newest to the oldest, and the first answer wins. Removal writes a
+ * tombstone that hides older values.
+ *
+ * <p>After every flush the same thread runs size-tiered compaction: a run of at least
+ * {@value #COMPACTION_THRESHOLD} adjacent segments of similar size is merged into one. Tombstones
+ * are dropped only when the run reaches the oldest segment, because only then nothing older can
+ * be left for them to hide.
+ *
+ * <p>The list of live segments is kept in a manifest that is replaced atomically, so a crash
+ * during a flush or compaction leaves either the old or the new set of segments. The memtable is
+ * not persisted by itself: the owner either journals its writes or calls {@link #flush()}.
+ */
+final class LsmStore implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(LsmStore.class);
+
+  private static final String MANIFEST = "MANIFEST";
+  private static final int COMPACTION_THRESHOLD = 4;
+  private static final long ENTRY_OVERHEAD = 64;
+
+  private final Path directory;
+  private final long memtableBytes;
+  private final ExecutorService background;
+  private final ReentrantReadWriteLock switchLock = new ReentrantReadWriteLock();
+  private final AtomicLong nextId = new AtomicLong(1);
+
+  private volatile State state;
+
+  LsmStore(Path directory, long memtableBytes) throws IOException {
+    this.directory = directory;
+    this.memtableBytes = memtableBytes;
+    Files.createDirectories(directory);
+    this.state = new State(new Memtable(), List.of(), openSegments());
+    this.background = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "lsm-" + directory.getFileName());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Looks the key up.
+   *
+   * @param key key
+   * @return the latest value, or null if the key is absent or removed
+   */
+  byte[] get(String key) {
+    State current = state;
+    byte[] value = current.active.entries.get(key);
+    for (int i = 0; value == null && i < current.frozen.size(); i++) {
+      value = current.frozen.get(i).entries.get(key);
+    }
+    for (int i = 0; value == null && i < current.segments.size(); i++) {
+      value = current.segments.get(i).get(key);
+    }
+    return value == SortedSegment.TOMBSTONE ? null : value;
+  }
+
+  void put(String key, byte[] value) {
+    write(key, value);
+  }
+
+  void remove(String key) {
+    write(key, SortedSegment.TOMBSTONE);
+  }
+
+  /**
+   * Visits all live entries in ascending key order. The visit sees a consistent set of
+   * memtables and segments, but writes made during it may or may not be visible.
+   *
+   * @param action receives every key and its value
+   */
+  void forEach(BiConsumer<String, byte[]> action) {
+    Iterator<Map.Entry<String, byte[]>> entries = iterator();
+    while (entries.hasNext()) {
+      Map.Entry<String, byte[]> entry = entries.next();
+      action.accept(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Iterates over all live entries in ascending key order, with the same view as
+   * {@link #forEach}. Entries are read as the iterator advances.
+   *
+   * @return iterator over keys and their values
+   */
+  Iterator<Map.Entry<String, byte[]>> iterator() {
+    return iterator(null, null);
+  }
+
+  /**
+   * Iterates over the live entries of a key range in ascending key order, with the same view as
+   * {@link #forEach}. Every segment is entered at the index interval of the lower bound, so a
+   * narrow range costs a seek per segment rather than a scan.
+   *
+   * @param from lowest key, inclusive, or null to start at the first key
+   * @param to highest key, exclusive, or null to go to the last key
+   * @return iterator over keys and their values
+   */
+  Iterator<Map.Entry<String, byte[]>> iterator(String from, String to) {
+    State current = state;
+    List<Iterator<Map.Entry<String, byte[]>>> sources = new ArrayList<>();
+    sources.add(range(current.active.entries, from, to).entrySet().iterator());
+    for (Memtable memtable : current.frozen) {
+      sources.add(range(memtable.entries, from, to).entrySet().iterator());
+    }
+    for (SortedSegment segment : current.segments) {
+      sources.add(segment.iterator(from, to));
+    }
+    return new MergeIterator(sources, true);
+  }
+
+  /**
+   * Writes the current memtable out to a segment and waits until it is on disk, together with
+   * all memtables frozen earlier.
+   *
+   * @throws IOException if a segment could not be written
+   */
+  void flush() throws IOException {
+    Memtable frozen = freeze(null);
+    await(background.submit(() -> {
+      flushFrozen(frozen);
+      return null;
+    }), "Could not flush memtable");
+  }
+
+  /**
+   * Drops all entries at once: the memtables are discarded and the segments are removed from the
+   * manifest and deleted. Runs on the background thread, so it never races a flush or a
+   * compaction.
+   *
+   * @throws IOException if the manifest could not be written
+   */
+  void clear() throws IOException {
+    await(background.submit(() -> {
+      List<SortedSegment> dropped = state.segments;
+      writeManifest(List.of());
+      switchLock.writeLock().lock();
+      try {
+        state = new State(new Memtable(), List.of(), List.of());
+      } finally {
+        switchLock.writeLock().unlock();
+      }
+      for (SortedSegment segment : dropped) {
+        Files.deleteIfExists(segmentPath(segment.id()));
+      }
+      return null;
+    }), "Could not clear " + directory);
+  }
+
+  int segmentCount() {
+    return state.segments.size();
+  }
+
+  @Override
+  public void close() throws IOException {
+    flush();
+    background.shutdown();
+    try {
+      background.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void await(Future<?> done, String failure) throws IOException {
+    try {
+      done.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted: " + failure, e);
+    } catch (ExecutionException e) {
+      throw new IOException(failure, e.getCause());
+    }
+  }
+
+  private void write(String key, byte[] value) {
+    Memtable active;
+    long size;
+    switchLock.readLock().lock();
+    try {
+      active = state.active;
+      active.entries.put(key, value);
+      size = active.bytes.addAndGet(2L * key.length() + value.length + ENTRY_OVERHEAD);
+    } finally {
+      switchLock.readLock().unlock();
+    }
+    if (size >= memtableBytes) {
+      Memtable frozen = freeze(active);
+      if (frozen != null) {
+        background.execute(() -> {
+          try {
+            flushFrozen(frozen);
+          } catch (IOException e) {
+            logger.error("Could not flush memtable to {}", directory, e);
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * Swaps in a fresh memtable.
+   *
+   * @param expected memtable to freeze, or null to freeze whatever is active
+   * @return the frozen memtable, or null if another writer has already frozen it or it is empty
+   */
+  private Memtable freeze(Memtable expected) {
+    switchLock.writeLock().lock();
+    try {
+      State current = state;
+      if (expected != null && current.active != expected || current.active.entries.isEmpty()) {
+        return null;
+      }
+      List<Memtable> frozen = new ArrayList<>(current.frozen.size() + 1);
+      frozen.add(current.active);
+      frozen.addAll(current.frozen);
+      state = new State(new Memtable(), frozen, current.segments);
+      return current.active;
+    } finally {
+      switchLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Runs on the background thread: writes out the oldest frozen memtables up to the given one.
+   */
+  private void flushFrozen(Memtable target) throws IOException {
+    while (true) {
+      List<Memtable> frozen = state.frozen;
+      if (frozen.isEmpty() || target != null && !frozen.contains(target)) {
+        break;
+      }
+      Memtable oldest = frozen.get(frozen.size() - 1);
+      long id = nextId.getAndIncrement();
+      SortedSegment segment = SortedSegment.write(id, segmentPath(id),
+          oldest.entries.entrySet().iterator(), oldest.entries.size());
+      List<SortedSegment> segments = new ArrayList<>(state.segments.size() + 1);
+      segments.add(segment);
+      segments.addAll(state.segments);
+      writeManifest(segments);
+      switchLock.writeLock().lock();
+      try {
+        State current = state;
+        List<Memtable> left = new ArrayList<>(current.frozen);
+        left.remove(oldest);
+        state = new State(current.active, left, segments);
+      } finally {
+        switchLock.writeLock().unlock();
+      }
+      if (oldest == target) {
+        break;
+      }
+    }
+    compact();
+  }
+
+  /**
+   * Runs on the background thread: merges runs of similar segments while there are any.
+   */
+  private void compact() throws IOException {
+    for (int[] run = pickRun(state.segments); run != null; run = pickRun(state.segments)) {
+      List<SortedSegment> segments = state.segments;
+      List<SortedSegment> inputs = segments.subList(run[0], run[1]);
+      boolean dropTombstones = run[1] == segments.size();
+      List<Iterator<Map.Entry<String, byte[]>>> sources = new ArrayList<>();
+      int expected = 0;
+      for (SortedSegment input : inputs) {
+        sources.add(input.iterator());
+        expected += input.count();
+      }
+      long id = nextId.getAndIncrement();
+      SortedSegment output = SortedSegment.write(id, segmentPath(id),
+          new MergeIterator(sources, dropTombstones), expected);
+
+      List<SortedSegment> updated = new ArrayList<>(segments.subList(0, run[0]));
+      updated.add(output);
+      updated.addAll(segments.subList(run[1], segments.size()));
+      writeManifest(updated);
+      switchLock.writeLock().lock();
+      try {
+        State current = state;
+        state = new State(current.active, current.frozen, updated);
+      } finally {
+        switchLock.writeLock().unlock();
+      }
+      for (SortedSegment input : inputs) {
+        Files.deleteIfExists(segmentPath(input.id()));
+      }
+      logger.debug("Compacted {} segments into {}", inputs.size(), segmentPath(id));
+    }
+  }
+
+  /**
+   * Finds a run of adjacent segments whose sizes stay within half and one and a half of the
+   * average size of the run. Segments that are already too big to be merged further are never
+   * picked.
+   *
+   * @return {@code [from, to)} indexes of the run, or null if there is none
+   */
+  private static int[] pickRun(List<SortedSegment> segments) {
+    for (int from = 0; from < segments.size(); from++) {
+      long total = 0;
+      int to = from;
+      while (to < segments.size()) {
+        long size = segments.get(to).sizeInBytes();
+        long average = to == from ? size : total / (to - from);
+        if (total + size > SortedSegment.MAX_BYTES / 2
+            || size < average / 2 || size > average * 3 / 2) {
+          break;
+        }
+        total += size;
+        to++;
+      }
+      if (to - from >= COMPACTION_THRESHOLD) {
+        return new int[] {from, to};
+      }
+    }
+    return null;
+  }
+
+  private static ConcurrentNavigableMap<String, byte[]> range(
+      ConcurrentSkipListMap<String, byte[]> entries, String from, String to) {
+    if (from == null) {
+      return to == null ? entries : entries.headMap(to);
+    }
+    return to == null ? entries.tailMap(from) : entries.subMap(from, to);
+  }
+
+  private List<SortedSegment> openSegments() throws IOException {
+    Path manifest = directory.resolve(MANIFEST);
+    List<SortedSegment> segments = new ArrayList<>();
+    List<Long> ids = new ArrayList<>();
+    if (Files.exists(manifest)) {
+      for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+        if (!line.isBlank()) {
+          long id = Long.parseLong(line.trim());
+          ids.add(id);
+          segments.add(SortedSegment.open(id, segmentPath(id)));
+        }
+      }
+    }
+    long maxId = ids.stream().mapToLong(Long::longValue).max().orElse(0);
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        String name = file.getFileName().toString();
+        if (name.endsWith(".tmp")) {
+          Files.delete(file);
+        } else if (name.startsWith("seg-") && name.endsWith(".sst")) {
+          long id = Long.parseLong(name.substring(4, name.length() - 4));
+          maxId = Math.max(maxId, id);
+          if (!ids.contains(id)) {
+            Files.delete(file);
+          }
+        }
+      }
+    }
+    nextId.set(maxId + 1);
+    return Collections.unmodifiableList(segments);
+  }
+
+  private void writeManifest(List<SortedSegment> segments) throws IOException {
+    StringBuilder lines = new StringBuilder();
+    for (SortedSegment segment : segments) {
+      lines.append(segment.id()).append('\n');
+    }
+    Path manifest = directory.resolve(MANIFEST);
+    Path tmp = directory.resolve(MANIFEST + ".tmp");
+    Files.writeString(tmp, lines, StandardCharsets.UTF_8);
+    try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+      channel.force(true);
+    }
+    Files.move(tmp, manifest, StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private Path segmentPath(long id) {
+    return directory.resolve(String.format("seg-%012d.sst", id));
+  }
+
+  private static final class Memtable {
+
+    final ConcurrentSkipListMap<String, byte[]> entries = new ConcurrentSkipListMap<>();
+    final AtomicLong bytes = new AtomicLong();
+  }
+
+  /**
+   * Memtables and segments visible together; frozen memtables and segments go from the newest
+   * to the oldest.
+   */
+  private record State(Memtable active, List<Memtable> frozen, List<SortedSegment> segments) {
+  }
+
+  /**
+   * Merges sorted sources given from the newest to the oldest. For every key only the entry of
+   * the newest source that has it is returned.
+   */
+  private static final class MergeIterator implements Iterator<Map.Entry<String, byte[]>> {
+
+    private final PriorityQueue<Cursor> queue = new PriorityQueue<>();
+    private final boolean dropTombstones;
+    private Map.Entry<String, byte[]> next;
+
+    MergeIterator(List<Iterator<Map.Entry<String, byte[]>>> sources, boolean dropTombstones) {
+      this.dropTombstones = dropTombstones;
+      for (int i = 0; i < sources.size(); i++) {
+        Cursor cursor = new Cursor(sources.get(i), i);
+        if (cursor.advance()) {
+          queue.add(cursor);
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (next == null && !queue.isEmpty()) {
+        Cursor newest = queue.poll();
+        Map.Entry<String, byte[]> entry = newest.current;
+        while (!queue.isEmpty() && queue.peek().current.getKey().equals(entry.getKey())) {
+          Cursor older = queue.poll();
+          if (older.advance()) {
+            queue.add(older);
+          }
+        }
+        if (newest.advance()) {
+          queue.add(newest);
+        }
+        if (!dropTombstones || entry.getValue() != SortedSegment.TOMBSTONE) {
+          next = entry;
+        }
+      }
+      return next != null;
+    }
+
+    @Override
+    public Map.Entry<String, byte[]> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Map.Entry<String, byte[]> entry = next;
+      next = null;
+      return entry;
+    }
+  }
+
+  private static final class Cursor implements Comparable<Cursor> {
+
+    private final Iterator<Map.Entry<String, byte[]>> source;
+    private final int age;
+    private Map.Entry<String, byte[]> current;
+
+    Cursor(Iterator<Map.Entry<String, byte[]>> source, int age) {
+      this.source = source;
+      this.age = age;
+    }
+
+    boolean advance() {
+      current = source.hasNext() ? source.next() : null;
+      return current != null;
+    }
+
+    @Override
+    public int compareTo(Cursor other) {
+      int cmp = current.getKey().compareTo(other.current.getKey());
+      return cmp != 0 ? cmp : Integer.compare(age, other.age);
+    }
+  }
+}
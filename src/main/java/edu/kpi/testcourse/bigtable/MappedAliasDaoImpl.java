@@ -0,0 +1,1005 @@
+package edu.kpi.testcourse.bigtable;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.annotation.Value;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Alias table that lives in memory-mapped files instead of the Java heap.
+ *
+ * <p>{@code aliases.dat} is an append-only sequence of records
+ * {@code [length][state][createdAt][previous of user][previous of expiry tick][shorten][url]
+ * [username]}, followed by {@code [expiresAt]} for an alias with a time to live and by the CRC32
+ * of the record without its state byte, mapped in fixed-size chunks. Three {@link MappedIndex}
+ * files point into the records:
+ * <ul>
+ *   <li>{@code aliases.idx} from a short name to its live record. {@link #get} probes it and
+ *   decodes the record straight from the mapping;</li>
+ *   <li>{@code aliases.usr} from a username to the last record written for the user. Every
+ *   record links to the one written for the user before it, so the aliases of a user are found
+ *   by walking that chain;</li>
+ *   <li>{@code aliases.exp} from a second to the last record that expires in it, chained the
+ *   same way, so expired aliases are found without a scan.</li>
+ * </ul>
+ * A removed alias is marked dead in place and its index slot becomes a tombstone; the space of
+ * dead records is not reclaimed, and the chains walk past them.
+ *
+ * <p>The files are the table itself, so there is no dump: a checkpoint only forces the mappings
+ * to disk. Mutations are still journaled, and replaying them on top of the files is idempotent.
+ * Nothing but the lock lives on the heap, whatever the number of aliases.
+ *
+ * <p>A clean shutdown marks the data file after forcing all files, and an open that finds the
+ * mark takes the files as they are, without reading the records. Otherwise the open checks every
+ * record: a crash may leave the last records torn, since the pages of a mapping reach the disk
+ * in any order. The first record that is cut short or fails its checksum is dropped with
+ * everything after it, like a torn record of the {@link MutationLog}. Such records were written
+ * after the last checkpoint, so the log replays them. The indexes are then rebuilt from the
+ * records. Files of older versions are rewritten once on open.
+ *
+ * <p>Enabled with {@code bigtable.alias-storage: mapped}.
+ */
+@Singleton
+@Requires(property = "bigtable.alias-storage", value = "mapped")
+class MappedAliasDaoImpl implements AliasDao, SelfPersisting, Closeable {
+
+  static final long CHUNK_SIZE = 64L << 20;
+
+  private static final Logger logger = LoggerFactory.getLogger(MappedAliasDaoImpl.class);
+
+  private static final int LEGACY_DATA_MAGIC = 0x414c4431;
+  private static final int UNLINKED_DATA_MAGIC = 0x414c4432;
+  private static final int DATA_MAGIC = 0x414c4433;
+  private static final int INDEX_MAGIC = 0x414c4932;
+  private static final int USER_MAGIC = 0x414c5531;
+  private static final int EXPIRY_MAGIC = 0x414c4531;
+  private static final int DATA_HEADER = 16;
+  private static final int CLEAN_MARK = 4;
+  private static final int CHECKSUM = 4;
+  private static final int USER_LINK = 13;
+  private static final int EXPIRY_LINK = 21;
+  private static final long EMPTY = MappedIndex.EMPTY;
+  private static final byte CLEAN = 1;
+  private static final byte DEAD = 0;
+  private static final byte LIVE = 1;
+
+  private final Path dataPath;
+  private final MappedIndex aliases;
+  private final MappedIndex users;
+  private final MappedIndex expiring;
+  private final MutationLog log;
+
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private final List<MappedByteBuffer> chunks = new ArrayList<>();
+
+  private int version = 3;
+  private FileChannel dataChannel;
+  private long end;
+  private long generation;
+
+  @Inject
+  MappedAliasDaoImpl(
+      @Value("${bigtable.mapped.directory:data}") String directory,
+      MutationLog log
+  ) {
+    this.dataPath = Path.of(directory, "aliases.dat");
+    this.aliases = new MappedIndex(Path.of(directory, "aliases.idx"), INDEX_MAGIC);
+    this.users = new MappedIndex(Path.of(directory, "aliases.usr"), USER_MAGIC);
+    this.expiring = new MappedIndex(Path.of(directory, "aliases.exp"), EXPIRY_MAGIC);
+    this.log = log;
+    try {
+      Files.createDirectories(dataPath.getParent());
+      if (Files.exists(legacyPath())) {
+        logger.warn("Resuming the interrupted upgrade of {}", dataPath);
+        Files.move(legacyPath(), dataPath, StandardCopyOption.REPLACE_EXISTING);
+      }
+      open();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not open alias storage in " + directory, e);
+    }
+  }
+
+  @Override
+  public void add(String shorten, Alias alias) {
+    write(() -> {
+      Alias old = read(shorten);
+      if (!alias.equals(old)) {
+        store(shorten, alias);
+      }
+      return null;
+    });
+  }
+
+  @Override
+  public Alias putIfAbsent(String shorten, Alias alias) {
+    return write(() -> {
+      Alias old = read(shorten);
+      if (old == null || old.isExpired(System.currentTimeMillis())) {
+        store(shorten, alias);
+        return null;
+      }
+      return old;
+    });
+  }
+
+  @Override
+  public Alias get(String shorten) {
+    Alias alias;
+    lock.readLock().lock();
+    try {
+      alias = read(shorten);
+    } finally {
+      lock.readLock().unlock();
+    }
+    return alias == null || alias.isExpired(System.currentTimeMillis()) ? null : alias;
+  }
+
+  @Override
+  public Map<String, Alias> getAll() {
+    Map<String, Alias> all = new HashMap<>();
+    for (Iterator<Alias> it = scan(); it.hasNext(); ) {
+      Alias alias = it.next();
+      all.put(alias.getShorten(), alias);
+    }
+    return Collections.unmodifiableMap(all);
+  }
+
+  /**
+   * Removes the expired aliases, walking the chain of every second up to the current one. A
+   * second that has fully passed is then dropped from {@code aliases.exp}; the current one is
+   * kept for the aliases that expire later in it.
+   */
+  @Override
+  public int evictExpired(long now) {
+    long current = tick(now);
+    List<Long> due = new ArrayList<>();
+    lock.readLock().lock();
+    try {
+      expiring.forEach(offset -> {
+        long tick = tick(expiresAtOf(offset));
+        if (tick <= current) {
+          due.add(tick);
+        }
+      });
+    } finally {
+      lock.readLock().unlock();
+    }
+    int evicted = 0;
+    for (long tick : due) {
+      evicted += write(() -> {
+        List<String> expired = new ArrayList<>();
+        for (long at = expiring.get(tickHash(tick), sameTick(tick)); at != EMPTY;
+            at = link(at, EXPIRY_LINK)) {
+          if (isLive(at) && expiresAtOf(at) <= now) {
+            expired.add(decode(at).getShorten());
+          }
+        }
+        for (String shorten : expired) {
+          store(shorten, null);
+        }
+        if (tick < current) {
+          expiring.remove(tickHash(tick), sameTick(tick));
+        }
+        return expired.size();
+      });
+    }
+    return evicted;
+  }
+
+  /**
+   * Walks the records lazily, taking the read lock for one record at a time, so neither the
+   * table is copied nor writers are held up. Only the records written before the call are
+   * visited, and each one if it is still live when it is reached: an alias changed or removed
+   * meanwhile is skipped, and one added meanwhile is not seen. The walk stops if the table is
+   * cleared.
+   */
+  @Override
+  public Iterator<Alias> scan() {
+    long limit;
+    long started;
+    lock.readLock().lock();
+    try {
+      limit = end;
+      started = generation;
+    } finally {
+      lock.readLock().unlock();
+    }
+    return new Iterator<>() {
+      private long position = DATA_HEADER;
+      private Alias next;
+
+      @Override
+      public boolean hasNext() {
+        if (next == null) {
+          next = advance();
+        }
+        return next != null;
+      }
+
+      @Override
+      public Alias next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        Alias alias = next;
+        next = null;
+        return alias;
+      }
+
+      private Alias advance() {
+        long now = System.currentTimeMillis();
+        lock.readLock().lock();
+        try {
+          while (generation == started && position < limit) {
+            long at = position;
+            int length = lengthAt(at);
+            if (length == 0) {
+              position = (at / CHUNK_SIZE + 1) * CHUNK_SIZE;
+              continue;
+            }
+            position += length;
+            if (isLive(at)) {
+              Alias alias = decode(at);
+              if (!alias.isExpired(now)) {
+                return alias;
+              }
+            }
+          }
+          return null;
+        } finally {
+          lock.readLock().unlock();
+        }
+      }
+    };
+  }
+
+  /**
+   * Walks the chain of the user, so it costs as much as the user has ever written, and keeps
+   * only the aliases of this one user in memory.
+   */
+  @Override
+  public ArrayList<Alias> getAllByUser(String userName) {
+    List<Alias> owned = ownedBy(userName);
+    owned.sort(UserAliases.comparator(AliasOrder.CREATED));
+    return new ArrayList<>(owned);
+  }
+
+  /**
+   * Follows the chain of the user from its newest record, taking the read lock for one step at
+   * a time. The walk stops if the table is cleared.
+   */
+  @Override
+  public Iterator<Alias> scanByUser(String userName) {
+    byte[] username = userName.getBytes(StandardCharsets.UTF_8);
+    long head;
+    long started;
+    lock.readLock().lock();
+    try {
+      head = users.get(hash(username), sameUser(username));
+      started = generation;
+    } finally {
+      lock.readLock().unlock();
+    }
+    return new Iterator<>() {
+      private long at = head;
+      private Alias next;
+
+      @Override
+      public boolean hasNext() {
+        if (next == null) {
+          next = advance();
+        }
+        return next != null;
+      }
+
+      @Override
+      public Alias next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        Alias alias = next;
+        next = null;
+        return alias;
+      }
+
+      private Alias advance() {
+        long now = System.currentTimeMillis();
+        lock.readLock().lock();
+        try {
+          while (generation == started && at != EMPTY) {
+            long current = at;
+            at = link(current, USER_LINK);
+            if (isLive(current)) {
+              Alias alias = decode(current);
+              if (!alias.isExpired(now)) {
+                return alias;
+              }
+            }
+          }
+          return null;
+        } finally {
+          lock.readLock().unlock();
+        }
+      }
+    };
+  }
+
+  @Override
+  public AliasPage getPageByUser(String userName, AliasOrder order, String cursor, int limit) {
+    return UserAliases.page(ownedBy(userName), order, cursor, limit);
+  }
+
+  @Override
+  public void remove(String alias) {
+    write(() -> {
+      if (read(alias) != null) {
+        store(alias, null);
+      }
+      return null;
+    });
+  }
+
+  @Override
+  public int removeAllOwnedBy(Collection<String> aliases, String userName) {
+    return removeAll(aliases, alias -> alias.getUsername().equals(userName));
+  }
+
+  @Override
+  public int removeAllCreatedBefore(String userName, long createdBefore) {
+    List<String> shortens = new ArrayList<>();
+    for (Alias alias : ownedBy(userName)) {
+      if (alias.getCreatedAt() < createdBefore) {
+        shortens.add(alias.getShorten());
+      }
+    }
+    return removeAll(shortens, alias ->
+        alias.getUsername().equals(userName) && alias.getCreatedAt() < createdBefore);
+  }
+
+  /**
+   * Removes the aliases that match the condition under one hold of the write lock.
+   */
+  private int removeAll(Collection<String> shortens, Predicate<Alias> condition) {
+    return write(() -> {
+      int removed = 0;
+      for (String shorten : shortens) {
+        Alias old = read(shorten);
+        if (old != null && condition.test(old)) {
+          store(shorten, null);
+          removed++;
+        }
+      }
+      return removed;
+    });
+  }
+
+  @Override
+  public boolean removeIfOwnedBy(String alias, String userName) {
+    return write(() -> {
+      Alias old = read(alias);
+      if (old == null || !old.getUsername().equals(userName)) {
+        return false;
+      }
+      store(alias, null);
+      return true;
+    });
+  }
+
+  @Override
+  public boolean replace(String shorten, Alias expected, Alias alias) {
+    return write(() -> {
+      Alias old = read(shorten);
+      if (old == null || !old.equals(expected)) {
+        return false;
+      }
+      store(shorten, alias);
+      return true;
+    });
+  }
+
+  @Override
+  public void writeJson(JsonWriter out) throws IOException {
+    out.beginObject();
+    for (Iterator<Alias> it = scan(); it.hasNext(); ) {
+      Alias alias = it.next();
+      out.name(alias.getShorten()).beginObject()
+          .name("shorten").value(alias.getShorten())
+          .name("url").value(alias.getUrl())
+          .name("username").value(alias.getUsername());
+      if (alias.getCreatedAt() != 0) {
+        out.name("createdAt").value(alias.getCreatedAt());
+      }
+      if (alias.getExpiresAt() != 0) {
+        out.name("expiresAt").value(alias.getExpiresAt());
+      }
+      out.endObject();
+    }
+    out.endObject();
+    out.flush();
+  }
+
+  @Override
+  public void readJson(JsonReader in) throws IOException {
+    in.beginObject();
+    while (in.hasNext()) {
+      String shorten = in.nextName();
+      add(shorten, AliasDaoImpl.readAlias(in));
+    }
+    in.endObject();
+  }
+
+  @Override
+  public void writeBinary(SnapshotWriter out) throws IOException {
+    for (Iterator<Alias> it = scan(); it.hasNext(); ) {
+      AliasDaoImpl.writeAlias(out, it.next());
+    }
+    out.finish();
+  }
+
+  @Override
+  public void readBinary(SnapshotReader in) throws IOException {
+    while (in.nextRecord()) {
+      Alias alias = AliasDaoImpl.readAlias(in);
+      add(alias.getShorten(), alias);
+    }
+  }
+
+  /**
+   * Empties the table and forces the emptied header to disk, so a crash does not bring the
+   * records back. Journaled as {@link Mutation#CLEAR}, so that replaying older mutations does
+   * not bring them back either.
+   */
+  @Override
+  public void clear() {
+    write(() -> {
+      reset();
+      log.append(getTableName(), Mutation.CLEAR);
+      return null;
+    });
+  }
+
+  @Override
+  public String getFileName() {
+    return dataPath.toString();
+  }
+
+  @Override
+  public String getTableName() {
+    return "alias";
+  }
+
+  @Override
+  public void apply(Mutation mutation) {
+    if (mutation.op() == Mutation.CLEAR) {
+      write(() -> {
+        reset();
+        return null;
+      });
+      return;
+    }
+    String shorten = mutation.fields()[0];
+    if (mutation.op() == Mutation.PUT) {
+      String[] fields = mutation.fields();
+      long createdAt = fields.length > 3 ? Long.parseLong(fields[3]) : 0;
+      long expiresAt = fields.length > 4 ? Long.parseLong(fields[4]) : 0;
+      add(shorten, new Alias(shorten, fields[1], fields[2], createdAt, expiresAt));
+    } else if (mutation.op() == Mutation.REMOVE) {
+      remove(shorten);
+    }
+  }
+
+  @Override
+  public void force() {
+    lock.writeLock().lock();
+    try {
+      for (MappedByteBuffer chunk : chunks) {
+        chunk.force();
+      }
+      aliases.force();
+      users.force();
+      expiring.force();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Forces all files and only then marks the data file as cleanly closed.
+   */
+  @PreDestroy
+  @Override
+  public void close() throws IOException {
+    lock.writeLock().lock();
+    try {
+      force();
+      chunks.get(0).put(CLEAN_MARK, CLEAN);
+      chunks.get(0).force(0, DATA_HEADER);
+      dataChannel.close();
+      aliases.close();
+      users.close();
+      expiring.close();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void open() throws IOException {
+    dataChannel = FileChannel.open(dataPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    mapChunk();
+    MappedByteBuffer header = chunks.get(0);
+    int magic = header.getInt(0);
+    if (magic == 0) {
+      header.putInt(0, DATA_MAGIC);
+      version = 3;
+      reset();
+      return;
+    }
+    version = switch (magic) {
+      case LEGACY_DATA_MAGIC -> 1;
+      case UNLINKED_DATA_MAGIC -> 2;
+      case DATA_MAGIC -> 3;
+      default -> throw new IOException("Not an alias data file: " + dataPath);
+    };
+    end = header.getLong(8);
+    while (chunks.size() * CHUNK_SIZE < dataChannel.size()) {
+      mapChunk();
+    }
+    boolean clean = header.get(CLEAN_MARK) == CLEAN;
+    header.put(CLEAN_MARK, (byte) 0);
+    header.force(0, DATA_HEADER);
+    if (version < 3) {
+      verify();
+      upgrade();
+      return;
+    }
+    if (clean && aliases.open() && users.open() && expiring.open()) {
+      return;
+    }
+    logger.warn("{} was not closed cleanly, checking its records", dataPath);
+    verify();
+    rebuildIndexes();
+  }
+
+  /**
+   * Empties the records and the indexes and forces the emptied header to disk.
+   */
+  private void reset() throws IOException {
+    end = DATA_HEADER;
+    generation++;
+    chunks.get(0).putLong(8, end);
+    aliases.reset();
+    users.reset();
+    expiring.reset();
+    chunks.get(0).force(0, DATA_HEADER);
+  }
+
+  /**
+   * Checks the records up to the end written in the header and drops the first torn one with
+   * everything after it.
+   */
+  private void verify() {
+    long position = DATA_HEADER;
+    while (position < end) {
+      if (position / CHUNK_SIZE >= chunks.size()) {
+        truncate(position);
+        return;
+      }
+      ByteBuffer chunk = chunkOf(position);
+      int at = positionOf(position);
+      int length = lengthAt(position);
+      if (length == 0) {
+        position = (position / CHUNK_SIZE + 1) * CHUNK_SIZE;
+        continue;
+      }
+      boolean checksummed = version >= 2;
+      if (length < fixedFields() + (checksummed ? CHECKSUM : 0)
+          || at + (long) length > CHUNK_SIZE || position + length > end
+          || checksummed && chunk.getInt(at + length - CHECKSUM) != checksum(chunk, at, length)) {
+        truncate(position);
+        return;
+      }
+      position += length;
+    }
+  }
+
+  private void truncate(long position) {
+    logger.warn("Torn alias record at {} in {}, dropping the last {} bytes", position, dataPath,
+        end - position);
+    end = position;
+    chunks.get(0).putLong(8, end);
+  }
+
+  /**
+   * Builds the indexes anew from the records. If an alias has two live records, because a crash
+   * kept the old one from being marked dead, the later one wins. The chains need no rebuilding,
+   * since every record already links to the one before it.
+   */
+  private void rebuildIndexes() throws IOException {
+    aliases.reset();
+    users.reset();
+    expiring.reset();
+    for (long position = DATA_HEADER; position < end; ) {
+      int length = lengthAt(position);
+      if (length == 0) {
+        position = (position / CHUNK_SIZE + 1) * CHUNK_SIZE;
+        continue;
+      }
+      index(position, isLive(position) ? decode(position) : null);
+      position += length;
+    }
+  }
+
+  /**
+   * Points the indexes to a record: the user and expiry chains to every record, the alias index
+   * to a live one, marking the record it pointed to before dead.
+   */
+  private void index(long offset, Alias live) throws IOException {
+    byte[] username = fieldAt(offset, 2);
+    if (username != null) {
+      users.put(hash(username), sameUser(username), offset);
+    }
+    long expiresAt = expiresAtOf(offset);
+    if (expiresAt != 0) {
+      long tick = tick(expiresAt);
+      expiring.put(tickHash(tick), sameTick(tick), offset);
+    }
+    if (live != null) {
+      byte[] key = fieldAt(offset, 0);
+      long old = aliases.put(hash(key), sameAlias(key), offset);
+      if (old != EMPTY) {
+        markDead(old);
+      }
+    }
+  }
+
+  /**
+   * Rewrites a file of an older version in the current one. The old file is kept under another
+   * name until the new one is forced to disk, and an interrupted upgrade starts over from it.
+   */
+  private void upgrade() throws IOException {
+    List<Alias> live = new ArrayList<>();
+    for (long position = DATA_HEADER; position < end; ) {
+      int length = lengthAt(position);
+      if (length == 0) {
+        position = (position / CHUNK_SIZE + 1) * CHUNK_SIZE;
+        continue;
+      }
+      if (isLive(position)) {
+        live.add(decode(position));
+      }
+      position += length;
+    }
+    dataChannel.close();
+    chunks.clear();
+    Files.move(dataPath, legacyPath(), StandardCopyOption.ATOMIC_MOVE);
+    open();
+    for (Alias alias : live) {
+      add(alias.getShorten(), alias);
+    }
+    force();
+    Files.delete(legacyPath());
+    logger.info("Upgraded {} with {} aliases", dataPath, live.size());
+  }
+
+  private Path legacyPath() {
+    return dataPath.resolveSibling(dataPath.getFileName() + ".v1");
+  }
+
+  private interface Write<T> {
+    T run() throws IOException;
+  }
+
+  private <T> T write(Write<T> action) {
+    lock.writeLock().lock();
+    try {
+      return action.run();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private Alias read(String shorten) {
+    byte[] key = shorten.getBytes(StandardCharsets.UTF_8);
+    long offset = aliases.get(hash(key), sameAlias(key));
+    return offset == EMPTY ? null : decode(offset);
+  }
+
+  /**
+   * Writes the new state of an alias under the write lock: appends a record for the new value
+   * linked into the chains of its user and its expiry second, marks the old one dead and points
+   * the indexes to the new record.
+   */
+  private void store(String shorten, Alias alias) throws IOException {
+    byte[] key = shorten.getBytes(StandardCharsets.UTF_8);
+    if (alias == null) {
+      long old = aliases.remove(hash(key), sameAlias(key));
+      if (old != EMPTY) {
+        markDead(old);
+      }
+    } else {
+      byte[] username = bytes(alias.getUsername());
+      long userPrevious = username == null
+          ? EMPTY : users.get(hash(username), sameUser(username));
+      long tick = tick(alias.getExpiresAt());
+      long expiryPrevious = alias.getExpiresAt() == 0
+          ? EMPTY : expiring.get(tickHash(tick), sameTick(tick));
+      long offset = append(key, alias, userPrevious, expiryPrevious);
+      index(offset, alias);
+    }
+    if (alias == null) {
+      log.append(getTableName(), Mutation.REMOVE, shorten);
+    } else {
+      log.append(getTableName(), Mutation.PUT, shorten, alias.getUrl(), alias.getUsername(),
+          Long.toString(alias.getCreatedAt()), Long.toString(alias.getExpiresAt()));
+    }
+  }
+
+  /**
+   * Lists the live aliases of the user by walking the user's chain under the read lock.
+   */
+  private List<Alias> ownedBy(String userName) {
+    byte[] username = userName.getBytes(StandardCharsets.UTF_8);
+    long now = System.currentTimeMillis();
+    List<Alias> owned = new ArrayList<>();
+    lock.readLock().lock();
+    try {
+      for (long at = users.get(hash(username), sameUser(username)); at != EMPTY;
+          at = link(at, USER_LINK)) {
+        if (isLive(at)) {
+          Alias alias = decode(at);
+          if (!alias.isExpired(now)) {
+            owned.add(alias);
+          }
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    return owned;
+  }
+
+  private long append(byte[] key, Alias alias, long userPrevious, long expiryPrevious)
+      throws IOException {
+    byte[] url = bytes(alias.getUrl());
+    byte[] username = bytes(alias.getUsername());
+    long expiresAt = alias.getExpiresAt();
+    int length = fixedFields() + key.length + length(url) + length(username)
+        + (expiresAt == 0 ? 0 : 8) + CHECKSUM;
+    if (length > CHUNK_SIZE) {
+      throw new IllegalArgumentException("Alias is too large");
+    }
+    long position = end;
+    if (position / CHUNK_SIZE != (position + length - 1) / CHUNK_SIZE) {
+      if (CHUNK_SIZE - positionOf(position) >= 4) {
+        chunkOf(position).putInt(positionOf(position), 0);
+      }
+      position = (position / CHUNK_SIZE + 1) * CHUNK_SIZE;
+    }
+    while (chunks.size() <= position / CHUNK_SIZE) {
+      mapChunk();
+    }
+    ByteBuffer chunk = chunkOf(position);
+    int start = positionOf(position);
+    chunk.putInt(start, length);
+    chunk.put(start + 4, LIVE);
+    chunk.putLong(start + 5, alias.getCreatedAt());
+    chunk.putLong(start + USER_LINK, userPrevious);
+    chunk.putLong(start + EXPIRY_LINK, expiryPrevious);
+    int at = putBytes(chunk, start + recordHeader(), key);
+    at = putBytes(chunk, at, url);
+    at = putBytes(chunk, at, username);
+    if (expiresAt != 0) {
+      chunk.putLong(at, expiresAt);
+    }
+    chunk.putInt(start + length - CHECKSUM, checksum(chunk, start, length));
+    end = position + length;
+    chunks.get(0).putLong(8, end);
+    return position;
+  }
+
+  private Alias decode(long offset) {
+    ByteBuffer chunk = chunkOf(offset);
+    int at = positionOf(offset);
+    int recordEnd = at + chunk.getInt(at) - (version >= 2 ? CHECKSUM : 0);
+    long createdAt = chunk.getLong(at + 5);
+    at += recordHeader();
+    String shorten = getString(chunk, at);
+    at += 4 + Math.max(0, chunk.getInt(at));
+    String url = getString(chunk, at);
+    at += 4 + Math.max(0, chunk.getInt(at));
+    String username = getString(chunk, at);
+    at += 4 + Math.max(0, chunk.getInt(at));
+    long expiresAt = recordEnd - at >= 8 ? chunk.getLong(at) : 0;
+    return new Alias(shorten, url, username, createdAt, expiresAt);
+  }
+
+  /**
+   * Reads a string field of a record as bytes: 0 is the short name, 1 the url, 2 the username.
+   */
+  private byte[] fieldAt(long offset, int field) {
+    ByteBuffer chunk = chunkOf(offset);
+    int at = positionOf(offset) + recordHeader();
+    for (int i = 0; i < field; i++) {
+      at += 4 + Math.max(0, chunk.getInt(at));
+    }
+    int length = chunk.getInt(at);
+    if (length < 0) {
+      return null;
+    }
+    byte[] value = new byte[length];
+    chunk.get(at + 4, value);
+    return value;
+  }
+
+  private long expiresAtOf(long offset) {
+    ByteBuffer chunk = chunkOf(offset);
+    int start = positionOf(offset);
+    int recordEnd = start + chunk.getInt(start) - (version >= 2 ? CHECKSUM : 0);
+    int at = start + recordHeader();
+    for (int i = 0; i < 3; i++) {
+      at += 4 + Math.max(0, chunk.getInt(at));
+    }
+    return recordEnd - at >= 8 ? chunk.getLong(at) : 0;
+  }
+
+  private boolean fieldEquals(long offset, int field, byte[] value) {
+    ByteBuffer chunk = chunkOf(offset);
+    int at = positionOf(offset) + recordHeader();
+    for (int i = 0; i < field; i++) {
+      at += 4 + Math.max(0, chunk.getInt(at));
+    }
+    if (chunk.getInt(at) != value.length) {
+      return false;
+    }
+    for (int i = 0; i < value.length; i++) {
+      if (chunk.get(at + 4 + i) != value[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private LongPredicate sameAlias(byte[] key) {
+    return offset -> fieldEquals(offset, 0, key);
+  }
+
+  private LongPredicate sameUser(byte[] username) {
+    return offset -> fieldEquals(offset, 2, username);
+  }
+
+  private LongPredicate sameTick(long tick) {
+    return offset -> tick(expiresAtOf(offset)) == tick;
+  }
+
+  private long link(long offset, int link) {
+    return chunkOf(offset).getLong(positionOf(offset) + link);
+  }
+
+  private boolean isLive(long offset) {
+    return chunkOf(offset).get(positionOf(offset) + 4) == LIVE;
+  }
+
+  private void markDead(long offset) {
+    chunkOf(offset).put(positionOf(offset) + 4, DEAD);
+  }
+
+  /**
+   * Length of the record at the position, or 0 where the rest of a chunk is unused.
+   */
+  private int lengthAt(long position) {
+    int at = positionOf(position);
+    return CHUNK_SIZE - at < 4 ? 0 : chunkOf(position).getInt(at);
+  }
+
+  /**
+   * Bytes before the string fields: the links to the previous records came with version 3.
+   */
+  private int recordHeader() {
+    return version >= 3 ? EXPIRY_LINK + 8 : USER_LINK;
+  }
+
+  private int fixedFields() {
+    return recordHeader() + 3 * 4;
+  }
+
+  private void mapChunk() throws IOException {
+    chunks.add(dataChannel.map(FileChannel.MapMode.READ_WRITE, chunks.size() * CHUNK_SIZE,
+        CHUNK_SIZE));
+  }
+
+  private ByteBuffer chunkOf(long offset) {
+    return chunks.get((int) (offset / CHUNK_SIZE));
+  }
+
+  /**
+   * CRC32 of a record without its state byte, which is changed in place when the record dies.
+   */
+  private static int checksum(ByteBuffer chunk, int at, int length) {
+    CRC32 crc = new CRC32();
+    ByteBuffer record = chunk.duplicate();
+    record.limit(at + 4).position(at);
+    crc.update(record);
+    record.limit(at + length - CHECKSUM).position(at + 5);
+    crc.update(record);
+    return (int) crc.getValue();
+  }
+
+  private static int positionOf(long offset) {
+    return (int) (offset % CHUNK_SIZE);
+  }
+
+  private static long tick(long time) {
+    return Math.floorDiv(time, AliasDaoImpl.EXPIRY_TICK_MILLIS);
+  }
+
+  /**
+   * Multiplicative hashes; {@link MappedIndex} takes the slot from their high bits.
+   */
+  private static int hash(byte[] key) {
+    return Arrays.hashCode(key) * 0x9E3779B9;
+  }
+
+  private static int tickHash(long tick) {
+    return Long.hashCode(tick) * 0x9E3779B9;
+  }
+
+  private static byte[] bytes(String value) {
+    return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static int length(byte[] value) {
+    return value == null ? 0 : value.length;
+  }
+
+  private static int putBytes(ByteBuffer chunk, int at, byte[] value) {
+    if (value == null) {
+      chunk.putInt(at, -1);
+      return at + 4;
+    }
+    chunk.putInt(at, value.length);
+    chunk.put(at + 4, value);
+    return at + 4 + value.length;
+  }
+
+  private static String getString(ByteBuffer chunk, int at) {
+    int length = chunk.getInt(at);
+    if (length < 0) {
+      return null;
+    }
+    byte[] value = new byte[length];
+    chunk.get(at + 4, value);
+    return new String(value, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,289 @@
+package edu.kpi.testcourse.bigtable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+
+/**
+ * Memory-mapped open-addressing hash table from keys to record offsets of
+ * {@link MappedAliasDaoImpl}, with linear probing.
+ *
+ * <p>Keys are not stored: every slot holds the offset of a record and the hash of its key, and
+ * the caller tells whether the record at an offset has the key it looks for. The slot of a hash
+ * is taken from its high bits, so the hash has to be spread over all of them. A removed key
+ * leaves a tombstone, which the next resize drops.
+ *
+ * <p>The file is {@code [magic][capacity][size][used]} followed by 16-byte slots
+ * {@code [offset][hash][unused]}. The caller serializes writers and readers.
+ */
+final class MappedIndex implements Closeable {
+
+  static final long EMPTY = 0;
+
+  private static final long TOMBSTONE = -1;
+  private static final int HEADER = 16;
+  private static final int SLOT = 16;
+  private static final int INITIAL_CAPACITY = 1 << 12;
+  private static final int MAX_CAPACITY = 1 << 26;
+
+  private final Path path;
+  private final int magic;
+
+  private FileChannel channel;
+  private MappedByteBuffer slots;
+  private int capacity;
+  private int bits;
+  private int size;
+  private int used;
+
+  MappedIndex(Path path, int magic) {
+    this.path = path;
+    this.magic = magic;
+  }
+
+  /**
+   * Maps the file as it is, without checking it against the records.
+   *
+   * @return false if there is no valid file, and it has to be {@link #reset}
+   * @throws IOException if the file could not be mapped
+   */
+  boolean open() throws IOException {
+    closeChannel();
+    if (!Files.exists(path) || Files.size(path) < HEADER) {
+      return false;
+    }
+    channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    slots = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+    int fileCapacity = slots.getInt(4);
+    if (slots.getInt(0) != magic || Integer.bitCount(fileCapacity) != 1
+        || fileCapacity < INITIAL_CAPACITY || channel.size() != bytes(fileCapacity)) {
+      closeChannel();
+      return false;
+    }
+    setCapacity(fileCapacity);
+    size = slots.getInt(8);
+    used = slots.getInt(12);
+    return true;
+  }
+
+  /**
+   * Replaces the file with an empty table.
+   *
+   * @throws IOException if the file could not be created
+   */
+  void reset() throws IOException {
+    closeChannel();
+    Files.deleteIfExists(path);
+    channel = create(path, INITIAL_CAPACITY);
+    slots = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes(INITIAL_CAPACITY));
+    setCapacity(INITIAL_CAPACITY);
+    size = 0;
+    used = 0;
+  }
+
+  /**
+   * Looks a key up.
+   *
+   * @param hash hash of the key
+   * @param matches whether the record at an offset has the key
+   * @return offset bound to the key, or {@link #EMPTY}
+   */
+  long get(int hash, LongPredicate matches) {
+    int slot = find(hash, matches);
+    return slot < 0 ? EMPTY : offsetAt(slot);
+  }
+
+  /**
+   * Binds the key to the offset.
+   *
+   * @param hash hash of the key
+   * @param matches whether the record at an offset has the key
+   * @param offset new offset of the key
+   * @return offset bound before, or {@link #EMPTY}
+   * @throws IOException if the table is full or could not grow
+   */
+  long put(int hash, LongPredicate matches, long offset) throws IOException {
+    int slot = find(hash, matches);
+    if (slot >= 0) {
+      long old = offsetAt(slot);
+      slots.putLong(position(slot), offset);
+      return old;
+    }
+    if (used + 1 > capacity * 7L / 10) {
+      resize();
+    }
+    slot = free(hash);
+    if (offsetAt(slot) == EMPTY) {
+      used++;
+    }
+    size++;
+    slots.putLong(position(slot), offset);
+    slots.putInt(position(slot) + 8, hash);
+    writeCounts();
+    return EMPTY;
+  }
+
+  /**
+   * Unbinds the key.
+   *
+   * @param hash hash of the key
+   * @param matches whether the record at an offset has the key
+   * @return offset bound before, or {@link #EMPTY}
+   */
+  long remove(int hash, LongPredicate matches) {
+    int slot = find(hash, matches);
+    if (slot < 0) {
+      return EMPTY;
+    }
+    long old = offsetAt(slot);
+    slots.putLong(position(slot), TOMBSTONE);
+    size--;
+    writeCounts();
+    return old;
+  }
+
+  /**
+   * Visits the offsets of all keys, in no particular order.
+   *
+   * @param visitor receiver of the offsets
+   */
+  void forEach(LongConsumer visitor) {
+    for (int i = 0; i < capacity; i++) {
+      long offset = offsetAt(i);
+      if (offset != EMPTY && offset != TOMBSTONE) {
+        visitor.accept(offset);
+      }
+    }
+  }
+
+  int size() {
+    return size;
+  }
+
+  void force() {
+    slots.force();
+  }
+
+  @Override
+  public void close() throws IOException {
+    closeChannel();
+  }
+
+  private int find(int hash, LongPredicate matches) {
+    int mask = capacity - 1;
+    for (int i = slotOf(hash); ; i = (i + 1) & mask) {
+      long offset = offsetAt(i);
+      if (offset == EMPTY) {
+        return -1;
+      }
+      if (offset != TOMBSTONE && slots.getInt(position(i) + 8) == hash
+          && matches.test(offset)) {
+        return i;
+      }
+    }
+  }
+
+  private int free(int hash) {
+    int mask = capacity - 1;
+    for (int i = slotOf(hash); ; i = (i + 1) & mask) {
+      long offset = offsetAt(i);
+      if (offset == EMPTY || offset == TOMBSTONE) {
+        return i;
+      }
+    }
+  }
+
+  /**
+   * Copies the keys into a new file sized for the live keys, dropping the tombstones, and
+   * swaps it in with an atomic rename.
+   */
+  private void resize() throws IOException {
+    int newCapacity = INITIAL_CAPACITY;
+    while (newCapacity * 7L / 10 < 2L * (size + 1)) {
+      newCapacity <<= 1;
+    }
+    if (newCapacity > MAX_CAPACITY) {
+      throw new IOException("Index " + path + " is full");
+    }
+    Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    Files.deleteIfExists(tmp);
+    FileChannel newChannel = create(tmp, newCapacity);
+    MappedByteBuffer newSlots = newChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+        bytes(newCapacity));
+    int newBits = Integer.numberOfTrailingZeros(newCapacity);
+    int mask = newCapacity - 1;
+    for (int i = 0; i < capacity; i++) {
+      long offset = offsetAt(i);
+      if (offset != EMPTY && offset != TOMBSTONE) {
+        int hash = slots.getInt(position(i) + 8);
+        int j = hash >>> (32 - newBits);
+        while (newSlots.getLong(position(j)) != EMPTY) {
+          j = (j + 1) & mask;
+        }
+        newSlots.putLong(position(j), offset);
+        newSlots.putInt(position(j) + 8, hash);
+      }
+    }
+    newSlots.putInt(8, size);
+    newSlots.putInt(12, size);
+    newSlots.force();
+    channel.close();
+    Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    channel = newChannel;
+    slots = newSlots;
+    setCapacity(newCapacity);
+    used = size;
+  }
+
+  private void writeCounts() {
+    slots.putInt(8, size);
+    slots.putInt(12, used);
+  }
+
+  private void setCapacity(int newCapacity) {
+    capacity = newCapacity;
+    bits = Integer.numberOfTrailingZeros(newCapacity);
+  }
+
+  /**
+   * The high bits of the hash, which a multiplicative hash spreads best.
+   */
+  private int slotOf(int hash) {
+    return hash >>> (32 - bits);
+  }
+
+  private long offsetAt(int slot) {
+    return slots.getLong(position(slot));
+  }
+
+  private void closeChannel() throws IOException {
+    if (channel != null) {
+      channel.close();
+      channel = null;
+    }
+  }
+
+  private FileChannel create(Path file, int fileCapacity) throws IOException {
+    FileChannel created = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    MappedByteBuffer header = created.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+    header.putInt(0, magic);
+    header.putInt(4, fileCapacity);
+    return created;
+  }
+
+  private static long bytes(int capacity) {
+    return HEADER + (long) capacity * SLOT;
+  }
+
+  private static int position(int slot) {
+    return HEADER + slot * SLOT;
+  }
+}
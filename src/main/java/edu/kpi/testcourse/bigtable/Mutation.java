@@ -0,0 +1,21 @@
+package edu.kpi.testcourse.bigtable;
+
+/**
+ * Single change of a DAO table as it is written to the {@link MutationLog}.
+ *
+ * <p>Mutations are replayed on top of a snapshot that may already contain them, so every
+ * operation must be idempotent: {@link #PUT} overwrites a value, {@link #REMOVE} deletes it,
+ * {@link #CLEAR} empties the table. Only tables that are their own storage journal
+ * {@link #CLEAR}, see {@link Serializible#clear()}.
+ *
+ * @param table name of the changed table, see {@link Serializible#getTableName()}
+ * @param op kind of the change
+ * @param fields arguments of the change, their meaning is defined by the table
+ */
+public record Mutation(String table, byte op, String... fields) {
+
+  public static final byte PUT = 1;
+  public static final byte REMOVE = 2;
+  public static final byte CLEAR = 3;
+
+}
@@ -0,0 +1,400 @@
+package edu.kpi.testcourse.bigtable;
+
+import io.micronaut.context.annotation.Value;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only write-ahead log of DAO mutations.
+ *
+ * <p>The log is a directory of numbered segment files. Every record is framed as
+ * {@code [payload length][CRC32 of payload][payload]}. Appends only copy the record into an
+ * in-memory batch; a background flusher writes the whole batch and fsyncs it once per flush
+ * interval, so concurrent writers share a single fsync (group commit).
+ *
+ * <p>Appends do not wait for that fsync: a change is durable only once the flush that follows
+ * it has run. A crash of the process or the machine loses at most the changes of the last flush
+ * interval, even if they were already acknowledged to clients; a clean shutdown loses nothing.
+ * Waiting in {@link #append} would hold the lock of the changed key for the whole interval.
+ *
+ * <p>Until {@link #open()} is called appends are ignored. This lets DAOs be used without any
+ * persistence (in tests) and keeps replayed mutations from being journaled twice.
+ */
+@Singleton
+class MutationLog implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(MutationLog.class);
+
+  private static final String SEGMENT_PREFIX = "wal-";
+  private static final String SEGMENT_SUFFIX = ".log";
+
+  private final Path directory;
+  private final Duration flushInterval;
+
+  private final Object appendLock = new Object();
+  private final Object flushLock = new Object();
+
+  private Batch pending = new Batch();
+  private Batch flushing = new Batch();
+
+  private volatile boolean open;
+  private volatile Consumer<byte[]> tap = payload -> { };
+  private FileChannel channel;
+  private long segment;
+  private ScheduledExecutorService flusher;
+
+  MutationLog() {
+    this("wal", Duration.ofMillis(20));
+  }
+
+  @Inject
+  MutationLog(
+      @Value("${bigtable.log.directory:wal}") String directory,
+      @Value("${bigtable.log.flush-interval:20ms}") Duration flushInterval
+  ) {
+    this.directory = Path.of(directory);
+    this.flushInterval = flushInterval;
+  }
+
+  /**
+   * Starts a new segment and the background flusher. Existing segments are never appended to,
+   * because their tail may be torn by a crash.
+   *
+   * @throws IOException if the segment file could not be created
+   */
+  void open() throws IOException {
+    synchronized (flushLock) {
+      Files.createDirectories(directory);
+      List<Long> segments = listSegments();
+      segment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1) + 1;
+      channel = openSegment(segment);
+      flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "mutation-log-flusher");
+        thread.setDaemon(true);
+        return thread;
+      });
+      long millis = Math.max(1, flushInterval.toMillis());
+      flusher.scheduleWithFixedDelay(this::flushQuietly, millis, millis, TimeUnit.MILLISECONDS);
+      open = true;
+    }
+    logger.info("Mutation log opened at segment {}", segment);
+  }
+
+  /**
+   * Appends a mutation to the current batch without waiting for it to be written. It becomes
+   * durable with the next flush, see the guarantee above.
+   *
+   * @param table name of the changed table
+   * @param op kind of the change
+   * @param fields arguments of the change
+   */
+  void append(String table, byte op, String... fields) {
+    if (!open) {
+      return;
+    }
+    byte[] payload = encode(new Mutation(table, op, fields));
+    tap.accept(payload);
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    synchronized (appendLock) {
+      pending.writeInt(payload.length);
+      pending.writeInt((int) crc.getValue());
+      pending.write(payload, 0, payload.length);
+    }
+  }
+
+  /**
+   * Sets the receiver of every appended mutation, encoded as by {@link #encode}. It is called
+   * by the appending thread, under the lock the table holds for the change, so changes of a key
+   * reach it in the order they are applied. Only appends after {@link #open()} reach it.
+   *
+   * @param tap receiver of encoded mutations, null to remove it
+   */
+  void tap(Consumer<byte[]> tap) {
+    this.tap = tap == null ? payload -> { } : tap;
+  }
+
+  /**
+   * Writes and fsyncs everything appended so far. If the write fails, the records stay queued
+   * in front of the newer ones and the segment is closed: the failed write may have left a torn
+   * record that ends the segment on replay, so the next flush retries in a new segment.
+   *
+   * @throws IOException if the segment could not be written
+   */
+  void flush() throws IOException {
+    synchronized (flushLock) {
+      if (channel == null) {
+        return;
+      }
+      if (!channel.isOpen()) {
+        segment++;
+        channel = openSegment(segment);
+      }
+      synchronized (appendLock) {
+        Batch batch = pending;
+        pending = flushing;
+        flushing = batch;
+      }
+      if (flushing.size() == 0) {
+        return;
+      }
+      try {
+        ByteBuffer buffer = flushing.asBuffer();
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        channel.force(false);
+      } catch (IOException e) {
+        requeue();
+        try {
+          channel.close();
+        } catch (IOException closeFailure) {
+          e.addSuppressed(closeFailure);
+        }
+        throw e;
+      } finally {
+        flushing.reset();
+      }
+    }
+  }
+
+  /**
+   * Puts the batch that failed to flush back in front of the records appended since.
+   */
+  private void requeue() {
+    synchronized (appendLock) {
+      flushing.append(pending);
+      Batch batch = pending;
+      pending = flushing;
+      flushing = batch;
+    }
+  }
+
+  /**
+   * Closes the current segment and starts the next one. Used as a checkpoint boundary: every
+   * mutation appended before the call lands in the older segments.
+   *
+   * @return number of the new segment
+   * @throws IOException if segments could not be switched
+   */
+  long rotate() throws IOException {
+    synchronized (flushLock) {
+      if (channel == null) {
+        return segment;
+      }
+      flush();
+      channel.close();
+      segment++;
+      channel = openSegment(segment);
+      return segment;
+    }
+  }
+
+  /**
+   * Deletes segments that are fully covered by a checkpoint.
+   *
+   * @param firstKept number of the oldest segment that is still needed
+   * @throws IOException if a segment could not be deleted
+   */
+  void truncateBefore(long firstKept) throws IOException {
+    for (long id : listSegments()) {
+      if (id < firstKept) {
+        Files.deleteIfExists(segmentPath(id));
+      }
+    }
+  }
+
+  /**
+   * Reads all segments from the oldest to the newest and passes every intact record to the
+   * consumer. A torn or corrupted record ends its segment, the rest of the segment is skipped.
+   *
+   * @param consumer receiver of the mutations
+   * @throws IOException if a segment could not be read
+   */
+  void replay(Consumer<Mutation> consumer) throws IOException {
+    if (!Files.isDirectory(directory)) {
+      return;
+    }
+    for (long id : listSegments()) {
+      Path path = segmentPath(id);
+      int count = 0;
+      try (InputStream in = Files.newInputStream(path)) {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        Mutation mutation;
+        while ((mutation = readRecord(data, path)) != null) {
+          consumer.accept(mutation);
+          count++;
+        }
+      }
+      logger.info("Replayed {} mutations from {}", count, path);
+    }
+  }
+
+  @PreDestroy
+  @Override
+  public void close() throws IOException {
+    synchronized (flushLock) {
+      if (!open) {
+        return;
+      }
+      open = false;
+      flusher.shutdown();
+      flush();
+      channel.close();
+      channel = null;
+    }
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (IOException e) {
+      logger.error("Could not flush mutation log", e);
+    }
+  }
+
+  private Mutation readRecord(DataInputStream data, Path path) throws IOException {
+    int length;
+    try {
+      length = data.readInt();
+    } catch (EOFException e) {
+      return null;
+    }
+    try {
+      int checksum = data.readInt();
+      if (length < 0) {
+        throw new IOException("Negative record length " + length);
+      }
+      byte[] payload = data.readNBytes(length);
+      if (payload.length < length) {
+        throw new EOFException();
+      }
+      CRC32 crc = new CRC32();
+      crc.update(payload);
+      if ((int) crc.getValue() != checksum) {
+        throw new IOException("Checksum mismatch");
+      }
+      return decode(payload);
+    } catch (IOException e) {
+      logger.warn("Torn record in {}, skipping the rest of the segment", path);
+      return null;
+    }
+  }
+
+  private List<Long> listSegments() throws IOException {
+    List<Long> segments = new ArrayList<>();
+    if (!Files.isDirectory(directory)) {
+      return segments;
+    }
+    try (Stream<Path> files = Files.list(directory)) {
+      files.map(p -> p.getFileName().toString())
+          .filter(n -> n.startsWith(SEGMENT_PREFIX) && n.endsWith(SEGMENT_SUFFIX))
+          .map(n -> n.substring(SEGMENT_PREFIX.length(), n.length() - SEGMENT_SUFFIX.length()))
+          .forEach(n -> segments.add(Long.parseLong(n)));
+    }
+    segments.sort(Long::compare);
+    return segments;
+  }
+
+  private Path segmentPath(long id) {
+    return directory.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+  }
+
+  private FileChannel openSegment(long id) throws IOException {
+    return FileChannel.open(segmentPath(id), StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.WRITE);
+  }
+
+  static byte[] encode(Mutation mutation) {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+      DataOutputStream out = new DataOutputStream(bytes);
+      writeString(out, mutation.table());
+      out.writeByte(mutation.op());
+      out.writeShort(mutation.fields().length);
+      for (String field : mutation.fields()) {
+        writeString(out, field);
+      }
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static Mutation decode(byte[] payload) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+    String table = readString(in);
+    byte op = in.readByte();
+    String[] fields = new String[in.readUnsignedShort()];
+    for (int i = 0; i < fields.length; i++) {
+      fields[i] = readString(in);
+    }
+    return new Mutation(table, op, fields);
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Growable byte buffer that can be written to a channel without copying.
+   */
+  private static class Batch extends ByteArrayOutputStream {
+
+    void writeInt(int value) {
+      write(value >>> 24);
+      write(value >>> 16);
+      write(value >>> 8);
+      write(value);
+    }
+
+    void append(Batch other) {
+      write(other.buf, 0, other.count);
+    }
+
+    ByteBuffer asBuffer() {
+      return ByteBuffer.wrap(buf, 0, count);
+    }
+  }
+}
@@ -0,0 +1,358 @@
+package edu.kpi.testcourse.bigtable;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable hash array mapped trie.
+ *
+ * <p>{@link #plus} and {@link #minus} return a new version of the map and share all untouched
+ * nodes with the old one, so an update costs O(log32 n) copied nodes. Any version can be read
+ * or iterated while newer versions are being created, which makes it a cheap point-in-time
+ * snapshot of a table.
+ *
+ * <p>The {@link Map} view is read-only.
+ *
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+final class PersistentHashMap<K, V> extends AbstractMap<K, V> {
+
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+  private static final int MAX_SHIFT = 32;
+
+  private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(Node.EMPTY, 0);
+
+  private final Node root;
+  private final int size;
+
+  private PersistentHashMap(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  @SuppressWarnings("unchecked")
+  static <K, V> PersistentHashMap<K, V> empty() {
+    return (PersistentHashMap<K, V>) EMPTY;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V get(Object key) {
+    return (V) root.find(key, hash(key), 0);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  /**
+   * Returns a version of the map with the key bound to the value.
+   *
+   * @param key key, not null
+   * @param value value, not null
+   * @return new version, or this one if nothing changed
+   */
+  PersistentHashMap<K, V> plus(K key, V value) {
+    Objects.requireNonNull(value);
+    boolean[] added = new boolean[1];
+    Node newRoot = root.put(key, value, hash(key), 0, added);
+    if (newRoot == root) {
+      return this;
+    }
+    return new PersistentHashMap<>(newRoot, added[0] ? size + 1 : size);
+  }
+
+  /**
+   * Returns a version of the map without the key.
+   *
+   * @param key key to remove
+   * @return new version, or this one if the key was absent
+   */
+  PersistentHashMap<K, V> minus(Object key) {
+    Node newRoot = root.remove(key, hash(key), 0);
+    if (newRoot == root) {
+      return this;
+    }
+    return new PersistentHashMap<>(newRoot, size - 1);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    root.forEach((BiConsumer<Object, Object>) action);
+  }
+
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    return new AbstractSet<>() {
+      @Override
+      public Iterator<Entry<K, V>> iterator() {
+        return new EntryIterator<>(root);
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  private static int hash(Object key) {
+    int h = key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  private static int index(int bitmap, int bit) {
+    return Integer.bitCount(bitmap & (bit - 1));
+  }
+
+  /**
+   * Trie node. Keys and values that end at this level live in {@code data} as
+   * {@code key, value} pairs; deeper levels live in {@code nodes}. Both arrays are ordered by the
+   * bit position in their bitmaps. Below {@link #MAX_SHIFT} all hash bits are used up, so a
+   * node there is a plain list of colliding pairs.
+   */
+  private static final class Node {
+
+    static final Node EMPTY = new Node(0, 0, new Object[0], new Node[0]);
+
+    final int dataMap;
+    final int nodeMap;
+    final Object[] data;
+    final Node[] nodes;
+
+    Node(int dataMap, int nodeMap, Object[] data, Node[] nodes) {
+      this.dataMap = dataMap;
+      this.nodeMap = nodeMap;
+      this.data = data;
+      this.nodes = nodes;
+    }
+
+    boolean isSingleEntry() {
+      return nodes.length == 0 && data.length == 2;
+    }
+
+    Object find(Object key, int hash, int shift) {
+      if (shift >= MAX_SHIFT) {
+        for (int i = 0; i < data.length; i += 2) {
+          if (data[i].equals(key)) {
+            return data[i + 1];
+          }
+        }
+        return null;
+      }
+      int bit = 1 << ((hash >>> shift) & MASK);
+      if ((dataMap & bit) != 0) {
+        int i = 2 * index(dataMap, bit);
+        return data[i].equals(key) ? data[i + 1] : null;
+      }
+      if ((nodeMap & bit) != 0) {
+        return nodes[index(nodeMap, bit)].find(key, hash, shift + BITS);
+      }
+      return null;
+    }
+
+    Node put(Object key, Object value, int hash, int shift, boolean[] added) {
+      if (shift >= MAX_SHIFT) {
+        for (int i = 0; i < data.length; i += 2) {
+          if (data[i].equals(key)) {
+            return data[i + 1] == value ? this : withValue(i, value);
+          }
+        }
+        added[0] = true;
+        Object[] newData = Arrays.copyOf(data, data.length + 2);
+        newData[data.length] = key;
+        newData[data.length + 1] = value;
+        return new Node(0, 0, newData, nodes);
+      }
+      int bit = 1 << ((hash >>> shift) & MASK);
+      if ((dataMap & bit) != 0) {
+        int i = 2 * index(dataMap, bit);
+        Object existing = data[i];
+        if (existing.equals(key)) {
+          return data[i + 1] == value ? this : withValue(i, value);
+        }
+        added[0] = true;
+        Node child = merge(existing, data[i + 1], hash(existing), key, value, hash,
+            shift + BITS);
+        return withDataMovedToNode(bit, i, child);
+      }
+      if ((nodeMap & bit) != 0) {
+        int n = index(nodeMap, bit);
+        Node child = nodes[n].put(key, value, hash, shift + BITS, added);
+        return child == nodes[n] ? this : withNode(n, child);
+      }
+      added[0] = true;
+      int i = 2 * index(dataMap, bit);
+      Object[] newData = new Object[data.length + 2];
+      System.arraycopy(data, 0, newData, 0, i);
+      newData[i] = key;
+      newData[i + 1] = value;
+      System.arraycopy(data, i, newData, i + 2, data.length - i);
+      return new Node(dataMap | bit, nodeMap, newData, nodes);
+    }
+
+    Node remove(Object key, int hash, int shift) {
+      if (shift >= MAX_SHIFT) {
+        for (int i = 0; i < data.length; i += 2) {
+          if (data[i].equals(key)) {
+            Object[] newData = new Object[data.length - 2];
+            System.arraycopy(data, 0, newData, 0, i);
+            System.arraycopy(data, i + 2, newData, i, data.length - i - 2);
+            return new Node(0, 0, newData, nodes);
+          }
+        }
+        return this;
+      }
+      int bit = 1 << ((hash >>> shift) & MASK);
+      if ((dataMap & bit) != 0) {
+        int i = 2 * index(dataMap, bit);
+        if (!data[i].equals(key)) {
+          return this;
+        }
+        Object[] newData = new Object[data.length - 2];
+        System.arraycopy(data, 0, newData, 0, i);
+        System.arraycopy(data, i + 2, newData, i, data.length - i - 2);
+        return new Node(dataMap & ~bit, nodeMap, newData, nodes);
+      }
+      if ((nodeMap & bit) != 0) {
+        int n = index(nodeMap, bit);
+        Node child = nodes[n].remove(key, hash, shift + BITS);
+        if (child == nodes[n]) {
+          return this;
+        }
+        if (child.isSingleEntry()) {
+          return withNodeMovedToData(bit, n, child.data[0], child.data[1]);
+        }
+        return withNode(n, child);
+      }
+      return this;
+    }
+
+    void forEach(BiConsumer<Object, Object> action) {
+      for (int i = 0; i < data.length; i += 2) {
+        action.accept(data[i], data[i + 1]);
+      }
+      for (Node node : nodes) {
+        node.forEach(action);
+      }
+    }
+
+    private Node withValue(int i, Object value) {
+      Object[] newData = data.clone();
+      newData[i + 1] = value;
+      return new Node(dataMap, nodeMap, newData, nodes);
+    }
+
+    private Node withNode(int n, Node child) {
+      Node[] newNodes = nodes.clone();
+      newNodes[n] = child;
+      return new Node(dataMap, nodeMap, data, newNodes);
+    }
+
+    private Node withDataMovedToNode(int bit, int i, Node child) {
+      Object[] newData = new Object[data.length - 2];
+      System.arraycopy(data, 0, newData, 0, i);
+      System.arraycopy(data, i + 2, newData, i, data.length - i - 2);
+      int n = index(nodeMap, bit);
+      Node[] newNodes = new Node[nodes.length + 1];
+      System.arraycopy(nodes, 0, newNodes, 0, n);
+      newNodes[n] = child;
+      System.arraycopy(nodes, n, newNodes, n + 1, nodes.length - n);
+      return new Node(dataMap & ~bit, nodeMap | bit, newData, newNodes);
+    }
+
+    private Node withNodeMovedToData(int bit, int n, Object key, Object value) {
+      Node[] newNodes = new Node[nodes.length - 1];
+      System.arraycopy(nodes, 0, newNodes, 0, n);
+      System.arraycopy(nodes, n + 1, newNodes, n, nodes.length - n - 1);
+      int i = 2 * index(dataMap, bit);
+      Object[] newData = new Object[data.length + 2];
+      System.arraycopy(data, 0, newData, 0, i);
+      newData[i] = key;
+      newData[i + 1] = value;
+      System.arraycopy(data, i, newData, i + 2, data.length - i);
+      return new Node(dataMap | bit, nodeMap & ~bit, newData, newNodes);
+    }
+
+    private static Node merge(Object k1, Object v1, int h1, Object k2, Object v2, int h2,
+        int shift) {
+      if (shift >= MAX_SHIFT) {
+        return new Node(0, 0, new Object[] {k1, v1, k2, v2}, new Node[0]);
+      }
+      int b1 = (h1 >>> shift) & MASK;
+      int b2 = (h2 >>> shift) & MASK;
+      if (b1 == b2) {
+        Node child = merge(k1, v1, h1, k2, v2, h2, shift + BITS);
+        return new Node(0, 1 << b1, new Object[0], new Node[] {child});
+      }
+      Object[] pairs = b1 < b2 ? new Object[] {k1, v1, k2, v2} : new Object[] {k2, v2, k1, v1};
+      return new Node((1 << b1) | (1 << b2), 0, pairs, new Node[0]);
+    }
+  }
+
+  /**
+   * Depth-first iterator over the trie that keeps an explicit stack of nodes.
+   */
+  private static final class EntryIterator<K, V> implements Iterator<Entry<K, V>> {
+
+    private final Node[] stack = new Node[MAX_SHIFT / BITS + 2];
+    private final int[] childIndex = new int[stack.length];
+    private int depth;
+    private Node current;
+    private int dataIndex;
+
+    EntryIterator(Node root) {
+      stack[0] = root;
+      current = root;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (dataIndex >= current.data.length) {
+        if (childIndex[depth] < current.nodes.length) {
+          Node child = current.nodes[childIndex[depth]++];
+          depth++;
+          stack[depth] = child;
+          childIndex[depth] = 0;
+          current = child;
+          dataIndex = 0;
+        } else if (depth > 0) {
+          depth--;
+          current = stack[depth];
+          dataIndex = current.data.length;
+        } else {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Entry<K, V> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      K key = (K) current.data[dataIndex];
+      V value = (V) current.data[dataIndex + 1];
+      dataIndex += 2;
+      return new SimpleImmutableEntry<>(key, value);
+    }
+  }
+}
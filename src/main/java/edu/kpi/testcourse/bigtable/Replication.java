@@ -0,0 +1,217 @@
+package edu.kpi.testcourse.bigtable;
+
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.annotation.Value;
+import io.micronaut.context.env.Environment;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Replication role of this node, set by {@code bigtable.replication.role}.
+ *
+ * <ul>
+ *   <li>{@code none}, the default: a single node, nothing is replicated;</li>
+ *   <li>{@code leader}: the node streams its tables to followers on
+ *   {@code bigtable.replication.bind-address} (loopback by default) and
+ *   {@code bigtable.replication.port};</li>
+ *   <li>{@code follower}: the node mirrors the leader at {@code bigtable.replication.leader}
+ *   ({@code host:port}) and serves redirects only, see {@link FollowerFilter};</li>
+ *   <li>{@code replica}: the node loads the aliases from the dumps a primary writes to
+ *   {@code bigtable.snapshot.directory}, which has to point both nodes at the same directory,
+ *   swaps in newer dumps as they appear and serves redirects only, see
+ *   {@link SnapshotReplica}. It neither dumps its tables nor journals them, and keeps its aliases
+ *   on the heap.</li>
+ * </ul>
+ *
+ * <p>A leader streams password hashes and sessions, so it sends nothing to a follower that does
+ * not know {@code bigtable.cluster.secret}; the leader and its followers need the same secret.
+ *
+ * <p>Replication starts once {@link BigTableManager} has restored the local data. A follower or a
+ * replica is turned into a leader with {@link #promote()}. A promoted replica dumps its tables to
+ * {@code bigtable.replication.promoted-directory}, never to the directory it shares with its
+ * primary: the primary may still be alive and write there, and the dumps of two nodes would
+ * overwrite each other.
+ */
+@Singleton
+@Requires(notEnv = Environment.TEST)
+public class Replication {
+
+  @Inject
+  private List<Serializible> daos;
+
+  @Inject
+  private MutationLog log;
+
+  @Inject
+  private AliasDao aliasDao;
+
+  @Value("${bigtable.replication.role:none}")
+  private String role;
+
+  @Value("${bigtable.replication.bind-address:127.0.0.1}")
+  private String bindAddress;
+
+  @Value("${bigtable.replication.port:7070}")
+  private int port;
+
+  @Value("${bigtable.cluster.secret:}")
+  private String secret;
+
+  @Value("${bigtable.replication.leader:localhost:7070}")
+  private String leaderAddress;
+
+  @Value("${bigtable.snapshot.directory:.}")
+  private String snapshotDirectory;
+
+  @Value("${bigtable.replication.promoted-directory:}")
+  private String promotedDirectory;
+
+  private ReplicationLeader leader;
+  private volatile ReplicationFollower follower;
+  private volatile SnapshotReplica replica;
+  private volatile Path promotedTo;
+
+  /**
+   * Starts the configured role.
+   *
+   * @throws IOException if the leader could not listen on its port
+   * @throws IllegalStateException if a leader or a follower has no secret, or a replica does not
+   *     keep its aliases on the heap
+   */
+  synchronized void start() throws IOException {
+    switch (role) {
+      case "leader" -> leader = new ReplicationLeader(log, daos, bindAddress, port, secret());
+      case "follower" -> {
+        int colon = leaderAddress.lastIndexOf(':');
+        follower = new ReplicationFollower(daos, leaderAddress.substring(0, colon),
+            Integer.parseInt(leaderAddress.substring(colon + 1)), secret());
+      }
+      case "replica" -> {
+        if (!(aliasDao instanceof AliasDaoImpl heap)) {
+          throw new IllegalStateException("A replica needs bigtable.alias-storage: heap");
+        }
+        replica = new SnapshotReplica(heap, Path.of(snapshotDirectory));
+      }
+      case "none" -> { }
+      default -> throw new IllegalStateException("Unknown replication role " + role);
+    }
+  }
+
+  /**
+   * Makes this node the leader: stops following and starts streaming its own tables on the
+   * replication port. Other followers have to be pointed at this node. A replica starts
+   * journaling its tables, and its next checkpoint dumps them to
+   * {@code bigtable.replication.promoted-directory}.
+   *
+   * @throws IOException if the port could not be bound
+   * @throws IllegalStateException if the node is already a leader or has no secret, or it is a
+   *     replica without a directory of its own to dump to
+   */
+  public synchronized void promote() throws IOException {
+    if (leader != null) {
+      throw new IllegalStateException("Node is already a leader");
+    }
+    byte[] key = secret();
+    Path own = replica != null ? ownDirectory() : null;
+    if (follower != null) {
+      follower.close();
+      follower = null;
+    }
+    if (replica != null) {
+      replica.close();
+      replica = null;
+      promotedTo = own;
+      log.open();
+    }
+    leader = new ReplicationLeader(log, daos, bindAddress, port, key);
+  }
+
+  /**
+   * Directory a promoted replica dumps its tables to.
+   *
+   * @return {@code bigtable.replication.promoted-directory}, or null if the node is not a
+   *     promoted replica
+   */
+  public Path promotedDirectory() {
+    return promotedTo;
+  }
+
+  private Path ownDirectory() {
+    if (promotedDirectory.isEmpty()) {
+      throw new IllegalStateException(
+          "bigtable.replication.promoted-directory is required to promote a replica");
+    }
+    Path own = Path.of(promotedDirectory).toAbsolutePath().normalize();
+    if (own.equals(Path.of(snapshotDirectory).toAbsolutePath().normalize())) {
+      throw new IllegalStateException("bigtable.replication.promoted-directory must differ from"
+          + " bigtable.snapshot.directory, where the primary may still write");
+    }
+    return own;
+  }
+
+  private byte[] secret() {
+    if (secret.isEmpty()) {
+      throw new IllegalStateException("bigtable.cluster.secret is required for replication");
+    }
+    return secret.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Whether the node is a replica that has not been promoted. A replica has no dumps or journal
+   * of its own.
+   *
+   * @return true for a replica
+   */
+  public synchronized boolean isReplica() {
+    return "replica".equals(role) && leader == null;
+  }
+
+  /**
+   * Whether the node mirrors a leader or a primary and must not accept writes.
+   *
+   * @return true for a follower or a replica
+   */
+  public boolean isFollower() {
+    return follower != null || replica != null;
+  }
+
+  /**
+   * Whether the tables hold data that can be served: always, unless the node is a follower that
+   * is loading the tables of its leader, or a replica that has not found the dumps of its
+   * primary yet. A replica goes on serving while it swaps in newer dumps.
+   *
+   * @return false while a follower reloads its tables or a replica loads its first dumps
+   */
+  public boolean isServing() {
+    ReplicationFollower current = follower;
+    SnapshotReplica currentReplica = replica;
+    return (current == null || current.isSynced())
+        && (currentReplica == null || currentReplica.isLoaded());
+  }
+
+  /**
+   * Stops replication.
+   *
+   * @throws IOException if a connection could not be closed
+   */
+  @PreDestroy
+  public synchronized void close() throws IOException {
+    if (follower != null) {
+      follower.close();
+      follower = null;
+    }
+    if (replica != null) {
+      replica.close();
+      replica = null;
+    }
+    if (leader != null) {
+      leader.close();
+      leader = null;
+    }
+  }
+}
@@ -0,0 +1,177 @@
+package edu.kpi.testcourse.bigtable;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Follower side of the replication: keeps the tables of this node equal to those of the leader.
+ *
+ * <p>On every connection the follower sends the cluster secret to the leader, then the tables are
+ * reset at once, without journaling (see {@link Serializible#clear()}), and loaded from the
+ * snapshots of the leader, then the mutations from the leader are applied in the order they come
+ * (see {@link ReplicationLeader} for the stream). The snapshots and the mutations go through the
+ * tables as usual, so they are journaled to the local {@link MutationLog} once it is open, and
+ * the follower keeps a durable copy that it can serve from after a restart or a promotion.
+ *
+ * <p>When the connection breaks, the follower keeps serving what it has and reconnects every
+ * {@value #RETRY_MILLIS} ms. A leader that sends nothing, not even heartbeats, for
+ * {@value #TIMEOUT_MILLIS} ms is treated as gone.
+ */
+final class ReplicationFollower implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(ReplicationFollower.class);
+
+  private static final int RETRY_MILLIS = 1000;
+  private static final int TIMEOUT_MILLIS = 5 * ReplicationLeader.HEARTBEAT_MILLIS;
+
+  private final Map<String, Serializible> tables = new HashMap<>();
+  private final InetSocketAddress leader;
+  private final byte[] secret;
+  private final Thread thread;
+  private final AtomicLong applied = new AtomicLong();
+
+  private volatile boolean closed;
+  private volatile boolean synced;
+  private volatile Socket socket;
+
+  /**
+   * Starts following the leader.
+   *
+   * @param tables tables to keep in sync, the leader must have all of them
+   * @param host host of the leader
+   * @param port replication port of the leader
+   * @param secret secret the leader expects
+   */
+  ReplicationFollower(List<Serializible> tables, String host, int port, byte[] secret) {
+    for (Serializible table : tables) {
+      this.tables.put(table.getTableName(), table);
+    }
+    this.leader = new InetSocketAddress(host, port);
+    this.secret = secret.clone();
+    this.thread = new Thread(this::run, "replication-follower");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Whether the tables have been loaded from the leader. Stays true while the leader is away,
+   * becomes false while the tables are being reloaded.
+   *
+   * @return true if the tables hold the data of the leader
+   */
+  boolean isSynced() {
+    return synced;
+  }
+
+  /**
+   * Number of mutations applied from the stream so far.
+   *
+   * @return applied mutations
+   */
+  long applied() {
+    return applied.get();
+  }
+
+  /**
+   * Stops following. The tables keep their data.
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    Socket current = socket;
+    if (current != null) {
+      current.close();
+    }
+    thread.interrupt();
+    try {
+      thread.join(TIMEOUT_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run() {
+    while (!closed) {
+      try {
+        follow();
+      } catch (IOException e) {
+        if (!closed) {
+          logger.warn("Lost replication leader {}: {}", leader, e.getMessage());
+        }
+      }
+      try {
+        Thread.sleep(RETRY_MILLIS);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  private void follow() throws IOException {
+    try (Socket connection = new Socket()) {
+      socket = connection;
+      if (closed) {
+        return;
+      }
+      connection.connect(leader, TIMEOUT_MILLIS);
+      connection.setSoTimeout(TIMEOUT_MILLIS);
+      DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+      out.writeInt(ReplicationLeader.MAGIC);
+      out.writeByte(ReplicationLeader.VERSION);
+      out.writeShort(secret.length);
+      out.write(secret);
+      out.flush();
+      DataInputStream in = new DataInputStream(
+          new BufferedInputStream(connection.getInputStream(), 1 << 16));
+      if (in.readInt() != ReplicationLeader.MAGIC) {
+        throw new IOException("Not a replication leader");
+      }
+      int version = in.readUnsignedByte();
+      if (version > ReplicationLeader.VERSION) {
+        throw new IOException("Unsupported replication version " + version);
+      }
+      synced = false;
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        Serializible table = table(in.readUTF());
+        table.clear();
+        table.readBinary(new SnapshotReader(in, table.getTableName()));
+      }
+      synced = true;
+      logger.info("Synced {} tables from replication leader {}", count, leader);
+      while (!closed) {
+        int length = in.readInt();
+        if (length == 0) {
+          continue;
+        }
+        byte[] payload = in.readNBytes(length);
+        if (payload.length < length) {
+          throw new EOFException();
+        }
+        Mutation mutation = MutationLog.decode(payload);
+        table(mutation.table()).apply(mutation);
+        applied.incrementAndGet();
+      }
+    }
+  }
+
+  private Serializible table(String name) throws IOException {
+    Serializible table = tables.get(name);
+    if (table == null) {
+      throw new IOException("Leader replicates unknown table " + name);
+    }
+    return table;
+  }
+}
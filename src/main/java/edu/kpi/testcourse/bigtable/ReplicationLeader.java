@@ -0,0 +1,227 @@
+package edu.kpi.testcourse.bigtable;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Leader side of the replication: streams the tables of this node to followers over TCP.
+ *
+ * <p>A follower that connects first sends {@code [magic][version][secret length][secret]}, where
+ * the secret is {@code bigtable.cluster.secret} of the follower. A follower that sends anything
+ * else, or nothing within {@value #HANDSHAKE_MILLIS} ms, is disconnected before it gets a single
+ * byte: the snapshots carry password hashes and sessions of the users.
+ *
+ * <p>Then the follower gets {@code [magic][version][table count]}, then for every table
+ * its name and a binary snapshot (see {@link SnapshotWriter}), and then the mutations of the
+ * tables as they are appended to the {@link MutationLog}, framed as {@code [length][payload]}
+ * in the encoding of the log. A frame of zero length is a heartbeat sent when there is nothing
+ * else to send.
+ *
+ * <p>The follower is subscribed to mutations before the snapshots are taken, so every change
+ * is either in a snapshot, or in the stream, or in both; replaying it on top of a snapshot that
+ * already contains it is harmless, since mutations are idempotent (see {@link Mutation}). A
+ * follower that falls more than {@value #QUEUE_CAPACITY} mutations behind is disconnected; it
+ * reconnects and starts over from fresh snapshots.
+ */
+final class ReplicationLeader implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(ReplicationLeader.class);
+
+  static final int MAGIC = 0x42545231;
+  static final byte VERSION = 2;
+  static final int HEARTBEAT_MILLIS = 1000;
+
+  private static final int HANDSHAKE_MILLIS = 5000;
+
+  private static final int QUEUE_CAPACITY = 1 << 16;
+
+  private final MutationLog log;
+  private final List<Serializible> tables;
+  private final byte[] secret;
+  private final ServerSocket server;
+  private final Set<Follower> followers = ConcurrentHashMap.newKeySet();
+  private final ExecutorService threads = Executors.newCachedThreadPool(r -> {
+    Thread thread = new Thread(r, "replication-leader");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private volatile boolean closed;
+
+  /**
+   * Starts listening for followers.
+   *
+   * @param log journal whose mutations are streamed
+   * @param tables tables to replicate
+   * @param bindAddress address to listen on
+   * @param port port to listen on, 0 for any free port
+   * @param secret secret the followers have to send, must not be empty
+   * @throws IOException if the port could not be bound
+   */
+  ReplicationLeader(MutationLog log, List<Serializible> tables, String bindAddress, int port,
+      byte[] secret) throws IOException {
+    if (secret.length == 0) {
+      throw new IllegalArgumentException("Replication secret must not be empty");
+    }
+    this.log = log;
+    this.tables = List.copyOf(tables);
+    this.secret = secret.clone();
+    this.server = new ServerSocket();
+    server.setReuseAddress(true);
+    server.bind(new InetSocketAddress(bindAddress, port));
+    log.tap(this::publish);
+    threads.execute(this::accept);
+    logger.info("Replication leader listens on {}", server.getLocalSocketAddress());
+  }
+
+  int port() {
+    return server.getLocalPort();
+  }
+
+  int followerCount() {
+    return followers.size();
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    log.tap(null);
+    server.close();
+    for (Follower follower : followers) {
+      follower.disconnect();
+    }
+    threads.shutdownNow();
+  }
+
+  private void publish(byte[] payload) {
+    for (Follower follower : followers) {
+      follower.offer(payload);
+    }
+  }
+
+  private void accept() {
+    while (!closed) {
+      try {
+        Socket socket = server.accept();
+        threads.execute(() -> serve(socket));
+      } catch (IOException e) {
+        if (!closed) {
+          logger.error("Could not accept a follower", e);
+        }
+      }
+    }
+  }
+
+  private void serve(Socket socket) {
+    try (socket) {
+      if (!authenticate(socket)) {
+        logger.warn("Rejected replication connection from {}", socket.getRemoteSocketAddress());
+        return;
+      }
+      serve(socket, new Follower(socket));
+    } catch (IOException e) {
+      if (!closed) {
+        logger.warn("Follower {} disconnected: {}", socket.getRemoteSocketAddress(),
+            e.getMessage());
+      }
+    }
+  }
+
+  private boolean authenticate(Socket socket) throws IOException {
+    socket.setSoTimeout(HANDSHAKE_MILLIS);
+    DataInputStream in = new DataInputStream(socket.getInputStream());
+    if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+      return false;
+    }
+    byte[] sent = in.readNBytes(in.readUnsignedShort());
+    socket.setSoTimeout(0);
+    return MessageDigest.isEqual(secret, sent);
+  }
+
+  private void serve(Socket socket, Follower follower) throws IOException {
+    followers.add(follower);
+    try {
+      socket.setTcpNoDelay(true);
+      logger.info("Follower {} connected", socket.getRemoteSocketAddress());
+      DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+      out.writeInt(MAGIC);
+      out.writeByte(VERSION);
+      out.writeInt(tables.size());
+      for (Serializible table : tables) {
+        out.writeUTF(table.getTableName());
+        table.writeBinary(new SnapshotWriter(out, table.getTableName()));
+      }
+      stream(follower, out);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      followers.remove(follower);
+    }
+  }
+
+  private void stream(Follower follower, DataOutputStream out)
+      throws IOException, InterruptedException {
+    while (!closed) {
+      byte[] payload = follower.queue.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+      if (follower.behind) {
+        throw new IOException("Follower fell behind");
+      }
+      if (payload == null) {
+        out.writeInt(0);
+        out.flush();
+        continue;
+      }
+      out.writeInt(payload.length);
+      out.write(payload);
+      if (follower.queue.isEmpty()) {
+        out.flush();
+      }
+    }
+  }
+
+  /**
+   * Connection of one follower with the mutations that are still to be sent to it.
+   */
+  private static final class Follower {
+
+    final Socket socket;
+    final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    volatile boolean behind;
+
+    Follower(Socket socket) {
+      this.socket = socket;
+    }
+
+    void offer(byte[] payload) {
+      if (!behind && !queue.offer(payload)) {
+        behind = true;
+        disconnect();
+      }
+    }
+
+    void disconnect() {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        logger.debug("Could not close follower socket", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,20 @@
+package edu.kpi.testcourse.bigtable;
+
+import java.io.IOException;
+
+/**
+ * Таблиця, що сама тримає свої дані у файлах і не потребує JSON дампу.
+ *
+ * <p>{@link BigTableManager} не читає і не пише для неї дамп, а на чекпоінті лише скидає її
+ * файли на диск. Журнал змін при цьому працює як і для інших таблиць.
+ */
+interface SelfPersisting {
+
+  /**
+   * Скидає всі зміни таблиці на диск.
+   *
+   * @throws IOException якщо не вдалося записати.
+   */
+  void force() throws IOException;
+
+}
@@ -1,14 +1,138 @@
 package edu.kpi.testcourse.bigtable;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+
 /**
  * Інтерфейс серіалізації.
+ *
+ * <p>Таблиці пишуться і читаються потоково, запис за записом, тому дамп не потребує
+ * проміжного рядка розміром з усю таблицю.
  */
 public interface Serializible {
 
-  String toJson();
+  /**
+   * Пише таблицю як JSON, запис за записом.
+   *
+   * @param out потік токенів JSON.
+   * @throws IOException якщо не вдалося записати.
+   */
+  void writeJson(JsonWriter out) throws IOException;
+
+  /**
+   * Читає таблицю з JSON, запис за записом, і додає записи до таблиці.
+   *
+   * @param in потік токенів JSON.
+   * @throws IOException якщо не вдалося прочитати або JSON некоректний.
+   */
+  void readJson(JsonReader in) throws IOException;
+
+  /**
+   * Пише таблицю у двійковому форматі дампу, запис за записом.
+   *
+   * @param out двійковий дамп.
+   * @throws IOException якщо не вдалося записати.
+   */
+  void writeBinary(SnapshotWriter out) throws IOException;
+
+  /**
+   * Читає таблицю з двійкового дампу і додає записи до таблиці.
+   *
+   * @param in двійковий дамп.
+   * @throws IOException якщо не вдалося прочитати або дамп пошкоджений.
+   */
+  void readBinary(SnapshotReader in) throws IOException;
+
+  /**
+   * Кількість шардів, на які таблиця ділиться у дампі. Кожен шард пишеться у свій файл, і
+   * шарди дампляться та відновлюються паралельно.
+   *
+   * @return кількість шардів, 1 якщо таблиця не шардована.
+   */
+  default int getShardCount() {
+    return 1;
+  }
+
+  /**
+   * Пише один шард таблиці як JSON. Читається шард тим самим {@link #readJson}.
+   *
+   * @param out потік токенів JSON.
+   * @param shard номер шарду, від 0 до {@link #getShardCount()} - 1.
+   * @throws IOException якщо не вдалося записати.
+   */
+  default void writeJson(JsonWriter out, int shard) throws IOException {
+    writeJson(out);
+  }
 
-  void fromJson(String json);
+  /**
+   * Пише один шард таблиці у двійковому форматі. Читається шард тим самим
+   * {@link #readBinary}.
+   *
+   * @param out двійковий дамп.
+   * @param shard номер шарду, від 0 до {@link #getShardCount()} - 1.
+   * @throws IOException якщо не вдалося записати.
+   */
+  default void writeBinary(SnapshotWriter out, int shard) throws IOException {
+    writeBinary(out);
+  }
+
+  /**
+   * Серіалізує таблицю у рядок. Зручно для тестів і невеликих таблиць.
+   *
+   * @return JSON таблиці.
+   */
+  default String toJson() {
+    StringWriter json = new StringWriter();
+    try {
+      writeJson(new JsonWriter(json));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return json.toString();
+  }
+
+  /**
+   * Додає до таблиці записи з рядка.
+   *
+   * @param json JSON таблиці.
+   */
+  default void fromJson(String json) {
+    JsonReader reader = new JsonReader(new StringReader(json));
+    reader.setLenient(true);
+    try {
+      readJson(reader);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
 
   String getFileName();
 
+  /**
+   * Ім'я таблиці, під яким її зміни пишуться у {@link MutationLog}.
+   *
+   * @return унікальне ім'я таблиці.
+   */
+  String getTableName();
+
+  /**
+   * Скидає таблицю до порожньої одним махом. Видалення не журналюються: фоловер скидає таблицю
+   * лише перед тим, як завантажити дамп лідера, і до кінця завантаження не обслуговує запити, а
+   * після перезапуску знову завантажує дамп лідера. Таблиця {@link SelfPersisting} є сама собі
+   * сховищем, тож журналює скидання як {@link Mutation#CLEAR} і одразу скидає його на диск:
+   * інакше після збою старі записи повернулися б з її файлів чи журналу.
+   */
+  void clear();
+
+  /**
+   * Застосовує зміну з журналу, не журналюючи її повторно.
+   *
+   * @param mutation зміна, що була записана цією таблицею.
+   */
+  void apply(Mutation mutation);
+
 }
@@ -0,0 +1,54 @@
+package edu.kpi.testcourse.bigtable;
+
+/**
+ * DAO for the "sign out everywhere" marks of the users: every token of a user issued before the
+ * mark is invalid, however many there are. Tokens carry their issue time in whole seconds, so
+ * the marks are kept in whole seconds too, rounded up.
+ */
+public interface SessionDao extends Serializible {
+
+  /**
+   * Invalidates every token of the user issued until the sign-out, those issued in the same
+   * second included: the mark is the sign-out time rounded up to the second, see
+   * {@link #markOf}. Signing in again works from the next second. A mark never moves back.
+   *
+   * @param email user email
+   * @param time time of the sign-out in milliseconds since the epoch
+   */
+  void revokeAll(String email, long time);
+
+  /**
+   * Reads the mark of the user.
+   *
+   * @param email user email
+   * @return whole second before which the tokens of the user are invalid, in milliseconds since
+   *     the epoch, 0 if there is none
+   */
+  long revokedUntil(String email);
+
+  /**
+   * Rounds a sign-out time up to the second, so that a token issued in the second of the
+   * sign-out, whose issue time is truncated to that second, falls before the mark.
+   *
+   * @param time time of the sign-out in milliseconds since the epoch
+   * @return the mark, in milliseconds since the epoch
+   */
+  static long markOf(long time) {
+    return Math.floorDiv(time + 999, 1000) * 1000;
+  }
+
+  /**
+   * Whether no user has a mark, so the tokens need not be parsed to check them.
+   *
+   * @return true if there are no marks
+   */
+  boolean isEmpty();
+
+  /**
+   * Forgets the marks that no living token can be older than.
+   *
+   * @param now current time in milliseconds since the epoch
+   * @return number of marks forgotten
+   */
+  int removeExpired(long now);
+}
@@ -0,0 +1,146 @@
+package edu.kpi.testcourse.bigtable;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import io.micronaut.context.annotation.Value;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Sign-out marks, one per user, in a {@link VersionedMap}. The filter reads the table on every
+ * authenticated request, so it keeps a count of the marks that says whether there are any.
+ */
+@Singleton
+class SessionDaoImpl implements SessionDao {
+
+  private static final long DEFAULT_LIFETIME_SECONDS = 3600;
+
+  private final VersionedMap<String, Long> map = new VersionedMap<>(this::changed);
+
+  /** Number of marks, kept by the listener so that {@link #isEmpty} costs one read. */
+  private final AtomicInteger size = new AtomicInteger();
+
+  private final MutationLog log;
+  private final long maxLifetimeMillis;
+
+  SessionDaoImpl() {
+    this(new MutationLog(), DEFAULT_LIFETIME_SECONDS);
+  }
+
+  /**
+   * Creates the table.
+   *
+   * @param log journal of changes
+   * @param maxLifetimeSeconds lifetime of the issued tokens; a mark older than that covers no
+   *     living token and is dropped
+   */
+  @Inject
+  SessionDaoImpl(MutationLog log,
+      @Value("${micronaut.security.token.jwt.generator.access-token.expiration:3600}")
+          long maxLifetimeSeconds) {
+    this.log = log;
+    this.maxLifetimeMillis = maxLifetimeSeconds * 1000;
+  }
+
+  @Override
+  public void revokeAll(String email, long time) {
+    long mark = SessionDao.markOf(time);
+    map.compute(email, (k, old) -> old == null || old < mark ? Long.valueOf(mark) : old);
+  }
+
+  @Override
+  public long revokedUntil(String email) {
+    Long time = map.get(email);
+    return time == null ? 0 : time;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size.get() == 0;
+  }
+
+  @Override
+  public int removeExpired(long now) {
+    int removed = 0;
+    for (String email : map.snapshot().keySet()) {
+      if (map.remove(email, time -> time + maxLifetimeMillis <= now)) {
+        removed++;
+      }
+    }
+    return removed;
+  }
+
+  @Override
+  public void writeJson(JsonWriter out) throws IOException {
+    out.beginObject();
+    for (Map.Entry<String, Long> user : map.snapshot().entrySet()) {
+      out.name(user.getKey()).value(user.getValue());
+    }
+    out.endObject();
+    out.flush();
+  }
+
+  @Override
+  public void readJson(JsonReader in) throws IOException {
+    in.beginObject();
+    while (in.hasNext()) {
+      String email = in.nextName();
+      revokeAll(email, in.nextLong());
+    }
+    in.endObject();
+  }
+
+  @Override
+  public void writeBinary(SnapshotWriter out) throws IOException {
+    for (Map.Entry<String, Long> user : map.snapshot().entrySet()) {
+      out.writeString(user.getKey());
+      out.writeVarLong(user.getValue());
+      out.endRecord();
+    }
+    out.finish();
+  }
+
+  @Override
+  public void readBinary(SnapshotReader in) throws IOException {
+    while (in.nextRecord()) {
+      revokeAll(in.readString(), in.readVarLong());
+    }
+  }
+
+  @Override
+  public void clear() {
+    map.clear();
+    size.set(0);
+  }
+
+  @Override
+  public String getFileName() {
+    return "sessions.json";
+  }
+
+  @Override
+  public String getTableName() {
+    return "sessions";
+  }
+
+  @Override
+  public void apply(Mutation mutation) {
+    if (mutation.op() == Mutation.PUT) {
+      revokeAll(mutation.fields()[0], Long.parseLong(mutation.fields()[1]));
+    } else if (mutation.op() == Mutation.REMOVE) {
+      map.remove(mutation.fields()[0]);
+    }
+  }
+
+  private void changed(String email, Long oldTime, Long time) {
+    size.addAndGet((time == null ? 0 : 1) - (oldTime == null ? 0 : 1));
+    if (time == null) {
+      log.append(getTableName(), Mutation.REMOVE, email);
+    } else {
+      log.append(getTableName(), Mutation.PUT, email, Long.toString(time));
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package edu.kpi.testcourse.bigtable;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Open-addressing map from short aliases, packed into a {@code long}, to their rows.
+ *
+ * <p>Aliases of up to {@value #MAX_LENGTH} lowercase latin letters, which covers everything
+ * {@link edu.kpi.testcourse.utils.ShortenGenerator} makes, are packed five bits per letter; see
+ * {@link #encode}. Other aliases return {@link #NONE} and are kept elsewhere by the caller.
+ *
+ * <p>The index holds the same {@link AliasRecord}s as the main table, so it costs a key and a
+ * reference per alias; the caller builds the {@link Alias} from the row.
+ *
+ * <p>{@link #get} neither locks nor allocates: it reads the published table with linear probing
+ * over plain {@code long} keys. Writers are serialized by the monitor of the index. A removed
+ * alias keeps its key as a tombstone with no value, so concurrent readers never see entries move;
+ * tombstones are dropped when the table is rebuilt.
+ */
+final class ShortAliasIndex {
+
+  static final long NONE = 0;
+  static final int MAX_LENGTH = Long.SIZE / 5;
+
+  private static final int MIN_CAPACITY = 16;
+
+  private volatile Table table = new Table(MIN_CAPACITY);
+  private int size;
+
+  /**
+   * Packs the alias into a key, or returns {@link #NONE} if it does not fit.
+   *
+   * @param shorten alias
+   * @return non-zero key, equal only for equal aliases, or {@link #NONE}
+   */
+  static long encode(String shorten) {
+    int length = shorten.length();
+    if (length == 0 || length > MAX_LENGTH) {
+      return NONE;
+    }
+    long key = 0;
+    for (int i = 0; i < length; i++) {
+      int letter = shorten.charAt(i) - ('a' - 1);
+      if (letter < 1 || letter > 26) {
+        return NONE;
+      }
+      key = key << 5 | letter;
+    }
+    return key;
+  }
+
+  /**
+   * Looks the row up by its key.
+   *
+   * @param key key from {@link #encode}
+   * @return the row, or null if there is none
+   */
+  AliasRecord get(long key) {
+    Table current = table;
+    int mask = current.keys.length() - 1;
+    for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+      long found = current.keys.get(i);
+      if (found == key) {
+        return current.values.get(i);
+      }
+      if (found == NONE) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Binds the row to the key, or removes the key if the row is null.
+   *
+   * @param key key from {@link #encode}
+   * @param row row or null
+   */
+  synchronized void put(long key, AliasRecord row) {
+    Table current = table;
+    int mask = current.keys.length() - 1;
+    int i = slot(key, mask);
+    for (long found = current.keys.get(i); found != NONE; found = current.keys.get(i)) {
+      if (found == key) {
+        AliasRecord old = current.values.getAndSet(i, row);
+        size += (row == null ? 0 : 1) - (old == null ? 0 : 1);
+        return;
+      }
+      i = (i + 1) & mask;
+    }
+    if (row == null) {
+      return;
+    }
+    current.values.set(i, row);
+    current.keys.set(i, key);
+    size++;
+    if (++current.used > current.keys.length() * 3 / 4) {
+      table = rebuild(current, size);
+    }
+  }
+
+  synchronized void clear() {
+    table = new Table(MIN_CAPACITY);
+    size = 0;
+  }
+
+  synchronized int size() {
+    return size;
+  }
+
+  private static Table rebuild(Table old, int size) {
+    int capacity = MIN_CAPACITY;
+    while (capacity * 3 / 4 < size * 2) {
+      capacity <<= 1;
+    }
+    Table rebuilt = new Table(capacity);
+    int mask = capacity - 1;
+    for (int j = 0; j < old.keys.length(); j++) {
+      AliasRecord row = old.values.get(j);
+      if (row != null) {
+        long key = old.keys.get(j);
+        int i = slot(key, mask);
+        while (rebuilt.keys.get(i) != NONE) {
+          i = (i + 1) & mask;
+        }
+        rebuilt.values.set(i, row);
+        rebuilt.keys.set(i, key);
+        rebuilt.used++;
+      }
+    }
+    return rebuilt;
+  }
+
+  private static int slot(long key, int mask) {
+    return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+  }
+
+  /**
+   * Arrays of one size. A key is published after its value, so a reader that sees the key sees
+   * the value too.
+   */
+  private static final class Table {
+
+    final AtomicLongArray keys;
+    final AtomicReferenceArray<AliasRecord> values;
+    int used;
+
+    Table(int capacity) {
+      this.keys = new AtomicLongArray(capacity);
+      this.values = new AtomicReferenceArray<>(capacity);
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package edu.kpi.testcourse.bigtable;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Optional gzip compression of the table dumps, set by
+ * {@code bigtable.snapshot.compression-level}: 0 writes the dumps as they are, 1 to 9 is the
+ * deflate level, from the fastest to the smallest.
+ *
+ * <p>The dumps keep their file names. A compressed dump is recognized on restore by the gzip
+ * header, so dumps written with any level, or with none, are read alike and the level can be
+ * changed between restarts. The dumps are compressed and decompressed as they stream, never
+ * held in memory whole.
+ */
+final class SnapshotCompression {
+
+  static final int NONE = 0;
+
+  private static final int BUFFER = 1 << 16;
+  private static final int GZIP_MAGIC = 0x8b1f;
+
+  private SnapshotCompression() {
+  }
+
+  /**
+   * Wraps the dump being written. {@link #finish} has to be called once the dump is written.
+   *
+   * @param out file of the dump
+   * @param level compression level, from 0 to 9
+   * @return stream to write the dump to
+   * @throws IOException if the gzip header could not be written
+   */
+  static OutputStream compress(OutputStream out, int level) throws IOException {
+    if (level < NONE || level > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("Compression level must be from 0 to 9: " + level);
+    }
+    if (level == NONE) {
+      return out;
+    }
+    return new GZIPOutputStream(out, BUFFER) {
+      {
+        def.setLevel(level);
+      }
+    };
+  }
+
+  /**
+   * Writes out the rest of the dump, leaving the file open so that it can still be synced.
+   *
+   * @param out stream returned by {@link #compress}
+   * @throws IOException if the dump could not be written
+   */
+  static void finish(OutputStream out) throws IOException {
+    if (out instanceof DeflaterOutputStream) {
+      ((DeflaterOutputStream) out).finish();
+    }
+    out.flush();
+  }
+
+  /**
+   * Wraps a dump being read, decompressing it if it starts with a gzip header.
+   *
+   * @param in file of the dump
+   * @return stream of the dump as it was written by the table
+   * @throws IOException if the dump could not be read
+   */
+  static InputStream decompress(InputStream in) throws IOException {
+    BufferedInputStream buffered = new BufferedInputStream(in, BUFFER);
+    buffered.mark(2);
+    int magic = buffered.read() | buffered.read() << 8;
+    buffered.reset();
+    return magic == GZIP_MAGIC ? new GZIPInputStream(buffered, BUFFER) : buffered;
+  }
+}
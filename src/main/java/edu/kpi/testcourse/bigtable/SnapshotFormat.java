@@ -0,0 +1,179 @@
+package edu.kpi.testcourse.bigtable;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Format of the table dumps, chosen with {@code bigtable.snapshot.format}.
+ */
+enum SnapshotFormat {
+
+  /**
+   * Human-readable JSON, one object per table.
+   */
+  JSON {
+    @Override
+    Path path(Serializible dao) {
+      return Path.of(dao.getFileName());
+    }
+
+    @Override
+    void write(Serializible dao, int shard, OutputStream out) throws IOException {
+      JsonWriter writer = new JsonWriter(
+          new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+      dao.writeJson(writer, shard);
+      writer.flush();
+    }
+
+    @Override
+    void read(Serializible dao, InputStream in) throws IOException {
+      dao.readJson(new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+    }
+  },
+
+  /**
+   * Compact checksummed binary format, see {@link SnapshotWriter}.
+   */
+  BINARY {
+    @Override
+    Path path(Serializible dao) {
+      return Path.of(dao.getTableName() + ".snap");
+    }
+
+    @Override
+    void write(Serializible dao, int shard, OutputStream out) throws IOException {
+      dao.writeBinary(new SnapshotWriter(out, dao.getTableName()), shard);
+    }
+
+    @Override
+    void read(Serializible dao, InputStream in) throws IOException {
+      dao.readBinary(new SnapshotReader(new BufferedInputStream(in, 1 << 16),
+          dao.getTableName()));
+    }
+
+    /**
+     * Reads blocks on the calling thread and decodes them on the pool. At most a few blocks per
+     * worker are kept in memory at once.
+     */
+    @Override
+    void read(Serializible dao, InputStream in, ExecutorService pool, int parallelism)
+        throws IOException {
+      SnapshotReader reader = new SnapshotReader(new BufferedInputStream(in, 1 << 16),
+          dao.getTableName());
+      Semaphore inFlight = new Semaphore(4 * parallelism);
+      List<CompletableFuture<Void>> chunks = new ArrayList<>();
+      try {
+        for (SnapshotReader chunk = reader.nextChunk(); chunk != null;
+            chunk = reader.nextChunk()) {
+          inFlight.acquire();
+          SnapshotReader records = chunk;
+          chunks.add(CompletableFuture.runAsync(() -> {
+            try {
+              dao.readBinary(records);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            } finally {
+              inFlight.release();
+            }
+          }, pool));
+        }
+        CompletableFuture.allOf(chunks.toArray(CompletableFuture[]::new)).join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while restoring " + dao.getTableName(), e);
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof UncheckedIOException) {
+          throw ((UncheckedIOException) e.getCause()).getCause();
+        }
+        throw e;
+      }
+    }
+  };
+
+  abstract Path path(Serializible dao);
+
+  abstract void write(Serializible dao, int shard, OutputStream out) throws IOException;
+
+  abstract void read(Serializible dao, InputStream in) throws IOException;
+
+  /**
+   * Reads a dump, decoding independent parts of it on the pool where the format allows that.
+   *
+   * @param dao table to fill
+   * @param in dump
+   * @param pool pool for decoding
+   * @param parallelism number of threads of the pool
+   * @throws IOException if the dump can not be read
+   */
+  void read(Serializible dao, InputStream in, ExecutorService pool, int parallelism)
+      throws IOException {
+    read(dao, in);
+  }
+
+  /**
+   * Returns the dump file of one shard: {@code alias-3.snap} for a sharded table, or the plain
+   * file name if the table has a single shard.
+   *
+   * @param dao table
+   * @param shard index of the shard
+   * @return path of the shard dump
+   */
+  Path path(Serializible dao, int shard) {
+    Path path = path(dao);
+    if (dao.getShardCount() == 1) {
+      return path;
+    }
+    String name = path.getFileName().toString();
+    int dot = name.lastIndexOf('.');
+    return path.resolveSibling(name.substring(0, dot) + "-" + shard + name.substring(dot));
+  }
+
+  /**
+   * Finds all dumps of the table in this format, of any shard count, so that a table can be
+   * restored after its number of shards has changed.
+   *
+   * @param dao table
+   * @param directory directory of the dumps, {@code bigtable.snapshot.directory}
+   * @return existing dump files, none if the directory does not exist yet
+   * @throws IOException if the directory can not be listed
+   */
+  List<Path> existing(Serializible dao, Path directory) throws IOException {
+    String name = path(dao).getFileName().toString();
+    int dot = name.lastIndexOf('.');
+    Pattern shard = Pattern.compile(Pattern.quote(name.substring(0, dot)) + "(-\\d+)?"
+        + Pattern.quote(name.substring(dot)));
+    if (!Files.isDirectory(directory)) {
+      return List.of();
+    }
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(file -> shard.matcher(file.getFileName().toString()).matches())
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  static SnapshotFormat of(String name) {
+    return valueOf(name.trim().toUpperCase(Locale.ROOT));
+  }
+}
@@ -0,0 +1,102 @@
+package edu.kpi.testcourse.bigtable;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dump files one checkpoint wrote for a table, with the CRC32 of every file as written.
+ *
+ * <p>{@link BigTableManager} publishes the manifest after all shards of the table, and before it
+ * removes the dumps of an older shard count. A reader that takes the files the manifest lists
+ * and checks them against it gets the tables of a single checkpoint: a shard replaced by the
+ * next checkpoint while it was read fails the check instead of mixing two checkpoints, and
+ * leftover dumps of another shard count are never read.
+ *
+ * <p>The file is a line {@code checkpoint <millis> <format>}, then a line
+ * {@code <file name> <crc32 hex>} per shard.
+ *
+ * @param checkpoint time of the checkpoint
+ * @param format format of the dumps
+ * @param files names of the dumps, relative to the manifest, to their CRC32, in shard order
+ */
+record SnapshotManifest(long checkpoint, SnapshotFormat format, Map<String, Long> files) {
+
+  private static final String SUFFIX = ".manifest";
+  private static final String CHECKPOINT = "checkpoint";
+
+  /**
+   * Returns the manifest of the table in the directory of its dumps.
+   *
+   * @param dao table
+   * @param directory directory of the dumps
+   * @return path of the manifest
+   */
+  static Path path(Serializible dao, Path directory) {
+    return directory.resolve(dao.getTableName() + SUFFIX);
+  }
+
+  /**
+   * Reads a manifest.
+   *
+   * @param path manifest file
+   * @return the manifest, or null if there is none
+   * @throws IOException if the manifest can not be read or is malformed
+   */
+  static SnapshotManifest read(Path path) throws IOException {
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+    try {
+      String[] header = lines.get(0).split(" ");
+      if (header.length != 3 || !CHECKPOINT.equals(header[0])) {
+        throw new IOException("Malformed manifest " + path);
+      }
+      Map<String, Long> files = new LinkedHashMap<>();
+      for (String line : lines.subList(1, lines.size())) {
+        int space = line.lastIndexOf(' ');
+        files.put(line.substring(0, space), Long.parseLong(line.substring(space + 1), 16));
+      }
+      return new SnapshotManifest(Long.parseLong(header[1]), SnapshotFormat.of(header[2]), files);
+    } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+      throw new IOException("Malformed manifest " + path, e);
+    }
+  }
+
+  /**
+   * Publishes the manifest atomically, so a reader sees either the old one or the new one.
+   *
+   * @param path manifest file
+   * @throws IOException if the manifest could not be written
+   */
+  void write(Path path) throws IOException {
+    Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      Writer out = new BufferedWriter(
+          new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+      out.write(CHECKPOINT + " " + checkpoint + " " + format.name() + "\n");
+      for (Map.Entry<String, Long> file : files.entrySet()) {
+        out.write(file.getKey() + " " + Long.toHexString(file.getValue()) + "\n");
+      }
+      out.flush();
+      channel.force(true);
+    }
+    Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+}
@@ -0,0 +1,195 @@
+package edu.kpi.testcourse.bigtable;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Reader of the binary snapshot format written by {@link SnapshotWriter}.
+ *
+ * <p>Every block is checked against its CRC32C before any record of it is handed out, and a
+ * snapshot without the end marker is rejected, so a table is never restored from a damaged or
+ * truncated file without an error.
+ *
+ * <p>Not thread-safe; use {@link #nextChunk()} to hand blocks over to other threads.
+ *
+ * <p>The class is public only because {@link Serializible} names it; it can not be built
+ * outside the package.
+ */
+public final class SnapshotReader {
+
+  private static final int MAX_BLOCK = 256 << 20;
+
+  private final DataInputStream in;
+  private final CRC32C crc = new CRC32C();
+  private final int version;
+  private byte[] block = new byte[0];
+  private int position;
+  private int end;
+  private int recordsLeft;
+  private boolean finished;
+
+  /**
+   * Opens a snapshot and checks its header.
+   *
+   * @param in snapshot stream
+   * @param table expected table name
+   * @throws IOException if the stream is not a snapshot of this table or of a newer version
+   */
+  SnapshotReader(InputStream in, String table) throws IOException {
+    this.in = new DataInputStream(in);
+    if (this.in.readInt() != SnapshotWriter.MAGIC) {
+      throw new IOException("Not a table snapshot");
+    }
+    this.version = this.in.readUnsignedByte();
+    if (version > SnapshotWriter.VERSION) {
+      throw new IOException("Unsupported snapshot version " + version);
+    }
+    int nameLength = this.in.readInt();
+    if (nameLength < 0 || nameLength > 1024) {
+      throw new IOException("Corrupted snapshot header");
+    }
+    byte[] name = this.in.readNBytes(nameLength);
+    if (!table.equals(new String(name, StandardCharsets.UTF_8))) {
+      throw new IOException("Snapshot of table " + new String(name, StandardCharsets.UTF_8)
+          + " can not be read into " + table);
+    }
+  }
+
+  private SnapshotReader(int version, byte[] block, int position, int end, int records) {
+    this.in = null;
+    this.version = version;
+    this.block = block;
+    this.position = position;
+    this.end = end;
+    this.recordsLeft = records;
+    this.finished = true;
+  }
+
+  /**
+   * Version of the format the snapshot was written in, so tables can read the records of older
+   * versions.
+   *
+   * @return format version
+   */
+  int version() {
+    return version;
+  }
+
+  /**
+   * Splits off the next block as a reader of its records only. Blocks are independent, so the
+   * chunks can be decoded in parallel while this reader goes on with the stream.
+   *
+   * @return reader of the records of the next block, or null at the end of the snapshot
+   * @throws IOException if the next block is damaged or missing
+   */
+  SnapshotReader nextChunk() throws IOException {
+    if (finished || !readBlock()) {
+      return null;
+    }
+    SnapshotReader chunk = new SnapshotReader(version, block, position, end, recordsLeft);
+    block = new byte[0];
+    recordsLeft = 0;
+    return chunk;
+  }
+
+  /**
+   * Moves to the next record.
+   *
+   * @return false when all records have been read
+   * @throws IOException if the next block is damaged or missing
+   */
+  boolean nextRecord() throws IOException {
+    while (recordsLeft == 0) {
+      if (finished || !readBlock()) {
+        return false;
+      }
+    }
+    recordsLeft--;
+    return true;
+  }
+
+  String readString() throws IOException {
+    int length = readLength();
+    if (length < 0) {
+      return null;
+    }
+    String value = new String(block, position, length, StandardCharsets.UTF_8);
+    position += length;
+    return value;
+  }
+
+  /**
+   * Reads a field written by {@link SnapshotWriter#writeBytes} or as a string, as raw bytes.
+   *
+   * @return the bytes, or null
+   * @throws IOException if the record is damaged
+   */
+  byte[] readBytes() throws IOException {
+    int length = readLength();
+    if (length < 0) {
+      return null;
+    }
+    byte[] value = Arrays.copyOfRange(block, position, position + length);
+    position += length;
+    return value;
+  }
+
+  long readVarLong() throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      if (position >= end) {
+        throw new IOException("Corrupted snapshot record");
+      }
+      byte b = block[position++];
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IOException("Corrupted snapshot record");
+  }
+
+  private int readLength() throws IOException {
+    long length = readVarLong() - 1;
+    if (length < -1 || length > end - position) {
+      throw new IOException("Corrupted snapshot record");
+    }
+    return (int) length;
+  }
+
+  private boolean readBlock() throws IOException {
+    int length;
+    try {
+      length = in.readInt();
+    } catch (EOFException e) {
+      throw new IOException("Snapshot is truncated", e);
+    }
+    if (length == 0) {
+      finished = true;
+      return false;
+    }
+    if (length < 4 || length > MAX_BLOCK) {
+      throw new IOException("Corrupted snapshot block");
+    }
+    if (block.length < length) {
+      block = new byte[length];
+    }
+    in.readFully(block, 0, length);
+    int expected = in.readInt();
+    crc.reset();
+    crc.update(block, 0, length);
+    if ((int) crc.getValue() != expected) {
+      throw new IOException("Snapshot block checksum mismatch");
+    }
+    recordsLeft = ((block[0] & 0xFF) << 24) | ((block[1] & 0xFF) << 16)
+        | ((block[2] & 0xFF) << 8) | (block[3] & 0xFF);
+    position = 4;
+    end = length;
+    return true;
+  }
+}
@@ -0,0 +1,144 @@
+package edu.kpi.testcourse.bigtable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read-only replica that serves the aliases of a primary from the dumps the primary writes at
+ * its checkpoints, found in a directory both nodes share.
+ *
+ * <p>The directory is polled every {@value #POLL_MILLIS} ms. Once the {@link SnapshotManifest}
+ * of the alias table has changed, the dumps it lists are read into a staging table and checked
+ * against it, and the staged rows replace the served ones in one step, see
+ * {@link AliasDaoImpl#replaceWith}. Redirects go on from the old rows while the checkpoint loads
+ * and then read the new ones only, so they never see a half-loaded table or a mix of two
+ * checkpoints. Only a complete checkpoint is swapped in: dumps that the primary replaced while
+ * they were read fail the check and are read again on the next poll, and dumps of an older shard
+ * count are not in the manifest.
+ *
+ * <p>While a checkpoint loads, the replica holds the old rows and the staged ones, so its heap
+ * peaks at about twice the alias table; the old rows are collected after the swap. A failed load
+ * drops the staged rows.
+ *
+ * <p>Only the alias table is replicated: a replica serves redirects only, see
+ * {@link FollowerFilter}. The primary has to keep its aliases in a table that is dumped, not in a
+ * {@link SelfPersisting} one, and the replica on the heap.
+ */
+final class SnapshotReplica implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(SnapshotReplica.class);
+
+  private static final int POLL_MILLIS = 1000;
+
+  private final AliasDaoImpl aliases;
+  private final Path directory;
+  private final Thread thread;
+  private final AtomicLong loads = new AtomicLong();
+
+  private volatile boolean closed;
+  private volatile boolean loaded;
+  private SnapshotManifest loadedManifest;
+
+  /**
+   * Starts polling the directory.
+   *
+   * @param aliases table to serve
+   * @param directory directory the primary dumps its tables to
+   */
+  SnapshotReplica(AliasDaoImpl aliases, Path directory) {
+    this.aliases = aliases;
+    this.directory = directory;
+    this.thread = new Thread(this::run, "snapshot-replica");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Whether the dumps of the primary have been loaded once. Stays true while newer dumps are
+   * swapped in.
+   *
+   * @return true if the table holds the aliases of the primary
+   */
+  boolean isLoaded() {
+    return loaded;
+  }
+
+  /**
+   * Number of times changed dumps have been swapped in.
+   *
+   * @return loads so far
+   */
+  long loads() {
+    return loads.get();
+  }
+
+  /**
+   * Stops polling. The table keeps its data.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    thread.interrupt();
+    try {
+      thread.join(5 * POLL_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run() {
+    while (!closed) {
+      try {
+        poll();
+      } catch (IOException | UncheckedIOException e) {
+        logger.warn("Could not load dumps from {}: {}", directory, e.getMessage());
+      }
+      try {
+        Thread.sleep(POLL_MILLIS);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Swaps in the checkpoint of the manifest if it differs from the last one loaded. A dump that
+   * does not match the manifest, or that the primary removes while it is read, fails the load,
+   * which is retried on the next poll.
+   */
+  private void poll() throws IOException {
+    SnapshotManifest manifest = SnapshotManifest.read(SnapshotManifest.path(aliases, directory));
+    if (manifest == null || manifest.equals(loadedManifest)) {
+      return;
+    }
+    AliasDaoImpl staging = aliases.newStaging();
+    for (Map.Entry<String, Long> file : manifest.files().entrySet()) {
+      Path path = directory.resolve(file.getKey());
+      try (CheckedInputStream raw = new CheckedInputStream(Files.newInputStream(path),
+          new CRC32())) {
+        manifest.format().read(staging, SnapshotCompression.decompress(raw));
+        raw.transferTo(OutputStream.nullOutputStream());
+        if (raw.getChecksum().getValue() != file.getValue()) {
+          throw new IOException(path + " is not the dump of checkpoint "
+              + manifest.checkpoint());
+        }
+      }
+    }
+    aliases.replaceWith(staging);
+    loadedManifest = manifest;
+    loaded = true;
+    loads.incrementAndGet();
+    logger.info("Swapped in checkpoint {} of {}", manifest.checkpoint(), directory);
+  }
+}
@@ -0,0 +1,143 @@
+package edu.kpi.testcourse.bigtable;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Writer of the binary snapshot format of a table.
+ *
+ * <p>A snapshot starts with a header {@code [magic][version][table name]} and is followed by
+ * blocks {@code [payload length][payload][CRC32C of payload]}. A payload starts with the number
+ * of records in it; records are sequences of fields written by the table. Strings are
+ * length-prefixed UTF-8 and numbers are unsigned varints. A block of zero length ends the
+ * snapshot, so a truncated file is detected as well as a corrupted one.
+ *
+ * <p>Records never span blocks; a block is closed once it grows over {@value #BLOCK_SIZE}
+ * bytes.
+ *
+ * <p>The class is public only because {@link Serializible} names it; it can not be built
+ * outside the package.
+ */
+public final class SnapshotWriter {
+
+  static final int MAGIC = 0x42545331;
+  /**
+   * Version 2 added the expiry time to the alias records, version 3 added it to the revoked
+   * tokens, version 4 replaced the revoked tokens by their digests.
+   */
+  static final byte VERSION = 4;
+
+  private static final int BLOCK_SIZE = 64 << 10;
+  private static final int COUNT_BYTES = 4;
+
+  private final DataOutputStream out;
+  private final CRC32C crc = new CRC32C();
+  private byte[] block = new byte[BLOCK_SIZE + (BLOCK_SIZE >> 2)];
+  private int length = COUNT_BYTES;
+  private int records;
+
+  SnapshotWriter(OutputStream out, String table) throws IOException {
+    this(out, table, VERSION);
+  }
+
+  /**
+   * Starts a snapshot that claims an older version, for tests of reading old snapshots. The
+   * records are written as the caller gives them.
+   */
+  SnapshotWriter(OutputStream out, String table, byte version) throws IOException {
+    this.out = new DataOutputStream(out);
+    this.out.writeInt(MAGIC);
+    this.out.writeByte(version);
+    byte[] name = table.getBytes(StandardCharsets.UTF_8);
+    this.out.writeInt(name.length);
+    this.out.write(name);
+  }
+
+  /**
+   * Writes a string field, null included.
+   *
+   * @param value string or null
+   */
+  void writeString(String value) {
+    writeBytes(value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Writes raw bytes, null included, in the same encoding as a string of these UTF-8 bytes.
+   *
+   * @param bytes bytes or null
+   */
+  void writeBytes(byte[] bytes) {
+    if (bytes == null) {
+      writeVarLong(0);
+      return;
+    }
+    writeVarLong(bytes.length + 1L);
+    ensure(bytes.length);
+    System.arraycopy(bytes, 0, block, length, bytes.length);
+    length += bytes.length;
+  }
+
+  /**
+   * Writes a non-negative number in as few bytes as it needs, seven bits per byte.
+   *
+   * @param value number, negative numbers take ten bytes
+   */
+  void writeVarLong(long value) {
+    ensure(10);
+    while ((value & ~0x7FL) != 0) {
+      block[length++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    block[length++] = (byte) value;
+  }
+
+  /**
+   * Marks the end of a record. Closes the block if it is full.
+   *
+   * @throws IOException if the block could not be written
+   */
+  void endRecord() throws IOException {
+    records++;
+    if (length >= BLOCK_SIZE) {
+      writeBlock();
+    }
+  }
+
+  /**
+   * Writes the last block and the end marker, and flushes the stream.
+   *
+   * @throws IOException if the stream could not be written
+   */
+  void finish() throws IOException {
+    if (records > 0) {
+      writeBlock();
+    }
+    out.writeInt(0);
+    out.flush();
+  }
+
+  private void writeBlock() throws IOException {
+    block[0] = (byte) (records >>> 24);
+    block[1] = (byte) (records >>> 16);
+    block[2] = (byte) (records >>> 8);
+    block[3] = (byte) records;
+    crc.reset();
+    crc.update(block, 0, length);
+    out.writeInt(length);
+    out.write(block, 0, length);
+    out.writeInt((int) crc.getValue());
+    length = COUNT_BYTES;
+    records = 0;
+  }
+
+  private void ensure(int bytes) {
+    if (length + bytes > block.length) {
+      block = Arrays.copyOf(block, Math.max(block.length * 2, length + bytes));
+    }
+  }
+}
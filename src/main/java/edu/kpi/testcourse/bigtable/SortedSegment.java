@@ -0,0 +1,282 @@
+package edu.kpi.testcourse.bigtable;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable file of key-value entries sorted by key, one level of {@link LsmStore}.
+ *
+ * <p>Layout: entries {@code [key length][key][value length, -1 for a tombstone][value]}, then a
+ * sparse index with every {@value #INDEX_INTERVAL}th key and its offset, then a
+ * {@link BloomFilter} of all keys, then a fixed footer with the offsets of both. The file is
+ * mapped read-only; the sparse index and the filter are kept on the heap, so a lookup that
+ * misses the filter does not touch the file at all, and a hit scans at most one index interval.
+ *
+ * <p>The mapping stays valid after the file is deleted, so readers that still hold a segment
+ * replaced by compaction can finish their lookups.
+ */
+final class SortedSegment {
+
+  /**
+   * Marker value of a removed key.
+   */
+  static final byte[] TOMBSTONE = new byte[0];
+
+  static final int MAX_BYTES = Integer.MAX_VALUE - 1024;
+
+  private static final int INDEX_INTERVAL = 16;
+  private static final int FOOTER = 8 + 8 + 4 + 4;
+  private static final int MAGIC = 0x4c534d31;
+
+  private final long id;
+  private final MappedByteBuffer data;
+  private final int dataEnd;
+  private final int count;
+  private final String[] indexKeys;
+  private final int[] indexOffsets;
+  private final BloomFilter bloom;
+
+  private SortedSegment(long id, MappedByteBuffer data, int dataEnd, int count,
+      String[] indexKeys, int[] indexOffsets, BloomFilter bloom) {
+    this.id = id;
+    this.data = data;
+    this.dataEnd = dataEnd;
+    this.count = count;
+    this.indexKeys = indexKeys;
+    this.indexOffsets = indexOffsets;
+    this.bloom = bloom;
+  }
+
+  /**
+   * Writes sorted entries into a new segment file and opens it. The file is written under a
+   * temporary name, fsynced and renamed, so a crash never leaves a partial segment behind.
+   *
+   * @param id id of the segment
+   * @param path where to put the file
+   * @param entries entries in ascending key order, values may be {@link #TOMBSTONE}
+   * @param expectedKeys upper bound of the number of entries, sizes the bloom filter
+   * @return the written segment
+   * @throws IOException if the file can not be written
+   */
+  static SortedSegment write(long id, Path path, Iterator<Map.Entry<String, byte[]>> entries,
+      int expectedKeys) throws IOException {
+    Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    BloomFilter bloom = BloomFilter.create(expectedKeys);
+    try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+      ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+      DataOutputStream index = new DataOutputStream(indexBytes);
+      long offset = 0;
+      int count = 0;
+      while (entries.hasNext()) {
+        Map.Entry<String, byte[]> entry = entries.next();
+        byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+        byte[] value = entry.getValue();
+        if (count % INDEX_INTERVAL == 0) {
+          index.writeInt(key.length);
+          index.write(key);
+          index.writeInt((int) offset);
+        }
+        bloom.add(entry.getKey());
+        out.writeInt(key.length);
+        out.write(key);
+        if (value == TOMBSTONE) {
+          out.writeInt(-1);
+        } else {
+          out.writeInt(value.length);
+          out.write(value);
+        }
+        offset += 8 + key.length + (value == TOMBSTONE ? 0 : value.length);
+        count++;
+        if (offset > MAX_BYTES) {
+          throw new IOException("Segment is too large: " + path);
+        }
+      }
+      long indexOffset = offset;
+      out.writeInt((count + INDEX_INTERVAL - 1) / INDEX_INTERVAL);
+      indexBytes.writeTo(out);
+      long bloomOffset = indexOffset + 4 + indexBytes.size();
+      ByteBuffer bloomBytes = ByteBuffer.allocate(bloom.serializedSize());
+      bloom.write(bloomBytes);
+      out.write(bloomBytes.array());
+      out.writeLong(indexOffset);
+      out.writeLong(bloomOffset);
+      out.writeInt(count);
+      out.writeInt(MAGIC);
+      out.flush();
+      channel.force(true);
+    }
+    Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    return open(id, path);
+  }
+
+  static SortedSegment open(long id, Path path) throws IOException {
+    MappedByteBuffer data;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() < FOOTER || channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Corrupted segment: " + path);
+      }
+      data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    int footer = data.capacity() - FOOTER;
+    if (data.getInt(footer + 20) != MAGIC) {
+      throw new IOException("Corrupted segment: " + path);
+    }
+    int indexOffset = (int) data.getLong(footer);
+    int bloomOffset = (int) data.getLong(footer + 8);
+    int count = data.getInt(footer + 16);
+
+    ByteBuffer index = data.duplicate().position(indexOffset);
+    String[] keys = new String[index.getInt()];
+    int[] offsets = new int[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = readString(index, index.position());
+      index.position(index.position() + 4 + index.getInt(index.position()));
+      offsets[i] = index.getInt();
+    }
+    BloomFilter bloom = BloomFilter.read(data.duplicate().position(bloomOffset));
+    return new SortedSegment(id, data, indexOffset, count, keys, offsets, bloom);
+  }
+
+  long id() {
+    return id;
+  }
+
+  int count() {
+    return count;
+  }
+
+  long sizeInBytes() {
+    return data.capacity();
+  }
+
+  /**
+   * Looks the key up.
+   *
+   * @param key key
+   * @return the value, {@link #TOMBSTONE} if the key was removed, or null if this segment knows
+   *     nothing about the key
+   */
+  byte[] get(String key) {
+    if (indexKeys.length == 0 || !bloom.mightContain(key)) {
+      return null;
+    }
+    int i = Arrays.binarySearch(indexKeys, key);
+    if (i < 0) {
+      i = -i - 2;
+      if (i < 0) {
+        return null;
+      }
+    }
+    int at = indexOffsets[i];
+    int end = i + 1 < indexOffsets.length ? indexOffsets[i + 1] : dataEnd;
+    while (at < end) {
+      int keyLength = data.getInt(at);
+      int cmp = readString(data, at).compareTo(key);
+      int valueLength = data.getInt(at + 4 + keyLength);
+      if (cmp == 0) {
+        return valueLength < 0 ? TOMBSTONE : readBytes(at + 8 + keyLength, valueLength);
+      }
+      if (cmp > 0) {
+        return null;
+      }
+      at += 8 + keyLength + Math.max(0, valueLength);
+    }
+    return null;
+  }
+
+  /**
+   * Returns all entries, tombstones included, in ascending key order.
+   */
+  Iterator<Map.Entry<String, byte[]>> iterator() {
+    return iterator(null, null);
+  }
+
+  /**
+   * Returns the entries of a key range, tombstones included, in ascending key order. The walk
+   * starts at the index interval of the lower bound, so it does not read the entries before it.
+   *
+   * @param from lowest key, inclusive, or null to start at the first key
+   * @param to highest key, exclusive, or null to go to the last key
+   */
+  Iterator<Map.Entry<String, byte[]>> iterator(String from, String to) {
+    return new Iterator<>() {
+      private int at = seek(from);
+      private Map.Entry<String, byte[]> next;
+
+      @Override
+      public boolean hasNext() {
+        while (next == null && at < dataEnd) {
+          int keyLength = data.getInt(at);
+          String key = readString(data, at);
+          if (to != null && key.compareTo(to) >= 0) {
+            at = dataEnd;
+            break;
+          }
+          int valueLength = data.getInt(at + 4 + keyLength);
+          if (from == null || key.compareTo(from) >= 0) {
+            byte[] value = valueLength < 0 ? TOMBSTONE
+                : readBytes(at + 8 + keyLength, valueLength);
+            next = new SimpleImmutableEntry<>(key, value);
+          }
+          at += 8 + keyLength + Math.max(0, valueLength);
+        }
+        return next != null;
+      }
+
+      @Override
+      public Map.Entry<String, byte[]> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        Map.Entry<String, byte[]> entry = next;
+        next = null;
+        return entry;
+      }
+    };
+  }
+
+  /**
+   * Returns the offset of the index interval that may hold the key.
+   */
+  private int seek(String key) {
+    if (key == null || indexKeys.length == 0) {
+      return 0;
+    }
+    int i = Arrays.binarySearch(indexKeys, key);
+    if (i < 0) {
+      i = -i - 2;
+    }
+    return i < 0 ? 0 : indexOffsets[i];
+  }
+
+  private byte[] readBytes(int at, int length) {
+    byte[] bytes = new byte[length];
+    data.get(at, bytes);
+    return bytes;
+  }
+
+  private static String readString(ByteBuffer buffer, int at) {
+    byte[] bytes = new byte[buffer.getInt(at)];
+    buffer.get(at + 4, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
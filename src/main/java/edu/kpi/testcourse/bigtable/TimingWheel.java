@@ -0,0 +1,153 @@
+package edu.kpi.testcourse.bigtable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel of key deadlines.
+ *
+ * <p>Time is counted in ticks of {@code tickMillis}. Level 0 has a slot for each of the next
+ * {@value #SLOTS} ticks, every slot of level {@code k} covers {@code SLOTS^k} ticks, and a key
+ * is put into the lowest level whose range reaches its deadline. Scheduling is O(1). When the
+ * wheel turns into a slot of an upper level, the keys of that slot are moved down a level
+ * ("cascaded"), so every key is moved at most {@value #LEVELS} times before it fires and the
+ * cost of {@link #advance} does not depend on how many keys are waiting. Stretches of time with
+ * no key in the lower levels are skipped at once.
+ *
+ * <p>Keys are never cancelled: a key whose deadline has changed or that is gone is left to fire,
+ * and the owner checks it again when it does. Deadlines are rounded up to whole ticks, so a key
+ * never fires early.
+ *
+ * <p>Thread-safe. {@link #advance} only returns the keys, so the owner acts on them without
+ * holding the lock of the wheel.
+ */
+final class TimingWheel {
+
+  private static final int SLOT_BITS = 6;
+  private static final int SLOTS = 1 << SLOT_BITS;
+  private static final int MASK = SLOTS - 1;
+  private static final int LEVELS = 6;
+
+  /** Farthest tick the wheel can tell apart; later deadlines wait in the last slot of the top. */
+  private static final long RANGE = 1L << (SLOT_BITS * LEVELS);
+
+  private final long tickMillis;
+  private final Entry[][] slots = new Entry[LEVELS][SLOTS];
+  private final int[] counts = new int[LEVELS];
+  private Entry due;
+  private long now;
+  private int size;
+
+  /**
+   * Creates an empty wheel.
+   *
+   * @param tickMillis length of a tick, the precision of the deadlines
+   * @param startMillis current time
+   */
+  TimingWheel(long tickMillis, long startMillis) {
+    if (tickMillis <= 0) {
+      throw new IllegalArgumentException("Tick must be positive");
+    }
+    this.tickMillis = tickMillis;
+    this.now = Math.floorDiv(startMillis, tickMillis);
+  }
+
+  /**
+   * Schedules a key. A key scheduled several times fires several times.
+   *
+   * @param key key
+   * @param deadlineMillis time the key fires at
+   */
+  synchronized void schedule(String key, long deadlineMillis) {
+    insert(new Entry(key, -Math.floorDiv(-deadlineMillis, tickMillis)));
+    size++;
+  }
+
+  /**
+   * Turns the wheel up to the given time.
+   *
+   * @param nowMillis current time
+   * @return keys whose deadline has come, in no particular order
+   */
+  synchronized List<String> advance(long nowMillis) {
+    long target = Math.floorDiv(nowMillis, tickMillis);
+    while (now < target) {
+      int lowest = 0;
+      while (lowest < LEVELS && counts[lowest] == 0) {
+        lowest++;
+      }
+      if (lowest > 0) {
+        // Nothing happens below the lowest occupied level until the wheel reaches its next slot.
+        long next = lowest == LEVELS ? Long.MAX_VALUE
+            : ((now >>> (SLOT_BITS * lowest)) + 1) << (SLOT_BITS * lowest);
+        if (next > target) {
+          now = target;
+          break;
+        }
+        now = next - 1;
+      }
+      now++;
+      int level = 1;
+      while (level < LEVELS && (now & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+        level++;
+      }
+      for (level--; level >= 0; level--) {
+        int slot = (int) (now >>> (SLOT_BITS * level)) & MASK;
+        Entry entry = slots[level][slot];
+        slots[level][slot] = null;
+        while (entry != null) {
+          Entry next = entry.next;
+          counts[level]--;
+          insert(entry);
+          entry = next;
+        }
+      }
+    }
+    List<String> expired = new ArrayList<>();
+    for (Entry entry = due; entry != null; entry = entry.next) {
+      expired.add(entry.key);
+    }
+    due = null;
+    size -= expired.size();
+    return expired;
+  }
+
+  /**
+   * Number of keys waiting in the wheel.
+   *
+   * @return scheduled keys that have not fired yet
+   */
+  synchronized int size() {
+    return size;
+  }
+
+  private void insert(Entry entry) {
+    long delay = entry.tick - now;
+    if (delay <= 0) {
+      entry.next = due;
+      due = entry;
+      return;
+    }
+    int level = 0;
+    while (level < LEVELS - 1 && delay >= 1L << (SLOT_BITS * (level + 1))) {
+      level++;
+    }
+    long tick = delay < RANGE ? entry.tick : now + RANGE - 1;
+    int slot = (int) (tick >>> (SLOT_BITS * level)) & MASK;
+    entry.next = slots[level][slot];
+    slots[level][slot] = entry;
+    counts[level]++;
+  }
+
+  private static final class Entry {
+
+    final String key;
+    final long tick;
+    Entry next;
+
+    Entry(String key, long tick) {
+      this.key = key;
+      this.tick = tick;
+    }
+  }
+}
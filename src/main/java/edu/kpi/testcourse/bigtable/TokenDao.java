@@ -1,19 +1,52 @@
 package edu.kpi.testcourse.bigtable;
 
-import java.util.Map;
-import java.util.Set;
-
 /**
  * DAO for invalid JWT tokens.
  */
 public interface TokenDao extends Serializible {
 
-  void add(String email, String invalidToken);
+  /**
+   * Revokes a token until it expires.
+   *
+   * @param invalidToken the token
+   * @param expiresAt expiration time of the token in milliseconds since the epoch, 0 if it is
+   *     not known; such a token is kept as long as any issued token can live
+   */
+  void add(String invalidToken, long expiresAt);
+
+  /**
+   * Revokes a token whose expiration time is not known.
+   *
+   * @param invalidToken the token
+   */
+  default void add(String invalidToken) {
+    add(invalidToken, 0);
+  }
+
+  void remove(String invalidToken);
 
-  void remove(String email, String invalidToken);
+  /**
+   * Checks whether the token has been revoked. This runs on every authenticated request.
+   *
+   * @param token the token
+   * @return true if the token is revoked
+   */
+  boolean isRevoked(String token);
 
-  Set<String> get(String email);
+  /**
+   * Number of revoked tokens kept.
+   *
+   * @return revoked tokens that have not been removed yet
+   */
+  int size();
 
-  Map<String, Set<String>> getAll();
+  /**
+   * Forgets the revoked tokens that have expired: they are rejected for their expiry anyway.
+   * Only the tokens that have expired are looked at, and no token is parsed.
+   *
+   * @param now current time in milliseconds since the epoch
+   * @return number of tokens forgotten
+   */
+  int removeExpired(long now);
 
 }
@@ -1,54 +1,259 @@
 package edu.kpi.testcourse.bigtable;
 
-import edu.kpi.testcourse.Main;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import io.micronaut.context.annotation.Value;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import javax.inject.Inject;
 import javax.inject.Singleton;
 
+/**
+ * Revoked tokens, kept as {@link TokenDigest}s in a {@link DigestSet} with the time each token
+ * expires at. The check of a token is one hash probe and every entry takes the same few bytes.
+ *
+ * <p>Snapshots and the journal hold the digests too. Data written when whole tokens were kept per
+ * user ({@code {email: [token]}} and snapshots before version 3) is still read.
+ */
 @Singleton
 class TokenDaoImpl implements TokenDao {
 
-  private final Map<String, Set<String>> map = new HashMap<>();
+  /** Width of the expiry buckets; a bucket is dropped once all of it is in the past. */
+  static final long BUCKET_MILLIS = 60_000;
+
+  private static final long DEFAULT_LIFETIME_SECONDS = 3600;
+
+  private final DigestSet revoked = new DigestSet();
+
+  /**
+   * Expiry index: bucket to the digests that expire in it, as {@code [hi, lo]} pairs. Digests are
+   * only appended; one that was removed or got another expiry is skipped by the cleanup, which
+   * checks the set before it removes anything. Guarded by itself.
+   */
+  private final TreeMap<Long, Bucket> byExpiry = new TreeMap<>();
+
+  private final MutationLog log;
+  private final long maxLifetimeMillis;
+
+  TokenDaoImpl() {
+    this(new MutationLog());
+  }
+
+  TokenDaoImpl(MutationLog log) {
+    this(log, DEFAULT_LIFETIME_SECONDS);
+  }
+
+  /**
+   * Creates the table.
+   *
+   * @param log journal of changes
+   * @param maxLifetimeSeconds lifetime of the issued tokens; a token whose expiry is not known
+   *     is kept for that long from the time it is revoked or restored
+   */
+  @Inject
+  TokenDaoImpl(MutationLog log,
+      @Value("${micronaut.security.token.jwt.generator.access-token.expiration:3600}")
+          long maxLifetimeSeconds) {
+    this.log = log;
+    this.maxLifetimeMillis = maxLifetimeSeconds * 1000;
+  }
+
+  @Override
+  public void add(String invalidToken, long expiresAt) {
+    put(TokenDigest.of(invalidToken), known(expiresAt));
+  }
 
   @Override
-  public void add(String email, String invalidToken) {
-    Set<String> previousList = map.computeIfAbsent(email, k -> new HashSet<>());
-    previousList.add(invalidToken);
+  public void remove(String invalidToken) {
+    put(TokenDigest.of(invalidToken), DigestSet.NONE);
   }
 
   @Override
-  public void remove(String email, String invalidToken) {
-    if (map.containsKey(email)) {
-      map.get(email).remove(invalidToken);
+  public boolean isRevoked(String token) {
+    TokenDigest digest = TokenDigest.of(token);
+    return revoked.get(digest.hi(), digest.lo()) != DigestSet.NONE;
+  }
+
+  @Override
+  public int size() {
+    return revoked.size();
+  }
+
+  @Override
+  public int removeExpired(long now) {
+    List<Bucket> expired = new ArrayList<>();
+    synchronized (byExpiry) {
+      NavigableMap<Long, Bucket> past =
+          byExpiry.headMap(Math.floorDiv(now, BUCKET_MILLIS), false);
+      expired.addAll(past.values());
+      past.clear();
     }
+    int removed = 0;
+    for (Bucket bucket : expired) {
+      for (int i = 0; i < bucket.size; i += 2) {
+        TokenDigest digest = new TokenDigest(bucket.digests[i], bucket.digests[i + 1]);
+        if (removeIfExpired(digest, now)) {
+          removed++;
+        }
+      }
+    }
+    return removed;
+  }
+
+  @Override
+  public void writeJson(JsonWriter out) throws IOException {
+    long[] entries = revoked.snapshot();
+    out.beginObject();
+    for (int i = 0; i < entries.length; i += 3) {
+      out.name(new TokenDigest(entries[i], entries[i + 1]).toString()).value(entries[i + 2]);
+    }
+    out.endObject();
+    out.flush();
   }
 
+  /**
+   * Reads {@code {digest: expiresAt}}, or {@code {email: [token]}} and
+   * {@code {email: {token: expiresAt}}} written before the tokens were digested.
+   */
   @Override
-  public Set<String> get(String email) {
-    return map.get(email);
+  public void readJson(JsonReader in) throws IOException {
+    in.beginObject();
+    while (in.hasNext()) {
+      String name = in.nextName();
+      switch (in.peek()) {
+        case BEGIN_ARRAY -> {
+          in.beginArray();
+          while (in.hasNext()) {
+            add(in.nextString(), 0);
+          }
+          in.endArray();
+        }
+        case BEGIN_OBJECT -> {
+          in.beginObject();
+          while (in.hasNext()) {
+            add(in.nextName(), in.nextLong());
+          }
+          in.endObject();
+        }
+        default -> put(TokenDigest.parse(name), known(in.nextLong()));
+      }
+    }
+    in.endObject();
   }
 
   @Override
-  public Map<String, Set<String>> getAll() {
-    return map;
+  public void writeBinary(SnapshotWriter out) throws IOException {
+    long[] entries = revoked.snapshot();
+    for (int i = 0; i < entries.length; i += 3) {
+      out.writeBytes(new TokenDigest(entries[i], entries[i + 1]).toBytes());
+      out.writeVarLong(entries[i + 2]);
+      out.endRecord();
+    }
+    out.finish();
   }
 
   @Override
-  public String toJson() {
-    Map<String, Set<String>> users = this.getAll();
-    return Main.getGson().toJson(users);
+  public void readBinary(SnapshotReader in) throws IOException {
+    while (in.nextRecord()) {
+      if (in.version() >= 4) {
+        put(TokenDigest.fromBytes(in.readBytes()), known(in.readVarLong()));
+        continue;
+      }
+      in.readString();
+      long count = in.readVarLong();
+      for (long i = 0; i < count; i++) {
+        String token = in.readString();
+        add(token, in.version() >= 3 ? in.readVarLong() : 0);
+      }
+    }
   }
 
   @Override
-  public void fromJson(String tokensJson) {
-    Map<String, Set<String>> tokensMap = Main.getGson().fromJson(tokensJson, Map.class);
-    map.putAll(tokensMap);
+  public void clear() {
+    revoked.clear();
+    synchronized (byExpiry) {
+      byExpiry.clear();
+    }
   }
 
   @Override
   public String getFileName() {
     return "tokens.json";
   }
+
+  @Override
+  public String getTableName() {
+    return "tokens";
+  }
+
+  /**
+   * Applies {@code PUT digest expiresAt} and {@code REMOVE digest}, and the
+   * {@code PUT email token [expiresAt]} and {@code REMOVE email token} of older journals.
+   */
+  @Override
+  public void apply(Mutation mutation) {
+    String[] fields = mutation.fields();
+    boolean digested = TokenDigest.isDigest(fields[0])
+        && fields.length == (mutation.op() == Mutation.PUT ? 2 : 1);
+    if (mutation.op() == Mutation.PUT) {
+      if (digested) {
+        put(TokenDigest.parse(fields[0]), known(Long.parseLong(fields[1])));
+      } else {
+        add(fields[1], fields.length > 2 ? Long.parseLong(fields[2]) : 0);
+      }
+    } else if (mutation.op() == Mutation.REMOVE) {
+      put(digested ? TokenDigest.parse(fields[0]) : TokenDigest.of(fields[1]), DigestSet.NONE);
+    }
+  }
+
+  private long known(long expiresAt) {
+    return expiresAt != 0 ? expiresAt : System.currentTimeMillis() + maxLifetimeMillis;
+  }
+
+  /**
+   * Binds the digest to the expiry, or removes it, and journals the change. Writers take the
+   * monitor of the table so the journal follows the order of the changes.
+   */
+  private synchronized void put(TokenDigest digest, long expiresAt) {
+    long old = revoked.put(digest.hi(), digest.lo(), expiresAt);
+    if (old == expiresAt) {
+      return;
+    }
+    if (expiresAt == DigestSet.NONE) {
+      log.append(getTableName(), Mutation.REMOVE, digest.toString());
+      return;
+    }
+    synchronized (byExpiry) {
+      byExpiry.computeIfAbsent(Math.floorDiv(expiresAt, BUCKET_MILLIS), bucket -> new Bucket())
+          .add(digest);
+    }
+    log.append(getTableName(), Mutation.PUT, digest.toString(), Long.toString(expiresAt));
+  }
+
+  private synchronized boolean removeIfExpired(TokenDigest digest, long now) {
+    long expiresAt = revoked.get(digest.hi(), digest.lo());
+    if (expiresAt == DigestSet.NONE || expiresAt > now) {
+      return false;
+    }
+    put(digest, DigestSet.NONE);
+    return true;
+  }
+
+  private static final class Bucket {
+
+    long[] digests = new long[8];
+    int size;
+
+    void add(TokenDigest digest) {
+      if (size == digests.length) {
+        digests = Arrays.copyOf(digests, 2 * size);
+      }
+      digests[size++] = digest.hi();
+      digests[size++] = digest.lo();
+    }
+  }
 }
@@ -0,0 +1,92 @@
+package edu.kpi.testcourse.bigtable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * First 128 bits of the SHA-256 of a token. Revoked tokens are kept as these instead of the
+ * tokens themselves: a JWT takes several hundred bytes, the digest takes two {@code long}s, and
+ * two different tokens share a digest with a negligible chance.
+ *
+ * @param hi first 64 bits, never zero
+ * @param lo next 64 bits
+ */
+record TokenDigest(long hi, long lo) {
+
+  static final int BYTES = 16;
+
+  private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  });
+
+  /**
+   * Zero {@code hi} marks an empty slot of {@link DigestSet}, so it is stored as one, whatever
+   * {@code lo} is. A token then shares its digest with another one with a chance of 2^-64 more,
+   * which is not worth another bit.
+   */
+  TokenDigest {
+    if (hi == 0) {
+      hi = 1;
+    }
+  }
+
+  static TokenDigest of(String token) {
+    byte[] hash = SHA_256.get().digest(token.getBytes(StandardCharsets.UTF_8));
+    return fromBytes(hash);
+  }
+
+  /**
+   * Reads a digest from its first {@value #BYTES} bytes.
+   *
+   * @param bytes at least {@value #BYTES} bytes
+   * @return the digest
+   */
+  static TokenDigest fromBytes(byte[] bytes) {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    long hi = buffer.getLong();
+    long lo = buffer.getLong();
+    return new TokenDigest(hi, lo);
+  }
+
+  /**
+   * Parses a digest written by {@link #toString()}.
+   *
+   * @param hex 32 hex digits
+   * @return the digest
+   * @throws IllegalArgumentException if the text is not a digest
+   */
+  static TokenDigest parse(String hex) {
+    if (hex.length() != 2 * BYTES) {
+      throw new IllegalArgumentException("Not a token digest: " + hex);
+    }
+    return new TokenDigest(Long.parseUnsignedLong(hex.substring(0, BYTES), 16),
+        Long.parseUnsignedLong(hex.substring(BYTES), 16));
+  }
+
+  static boolean isDigest(String text) {
+    if (text.length() != 2 * BYTES) {
+      return false;
+    }
+    for (int i = 0; i < text.length(); i++) {
+      if (Character.digit(text.charAt(i), 16) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  byte[] toBytes() {
+    return ByteBuffer.allocate(BYTES).putLong(hi).putLong(lo).array();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%016x%016x", hi, lo);
+  }
+}
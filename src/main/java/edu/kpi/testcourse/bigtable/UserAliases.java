@@ -0,0 +1,148 @@
+package edu.kpi.testcourse.bigtable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Aliases of a single user, kept sorted both by creation time and by name.
+ *
+ * <p>A page is read by seeking to the cursor in the matching skip list and walking forward, so
+ * it costs O(log n + page size). Cursors encode the sort key of the last alias of a page, which
+ * keeps them valid while aliases are added or removed around them.
+ */
+final class UserAliases {
+
+  private static final Comparator<Alias> BY_CREATED = Comparator
+      .comparingLong(Alias::getCreatedAt)
+      .thenComparing(Alias::getShorten);
+
+  private static final Comparator<Alias> BY_ALIAS = Comparator.comparing(Alias::getShorten);
+
+  private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+  private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+  private final ConcurrentSkipListSet<Alias> byCreated = new ConcurrentSkipListSet<>(BY_CREATED);
+  private final ConcurrentSkipListSet<Alias> byAlias = new ConcurrentSkipListSet<>(BY_ALIAS);
+
+  void add(Alias alias) {
+    byCreated.add(alias);
+    byAlias.add(alias);
+  }
+
+  void remove(Alias alias) {
+    byCreated.remove(alias);
+    byAlias.remove(alias);
+  }
+
+  boolean isEmpty() {
+    return byAlias.isEmpty();
+  }
+
+  ArrayList<Alias> all() {
+    return new ArrayList<>(byCreated);
+  }
+
+  /**
+   * Walks the sort keys by creation time, without copying them. The walk is weakly consistent:
+   * keys added or removed meanwhile may or may not show.
+   *
+   * @return sort keys of the aliases, oldest first
+   */
+  Iterator<Alias> iterator() {
+    return byCreated.iterator();
+  }
+
+  /**
+   * Lists the aliases created before the time, oldest first.
+   *
+   * @param time creation time in milliseconds since the epoch, exclusive
+   * @return short names of the aliases
+   */
+  List<String> createdBefore(long time) {
+    List<String> shortens = new ArrayList<>();
+    for (Alias alias : byCreated.headSet(new Alias("", null, null, time))) {
+      shortens.add(alias.getShorten());
+    }
+    return shortens;
+  }
+
+  /**
+   * Reads the page that follows the cursor.
+   *
+   * @param order sort order, must be the same the cursor was issued for
+   * @param cursor cursor of the previous page, or null for the first page
+   * @param limit maximum number of aliases on the page
+   * @return the page
+   * @throws IllegalArgumentException if the cursor is malformed
+   */
+  AliasPage page(AliasOrder order, String cursor, int limit) {
+    return page(order == AliasOrder.ALIAS ? byAlias : byCreated, cursor, limit);
+  }
+
+  /**
+   * Reads the page that follows the cursor from aliases of a user listed by other means, such
+   * as from the records of a file. Cursors are the same as of {@link #page(AliasOrder, String,
+   * int)}.
+   *
+   * @param aliases all aliases of the user, in any order
+   * @param order sort order, must be the same the cursor was issued for
+   * @param cursor cursor of the previous page, or null for the first page
+   * @param limit maximum number of aliases on the page
+   * @return the page
+   * @throws IllegalArgumentException if the cursor is malformed
+   */
+  static AliasPage page(Collection<Alias> aliases, AliasOrder order, String cursor, int limit) {
+    NavigableSet<Alias> sorted = new TreeSet<>(comparator(order));
+    sorted.addAll(aliases);
+    return page(sorted, cursor, limit);
+  }
+
+  private static AliasPage page(NavigableSet<Alias> sorted, String cursor, int limit) {
+    NavigableSet<Alias> tail = cursor == null ? sorted : sorted.tailSet(decode(cursor), false);
+    List<Alias> aliases = new ArrayList<>(Math.min(limit, 256));
+    Alias last = null;
+    for (Alias alias : tail) {
+      if (aliases.size() == limit) {
+        return new AliasPage(aliases, encode(last));
+      }
+      aliases.add(alias);
+      last = alias;
+    }
+    return new AliasPage(aliases, null);
+  }
+
+  static AliasPage emptyPage() {
+    return new AliasPage(List.of(), null);
+  }
+
+  static Comparator<Alias> comparator(AliasOrder order) {
+    return order == AliasOrder.ALIAS ? BY_ALIAS : BY_CREATED;
+  }
+
+  static String encode(Alias last) {
+    String key = last.getCreatedAt() + ":" + last.getShorten();
+    return ENCODER.encodeToString(key.getBytes(StandardCharsets.UTF_8));
+  }
+
+  static Alias decode(String cursor) {
+    String key = new String(DECODER.decode(cursor), StandardCharsets.UTF_8);
+    int separator = key.indexOf(':');
+    if (separator < 0) {
+      throw new IllegalArgumentException("Malformed cursor");
+    }
+    try {
+      long createdAt = Long.parseLong(key.substring(0, separator));
+      return new Alias(key.substring(separator + 1), null, null, createdAt);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Malformed cursor", e);
+    }
+  }
+}
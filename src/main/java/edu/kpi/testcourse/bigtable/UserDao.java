@@ -9,6 +9,25 @@ public interface UserDao extends Serializible {
 
   void put(String email, String password);
 
+  /**
+   * Atomically registers the user unless the email is already taken.
+   *
+   * @param email user email
+   * @param password encoded password
+   * @return encoded password of the existing user, or null if the user was added
+   */
+  String putIfAbsent(String email, String password);
+
+  /**
+   * Atomically changes the password if it is still equal to the expected one.
+   *
+   * @param email user email
+   * @param expectedPassword encoded password the caller has seen
+   * @param password new encoded password
+   * @return true if the password was changed
+   */
+  boolean replace(String email, String expectedPassword, String password);
+
   String get(String email);
 
   Map<String, String> getAll();
@@ -1,20 +1,43 @@
 package edu.kpi.testcourse.bigtable;
 
-import edu.kpi.testcourse.Main;
-import java.util.HashMap;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
 import java.util.Map;
+import javax.inject.Inject;
 import javax.inject.Singleton;
 
 @Singleton
 class UserDaoImpl implements UserDao {
 
-  private final Map<String, String> map = new HashMap<>();
+  private final VersionedMap<String, String> map = new VersionedMap<>(this::journal);
+
+  private final MutationLog log;
+
+  UserDaoImpl() {
+    this(new MutationLog());
+  }
+
+  @Inject
+  UserDaoImpl(MutationLog log) {
+    this.log = log;
+  }
 
   @Override
   public void put(String email, String password) {
     map.put(email, password);
   }
 
+  @Override
+  public String putIfAbsent(String email, String password) {
+    return map.putIfAbsent(email, password);
+  }
+
+  @Override
+  public boolean replace(String email, String expectedPassword, String password) {
+    return map.replace(email, expectedPassword, password);
+  }
+
   @Override
   public String get(String email) {
     return map.get(email);
@@ -22,28 +45,74 @@ class UserDaoImpl implements UserDao {
 
   @Override
   public Map<String, String> getAll() {
-    return map;
+    return map.snapshot();
   }
 
   @Override
   public void putAll(Map<String, String> map) {
-    this.map.putAll(map);
+    map.forEach(this::put);
+  }
+
+  @Override
+  public void writeJson(JsonWriter out) throws IOException {
+    out.beginObject();
+    for (Map.Entry<String, String> user : map.snapshot().entrySet()) {
+      out.name(user.getKey()).value(user.getValue());
+    }
+    out.endObject();
+    out.flush();
   }
 
   @Override
-  public String toJson() {
-    Map<String, String> users = this.getAll();
-    return Main.getGson().toJson(users);
+  public void readJson(JsonReader in) throws IOException {
+    in.beginObject();
+    while (in.hasNext()) {
+      String email = in.nextName();
+      map.put(email, in.nextString());
+    }
+    in.endObject();
   }
 
   @Override
-  public void fromJson(String usersJson) {
-    Map<String, String> usersMap = Main.getGson().fromJson(usersJson, Map.class);
-    map.putAll(usersMap);
+  public void writeBinary(SnapshotWriter out) throws IOException {
+    for (Map.Entry<String, String> user : map.snapshot().entrySet()) {
+      out.writeString(user.getKey());
+      out.writeString(user.getValue());
+      out.endRecord();
+    }
+    out.finish();
+  }
+
+  @Override
+  public void readBinary(SnapshotReader in) throws IOException {
+    while (in.nextRecord()) {
+      map.put(in.readString(), in.readString());
+    }
+  }
+
+  @Override
+  public void clear() {
+    map.clear();
   }
 
   @Override
   public String getFileName() {
     return "users.json";
   }
+
+  @Override
+  public String getTableName() {
+    return "users";
+  }
+
+  @Override
+  public void apply(Mutation mutation) {
+    if (mutation.op() == Mutation.PUT) {
+      map.put(mutation.fields()[0], mutation.fields()[1]);
+    }
+  }
+
+  private void journal(String email, String oldPassword, String password) {
+    log.append(getTableName(), Mutation.PUT, email, password);
+  }
 }
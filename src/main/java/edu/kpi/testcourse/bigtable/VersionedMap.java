@@ -0,0 +1,438 @@
+package edu.kpi.testcourse.bigtable;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+
+/**
+ * Concurrent mutable table on top of {@link PersistentHashMap}.
+ *
+ * <p>Keys are spread over lock stripes by hash. Every stripe holds its latest published version
+ * in a volatile field: reads never lock, writers lock only their own stripe, build a new version
+ * and publish it. Conditional operations ({@link #putIfAbsent}, {@link #remove(Object,
+ * Predicate)}, {@link #replace}) are atomic per key.
+ *
+ * <p>{@link #snapshot()} briefly locks all stripes just to read their versions, which gives a
+ * consistent point-in-time view of the whole table that never changes afterwards.
+ *
+ * <p>The listener is called under the stripe lock for every effective change, so changes of the
+ * same key reach it in the same order as they are applied.
+ *
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+final class VersionedMap<K, V> {
+
+  private static final int DEFAULT_STRIPES = 64;
+
+  /**
+   * Receiver of the changes of a table.
+   */
+  interface Listener<K, V> {
+
+    /**
+     * Called after the value of the key has changed.
+     *
+     * @param key changed key
+     * @param oldValue previous value, null if the key was absent
+     * @param newValue new value, null if the key was removed
+     */
+    void changed(K key, V oldValue, V newValue);
+  }
+
+  private final Stripe<K, V>[] stripes;
+  private final int shift;
+  private final Listener<K, V> listener;
+
+  VersionedMap() {
+    this((key, oldValue, newValue) -> { });
+  }
+
+  VersionedMap(Listener<K, V> listener) {
+    this(DEFAULT_STRIPES, listener);
+  }
+
+  @SuppressWarnings("unchecked")
+  VersionedMap(int stripeCount, Listener<K, V> listener) {
+    if (Integer.bitCount(stripeCount) != 1) {
+      throw new IllegalArgumentException("Stripe count must be a power of two: " + stripeCount);
+    }
+    this.stripes = new Stripe[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new Stripe<>();
+    }
+    this.shift = Integer.SIZE - Integer.numberOfTrailingZeros(stripeCount);
+    this.listener = listener;
+  }
+
+  V get(K key) {
+    return stripeFor(key).version.get(key);
+  }
+
+  V put(K key, V value) {
+    return compute(key, (k, oldValue) -> value, true);
+  }
+
+  V remove(K key) {
+    return compute(key, (k, oldValue) -> null, true);
+  }
+
+  /**
+   * Binds the value to the key unless the key already has a value.
+   *
+   * @param key key
+   * @param value value to bind
+   * @return the existing value, or null if the value was bound
+   */
+  V putIfAbsent(K key, V value) {
+    return compute(key, (k, oldValue) -> oldValue == null ? value : oldValue, true);
+  }
+
+  /**
+   * Binds every value to its key, like {@link #putIfAbsent} for each pair, except that an
+   * existing value the condition accepts is overwritten too. The keys are grouped by stripe, so
+   * each stripe is locked once for the whole batch rather than once per key, and only one stripe
+   * is locked at a time. Every pair is atomic on its own; the batch as a whole is not. Uncontended
+   * locks are cheap, so this is not much faster than {@link #putIfAbsent} per key on its own;
+   * {@code AliasBatchBenchmark} compares the two.
+   *
+   * @param keys keys, a key that repeats finds the value bound for it earlier in the batch
+   * @param values values, in the order of the keys
+   * @param replaceable accepts the existing values that may be overwritten
+   * @return for each key, the existing value that was kept, or null if the value was bound
+   */
+  List<V> putAllIfAbsent(List<K> keys, List<V> values, Predicate<? super V> replaceable) {
+    int[] order = new int[keys.size()];
+    long[] byStripe = new long[keys.size()];
+    for (int i = 0; i < byStripe.length; i++) {
+      byStripe[i] = (long) stripeIndex(keys.get(i), shift) << Integer.SIZE | i;
+    }
+    Arrays.sort(byStripe);
+    for (int i = 0; i < order.length; i++) {
+      order[i] = (int) byStripe[i];
+    }
+    List<V> kept = new ArrayList<>(Collections.nCopies(keys.size(), null));
+    int from = 0;
+    while (from < order.length) {
+      Stripe<K, V> stripe = stripeFor(keys.get(order[from]));
+      stripe.lock.lock();
+      try {
+        do {
+          K key = keys.get(order[from]);
+          V oldValue = stripe.version.get(key);
+          if (oldValue == null || replaceable.test(oldValue)) {
+            commit(stripe, key, oldValue, values.get(order[from]));
+          } else {
+            kept.set(order[from], oldValue);
+          }
+          from++;
+        } while (from < order.length && stripeFor(keys.get(order[from])) == stripe);
+      } finally {
+        stripe.lock.unlock();
+      }
+    }
+    return kept;
+  }
+
+  /**
+   * Removes the key if its current value matches the condition.
+   *
+   * @param key key
+   * @param condition checked against the current value under the stripe lock
+   * @return true if the key was removed
+   */
+  boolean remove(K key, Predicate<? super V> condition) {
+    Stripe<K, V> stripe = stripeFor(key);
+    stripe.lock.lock();
+    try {
+      V oldValue = stripe.version.get(key);
+      if (oldValue == null || !condition.test(oldValue)) {
+        return false;
+      }
+      commit(stripe, key, oldValue, null);
+      return true;
+    } finally {
+      stripe.lock.unlock();
+    }
+  }
+
+  /**
+   * Removes every key whose current value matches the condition, as one atomic change: the
+   * stripes of all keys are locked together, in the same order as {@link #snapshot} locks them,
+   * so a snapshot sees either none or all of the removals.
+   *
+   * @param keys keys to remove
+   * @param condition checked against the current value of each key under the stripe locks
+   * @return number of keys removed
+   */
+  int removeAll(Collection<K> keys, Predicate<? super V> condition) {
+    BitSet locked = new BitSet(stripes.length);
+    for (K key : keys) {
+      locked.set(stripeIndex(key, shift));
+    }
+    for (int i = locked.nextSetBit(0); i >= 0; i = locked.nextSetBit(i + 1)) {
+      stripes[i].lock.lock();
+    }
+    try {
+      int removed = 0;
+      for (K key : keys) {
+        Stripe<K, V> stripe = stripeFor(key);
+        V oldValue = stripe.version.get(key);
+        if (oldValue != null && condition.test(oldValue)) {
+          commit(stripe, key, oldValue, null);
+          removed++;
+        }
+      }
+      return removed;
+    } finally {
+      for (int i = locked.nextSetBit(0); i >= 0; i = locked.nextSetBit(i + 1)) {
+        stripes[i].lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Replaces the value of the key only if it currently equals the expected one.
+   *
+   * @param key key
+   * @param expected expected current value
+   * @param value new value
+   * @return true if the value was replaced
+   */
+  boolean replace(K key, V expected, V value) {
+    Stripe<K, V> stripe = stripeFor(key);
+    stripe.lock.lock();
+    try {
+      V oldValue = stripe.version.get(key);
+      if (oldValue == null || !oldValue.equals(expected)) {
+        return false;
+      }
+      commit(stripe, key, oldValue, value);
+      return true;
+    } finally {
+      stripe.lock.unlock();
+    }
+  }
+
+  /**
+   * Replaces the value of the key with the result of the function, removing the key if the
+   * result is null. The function sees the current value, or null if there is none, and runs under
+   * the stripe lock.
+   *
+   * @param key key to update
+   * @param function computes the new value from the key and the old value
+   * @return the new value
+   */
+  V compute(K key, BiFunction<? super K, ? super V, ? extends V> function) {
+    return compute(key, function, false);
+  }
+
+  /**
+   * Returns a consistent version of the whole table. It is immutable and stays consistent while
+   * writers keep going.
+   *
+   * @return frozen version of the table
+   */
+  Map<K, V> snapshot() {
+    return snapshot(0, 1);
+  }
+
+  /**
+   * Returns a consistent version of one part of the table. The parts are contiguous ranges of
+   * stripes, so only the stripes of the part are locked, and a key always falls into the same
+   * part for the same number of parts.
+   *
+   * @param part index of the part, from 0 to {@code parts - 1}
+   * @param parts number of parts, not more than the number of stripes
+   * @return frozen version of the part
+   */
+  Map<K, V> snapshot(int part, int parts) {
+    if (parts < 1 || parts > stripes.length || part < 0 || part >= parts) {
+      throw new IllegalArgumentException("No part " + part + " of " + parts);
+    }
+    int from = (int) ((long) part * stripes.length / parts);
+    int to = (int) ((long) (part + 1) * stripes.length / parts);
+    @SuppressWarnings("unchecked")
+    PersistentHashMap<K, V>[] versions = new PersistentHashMap[to - from];
+    for (int i = from; i < to; i++) {
+      stripes[i].lock.lock();
+    }
+    try {
+      for (int i = from; i < to; i++) {
+        versions[i - from] = stripes[i].version;
+      }
+    } finally {
+      for (int i = from; i < to; i++) {
+        stripes[i].lock.unlock();
+      }
+    }
+    return new Snapshot<>(versions, from, shift);
+  }
+
+  /**
+   * Empties the table as one atomic change, locking all stripes in the order {@link #snapshot}
+   * does. The listener is not called: the removed entries are dropped, not removed one by one.
+   */
+  void clear() {
+    for (Stripe<K, V> stripe : stripes) {
+      stripe.lock.lock();
+    }
+    try {
+      for (Stripe<K, V> stripe : stripes) {
+        stripe.version = PersistentHashMap.empty();
+      }
+    } finally {
+      for (Stripe<K, V> stripe : stripes) {
+        stripe.lock.unlock();
+      }
+    }
+  }
+
+  int stripeCount() {
+    return stripes.length;
+  }
+
+  int size() {
+    int size = 0;
+    for (Stripe<K, V> stripe : stripes) {
+      size += stripe.version.size();
+    }
+    return size;
+  }
+
+  private V compute(K key, BiFunction<? super K, ? super V, ? extends V> function,
+      boolean returnOld) {
+    Stripe<K, V> stripe = stripeFor(key);
+    stripe.lock.lock();
+    try {
+      V oldValue = stripe.version.get(key);
+      V newValue = function.apply(key, oldValue);
+      commit(stripe, key, oldValue, newValue);
+      return returnOld ? oldValue : newValue;
+    } finally {
+      stripe.lock.unlock();
+    }
+  }
+
+  private void commit(Stripe<K, V> stripe, K key, V oldValue, V newValue) {
+    if (oldValue == newValue) {
+      return;
+    }
+    stripe.version = newValue == null
+        ? stripe.version.minus(key)
+        : stripe.version.plus(key, newValue);
+    listener.changed(key, oldValue, newValue);
+  }
+
+  private Stripe<K, V> stripeFor(Object key) {
+    return stripes[stripeIndex(key, shift)];
+  }
+
+  /**
+   * Picks a stripe by the high bits of the mixed hash, so the low bits that the trie uses for
+   * its first levels stay well distributed inside a stripe.
+   */
+  private static int stripeIndex(Object key, int shift) {
+    return shift == Integer.SIZE ? 0 : (key.hashCode() * 0x9E3779B9) >>> shift;
+  }
+
+  private static final class Stripe<K, V> {
+
+    final ReentrantLock lock = new ReentrantLock();
+    volatile PersistentHashMap<K, V> version = PersistentHashMap.empty();
+  }
+
+  /**
+   * Read-only view over the versions of a range of stripes taken at the same moment.
+   */
+  private static final class Snapshot<K, V> extends AbstractMap<K, V> {
+
+    private final PersistentHashMap<K, V>[] versions;
+    private final int from;
+    private final int shift;
+    private final int size;
+
+    Snapshot(PersistentHashMap<K, V>[] versions, int from, int shift) {
+      this.versions = versions;
+      this.from = from;
+      this.shift = shift;
+      int total = 0;
+      for (PersistentHashMap<K, V> version : versions) {
+        total += version.size();
+      }
+      this.size = total;
+    }
+
+    @Override
+    public V get(Object key) {
+      int stripe = stripeIndex(Objects.requireNonNull(key), shift) - from;
+      return stripe < 0 || stripe >= versions.length ? null : versions[stripe].get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+      for (PersistentHashMap<K, V> version : versions) {
+        version.forEach(action);
+      }
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+      return new AbstractSet<>() {
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+          return new Iterator<>() {
+            private int stripe;
+            private Iterator<Entry<K, V>> current = versions[0].entrySet().iterator();
+
+            @Override
+            public boolean hasNext() {
+              while (!current.hasNext() && stripe < versions.length - 1) {
+                stripe++;
+                current = versions[stripe].entrySet().iterator();
+              }
+              return current.hasNext();
+            }
+
+            @Override
+            public Entry<K, V> next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              return current.next();
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return size;
+        }
+      };
+    }
+  }
+}
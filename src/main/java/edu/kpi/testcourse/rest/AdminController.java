@@ -0,0 +1,83 @@
+package edu.kpi.testcourse.rest;
+
+import edu.kpi.testcourse.Main;
+import edu.kpi.testcourse.bigtable.Alias;
+import edu.kpi.testcourse.bigtable.AliasDao;
+import io.micronaut.context.annotation.Value;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.HttpStatus;
+import io.micronaut.http.MutableHttpResponse;
+import io.micronaut.http.annotation.Controller;
+import io.micronaut.http.annotation.Get;
+import io.micronaut.http.annotation.QueryValue;
+import io.micronaut.security.annotation.Secured;
+import io.micronaut.security.rules.SecurityRule;
+import io.reactivex.Flowable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * REST API controller for the administrators of a node. Every request has to carry
+ * {@code admin.token} in {@value #TOKEN_HEADER}; while the token is not set, the API is off.
+ */
+@Secured(SecurityRule.IS_ANONYMOUS)
+@Controller("/admin")
+public class AdminController {
+
+  /** Newline-delimited JSON: one JSON object per line. */
+  public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+  public static final String TOKEN_HEADER = "X-Admin-Token";
+
+  private static final Logger logger = LoggerFactory.getLogger(AdminController.class);
+
+  @Inject
+  private AliasDao aliasDao;
+
+  @Value("${admin.token:}")
+  private String token;
+
+  /**
+   * Exports the aliases of this node as NDJSON, one alias per line, read from the table as the
+   * client takes them: the export is never held in memory and the writers are not held up. All
+   * aliases are those of one moment, see {@link AliasDao#scan()}. The aliases of one user are
+   * walked lazily from the index of the user instead of the whole table, see
+   * {@link AliasDao#scanByUser}; that is not a view of one moment, so an alias of the user
+   * created or deleted during the export may or may not be in it. In a cluster, every node
+   * exports its own aliases.
+   *
+   * @param user string, optional - only the aliases of this user.
+   * @param from long, optional - only the aliases created at or after this time, in
+   *     milliseconds since the epoch.
+   * @param to long, optional - only the aliases created before this time.
+   * @return stream of aliases/error.
+   */
+  @Get(value = "/aliases{?user,from,to}", produces = APPLICATION_NDJSON)
+  public MutableHttpResponse<Flowable<String>> exportAliases(@Nullable @QueryValue String user,
+      @Nullable @QueryValue Long from, @Nullable @QueryValue Long to, HttpRequest<?> request) {
+    if (!isAdmin(request)) {
+      return HttpResponse.status(HttpStatus.FORBIDDEN);
+    }
+    logger.info("Export aliases of {} created in [{}, {})", user, from, to);
+    Flowable<Alias> aliases = user == null
+        ? Flowable.fromIterable(aliasDao::scan)
+        : Flowable.fromIterable(() -> aliasDao.scanByUser(user));
+    Flowable<String> lines = aliases
+        .filter(alias -> from == null || alias.getCreatedAt() >= from)
+        .filter(alias -> to == null || alias.getCreatedAt() < to)
+        .map(alias -> Main.getGson().toJson(alias, Alias.class) + "\n");
+    return HttpResponse.ok(lines);
+  }
+
+  private boolean isAdmin(HttpRequest<?> request) {
+    String sent = request.getHeaders().get(TOKEN_HEADER);
+    return !token.isEmpty() && sent != null
+        && MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+            sent.getBytes(StandardCharsets.UTF_8));
+  }
+}
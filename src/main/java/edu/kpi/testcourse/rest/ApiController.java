@@ -1,23 +1,52 @@
 package edu.kpi.testcourse.rest;
 
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import edu.kpi.testcourse.Main;
 import edu.kpi.testcourse.bigtable.Alias;
 import edu.kpi.testcourse.bigtable.AliasDao;
+import edu.kpi.testcourse.bigtable.AliasOrder;
+import edu.kpi.testcourse.bigtable.AliasPage;
+import edu.kpi.testcourse.bigtable.Cluster;
 import edu.kpi.testcourse.utils.ShortenGenerator;
+import io.micronaut.core.async.publisher.Publishers;
+import io.micronaut.http.HttpHeaders;
+import io.micronaut.http.HttpRequest;
 import io.micronaut.http.HttpResponse;
+import io.micronaut.http.HttpStatus;
 import io.micronaut.http.MediaType;
+import io.micronaut.http.MutableHttpResponse;
+import io.micronaut.http.annotation.Body;
 import io.micronaut.http.annotation.Controller;
 import io.micronaut.http.annotation.Delete;
 import io.micronaut.http.annotation.Get;
 import io.micronaut.http.annotation.Post;
+import io.micronaut.http.annotation.QueryValue;
+import io.micronaut.http.exceptions.HttpStatusException;
+import io.micronaut.scheduling.TaskExecutors;
+import io.micronaut.scheduling.annotation.ExecuteOn;
 import io.micronaut.security.annotation.Secured;
 import io.micronaut.security.rules.SecurityRule;
-import java.net.MalformedURLException;
-import java.net.URISyntaxException;
-import java.net.URL;
+import io.reactivex.Emitter;
+import io.reactivex.Flowable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import javax.inject.Named;
+import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,8 +59,28 @@ public class ApiController {
 
   private static final Logger logger = LoggerFactory.getLogger(ApiController.class);
 
+  static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+  private static final int DEFAULT_PAGE_SIZE = 100;
+  private static final int MAX_PAGE_SIZE = 1000;
+  private static final int MAX_DRAWS = 64;
+  private static final long MAX_TTL_SECONDS = 100L * 365 * 24 * 60 * 60;
+  private static final int BATCH_CHUNK = 1000;
+  private static final String INVALID_URL = "Invalid url!";
+  private static final String MOVING = "Alias is moving between nodes, try again later!";
+  private static final String RETRY_AFTER_SECONDS = "1";
+
   record ExampleClass(String first, String second) {}
 
+  record ShortenRequest(String url, String alias, Long expiresAt) {}
+
+  record BatchItem(int index, String url, String alias, Long ttl, Long expiresAt, String error) {}
+
+  record BatchResult(int index, Alias alias, String error) {}
+
+  record DeleteRequest(List<String> aliases, Long createdBefore) {}
+
+  record DeleteResult(int deleted) {}
+
   @Get(value = "/hello", produces = MediaType.APPLICATION_JSON)
   public String hello() {
     return Main.getGson().toJson(new ExampleClass("Hello", "world!"));
@@ -40,80 +89,559 @@ public class ApiController {
   @Inject
   public AliasDao aliasDao;
 
+  @Inject
+  public Cluster cluster;
+
+  @Inject
+  @Named(TaskExecutors.IO)
+  public ExecutorService ioExecutor;
+
   /**
    * Create an URL alias.
    * If user wants to create URL alias without own alias, the system will generate a random alias.
    * If the random alias isn't unique we generate another one with the length+1
    * until random alias will be unique.
+   * In a cluster, random aliases are drawn until one belongs to this node (a node that has left
+   * the cluster hands the request over instead), and a desired alias that belongs to another
+   * node is created there. While a change of the nodes is not settled, an alias that moved
+   * between nodes is neither drawn nor created: the name may still be held by its previous owner,
+   * and 503 is returned for it.
+   * An alias with ttl or expiresAt stops working at that time and its name becomes free again.
+   * The url is checked and brought to its canonical form here, once: the alias is stored with
+   * the canonical url, which is what /r/{alias} redirects to.
    *
    * @param url string, required - link which has to be shortened.
    * @param alias string, optional - desired alias for a full link.
+   * @param ttl integer, optional - time to live of the alias in seconds.
+   * @param expiresAt integer, optional - time the alias stops working, in milliseconds since
+   *     the epoch; not together with ttl.
    *
    * @return OK/error.
    */
   @Post(value = "/urls/shorten", consumes = MediaType.APPLICATION_JSON)
-  public HttpResponse<Object> shortenUrl(String url, @Nullable String alias, Principal principal) {
+  public Publisher<MutableHttpResponse<?>> shortenUrl(String url, @Nullable String alias,
+      @Nullable Long ttl, @Nullable Long expiresAt, Principal principal,
+      HttpRequest<?> request) {
+    long now = System.currentTimeMillis();
+    String invalid = checkExpiry(ttl, expiresAt, now);
+    if (invalid != null) {
+      return Publishers.just(HttpResponse.badRequest(invalid));
+    }
+    URI location = Alias.parseLocation(url);
+    if (location == null) {
+      return Publishers.just(HttpResponse.badRequest(INVALID_URL));
+    }
+    String target = location.toString();
+    long expiry = expiryOf(ttl, expiresAt, now);
+    Alias aliasObj;
     if (alias == null) {
       int len = ShortenGenerator.DEFAULT_LENGTH;
       do {
-        alias = ShortenGenerator.generate(len);
+        String shorten = ShortenGenerator.generate(len);
+        for (int draw = 1; !isDrawable(shorten, request); draw++) {
+          if (draw == MAX_DRAWS) {
+            return cluster.forward(cluster.ownerOf(shorten), request,
+                Main.getGson().toJson(new ShortenRequest(target, null, nonZero(expiry))));
+          }
+          shorten = ShortenGenerator.generate(len);
+        }
+        aliasObj = new Alias(shorten, target, principal.getName(), now, expiry, location);
         len++;
-      } while (aliasDao.get(alias) != null);
+      } while (aliasDao.putIfAbsent(aliasObj.getShorten(), aliasObj) != null);
+      return Publishers.just(HttpResponse.ok(Main.getGson().toJson(aliasObj)));
+    }
+    if (isRemote(alias, request)) {
+      return cluster.forward(cluster.ownerOf(alias), request,
+          Main.getGson().toJson(new ShortenRequest(target, alias, nonZero(expiry))));
     }
-    if (aliasDao.get(alias) == null) {
-      Alias aliasObj = new Alias(alias, url, principal.getName());
-      aliasDao.add(alias, aliasObj);
-      return HttpResponse.ok(Main.getGson().toJson(aliasObj));
+    if (cluster.isMoving(alias)) {
+      return Publishers.just(moving());
+    }
+    aliasObj = new Alias(alias, target, principal.getName(), now, expiry, location);
+    if (aliasDao.putIfAbsent(alias, aliasObj) == null) {
+      return Publishers.just(HttpResponse.ok(Main.getGson().toJson(aliasObj)));
     } else {
-      return HttpResponse.badRequest("Alias is not unique!");
+      return Publishers.just(HttpResponse.badRequest("Alias is not unique!"));
+    }
+  }
+
+  /**
+   * Create many URL aliases in one request, for imports.
+   * The body is a JSON array or NDJSON of objects with the fields of /urls/shorten. Items are
+   * read and stored in chunks, and the result of every item is streamed back as NDJSON in the
+   * order of the items: {"index": n, "alias": {...}} or {"index": n, "error": "..."}. A body that
+   * is not valid JSON ends the results with an error for the item that could not be read.
+   * The body is read and stored as it arrives, and is never held whole. Reading waits for the
+   * client, so it runs on the IO executor and never on the event loop that receives the body.
+   * In a cluster, random aliases are drawn among those of this node, and a desired alias of
+   * another node, or one that is moving between nodes, is an error of its item.
+   *
+   * @param body JSON array or NDJSON of items, as the chunks of the body arrive.
+   * @return stream of results.
+   */
+  @ExecuteOn(TaskExecutors.IO)
+  @Post(value = "/urls/batch",
+      consumes = {MediaType.APPLICATION_JSON, AdminController.APPLICATION_NDJSON},
+      produces = AdminController.APPLICATION_NDJSON)
+  public Flowable<String> shortenUrls(@Body Flowable<byte[]> body, Principal principal,
+      HttpRequest<?> request) {
+    return Flowable.generate(() -> new BatchReader(new ChunkStream(body)), BatchReader::emit,
+            BatchReader::close)
+        .subscribeOn(Schedulers.from(ioExecutor))
+        .buffer(BATCH_CHUNK)
+        .concatMapIterable(chunk -> shortenAll(chunk, principal.getName(), request))
+        .map(result -> Main.getGson().toJson(result) + "\n");
+  }
+
+  /**
+   * Stores one chunk of a batch with {@link AliasDao#putAllIfAbsent}. Random aliases that turn
+   * out to be taken are drawn again, one character longer, like in {@link #shortenUrl}.
+   *
+   * @return results, in the order of the items
+   */
+  private List<BatchResult> shortenAll(List<BatchItem> chunk, String user,
+      HttpRequest<?> request) {
+    long now = System.currentTimeMillis();
+    BatchResult[] results = new BatchResult[chunk.size()];
+    URI[] locations = new URI[chunk.size()];
+    List<Integer> pending = new ArrayList<>();
+    for (int i = 0; i < chunk.size(); i++) {
+      BatchItem item = chunk.get(i);
+      String error = item.error();
+      if (error == null && item.url() == null) {
+        error = "Url is required!";
+      }
+      if (error == null) {
+        locations[i] = Alias.parseLocation(item.url());
+        error = locations[i] == null ? INVALID_URL : null;
+      }
+      if (error == null) {
+        error = checkExpiry(item.ttl(), item.expiresAt(), now);
+      }
+      if (error == null && item.alias() != null && isRemote(item.alias(), request)) {
+        error = "Alias belongs to " + cluster.ownerOf(item.alias());
+      }
+      if (error == null && item.alias() != null && cluster.isMoving(item.alias())) {
+        error = MOVING;
+      }
+      if (error != null) {
+        results[i] = new BatchResult(item.index(), null, error);
+      } else {
+        pending.add(i);
+      }
+    }
+    for (int len = ShortenGenerator.DEFAULT_LENGTH; !pending.isEmpty(); len++) {
+      List<Integer> tried = new ArrayList<>(pending.size());
+      List<Alias> aliases = new ArrayList<>(pending.size());
+      for (int i : pending) {
+        BatchItem item = chunk.get(i);
+        String shorten = item.alias() != null ? item.alias() : drawLocal(len, request);
+        if (shorten == null) {
+          results[i] = new BatchResult(item.index(), null, "Could not draw an alias!");
+          continue;
+        }
+        tried.add(i);
+        aliases.add(new Alias(shorten, locations[i].toString(), user, now,
+            expiryOf(item.ttl(), item.expiresAt(), now), locations[i]));
+      }
+      List<Alias> taken = aliasDao.putAllIfAbsent(aliases);
+      pending = new ArrayList<>();
+      for (int k = 0; k < tried.size(); k++) {
+        BatchItem item = chunk.get(tried.get(k));
+        if (taken.get(k) == null) {
+          results[tried.get(k)] = new BatchResult(item.index(), aliases.get(k), null);
+        } else if (item.alias() != null) {
+          results[tried.get(k)] = new BatchResult(item.index(), null, "Alias is not unique!");
+        } else {
+          pending.add(tried.get(k));
+        }
+      }
     }
+    return Arrays.asList(results);
+  }
+
+  /**
+   * Draws a random alias that belongs to this node.
+   *
+   * @return the alias, or null if none was drawn in {@link #MAX_DRAWS} draws
+   */
+  private String drawLocal(int len, HttpRequest<?> request) {
+    for (int draw = 0; draw < MAX_DRAWS; draw++) {
+      String shorten = ShortenGenerator.generate(len);
+      if (isDrawable(shorten, request)) {
+        return shorten;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Whether a random alias can be taken here: it belongs to this node, or the request was
+   * forwarded here, and it is not moving between nodes.
+   */
+  private boolean isDrawable(String shorten, HttpRequest<?> request) {
+    return !isRemote(shorten, request) && !cluster.isMoving(shorten);
   }
 
   /**
    * List of user's aliases.
+   * Without query parameters returns all user's aliases. If limit, cursor or sort is given,
+   * returns one page; the cursor of the next page is sent in the X-Next-Cursor header.
+   * In a cluster, the aliases of the user are gathered from all nodes.
+   *
+   * @param limit integer, optional - maximum number of aliases on the page.
+   * @param cursor string, optional - X-Next-Cursor of the previous page.
+   * @param sort string, optional - "created" (default) or "alias".
    *
    * @return array of user's aliases.
    */
-  @Get(value = "/urls", produces = MediaType.APPLICATION_JSON)
-  public String getUserAliases(Principal principal) {
-    return Main.getGson().toJson(aliasDao.getAllByUser(principal.getName()));
+  @ExecuteOn(TaskExecutors.IO)
+  @Get(value = "/urls{?limit,cursor,sort}", produces = MediaType.APPLICATION_JSON)
+  public HttpResponse<String> getUserAliases(@Nullable @QueryValue Integer limit,
+      @Nullable @QueryValue String cursor, @Nullable @QueryValue String sort,
+      Principal principal, HttpRequest<?> request) {
+    if (limit == null && cursor == null && sort == null) {
+      AliasPage all = new AliasPage(aliasDao.getAllByUser(principal.getName()), null);
+      if (isGathering(request)) {
+        all = AliasPage.merge(gather(all, request), AliasOrder.CREATED, Integer.MAX_VALUE);
+      }
+      return HttpResponse.ok(Main.getGson().toJson(all.aliases()));
+    }
+    int pageSize = limit == null ? DEFAULT_PAGE_SIZE : limit;
+    if (pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+      return HttpResponse.badRequest("Limit should be between 1 and " + MAX_PAGE_SIZE);
+    }
+    AliasOrder order;
+    if (sort == null || sort.equals("created")) {
+      order = AliasOrder.CREATED;
+    } else if (sort.equals("alias")) {
+      order = AliasOrder.ALIAS;
+    } else {
+      return HttpResponse.badRequest("Unknown sort order!");
+    }
+    AliasPage page;
+    try {
+      page = aliasDao.getPageByUser(principal.getName(), order, cursor, pageSize);
+    } catch (IllegalArgumentException e) {
+      return HttpResponse.badRequest("Invalid cursor!");
+    }
+    if (isGathering(request)) {
+      page = AliasPage.merge(gather(page, request), order, pageSize);
+    }
+    MutableHttpResponse<String> response = HttpResponse.ok(
+        Main.getGson().toJson(page.aliases()));
+    if (page.next() != null) {
+      response.header(NEXT_CURSOR_HEADER, page.next());
+    }
+    return response;
   }
 
   /**
    * Delete alias.
+   * While a change of the nodes is not settled, an alias that moved between nodes can not be
+   * deleted, since it may not have reached its new owner yet: 503 is returned for it.
    *
    * @param alias string, required - alias, that needs to be removed.
    * @return OK/error.
    */
   @Delete(value = "/urls/{alias}")
-  public HttpResponse<Object> deleteAlias(String alias, Principal principal) {
-    Alias aliasObj = aliasDao.get(alias);
-    if (aliasObj != null && aliasObj.getUsername().equals(principal.getName())) {
-      aliasDao.remove(alias);
-      return HttpResponse.ok("Alias was successfully deleted");
+  public Publisher<MutableHttpResponse<?>> deleteAlias(String alias, Principal principal,
+      HttpRequest<?> request) {
+    if (isRemote(alias, request)) {
+      return cluster.forward(cluster.ownerOf(alias), request, null);
+    }
+    if (cluster.isMoving(alias)) {
+      return Publishers.just(moving());
     }
-    return HttpResponse.badRequest("Could not find such alias among your aliases!");
+    if (aliasDao.removeIfOwnedBy(alias, principal.getName())) {
+      return Publishers.just(HttpResponse.ok("Alias was successfully deleted"));
+    }
+    return Publishers.just(
+        HttpResponse.badRequest("Could not find such alias among your aliases!"));
   }
 
   /**
    * Redirect by alias to a full link.
+   * The link is checked and made canonical when the alias is created, so a redirect is one
+   * lookup and a single-pass {@link URI#create} of the stored link.
+   * In a cluster, the redirect of an alias of another node is asked from that node, and so is
+   * the redirect of an alias this node misses while it may still be on its way from its previous
+   * owner.
    *
    * @param alias string, required - alias for the full link.
    * @return Redirect/Error.
    */
   @Secured(SecurityRule.IS_ANONYMOUS)
   @Get(value = "/r/{alias}")
-  public HttpResponse<Object> redirectToUrl(String alias) {
+  public Publisher<MutableHttpResponse<?>> redirectToUrl(String alias, HttpRequest<?> request) {
+    logger.debug("Redirect {}", alias);
+    if (isRemote(alias, request)) {
+      return cluster.forward(cluster.ownerOf(alias), request, null);
+    }
     Alias aliasObj = aliasDao.get(alias);
-    logger.info(alias);
+    if (aliasObj == null && !cluster.isForwarded(request)) {
+      String previousOwner = cluster.previousOwnerOf(alias);
+      if (previousOwner != null) {
+        return cluster.forward(previousOwner, request, null);
+      }
+    }
+    URI location = aliasObj == null ? null : aliasObj.getLocation();
+    if (location != null) {
+      return Publishers.just(HttpResponse.redirect(location));
+    }
     if (aliasObj != null) {
+      logger.warn("Alias {} has an invalid url: {}", alias, aliasObj.getUrl());
+    }
+    return Publishers.just(HttpResponse.badRequest("Could not find uri with such alias!"));
+  }
+
+  /**
+   * Delete many aliases of the user at once: either the listed ones, or all created before a
+   * time. The removals are applied as one change, and aliases of other users are skipped.
+   * In a cluster, the request is repeated on every node and the counts are added up. While a
+   * change of the nodes is not settled, 503 is returned, since aliases may be on their way
+   * between nodes and would be missed on both.
+   *
+   * @param aliases array of strings, optional - aliases to delete; an empty array is the same
+   *     as none, since a missing array is bound as an empty one.
+   * @param createdBefore integer, optional - delete all aliases created before this time, in
+   *     milliseconds since the epoch; not together with aliases.
+   * @return {"deleted": n}/error.
+   */
+  @ExecuteOn(TaskExecutors.IO)
+  @Post(value = "/urls/delete", consumes = MediaType.APPLICATION_JSON,
+      produces = MediaType.APPLICATION_JSON)
+  public HttpResponse<String> deleteAliases(@Nullable List<String> aliases,
+      @Nullable Long createdBefore, Principal principal, HttpRequest<?> request) {
+    if (aliases != null && aliases.isEmpty()) {
+      aliases = null;
+    }
+    if ((aliases == null) == (createdBefore == null)) {
+      return HttpResponse.badRequest("Give either aliases or createdBefore!");
+    }
+    if (!cluster.isSettled()) {
+      return moving();
+    }
+    int deleted = aliases != null
+        ? aliasDao.removeAllOwnedBy(aliases, principal.getName())
+        : aliasDao.removeAllCreatedBefore(principal.getName(), createdBefore);
+    logger.info("Deleted {} aliases of {}", deleted, principal.getName());
+    if (isGathering(request)) {
+      String body = Main.getGson().toJson(new DeleteRequest(aliases, createdBefore));
+      for (String node : cluster.nodes()) {
+        if (!node.equals(cluster.self())) {
+          HttpResponse<?> response = Flowable.fromPublisher(cluster.forward(node, request, body))
+              .blockingFirst();
+          if (response.getStatus() != HttpStatus.OK) {
+            throw new HttpStatusException(HttpStatus.BAD_GATEWAY,
+                "Could not delete aliases on " + node);
+          }
+          deleted += Main.getGson().fromJson(response.getBody(String.class).orElse("{}"),
+              JsonObject.class).get("deleted").getAsInt();
+        }
+      }
+    }
+    return HttpResponse.ok(Main.getGson().toJson(new DeleteResult(deleted)));
+  }
+
+  /**
+   * Whether the alias lives on another node and the request has to go there. A request that
+   * another node has already forwarded is always served here.
+   */
+  private boolean isRemote(String alias, HttpRequest<?> request) {
+    return !cluster.isForwarded(request) && !cluster.isLocal(alias);
+  }
+
+  private static MutableHttpResponse<String> moving() {
+    return HttpResponse.<String>status(HttpStatus.SERVICE_UNAVAILABLE)
+        .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+        .body(MOVING);
+  }
+
+  private boolean isGathering(HttpRequest<?> request) {
+    return cluster.isEnabled() && !cluster.isForwarded(request);
+  }
+
+  /**
+   * Checks the time to live of an alias.
+   *
+   * @return the error, or null if the time to live is valid
+   */
+  private static String checkExpiry(Long ttl, Long expiresAt, long now) {
+    if (ttl != null && expiresAt != null) {
+      return "Give either ttl or expiresAt, not both!";
+    }
+    if (ttl != null && (ttl <= 0 || ttl > MAX_TTL_SECONDS)) {
+      return "Ttl should be between 1 and " + MAX_TTL_SECONDS + " seconds";
+    }
+    if (expiresAt != null && expiresAt <= now) {
+      return "Alias would be expired already!";
+    }
+    return null;
+  }
+
+  private static long expiryOf(Long ttl, Long expiresAt, long now) {
+    return ttl != null ? now + ttl * 1000 : expiresAt != null ? expiresAt : 0;
+  }
+
+  private static Long nonZero(long expiry) {
+    return expiry == 0 ? null : expiry;
+  }
+
+  /**
+   * Reads the same page of the user's aliases from every other node.
+   *
+   * @param local the page of this node
+   * @param request request of the client, repeated on the other nodes
+   * @return pages of all nodes, this one included
+   */
+  private List<AliasPage> gather(AliasPage local, HttpRequest<?> request) {
+    List<AliasPage> pages = new ArrayList<>();
+    pages.add(local);
+    for (String node : cluster.nodes()) {
+      if (!node.equals(cluster.self())) {
+        HttpResponse<?> response = Flowable.fromPublisher(cluster.forward(node, request, null))
+            .blockingFirst();
+        if (response.getStatus() != HttpStatus.OK) {
+          throw new HttpStatusException(HttpStatus.BAD_GATEWAY,
+              "Could not read aliases from " + node);
+        }
+        Alias[] aliases = Main.getGson().fromJson(
+            response.getBody(String.class).orElse("[]"), Alias[].class);
+        pages.add(new AliasPage(Arrays.asList(aliases),
+            response.getHeaders().get(NEXT_CURSOR_HEADER)));
+      }
+    }
+    return pages;
+  }
+
+  /**
+   * Reads the items of a batch one by one, from a JSON array or from NDJSON.
+   */
+  private static final class BatchReader {
+
+    private final JsonReader in;
+    private int index;
+    private boolean array;
+    private boolean done;
+
+    BatchReader(InputStream body) throws IOException {
+      in = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+      in.setLenient(true);
+      if (in.peek() == JsonToken.BEGIN_ARRAY) {
+        in.beginArray();
+        array = true;
+      }
+    }
+
+    /**
+     * Emits the next item, or completes after the last one. An item that cannot be read is
+     * emitted with an error and completes the batch, since the rest cannot be read either.
+     */
+    BatchReader emit(Emitter<BatchItem> emitter) {
+      if (done) {
+        emitter.onComplete();
+        return this;
+      }
+      try {
+        if (array ? !in.hasNext() : in.peek() == JsonToken.END_DOCUMENT) {
+          emitter.onComplete();
+        } else {
+          emitter.onNext(next());
+        }
+      } catch (IOException | IllegalStateException | NumberFormatException e) {
+        done = true;
+        emitter.onNext(new BatchItem(index, null, null, null, null, "Malformed item!"));
+      }
+      return this;
+    }
+
+    private BatchItem next() throws IOException {
+      String url = null;
+      String alias = null;
+      Long ttl = null;
+      Long expiresAt = null;
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          continue;
+        }
+        switch (name) {
+          case "url" -> url = in.nextString();
+          case "alias" -> alias = in.nextString();
+          case "ttl" -> ttl = in.nextLong();
+          case "expiresAt" -> expiresAt = in.nextLong();
+          default -> in.skipValue();
+        }
+      }
+      in.endObject();
+      return new BatchItem(index++, url, alias, ttl, expiresAt, null);
+    }
+
+    void close() throws IOException {
+      in.close();
+    }
+  }
+
+  /**
+   * Body chunks read as one blocking stream. Closing the stream cancels the rest of the body.
+   *
+   * <p>The whole body is requested at once: the body publisher of Micronaut 2.3 completes early,
+   * or stalls, when its subscriber requests the chunks a few at a time. The chunks wait in a
+   * queue until the reader gets to them. Storing a chunk of items takes less time than receiving
+   * it, so the queue stays short, but it is not bounded.
+   */
+  private static final class ChunkStream extends InputStream {
+
+    private final Iterator<byte[]> chunks;
+    private byte[] chunk = new byte[0];
+    private int position;
+
+    ChunkStream(Flowable<byte[]> body) {
+      chunks = body.toObservable().blockingIterable().iterator();
+    }
+
+    @Override
+    public int read() throws IOException {
+      return next() ? chunk[position++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      if (!next()) {
+        return -1;
+      }
+      int count = Math.min(length, chunk.length - position);
+      System.arraycopy(chunk, position, buffer, offset, count);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public void close() {
+      if (chunks instanceof Disposable disposable) {
+        disposable.dispose();
+      }
+    }
+
+    private boolean next() throws IOException {
       try {
-        URL uri = new URL(aliasObj.getUrl());
-        return HttpResponse.redirect(uri.toURI());
-      } catch (URISyntaxException | MalformedURLException e) {
-        e.printStackTrace();
+        while (position == chunk.length) {
+          if (!chunks.hasNext()) {
+            return false;
+          }
+          chunk = chunks.next();
+          position = 0;
+        }
+        return true;
+      } catch (RuntimeException e) {
+        throw new IOException("Could not read the body", e);
       }
     }
-    return HttpResponse.badRequest("Could not find uri with such alias!");
   }
 }
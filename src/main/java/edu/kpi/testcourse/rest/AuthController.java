@@ -3,6 +3,7 @@ package edu.kpi.testcourse.rest;
 import edu.kpi.testcourse.auth.JwtUtils;
 import edu.kpi.testcourse.auth.Pbkdf2PasswordEncoder;
 import edu.kpi.testcourse.auth.UserCredentials;
+import edu.kpi.testcourse.bigtable.SessionDao;
 import edu.kpi.testcourse.bigtable.TokenDao;
 import edu.kpi.testcourse.bigtable.UserDao;
 import io.micronaut.http.HttpResponse;
@@ -16,6 +17,7 @@ import io.micronaut.http.annotation.Produces;
 import io.micronaut.http.hateoas.JsonError;
 import io.micronaut.security.annotation.Secured;
 import io.micronaut.security.rules.SecurityRule;
+import java.security.Principal;
 import java.text.ParseException;
 import javax.inject.Inject;
 import org.slf4j.Logger;
@@ -36,8 +38,13 @@ public class AuthController {
   @Inject
   private TokenDao tokenDao;
 
+  @Inject
+  private SessionDao sessionDao;
+
   /**
    * Registers user.
+   * An existing user is looked up before the password is hashed, so repeated sign ups do not
+   * cost a hash; putIfAbsent still settles two sign ups of the same user at once.
    *
    * @param credentials user email and password
    * @return http response
@@ -51,7 +58,9 @@ public class AuthController {
       return HttpResponse.unprocessableEntity().body(new JsonError("User already exists"));
     }
     String encodedPassword = Pbkdf2PasswordEncoder.encodePassword(credentials.getPassword());
-    userDao.put(credentials.getUsername(), encodedPassword);
+    if (userDao.putIfAbsent(credentials.getUsername(), encodedPassword) != null) {
+      return HttpResponse.unprocessableEntity().body(new JsonError("User already exists"));
+    }
 
     return HttpResponse.ok();
   }
@@ -69,8 +78,25 @@ public class AuthController {
     logger.info("Sign out");
 
     String token = JwtUtils.getToken(authorization);
-    String email = JwtUtils.getUsername(token);
-    tokenDao.add(email, token);
+    tokenDao.add(token, JwtUtils.getExpirationTime(token));
+
+    return HttpResponse.ok();
+  }
+
+  /**
+   * Logouts user everywhere: every token of the user issued until now stops working, the one of
+   * this request and any other issued in this second included. Signing in again works from the
+   * next second.
+   *
+   * @param principal authenticated user
+   * @return http response
+   */
+  @Secured(SecurityRule.IS_AUTHENTICATED)
+  @Post(value = "/signout/all")
+  public MutableHttpResponse<JsonError> signOutEverywhere(Principal principal) {
+    logger.info("Sign out everywhere");
+
+    sessionDao.revokeAll(principal.getName(), System.currentTimeMillis());
 
     return HttpResponse.ok();
   }
@@ -0,0 +1,157 @@
+package edu.kpi.testcourse.rest;
+
+import edu.kpi.testcourse.Main;
+import edu.kpi.testcourse.bigtable.Alias;
+import edu.kpi.testcourse.bigtable.AliasDao;
+import edu.kpi.testcourse.bigtable.Cluster;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.HttpStatus;
+import io.micronaut.http.MediaType;
+import io.micronaut.http.MutableHttpRequest;
+import io.micronaut.http.MutableHttpResponse;
+import io.micronaut.http.annotation.Body;
+import io.micronaut.http.annotation.Controller;
+import io.micronaut.http.annotation.Post;
+import io.micronaut.http.annotation.Put;
+import io.micronaut.http.client.exceptions.HttpClientException;
+import io.micronaut.scheduling.TaskExecutors;
+import io.micronaut.scheduling.annotation.ExecuteOn;
+import io.micronaut.security.annotation.Secured;
+import io.micronaut.security.rules.SecurityRule;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import javax.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * REST API controller that the nodes of a cluster use to talk to each other. Every request has
+ * to carry the shared secret of the cluster.
+ */
+@Secured(SecurityRule.IS_ANONYMOUS)
+@Controller("/cluster")
+public class ClusterController {
+
+  private static final Logger logger = LoggerFactory.getLogger(ClusterController.class);
+
+  @Inject
+  private Cluster cluster;
+
+  @Inject
+  private AliasDao aliasDao;
+
+  /**
+   * Replaces the nodes of the cluster: to add a node, send the list with it to any node, to
+   * remove one, send the list without it. Unless the request comes from another node, it is
+   * passed on to every node of the old and of the new cluster, and every node hands over the
+   * aliases it no longer owns. Until all of them have, nodes look aliases they miss up at the
+   * previous owners; once all have, the change is settled on every node.
+   *
+   * <p>A node that cannot be reached, or cannot hand its aliases over, does not stop the others.
+   * The failed nodes are listed in a 502 answer and the change stays unsettled; sending the same
+   * list again retries it.
+   *
+   * @param body JSON array of base URLs of all nodes.
+   * @return OK/error with the nodes that failed.
+   */
+  @ExecuteOn(TaskExecutors.IO)
+  @Put(value = "/nodes", consumes = MediaType.APPLICATION_JSON)
+  public MutableHttpResponse<String> setNodes(@Body String body, HttpRequest<?> request) {
+    if (!cluster.isTrusted(request.getHeaders().get(Cluster.SECRET_HEADER))) {
+      return HttpResponse.status(HttpStatus.FORBIDDEN);
+    }
+    List<String> nodes = Arrays.asList(Main.getGson().fromJson(body, String[].class));
+    logger.info("Set cluster nodes to {}", nodes);
+    if (request.getHeaders().get(Cluster.HOP_HEADER) != null) {
+      Cluster.Handover handover = cluster.setNodes(nodes);
+      return handover.failures().isEmpty()
+          ? HttpResponse.ok("Handed over " + handover.moved() + " aliases")
+          : HttpResponse.<String>status(HttpStatus.BAD_GATEWAY)
+              .body("Could not hand aliases over to " + handover.failures());
+    }
+    Set<String> others = new TreeSet<>(cluster.nodes());
+    others.addAll(nodes);
+    others.remove(cluster.self());
+    Map<String, String> failures = new TreeMap<>();
+    for (String node : others) {
+      send(node, HttpRequest.PUT("/cluster/nodes", body)
+          .contentType(MediaType.APPLICATION_JSON_TYPE), failures);
+    }
+    Cluster.Handover handover = cluster.setNodes(nodes);
+    handover.failures().forEach((node, error) -> failures.merge(cluster.self(),
+        "could not hand aliases over to " + node + ": " + error, (a, b) -> a + "; " + b));
+    if (!failures.isEmpty()) {
+      logger.warn("Cluster change to {} is not settled: {}", nodes, failures);
+      return HttpResponse.<String>status(HttpStatus.BAD_GATEWAY)
+          .body(Main.getGson().toJson(failures));
+    }
+    for (String node : others) {
+      send(node, HttpRequest.POST("/cluster/settle", ""), failures);
+    }
+    cluster.settle();
+    if (!failures.isEmpty()) {
+      return HttpResponse.<String>status(HttpStatus.BAD_GATEWAY)
+          .body(Main.getGson().toJson(failures));
+    }
+    return HttpResponse.ok("Handed over " + handover.moved() + " aliases");
+  }
+
+  /**
+   * Settles a change of the nodes once every node has handed its aliases over.
+   *
+   * @return OK/error.
+   */
+  @Post("/settle")
+  public MutableHttpResponse<String> settle(HttpRequest<?> request) {
+    if (!cluster.isTrusted(request.getHeaders().get(Cluster.SECRET_HEADER))) {
+      return HttpResponse.status(HttpStatus.FORBIDDEN);
+    }
+    cluster.settle();
+    return HttpResponse.ok();
+  }
+
+  /**
+   * Stores aliases handed over by another node. An alias that is already here is kept: it came
+   * in an earlier try of the same handover. It can not have been created here since the change,
+   * because creating and deleting a moving alias is refused until the change is settled, see
+   * {@link Cluster#isMoving}.
+   *
+   * @param body JSON array of aliases.
+   * @return OK/error.
+   */
+  @Post(value = "/aliases", consumes = MediaType.APPLICATION_JSON)
+  public MutableHttpResponse<String> receiveAliases(@Body String body, HttpRequest<?> request) {
+    if (!cluster.isTrusted(request.getHeaders().get(Cluster.SECRET_HEADER))) {
+      return HttpResponse.status(HttpStatus.FORBIDDEN);
+    }
+    Alias[] aliases = Main.getGson().fromJson(body, Alias[].class);
+    int kept = 0;
+    for (Alias alias : aliases) {
+      Alias present = aliasDao.putIfAbsent(alias.getShorten(), alias);
+      if (present != null && !present.equals(alias)) {
+        logger.warn("Kept alias {} of {}, dropped the handed over one of {}",
+            alias.getShorten(), present.getUsername(), alias.getUsername());
+        kept++;
+      }
+    }
+    logger.info("Received {} aliases, {} were already taken", aliases.length, kept);
+    return HttpResponse.ok();
+  }
+
+  /**
+   * Sends a request to another node on behalf of this one and notes the failure, if any.
+   */
+  private void send(String node, MutableHttpRequest<?> request, Map<String, String> failures) {
+    try {
+      cluster.exchange(node, request.header(Cluster.HOP_HEADER, cluster.self()));
+    } catch (HttpClientException e) {
+      logger.warn("Node {} failed: {}", node, e.getMessage());
+      failures.put(node, e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package edu.kpi.testcourse.rest;
+
+import edu.kpi.testcourse.bigtable.Replication;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.env.Environment;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.HttpStatus;
+import io.micronaut.http.MutableHttpResponse;
+import io.micronaut.http.annotation.Controller;
+import io.micronaut.http.annotation.Post;
+import io.micronaut.http.hateoas.JsonError;
+import io.micronaut.security.annotation.Secured;
+import io.micronaut.security.rules.SecurityRule;
+import java.io.IOException;
+import javax.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * REST API controller that manages the replication role of the node.
+ */
+@Secured(SecurityRule.IS_ANONYMOUS)
+@Controller("/replication")
+@Requires(notEnv = Environment.TEST)
+public class ReplicationController {
+
+  private static final Logger logger = LoggerFactory.getLogger(ReplicationController.class);
+
+  @Inject
+  private Replication replication;
+
+  /**
+   * Promotes this follower to a leader. Only accepted from the host the node runs on.
+   *
+   * @param request the request, to check where it comes from
+   * @return OK/error.
+   * @throws IOException if the replication port could not be bound
+   */
+  @Post("/promote")
+  public MutableHttpResponse<JsonError> promote(HttpRequest<?> request) throws IOException {
+    if (!request.getRemoteAddress().getAddress().isLoopbackAddress()) {
+      return HttpResponse.status(HttpStatus.FORBIDDEN);
+    }
+    logger.info("Promote to leader");
+    try {
+      replication.promote();
+    } catch (IllegalStateException e) {
+      return HttpResponse.badRequest(new JsonError(e.getMessage()));
+    }
+    return HttpResponse.ok();
+  }
+}
@@ -0,0 +1,275 @@
+package edu.kpi.testcourse.bigtable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class AliasDaoImplTest {
+
+  @Test
+  void userIndexFollowsAddAndRemove() {
+    AliasDao dao = new AliasDaoImpl();
+    Alias first = new Alias("a", "http://a.com", "alice");
+    Alias second = new Alias("b", "http://b.com", "alice");
+    Alias foreign = new Alias("c", "http://c.com", "bob");
+    dao.add("a", first);
+    dao.add("b", second);
+    dao.add("c", foreign);
+    dao.remove("a");
+
+    assertThat(dao.getAllByUser("alice")).containsExactly(second);
+    assertThat(dao.getAllByUser("bob")).containsExactly(foreign);
+    assertThat(dao.getAllByUser("carol")).isEmpty();
+  }
+
+  @Test
+  void userScanReadsAliasesAsTheyAreReached() {
+    AliasDao dao = new AliasDaoImpl();
+    dao.add("a", new Alias("a", "http://a.com", "alice", 1));
+    dao.add("b", new Alias("b", "http://b.com", "alice", 2));
+    dao.add("c", new Alias("c", "http://c.com", "bob", 3));
+    Iterator<Alias> scan = dao.scanByUser("alice");
+    dao.add("b", new Alias("b", "http://b.com", "bob", 2));
+
+    assertThat(scan.next().getShorten()).isEqualTo("a");
+    assertThat(scan.hasNext()).isFalse();
+    assertThat(dao.scanByUser("carol").hasNext()).isFalse();
+  }
+
+  @Test
+  void redirectUrlIsParsedFromTheRow() {
+    AliasDao dao = new AliasDaoImpl();
+    URI parsed = Alias.parseLocation("http://a.com/x");
+    dao.add("abc", new Alias("abc", "http://a.com/x", "alice", 0, 0, parsed));
+    dao.add("custom-alias", new Alias("custom-alias", "http://b.com/y", "alice"));
+    dao.add("legacy", new Alias("legacy", "HTTP://c.com/z", "alice"));
+    dao.add("broken-alias", new Alias("broken-alias", "not a url", "alice"));
+
+    assertThat(dao.get("abc").getLocation()).isEqualTo(parsed);
+    assertThat(dao.get("custom-alias").getLocation()).isEqualTo(URI.create("http://b.com/y"));
+    assertThat(dao.get("custom-alias").getLocation()).isEqualTo(URI.create("http://b.com/y"));
+    assertThat(dao.get("legacy").getLocation()).isEqualTo(URI.create("http://c.com/z"));
+    assertThat(dao.get("legacy").getLocation()).isEqualTo(URI.create("http://c.com/z"));
+    assertThat(dao.get("broken-alias").getLocation()).isNull();
+  }
+
+  @Test
+  void userIndexFollowsOwnerChange() {
+    AliasDao dao = new AliasDaoImpl();
+    Alias original = new Alias("a", "http://a.com", "alice");
+    Alias moved = new Alias("a", "http://a.com", "bob");
+    dao.add("a", original);
+
+    assertThat(dao.replace("a", original, moved)).isTrue();
+    assertThat(dao.getAllByUser("alice")).isEmpty();
+    assertThat(dao.getAllByUser("bob")).containsExactly(moved);
+  }
+
+  @Test
+  void equalUrlsAndUsernamesAreStoredOnce() {
+    AliasDaoImpl dao = new AliasDaoImpl();
+    for (int i = 0; i < 100; i++) {
+      dao.add("a" + i, new Alias("a" + i, "http://popular.com", "user" + i % 2, i));
+    }
+
+    assertThat(dao.sharedValueCount()).isEqualTo(3);
+    assertThat(dao.get("a7")).isEqualTo(new Alias("a7", "http://popular.com", "user1", 7));
+
+    for (int i = 0; i < 100; i++) {
+      dao.remove("a" + i);
+    }
+    assertThat(dao.sharedValueCount()).isEqualTo(0);
+  }
+
+  @Test
+  void shortAndCustomAliasesAreFound() {
+    AliasDao dao = new AliasDaoImpl();
+    Alias generated = new Alias("qwertyui", "http://a.com", "alice");
+    Alias custom = new Alias("My-Link_2", "http://b.com", "alice");
+    dao.add("qwertyui", generated);
+    dao.add("My-Link_2", custom);
+
+    assertThat(dao.get("qwertyui")).isEqualTo(generated);
+    dao.get("qwertyui").setUrl("http://changed.com");
+    assertThat(dao.get("qwertyui")).isEqualTo(generated);
+    assertThat(dao.get("My-Link_2")).isEqualTo(custom);
+
+    dao.remove("qwertyui");
+    assertThat(dao.get("qwertyui")).isNull();
+  }
+
+  @Test
+  void expiredAliasesAreHiddenAndEvicted() {
+    AliasDao dao = new AliasDaoImpl();
+    long now = System.currentTimeMillis();
+    dao.add("gone", new Alias("gone", "http://a.com", "alice", now - 2000, now - 1000));
+    dao.add("my-gone", new Alias("my-gone", "http://a.com", "alice", now - 2000, now - 1000));
+    Alias live = new Alias("live", "http://b.com", "alice", now, now + 3_600_000);
+    dao.add("live", live);
+
+    assertThat(dao.get("gone")).isNull();
+    assertThat(dao.get("my-gone")).isNull();
+    assertThat(dao.get("live")).isEqualTo(live);
+    assertThat(dao.getAll().keySet()).containsExactlyInAnyOrder("live");
+    assertThat(dao.getAllByUser("alice")).containsExactly(live);
+
+    Alias again = new Alias("gone", "http://c.com", "bob", now);
+    assertThat(dao.putIfAbsent("gone", again)).isNull();
+    assertThat(dao.get("gone")).isEqualTo(again);
+
+    assertThat(dao.evictExpired(now + AliasDaoImpl.EXPIRY_TICK_MILLIS)).isEqualTo(1);
+    assertThat(dao.evictExpired(now + 3_600_000 + AliasDaoImpl.EXPIRY_TICK_MILLIS))
+        .isEqualTo(1);
+    assertThat(dao.getAll().keySet()).containsExactlyInAnyOrder("gone");
+  }
+
+  @Test
+  void expiryTimeSurvivesSnapshotAndReplay() throws Exception {
+    AliasDao dao = new AliasDaoImpl();
+    long expiresAt = System.currentTimeMillis() + 60_000;
+    Alias alias = new Alias("a", "http://a.com", "alice", 1, expiresAt);
+    dao.add("a", alias);
+
+    AliasDao fromJson = new AliasDaoImpl();
+    fromJson.fromJson(dao.toJson());
+    AliasDao replayed = new AliasDaoImpl();
+    replayed.apply(new Mutation("alias", Mutation.PUT, "a", "http://a.com", "alice", "1",
+        Long.toString(expiresAt)));
+
+    assertThat(fromJson.get("a")).isEqualTo(alias);
+    assertThat(replayed.get("a")).isEqualTo(alias);
+  }
+
+  @Test
+  void scanSeesTableAsOfItsStart() {
+    AliasDao dao = new AliasDaoImpl();
+    Alias first = new Alias("a", "http://a.com", "alice");
+    Alias second = new Alias("b", "http://b.com", "bob");
+    dao.add("a", first);
+    dao.add("b", second);
+    dao.add("old", new Alias("old", "http://old.com", "bob", 1, 1000));
+
+    Iterator<Alias> scan = dao.scan();
+    dao.remove("a");
+    dao.add("c", new Alias("c", "http://c.com", "alice"));
+
+    List<Alias> seen = new ArrayList<>();
+    scan.forEachRemaining(seen::add);
+    assertThat(seen).containsExactlyInAnyOrder(first, second);
+  }
+
+  @Test
+  void bulkRemovalTakesOnlyAliasesOfTheUser() {
+    AliasDao dao = new AliasDaoImpl();
+    for (int i = 0; i < 10; i++) {
+      dao.add("a" + i, new Alias("a" + i, "http://a.com", "alice", 1000 + i));
+    }
+    dao.add("b", new Alias("b", "http://b.com", "bob", 1000));
+
+    assertThat(dao.removeAllCreatedBefore("alice", 1005)).isEqualTo(5);
+    assertThat(dao.removeAllOwnedBy(List.of("a5", "a6", "b", "missing"), "alice")).isEqualTo(2);
+
+    assertThat(dao.getAllByUser("alice")).containsExactly(
+        new Alias("a7", "http://a.com", "alice", 1007),
+        new Alias("a8", "http://a.com", "alice", 1008),
+        new Alias("a9", "http://a.com", "alice", 1009));
+    assertThat(dao.get("b")).isNotNull();
+    assertThat(dao.removeAllCreatedBefore("carol", 2000)).isEqualTo(0);
+  }
+
+  @Test
+  void userIndexIsRebuiltOnRestore() {
+    AliasDao dao = new AliasDaoImpl();
+    dao.fromJson("""
+      {"a":{"shorten":"a","url":"http://a.com","username":"alice"}}""");
+    dao.apply(new Mutation("alias", Mutation.PUT, "b", "http://b.com", "alice"));
+
+    assertThat(dao.getAllByUser("alice")).containsExactlyInAnyOrder(
+        new Alias("a", "http://a.com", "alice"),
+        new Alias("b", "http://b.com", "alice"));
+  }
+
+  @Test
+  void pagesFollowEachOtherInBothOrders() {
+    AliasDao dao = new AliasDaoImpl();
+    for (int i = 0; i < 26; i++) {
+      String shorten = "alias" + (char) ('z' - i);
+      dao.add(shorten, new Alias(shorten, "http://example.com", "alice", 1000 + i));
+    }
+
+    List<String> byCreated = readAll(dao, AliasOrder.CREATED);
+    List<String> byAlias = readAll(dao, AliasOrder.ALIAS);
+
+    assertThat(byCreated).hasSize(26);
+    assertThat(byCreated.get(0)).isEqualTo("aliasz");
+    assertThat(byAlias.get(0)).isEqualTo("aliasa");
+    List<String> sorted = new ArrayList<>(byCreated);
+    Collections.sort(sorted);
+    assertThat(byAlias).isEqualTo(sorted);
+  }
+
+  @Test
+  void cursorSurvivesRemovalOfLastSeenAlias() {
+    AliasDao dao = new AliasDaoImpl();
+    for (int i = 0; i < 4; i++) {
+      dao.add("a" + i, new Alias("a" + i, "http://example.com", "alice", i));
+    }
+    AliasPage first = dao.getPageByUser("alice", AliasOrder.CREATED, null, 2);
+    dao.remove("a1");
+    AliasPage second = dao.getPageByUser("alice", AliasOrder.CREATED, first.next(), 2);
+
+    assertThat(second.aliases()).containsExactly(
+        new Alias("a2", "http://example.com", "alice", 2),
+        new Alias("a3", "http://example.com", "alice", 3));
+    assertThat(second.next()).isNull();
+  }
+
+  @Test
+  void pagesOfPartsMergeIntoPagesOfWholeTable() {
+    AliasDao whole = new AliasDaoImpl();
+    List<AliasDao> parts = List.of(new AliasDaoImpl(), new AliasDaoImpl(), new AliasDaoImpl());
+    for (int i = 0; i < 40; i++) {
+      String shorten = "alias" + (char) ('a' + i % 26) + i;
+      Alias alias = new Alias(shorten, "http://example.com", "alice", 1000 + i % 7);
+      whole.add(shorten, alias);
+      parts.get(i * 7 % 3).add(shorten, alias);
+    }
+
+    for (AliasOrder order : AliasOrder.values()) {
+      List<String> merged = new ArrayList<>();
+      String cursor = null;
+      do {
+        List<AliasPage> pages = new ArrayList<>();
+        for (AliasDao part : parts) {
+          pages.add(part.getPageByUser("alice", order, cursor, 6));
+        }
+        AliasPage page = AliasPage.merge(pages, order, 6);
+        page.aliases().forEach(alias -> merged.add(alias.getShorten()));
+        cursor = page.next();
+      } while (cursor != null);
+
+      List<String> expected = new ArrayList<>();
+      whole.getPageByUser("alice", order, null, 100).aliases()
+          .forEach(alias -> expected.add(alias.getShorten()));
+      assertThat(merged).isEqualTo(expected);
+    }
+  }
+
+  private static List<String> readAll(AliasDao dao, AliasOrder order) {
+    List<String> result = new ArrayList<>();
+    String cursor = null;
+    do {
+      AliasPage page = dao.getPageByUser("alice", order, cursor, 7);
+      assertThat(page.aliases().size()).isLessThanOrEqualTo(7);
+      page.aliases().forEach(alias -> result.add(alias.getShorten()));
+      cursor = page.next();
+    } while (cursor != null);
+    return result;
+  }
+
+}
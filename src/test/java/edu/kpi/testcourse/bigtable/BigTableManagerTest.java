@@ -0,0 +1,76 @@
+package edu.kpi.testcourse.bigtable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BigTableManagerTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void failedRestoreLeavesDumpsAndJournalAlone() throws Exception {
+    Path snapshots = dir.resolve("snapshots");
+    Path wal = dir.resolve("wal");
+    Files.createDirectories(snapshots);
+    Files.writeString(snapshots.resolve("users.json"), "{\"alice\": ", StandardCharsets.UTF_8);
+    MutationLog previous = new MutationLog(wal.toString(), Duration.ofMillis(5));
+    previous.open();
+    new UserDaoImpl(previous).put("alice", "hash");
+    previous.close();
+    Map<Path, String> before = contents(snapshots, wal);
+
+    MutationLog log = new MutationLog(wal.toString(), Duration.ofMillis(5));
+    BigTableManager manager = manager(new UserDaoImpl(log), log, snapshots);
+    manager.restoreData(null);
+    manager.dumpData();
+    log.close();
+
+    assertThat(manager.isRestored()).isFalse();
+    assertThat(contents(snapshots, wal)).isEqualTo(before);
+  }
+
+  private static BigTableManager manager(Serializible dao, MutationLog log, Path snapshots)
+      throws ReflectiveOperationException {
+    Replication replication = new Replication();
+    set(replication, "role", "none");
+    BigTableManager manager = new BigTableManager();
+    set(manager, "daos", List.of(dao));
+    set(manager, "log", log);
+    set(manager, "replication", replication);
+    set(manager, "snapshotFormat", "json");
+    set(manager, "snapshotDirectory", snapshots.toString());
+    return manager;
+  }
+
+  private static void set(Object target, String name, Object value)
+      throws ReflectiveOperationException {
+    Field field = target.getClass().getDeclaredField(name);
+    field.setAccessible(true);
+    field.set(target, value);
+  }
+
+  private static Map<Path, String> contents(Path... directories) throws IOException {
+    Map<Path, String> files = new TreeMap<>();
+    for (Path directory : directories) {
+      try (Stream<Path> listed = Files.list(directory)) {
+        for (Path file : (Iterable<Path>) listed::iterator) {
+          files.put(file, new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1));
+        }
+      }
+    }
+    return files;
+  }
+}
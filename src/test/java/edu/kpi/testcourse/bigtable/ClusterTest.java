@@ -0,0 +1,46 @@
+package edu.kpi.testcourse.bigtable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ClusterTest {
+
+  private static final String A = "http://a:8080";
+  private static final String B = "http://b:8080";
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void aliasesOfMovedRangesAreMovingUntilSettled() throws IOException {
+    Path state = dir.resolve("cluster-nodes.txt");
+    Files.writeString(state, "nodes=" + A + "," + B + "\nprevious=" + A + "\n",
+        StandardCharsets.UTF_8);
+    Cluster cluster = new Cluster(new AliasDaoImpl(), B, A, 128, "secret", state.toString());
+
+    String moved = null;
+    String stayed = null;
+    for (int i = 0; moved == null || stayed == null; i++) {
+      String alias = "alias" + i;
+      if (cluster.ownerOf(alias).equals(B)) {
+        moved = alias;
+      } else {
+        stayed = alias;
+      }
+    }
+    assertThat(cluster.isSettled()).isFalse();
+    assertThat(cluster.isMoving(moved)).isTrue();
+    assertThat(cluster.isMoving(stayed)).isFalse();
+
+    cluster.settle();
+    assertThat(cluster.isSettled()).isTrue();
+    assertThat(cluster.isMoving(moved)).isFalse();
+    assertThat(Files.readString(state, StandardCharsets.UTF_8)).doesNotContain("previous=");
+  }
+}
@@ -0,0 +1,53 @@
+package edu.kpi.testcourse.bigtable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class DigestSetTest {
+
+  @Test
+  void keepsDigestsThroughGrowthAndRemoval() {
+    DigestSet set = new DigestSet();
+    for (int i = 0; i < 10_000; i++) {
+      TokenDigest digest = TokenDigest.of("token" + i);
+      set.put(digest.hi(), digest.lo(), i + 1);
+    }
+    for (int i = 0; i < 10_000; i += 2) {
+      TokenDigest digest = TokenDigest.of("token" + i);
+      assertThat(set.put(digest.hi(), digest.lo(), DigestSet.NONE)).isEqualTo(i + 1);
+    }
+
+    assertThat(set.size()).isEqualTo(5_000);
+    for (int i = 0; i < 10_000; i++) {
+      TokenDigest digest = TokenDigest.of("token" + i);
+      assertThat(set.get(digest.hi(), digest.lo())).isEqualTo(i % 2 == 0 ? DigestSet.NONE : i + 1);
+    }
+    assertThat(set.snapshot().length).isEqualTo(3 * 5_000);
+  }
+
+  @Test
+  void digestsSurviveTextAndBytes() {
+    TokenDigest digest = TokenDigest.of("eyJhbGciOiJIUzI1NiJ9.e30.signature");
+
+    assertThat(TokenDigest.parse(digest.toString())).isEqualTo(digest);
+    assertThat(TokenDigest.fromBytes(digest.toBytes())).isEqualTo(digest);
+    assertThat(TokenDigest.isDigest(digest.toString())).isTrue();
+    assertThat(TokenDigest.isDigest("alice@example.com")).isFalse();
+  }
+
+  @Test
+  void digestsWithZeroHiAreStoredAndFound() {
+    TokenDigest zeroHi = TokenDigest.fromBytes(new byte[] {0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 7});
+    TokenDigest parsed = TokenDigest.parse("0000000000000000000000000000000b");
+    DigestSet set = new DigestSet();
+    set.put(zeroHi.hi(), zeroHi.lo(), 1);
+    set.put(parsed.hi(), parsed.lo(), 2);
+
+    assertThat(zeroHi.hi()).isEqualTo(1L);
+    assertThat(set.get(zeroHi.hi(), zeroHi.lo())).isEqualTo(1);
+    assertThat(set.get(parsed.hi(), parsed.lo())).isEqualTo(2);
+    assertThat(set.size()).isEqualTo(2);
+  }
+}
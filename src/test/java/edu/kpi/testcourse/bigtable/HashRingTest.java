@@ -0,0 +1,56 @@
+package edu.kpi.testcourse.bigtable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class HashRingTest {
+
+  private static final List<String> NODES =
+      List.of("http://a:8080", "http://b:8080", "http://c:8080", "http://d:8080");
+
+  @Test
+  void keysAreSpreadEvenly() {
+    HashRing ring = new HashRing(NODES, 128);
+    Map<String, Integer> counts = new HashMap<>();
+    for (int i = 0; i < 40_000; i++) {
+      counts.merge(ring.owner("alias" + i), 1, Integer::sum);
+    }
+
+    assertThat(counts).hasSize(4);
+    for (int count : counts.values()) {
+      assertThat(count).isBetween(7_500, 12_500);
+    }
+  }
+
+  @Test
+  void joiningNodeTakesKeysOnlyForItself() {
+    HashRing before = new HashRing(NODES.subList(0, 3), 128);
+    HashRing after = new HashRing(NODES, 128);
+    int moved = 0;
+    for (int i = 0; i < 40_000; i++) {
+      String key = "alias" + i;
+      if (!before.owner(key).equals(after.owner(key))) {
+        assertThat(after.owner(key)).isEqualTo("http://d:8080");
+        moved++;
+      }
+    }
+
+    assertThat(moved).isBetween(7_500, 12_500);
+  }
+
+  @Test
+  void ownersDoNotDependOnOrderOfNodes() {
+    HashRing ring = new HashRing(NODES, 16);
+    HashRing reversed = new HashRing(List.of(NODES.get(3), NODES.get(2), NODES.get(1),
+        NODES.get(0), NODES.get(0)), 16);
+
+    for (int i = 0; i < 1_000; i++) {
+      assertThat(reversed.owner("k" + i)).isEqualTo(ring.owner("k" + i));
+    }
+    assertThat(new HashRing(List.of(), 16).owner("k")).isNull();
+  }
+}
@@ -0,0 +1,194 @@
+package edu.kpi.testcourse.bigtable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LsmAliasDaoImplTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void storesReplacesAndRemovesAliases() throws IOException {
+    try (LsmAliasDaoImpl dao = open()) {
+      Alias first = new Alias("a", "http://a.com", "alice", 1);
+      Alias moved = new Alias("a", "http://b.com", "bob", 1);
+      assertThat(dao.putIfAbsent("a", first)).isNull();
+      assertThat(dao.putIfAbsent("a", moved)).isEqualTo(first);
+      assertThat(dao.replace("a", first, moved)).isTrue();
+      assertThat(dao.get("a")).isEqualTo(moved);
+
+      assertThat(dao.removeIfOwnedBy("a", "alice")).isFalse();
+      assertThat(dao.removeIfOwnedBy("a", "bob")).isTrue();
+      assertThat(dao.get("a")).isNull();
+      dao.add("b", new Alias("b", "http://b.com", "bob", 2));
+      dao.remove("b");
+      assertThat(dao.getAll()).isEmpty();
+    }
+  }
+
+  @Test
+  void userIndexFollowsAddRemoveAndOwnerChange() throws IOException {
+    try (LsmAliasDaoImpl dao = open()) {
+      Alias first = new Alias("a", "http://a.com", "alice", 1);
+      Alias second = new Alias("b", "http://b.com", "alice", 2);
+      Alias foreign = new Alias("c", "http://c.com", "bob", 3);
+      dao.add("a", first);
+      dao.add("b", second);
+      dao.add("c", foreign);
+      dao.remove("a");
+      Alias moved = new Alias("b", "http://b.com", "bob", 2);
+      dao.replace("b", second, moved);
+
+      assertThat(dao.getAllByUser("alice")).isEmpty();
+      assertThat(dao.getAllByUser("bob")).containsExactly(moved, foreign);
+      assertThat(dao.getAllByUser("carol")).isEmpty();
+      AliasPage page = dao.getPageByUser("bob", AliasOrder.CREATED, null, 1);
+      assertThat(page.aliases()).containsExactly(moved);
+    }
+  }
+
+  @Test
+  void expiredAliasesAreHiddenAndEvicted() throws IOException {
+    try (LsmAliasDaoImpl dao = open()) {
+      long now = System.currentTimeMillis();
+      dao.add("gone", new Alias("gone", "http://a.com", "alice", now - 2000, now - 1000));
+      Alias live = new Alias("live", "http://b.com", "alice", now, now + 3_600_000);
+      dao.add("live", live);
+
+      assertThat(dao.get("gone")).isNull();
+      assertThat(dao.get("live")).isEqualTo(live);
+      assertThat(dao.getAll().keySet()).containsExactlyInAnyOrder("live");
+      assertThat(dao.getAllByUser("alice")).containsExactly(live);
+
+      Alias again = new Alias("gone", "http://c.com", "bob", now);
+      assertThat(dao.putIfAbsent("gone", again)).isNull();
+      assertThat(dao.get("gone")).isEqualTo(again);
+
+      assertThat(dao.evictExpired(now + 3_600_000 + AliasDaoImpl.EXPIRY_TICK_MILLIS))
+          .isEqualTo(1);
+      assertThat(dao.getAll().keySet()).containsExactlyInAnyOrder("gone");
+    }
+  }
+
+  @Test
+  void reopensWithUserAndExpiryIndexesFromSegments() throws IOException {
+    long expiresAt = System.currentTimeMillis() + 60_000;
+    try (LsmAliasDaoImpl dao = open()) {
+      dao.add("a", new Alias("a", "http://a.com", "alice", 1));
+      dao.add("b", new Alias("b", "http://b.com", "alice", 2, expiresAt));
+      dao.force();
+      dao.add("c", new Alias("c", "http://c.com", "alice", 3));
+      dao.remove("a");
+    }
+
+    try (LsmAliasDaoImpl dao = open()) {
+      assertThat(dao.get("a")).isNull();
+      assertThat(dao.get("b")).isEqualTo(new Alias("b", "http://b.com", "alice", 2, expiresAt));
+      assertThat(dao.getAllByUser("alice")).containsExactly(dao.get("b"), dao.get("c"));
+      assertThat(dao.evictExpired(expiresAt)).isEqualTo(1);
+      assertThat(dao.getAllByUser("alice")).containsExactly(dao.get("c"));
+    }
+  }
+
+  @Test
+  void pagesSeekToTheCursorInEitherOrder() throws IOException {
+    try (LsmAliasDaoImpl dao = open()) {
+      dao.add("c", new Alias("c", "http://c.com", "alice", 1));
+      dao.add("a", new Alias("a", "http://a.com", "alice", 3));
+      dao.add("b", new Alias("b", "http://b.com", "alice", 2));
+      dao.add("ab", new Alias("ab", "http://b.com", "alicia", 1));
+
+      AliasPage first = dao.getPageByUser("alice", AliasOrder.ALIAS, null, 2);
+      assertThat(first.aliases()).extracting(Alias::getShorten).containsExactly("a", "b");
+      AliasPage last = dao.getPageByUser("alice", AliasOrder.ALIAS, first.next(), 2);
+      assertThat(last.aliases()).extracting(Alias::getShorten).containsExactly("c");
+      assertThat(last.next()).isNull();
+
+      first = dao.getPageByUser("alice", AliasOrder.CREATED, null, 2);
+      assertThat(first.aliases()).extracting(Alias::getShorten).containsExactly("c", "b");
+      assertThat(dao.getPageByUser("alice", AliasOrder.CREATED, first.next(), 2).aliases())
+          .extracting(Alias::getShorten).containsExactly("a");
+    }
+  }
+
+  @Test
+  void buildsIndexesOfStoreWrittenWithoutThem() throws IOException {
+    try (LsmStore store = new LsmStore(dir, 1 << 20)) {
+      store.put("a", new byte[] {0, 0, 0, 0, 0, 0, 0, 1, 0, 0, 0, 1, 'u', 0, 0, 0, 1, 'x'});
+      store.flush();
+    }
+
+    try (LsmAliasDaoImpl dao = open()) {
+      assertThat(dao.getAllByUser("x")).containsExactly(new Alias("a", "u", "x", 1));
+    }
+  }
+
+  @Test
+  void bulkRemovalTakesOnlyAliasesOfTheUser() throws IOException {
+    try (LsmAliasDaoImpl dao = open()) {
+      for (int i = 0; i < 10; i++) {
+        dao.add("a" + i, new Alias("a" + i, "http://a.com", "alice", 1000 + i));
+      }
+      dao.add("b", new Alias("b", "http://b.com", "bob", 1000));
+
+      assertThat(dao.removeAllCreatedBefore("alice", 1005)).isEqualTo(5);
+      assertThat(dao.removeAllOwnedBy(List.of("a5", "a6", "b", "missing"), "alice"))
+          .isEqualTo(2);
+
+      assertThat(dao.getAllByUser("alice")).hasSize(3);
+      assertThat(dao.get("b")).isNotNull();
+    }
+  }
+
+  @Test
+  void clearDropsEverythingForGood() throws IOException {
+    try (LsmAliasDaoImpl dao = open()) {
+      dao.add("a", new Alias("a", "http://a.com", "alice", 1));
+      dao.force();
+      dao.add("b", new Alias("b", "http://b.com", "alice", 2));
+      dao.clear();
+
+      assertThat(dao.getAll()).isEmpty();
+      assertThat(dao.getAllByUser("alice")).isEmpty();
+      dao.add("c", new Alias("c", "http://c.com", "bob", 3));
+    }
+
+    try (LsmAliasDaoImpl dao = open()) {
+      assertThat(dao.getAll().keySet()).containsExactly("c");
+      assertThat(dao.getAllByUser("alice")).isEmpty();
+    }
+  }
+
+  @Test
+  void clearIsJournaled() throws IOException {
+    MutationLog log = new MutationLog(dir.resolve("wal").toString(), Duration.ofMillis(5));
+    List<byte[]> journaled = new ArrayList<>();
+    log.tap(journaled::add);
+    log.open();
+    try (LsmAliasDaoImpl dao = new LsmAliasDaoImpl(dir.resolve("lsm").toString(), 1 << 20,
+        log)) {
+      dao.add("a", new Alias("a", "http://a.com", "alice", 1));
+      dao.clear();
+
+      Mutation clear = MutationLog.decode(journaled.get(journaled.size() - 1));
+      assertThat(clear.op()).isEqualTo(Mutation.CLEAR);
+      dao.add("b", new Alias("b", "http://b.com", "alice", 2));
+      dao.apply(clear);
+      assertThat(dao.getAll()).isEmpty();
+    } finally {
+      log.close();
+    }
+  }
+
+  private LsmAliasDaoImpl open() {
+    return new LsmAliasDaoImpl(dir.toString(), 1 << 20, new MutationLog());
+  }
+}
@@ -0,0 +1,117 @@
+package edu.kpi.testcourse.bigtable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LsmStoreTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void readsThroughMemtableAndSegments() throws IOException {
+    try (LsmStore store = new LsmStore(dir, 1 << 20)) {
+      store.put("a", bytes("1"));
+      store.put("b", bytes("2"));
+      store.flush();
+      store.put("a", bytes("3"));
+      store.remove("b");
+
+      assertThat(text(store.get("a"))).isEqualTo("3");
+      assertThat(store.get("b")).isNull();
+      assertThat(store.get("c")).isNull();
+    }
+  }
+
+  @Test
+  void tombstonesHideOlderSegmentsAfterReopen() throws IOException {
+    try (LsmStore store = new LsmStore(dir, 1 << 20)) {
+      store.put("a", bytes("1"));
+      store.flush();
+      store.remove("a");
+    }
+
+    try (LsmStore store = new LsmStore(dir, 1 << 20)) {
+      assertThat(store.get("a")).isNull();
+      List<String> keys = new ArrayList<>();
+      store.forEach((key, value) -> keys.add(key));
+      assertThat(keys).isEmpty();
+    }
+  }
+
+  @Test
+  void iteratesKeyRangeAcrossMemtableAndSegments() throws IOException {
+    try (LsmStore store = new LsmStore(dir, 1 << 20)) {
+      for (int i = 10; i < 60; i++) {
+        store.put("key" + i, bytes("old"));
+      }
+      store.flush();
+      store.put("key20", bytes("new"));
+      store.remove("key21");
+      store.put("key295", bytes("added"));
+
+      List<String> keys = new ArrayList<>();
+      List<String> values = new ArrayList<>();
+      store.iterator("key20", "key30").forEachRemaining(entry -> {
+        keys.add(entry.getKey());
+        values.add(text(entry.getValue()));
+      });
+      assertThat(keys).containsExactly("key20", "key22", "key23", "key24", "key25", "key26",
+          "key27", "key28", "key29", "key295");
+      assertThat(values.get(0)).isEqualTo("new");
+      assertThat(values.get(9)).isEqualTo("added");
+    }
+  }
+
+  @Test
+  void compactsSimilarSegmentsAndKeepsNewestValues() throws IOException {
+    try (LsmStore store = new LsmStore(dir, 1 << 20)) {
+      for (int round = 0; round < 8; round++) {
+        for (int i = 0; i < 100; i++) {
+          store.put("key" + i, bytes("v" + round));
+        }
+        store.remove("key" + round);
+        store.flush();
+      }
+
+      assertThat(store.segmentCount()).isLessThan(4);
+      assertThat(text(store.get("key99"))).isEqualTo("v7");
+      assertThat(store.get("key7")).isNull();
+      assertThat(text(store.get("key6"))).isEqualTo("v7");
+    }
+
+    try (LsmStore store = new LsmStore(dir, 1 << 20)) {
+      List<String> keys = new ArrayList<>();
+      store.forEach((key, value) -> keys.add(key));
+      assertThat(keys).hasSize(99);
+      assertThat(keys.get(0)).isEqualTo("key0");
+    }
+  }
+
+  @Test
+  void flushesInBackgroundWhenMemtableIsFull() throws IOException {
+    try (LsmStore store = new LsmStore(dir, 4096)) {
+      for (int i = 0; i < 10_000; i++) {
+        store.put(String.format("key%05d", i), bytes("value" + i));
+      }
+      for (int i = 0; i < 10_000; i += 1000) {
+        assertThat(text(store.get(String.format("key%05d", i)))).isEqualTo("value" + i);
+      }
+    }
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String text(byte[] value) {
+    return new String(value, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,268 @@
+package edu.kpi.testcourse.bigtable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MappedAliasDaoImplTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void storesReplacesAndRemovesAliases() throws IOException {
+    try (MappedAliasDaoImpl dao = open()) {
+      Alias first = new Alias("a", "http://a.com", "alice", 1);
+      Alias moved = new Alias("a", "http://b.com", "bob", 1);
+      assertThat(dao.putIfAbsent("a", first)).isNull();
+      assertThat(dao.putIfAbsent("a", moved)).isEqualTo(first);
+      assertThat(dao.replace("a", first, moved)).isTrue();
+      assertThat(dao.get("a")).isEqualTo(moved);
+      assertThat(dao.getAllByUser("alice")).isEmpty();
+      assertThat(dao.getAllByUser("bob")).containsExactly(moved);
+
+      assertThat(dao.removeIfOwnedBy("a", "alice")).isFalse();
+      assertThat(dao.removeIfOwnedBy("a", "bob")).isTrue();
+      assertThat(dao.get("a")).isNull();
+      assertThat(dao.getAll()).isEmpty();
+    }
+  }
+
+  @Test
+  void reopensFromFiles() throws IOException {
+    try (MappedAliasDaoImpl dao = open()) {
+      dao.add("a", new Alias("a", "http://a.com", "alice", 1));
+      dao.add("b", new Alias("b", "http://b.com", "alice", 2));
+      dao.remove("a");
+    }
+
+    try (MappedAliasDaoImpl dao = open()) {
+      assertThat(dao.get("a")).isNull();
+      assertThat(dao.get("b")).isEqualTo(new Alias("b", "http://b.com", "alice", 2));
+      assertThat(dao.getAllByUser("alice")).containsExactly(dao.get("b"));
+    }
+  }
+
+  @Test
+  void growsIndexAndKeepsAllAliases() throws IOException {
+    try (MappedAliasDaoImpl dao = open()) {
+      for (int i = 0; i < 10_000; i++) {
+        dao.add("alias" + i, new Alias("alias" + i, "http://example.com/" + i, "alice", i));
+      }
+      for (int i = 0; i < 10_000; i += 2) {
+        dao.remove("alias" + i);
+      }
+    }
+
+    try (MappedAliasDaoImpl dao = open()) {
+      assertThat(dao.getAll()).hasSize(5_000);
+      assertThat(dao.get("alias4")).isNull();
+      assertThat(dao.get("alias9999").getUrl()).isEqualTo("http://example.com/9999");
+      AliasPage page = dao.getPageByUser("alice", AliasOrder.CREATED, null, 2);
+      assertThat(page.aliases()).containsExactly(dao.get("alias1"), dao.get("alias3"));
+    }
+  }
+
+  @Test
+  void replayOnTopOfFilesIsIdempotent() throws IOException {
+    try (MappedAliasDaoImpl dao = open()) {
+      Mutation put = new Mutation("alias", Mutation.PUT, "a", "http://a.com", "alice", "1");
+      dao.apply(put);
+      dao.apply(put);
+      dao.apply(new Mutation("alias", Mutation.REMOVE, "b"));
+
+      assertThat(dao.getAll().keySet()).containsExactly("a");
+      assertThat(dao.getAllByUser("alice")).hasSize(1);
+    }
+  }
+
+  @Test
+  void opensWhenOnlyTheIndexIsLeft() throws IOException {
+    try (MappedAliasDaoImpl dao = open()) {
+      dao.add("a", new Alias("a", "http://a.com", "alice", 1));
+    }
+    Files.delete(dir.resolve("aliases.dat"));
+
+    try (MappedAliasDaoImpl dao = open()) {
+      assertThat(dao.getAll()).isEmpty();
+      dao.add("b", new Alias("b", "http://b.com", "alice", 2));
+      assertThat(dao.get("b")).isNotNull();
+    }
+  }
+
+  @Test
+  void rebuildsMissingIndex() throws IOException {
+    try (MappedAliasDaoImpl dao = open()) {
+      dao.add("a", new Alias("a", "http://a.com", "alice", 1));
+      dao.add("a", new Alias("a", "http://b.com", "alice", 1));
+      dao.add("c", new Alias("c", "http://c.com", "bob", 2));
+    }
+    Files.delete(dir.resolve("aliases.idx"));
+
+    try (MappedAliasDaoImpl dao = open()) {
+      assertThat(dao.get("a").getUrl()).isEqualTo("http://b.com");
+      assertThat(dao.get("c").getUrl()).isEqualTo("http://c.com");
+      assertThat(dao.getAll()).hasSize(2);
+    }
+  }
+
+  @Test
+  void dropsTornRecordOnOpen() throws IOException {
+    try (MappedAliasDaoImpl dao = open()) {
+      dao.add("a", new Alias("a", "http://a.com", "alice", 1));
+      dao.add("b", new Alias("b", "http://b.com", "alice", 2));
+    }
+    try (FileChannel data = FileChannel.open(dir.resolve("aliases.dat"),
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      ByteBuffer head = ByteBuffer.allocate(4096);
+      data.read(head, 0);
+      String text = new String(head.array(), StandardCharsets.ISO_8859_1);
+      data.write(ByteBuffer.wrap(new byte[] {'x'}), text.indexOf("http://b.com") + 7);
+    }
+    markCrashed();
+
+    try (MappedAliasDaoImpl dao = open()) {
+      assertThat(dao.get("a").getUrl()).isEqualTo("http://a.com");
+      assertThat(dao.get("b")).isNull();
+      assertThat(dao.getAllByUser("alice")).hasSize(1);
+      dao.add("b", new Alias("b", "http://b.com", "alice", 2));
+    }
+
+    try (MappedAliasDaoImpl dao = open()) {
+      assertThat(dao.get("b").getUrl()).isEqualTo("http://b.com");
+    }
+  }
+
+  @Test
+  void clearDropsEverythingForGood() throws IOException {
+    try (MappedAliasDaoImpl dao = open()) {
+      dao.add("a", new Alias("a", "http://a.com", "alice", 1));
+      dao.add("b", new Alias("b", "http://b.com", "alice", 2));
+      dao.clear();
+
+      assertThat(dao.getAll()).isEmpty();
+      assertThat(dao.getAllByUser("alice")).isEmpty();
+      dao.add("c", new Alias("c", "http://c.com", "bob", 3));
+    }
+
+    try (MappedAliasDaoImpl dao = open()) {
+      assertThat(dao.getAll().keySet()).containsExactly("c");
+      assertThat(dao.getAllByUser("alice")).isEmpty();
+    }
+  }
+
+  @Test
+  void rebuildsIndexesAfterCrash() throws IOException {
+    try (MappedAliasDaoImpl dao = open()) {
+      dao.add("a", new Alias("a", "http://a.com", "alice", 1));
+      dao.add("b", new Alias("b", "http://b.com", "bob", 2, 5_000));
+      dao.add("a", new Alias("a", "http://c.com", "alice", 1));
+    }
+    markCrashed();
+    Files.delete(dir.resolve("aliases.usr"));
+    Files.delete(dir.resolve("aliases.exp"));
+
+    try (MappedAliasDaoImpl dao = open()) {
+      assertThat(dao.getAllByUser("alice")).containsExactly(
+          new Alias("a", "http://c.com", "alice", 1));
+      assertThat(dao.evictExpired(10_000)).isEqualTo(1);
+      assertThat(dao.getAllByUser("bob")).isEmpty();
+    }
+  }
+
+  @Test
+  void keepsUserAndExpiryIndexesAcrossReopen() throws IOException {
+    try (MappedAliasDaoImpl dao = open()) {
+      dao.add("a", new Alias("a", "http://a.com", "alice", 1, 5_000));
+      dao.add("b", new Alias("b", "http://b.com", "alice", 2, 5_500));
+      dao.add("c", new Alias("c", "http://c.com", "alice", 3));
+      dao.add("b", new Alias("b", "http://b.com", "alice", 2));
+    }
+
+    try (MappedAliasDaoImpl dao = open()) {
+      assertThat(dao.evictExpired(5_999)).isEqualTo(1);
+      assertThat(dao.get("a")).isNull();
+      assertThat(dao.getAllByUser("alice")).extracting(Alias::getShorten)
+          .containsExactly("b", "c");
+      AliasPage page = dao.getPageByUser("alice", AliasOrder.ALIAS, null, 1);
+      assertThat(page.aliases()).extracting(Alias::getShorten).containsExactly("b");
+      assertThat(dao.getPageByUser("alice", AliasOrder.ALIAS, page.next(), 1).aliases())
+          .extracting(Alias::getShorten).containsExactly("c");
+    }
+  }
+
+  @Test
+  void scanWalksRecordsWrittenBeforeIt() throws IOException {
+    try (MappedAliasDaoImpl dao = open()) {
+      dao.add("a", new Alias("a", "http://a.com", "alice", 1));
+      dao.add("b", new Alias("b", "http://b.com", "alice", 2));
+      Iterator<Alias> scan = dao.scan();
+      dao.remove("b");
+      dao.add("c", new Alias("c", "http://c.com", "alice", 3));
+
+      assertThat(scan.next().getShorten()).isEqualTo("a");
+      assertThat(scan.hasNext()).isFalse();
+    }
+  }
+
+  @Test
+  void userScanFollowsTheChainOfTheUser() throws IOException {
+    try (MappedAliasDaoImpl dao = open()) {
+      dao.add("a", new Alias("a", "http://a.com", "alice", 1));
+      dao.add("b", new Alias("b", "http://b.com", "bob", 2));
+      dao.add("c", new Alias("c", "http://c.com", "alice", 3));
+      dao.add("a", new Alias("a", "http://a2.com", "alice", 1));
+      dao.remove("c");
+
+      List<String> urls = new ArrayList<>();
+      dao.scanByUser("alice").forEachRemaining(alias -> urls.add(alias.getUrl()));
+      assertThat(urls).containsExactly("http://a2.com");
+    }
+  }
+
+  @Test
+  void clearIsJournaledAndReplayed() throws IOException {
+    MutationLog log = new MutationLog(dir.resolve("wal").toString(), Duration.ofMillis(5));
+    List<byte[]> journaled = new ArrayList<>();
+    log.tap(journaled::add);
+    log.open();
+    try (MappedAliasDaoImpl dao = new MappedAliasDaoImpl(dir.toString(), log)) {
+      dao.add("a", new Alias("a", "http://a.com", "alice", 1));
+      dao.clear();
+      Mutation clear = MutationLog.decode(journaled.get(journaled.size() - 1));
+      assertThat(clear.op()).isEqualTo(Mutation.CLEAR);
+
+      dao.add("b", new Alias("b", "http://b.com", "alice", 2));
+      dao.apply(clear);
+      assertThat(dao.getAll()).isEmpty();
+    } finally {
+      log.close();
+    }
+  }
+
+  /**
+   * Takes the clean-shutdown mark off the data file, as if the process had died.
+   */
+  private void markCrashed() throws IOException {
+    try (FileChannel data = FileChannel.open(dir.resolve("aliases.dat"),
+        StandardOpenOption.WRITE)) {
+      data.write(ByteBuffer.wrap(new byte[] {0}), 4);
+    }
+  }
+
+  private MappedAliasDaoImpl open() {
+    return new MappedAliasDaoImpl(dir.toString(), new MutationLog());
+  }
+}
@@ -0,0 +1,89 @@
+package edu.kpi.testcourse.bigtable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MutationLogTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void replayRestoresMutationsAfterReopen() throws IOException {
+    MutationLog log = newLog();
+    AliasDao aliases = new AliasDaoImpl(log);
+    log.open();
+    aliases.add("a", new Alias("a", "http://a.com", "user"));
+    aliases.add("b", new Alias("b", "http://b.com", "user"));
+    aliases.remove("a");
+    log.close();
+
+    AliasDao restored = new AliasDaoImpl();
+    newLog().replay(restored::apply);
+
+    assertThat(restored.get("a")).isNull();
+    assertThat(restored.get("b")).isEqualTo(new Alias("b", "http://b.com", "user"));
+  }
+
+  @Test
+  void appendsAreIgnoredUntilOpened() throws IOException {
+    MutationLog log = newLog();
+    new UserDaoImpl(log).put("user", "hash");
+
+    List<Mutation> replayed = new ArrayList<>();
+    log.replay(replayed::add);
+
+    assertThat(replayed).isEmpty();
+  }
+
+  @Test
+  void truncateDropsCheckpointedSegments() throws IOException {
+    MutationLog log = newLog();
+    UserDao users = new UserDaoImpl(log);
+    log.open();
+    users.put("old", "hash");
+    long firstKept = log.rotate();
+    users.put("new", "hash");
+    log.truncateBefore(firstKept);
+    log.close();
+
+    UserDao restored = new UserDaoImpl();
+    newLog().replay(restored::apply);
+
+    assertThat(restored.get("old")).isNull();
+    assertThat(restored.get("new")).isEqualTo("hash");
+  }
+
+  @Test
+  void tornTailIsSkipped() throws IOException {
+    MutationLog log = newLog();
+    TokenDao tokens = new TokenDaoImpl(log);
+    log.open();
+    tokens.add("token");
+    log.close();
+    try (Stream<Path> files = Files.list(dir)) {
+      Path segment = files.findFirst().orElseThrow();
+      Files.write(segment, new byte[] {0, 0, 0, 42, 1, 2}, StandardOpenOption.APPEND);
+    }
+
+    TokenDao restored = new TokenDaoImpl();
+    newLog().replay(restored::apply);
+
+    assertThat(restored.isRevoked("token")).isTrue();
+  }
+
+  private MutationLog newLog() {
+    return new MutationLog(dir.toString(), Duration.ofMillis(5));
+  }
+
+}
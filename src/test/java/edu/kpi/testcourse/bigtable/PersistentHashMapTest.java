@@ -0,0 +1,79 @@
+package edu.kpi.testcourse.bigtable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class PersistentHashMapTest {
+
+  @Test
+  void behavesLikeHashMap() {
+    Random random = new Random(42);
+    Map<Integer, Integer> expected = new HashMap<>();
+    PersistentHashMap<Integer, Integer> map = PersistentHashMap.empty();
+    for (int i = 0; i < 20_000; i++) {
+      int key = random.nextInt(5_000);
+      if (random.nextInt(3) == 0) {
+        expected.remove(key);
+        map = map.minus(key);
+      } else {
+        expected.put(key, i);
+        map = map.plus(key, i);
+      }
+    }
+
+    assertThat(map.size()).isEqualTo(expected.size());
+    assertThat(new HashMap<>(map)).isEqualTo(expected);
+    for (int key = 0; key < 5_000; key++) {
+      assertThat(map.get(key)).isEqualTo(expected.get(key));
+    }
+  }
+
+  @Test
+  void oldVersionIsNotAffectedByUpdates() {
+    PersistentHashMap<String, String> v1 = PersistentHashMap.<String, String>empty()
+        .plus("a", "1")
+        .plus("b", "2");
+    PersistentHashMap<String, String> v2 = v1.plus("a", "3").minus("b").plus("c", "4");
+
+    assertThat(v1).isEqualTo(Map.of("a", "1", "b", "2"));
+    assertThat(v2).isEqualTo(Map.of("a", "3", "c", "4"));
+  }
+
+  @Test
+  void handlesFullHashCollisions() {
+    PersistentHashMap<Colliding, Integer> map = PersistentHashMap.empty();
+    for (int i = 0; i < 10; i++) {
+      map = map.plus(new Colliding(i), i);
+    }
+    map = map.minus(new Colliding(3));
+
+    assertThat(map.size()).isEqualTo(9);
+    assertThat(map.get(new Colliding(3))).isNull();
+    assertThat(map.get(new Colliding(7))).isEqualTo(7);
+    assertThat(map.entrySet()).hasSize(9);
+  }
+
+  @Test
+  void snapshotOfVersionedMapIsFrozen() {
+    VersionedMap<String, String> table = new VersionedMap<>();
+    table.put("a", "1");
+    Map<String, String> snapshot = table.snapshot();
+    table.put("b", "2");
+    table.remove("a");
+
+    assertThat(snapshot).isEqualTo(Map.of("a", "1"));
+    assertThat(table.snapshot()).isEqualTo(Map.of("b", "2"));
+  }
+
+  private record Colliding(int id) {
+    @Override
+    public int hashCode() {
+      return 7;
+    }
+  }
+
+}
@@ -0,0 +1,265 @@
+package edu.kpi.testcourse.bigtable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ReplicationTest {
+
+  private static final byte[] SECRET = "secret".getBytes(StandardCharsets.UTF_8);
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void followerGetsSnapshotAndLaterChanges() throws Exception {
+    MutationLog leaderLog = newLog("leader");
+    AliasDaoImpl leaderAliases = new AliasDaoImpl(leaderLog);
+    UserDaoImpl leaderUsers = new UserDaoImpl(leaderLog);
+    leaderLog.open();
+    leaderAliases.add("before", new Alias("before", "http://a.com", "alice"));
+    leaderUsers.put("alice", "hash");
+
+    AliasDaoImpl followerAliases = new AliasDaoImpl();
+    UserDaoImpl followerUsers = new UserDaoImpl();
+    followerAliases.add("stale", new Alias("stale", "http://old.com", "bob"));
+
+    try (ReplicationLeader leader =
+             leader(leaderLog, List.of(leaderAliases, leaderUsers));
+         ReplicationFollower follower = new ReplicationFollower(
+             List.of(followerAliases, followerUsers), "localhost", leader.port(), SECRET)) {
+      await(follower::isSynced);
+      leaderAliases.add("after", new Alias("after", "http://b.com", "alice"));
+      leaderAliases.remove("before");
+      await(() -> follower.applied() >= 2);
+
+      assertThat(followerAliases.get("stale")).isNull();
+      assertThat(followerAliases.get("before")).isNull();
+      assertThat(followerAliases.get("after"))
+          .isEqualTo(new Alias("after", "http://b.com", "alice"));
+      assertThat(followerAliases.getAllByUser("alice")).hasSize(1);
+      assertThat(followerUsers.get("alice")).isEqualTo("hash");
+    } finally {
+      leaderLog.close();
+    }
+  }
+
+  @Test
+  void promotedFollowerLeadsOtherFollowers() throws Exception {
+    MutationLog leaderLog = newLog("leader");
+    AliasDaoImpl leaderAliases = new AliasDaoImpl(leaderLog);
+    leaderLog.open();
+    leaderAliases.add("a", new Alias("a", "http://a.com", "alice"));
+
+    MutationLog promotedLog = newLog("promoted");
+    AliasDaoImpl promotedAliases = new AliasDaoImpl(promotedLog);
+    promotedLog.open();
+    AliasDaoImpl otherAliases = new AliasDaoImpl();
+
+    ReplicationLeader leader = leader(leaderLog, List.of(leaderAliases));
+    ReplicationFollower follower =
+        new ReplicationFollower(List.of(promotedAliases), "localhost", leader.port(), SECRET);
+    await(follower::isSynced);
+    leader.close();
+    follower.close();
+
+    try (ReplicationLeader promoted = leader(promotedLog, List.of(promotedAliases));
+         ReplicationFollower other = new ReplicationFollower(
+             List.of(otherAliases), "localhost", promoted.port(), SECRET)) {
+      await(other::isSynced);
+      promotedAliases.add("b", new Alias("b", "http://b.com", "alice"));
+      await(() -> other.applied() >= 1);
+
+      assertThat(otherAliases.get("a")).isEqualTo(new Alias("a", "http://a.com", "alice"));
+      assertThat(otherAliases.get("b")).isEqualTo(new Alias("b", "http://b.com", "alice"));
+    } finally {
+      leaderLog.close();
+      promotedLog.close();
+    }
+  }
+
+  @Test
+  void followerWithWrongSecretGetsNothing() throws Exception {
+    MutationLog leaderLog = newLog("leader");
+    AliasDaoImpl leaderAliases = new AliasDaoImpl(leaderLog);
+    leaderLog.open();
+    leaderAliases.add("a", new Alias("a", "http://a.com", "alice"));
+    AliasDaoImpl followerAliases = new AliasDaoImpl();
+    followerAliases.add("kept", new Alias("kept", "http://old.com", "bob"));
+
+    try (ReplicationLeader leader = leader(leaderLog, List.of(leaderAliases));
+         ReplicationFollower follower = new ReplicationFollower(List.of(followerAliases),
+             "localhost", leader.port(), "wrong".getBytes(StandardCharsets.UTF_8))) {
+      Thread.sleep(500);
+
+      assertThat(follower.isSynced()).isFalse();
+      assertThat(leader.followerCount()).isEqualTo(0);
+      assertThat(followerAliases.get("a")).isNull();
+      assertThat(followerAliases.get("kept")).isNotNull();
+    } finally {
+      leaderLog.close();
+    }
+  }
+
+  @Test
+  void resetOfTablesIsNotJournaled() throws Exception {
+    MutationLog log = newLog("follower");
+    AliasDaoImpl aliases = new AliasDaoImpl(log);
+    UserDaoImpl users = new UserDaoImpl(log);
+    SessionDaoImpl sessions = new SessionDaoImpl(log, 3600);
+    TokenDaoImpl tokens = new TokenDaoImpl(log);
+    log.open();
+    aliases.add("abc", new Alias("abc", "http://a.com", "alice"));
+    aliases.add("custom-alias", new Alias("custom-alias", "http://b.com", "alice"));
+    users.put("alice", "hash");
+    sessions.revokeAll("alice", 1000);
+    tokens.add("token", System.currentTimeMillis() + 60_000);
+    AtomicInteger journaled = new AtomicInteger();
+    log.tap(payload -> journaled.incrementAndGet());
+
+    try {
+      for (Serializible table : List.<Serializible>of(aliases, users, sessions, tokens)) {
+        table.clear();
+      }
+
+      assertThat(journaled.get()).isEqualTo(0);
+      assertThat(aliases.get("abc")).isNull();
+      assertThat(aliases.get("custom-alias")).isNull();
+      assertThat(aliases.getAllByUser("alice")).isEmpty();
+      assertThat(aliases.sharedValueCount()).isEqualTo(0);
+      assertThat(users.get("alice")).isNull();
+      assertThat(sessions.isEmpty()).isTrue();
+      assertThat(tokens.isRevoked("token")).isFalse();
+      assertThat(tokens.size()).isEqualTo(0);
+    } finally {
+      log.close();
+    }
+  }
+
+  @Test
+  void replicaSwapsInNewerDumps() throws Exception {
+    AliasDaoImpl primary = new AliasDaoImpl();
+    primary.add("a", new Alias("a", "http://a.com", "alice"));
+    primary.add("b", new Alias("b", "http://b.com", "alice"));
+    dump(primary, SnapshotCompression.NONE);
+    AliasDaoImpl replicaAliases = new AliasDaoImpl();
+    replicaAliases.add("stale", new Alias("stale", "http://old.com", "bob"));
+
+    try (SnapshotReplica replica = new SnapshotReplica(replicaAliases, dir)) {
+      await(replica::isLoaded);
+      assertThat(replicaAliases.getAll()).isEqualTo(primary.getAll());
+
+      primary.remove("a");
+      primary.add("b", new Alias("b", "http://c.com", "alice"));
+      primary.add("d", new Alias("d", "http://d.com", "carol"));
+      dump(primary, 6);
+      await(() -> replica.loads() >= 2);
+
+      assertThat(replicaAliases.getAll()).isEqualTo(primary.getAll());
+      assertThat(replicaAliases.getAllByUser("alice")).hasSize(1);
+    }
+  }
+
+  @Test
+  void replicaReadsOnlyTheDumpsOfTheManifest() throws Exception {
+    AliasDaoImpl removed = new AliasDaoImpl();
+    removed.add("gone", new Alias("gone", "http://gone.com", "alice"));
+    try (OutputStream out = Files.newOutputStream(dir.resolve("alias-3.snap"))) {
+      SnapshotFormat.BINARY.write(removed, 0, out);
+    }
+    AliasDaoImpl primary = new AliasDaoImpl();
+    primary.add("a", new Alias("a", "http://a.com", "alice"));
+    dump(primary, SnapshotCompression.NONE);
+    AliasDaoImpl replicaAliases = new AliasDaoImpl();
+
+    try (SnapshotReplica replica = new SnapshotReplica(replicaAliases, dir)) {
+      await(replica::isLoaded);
+      assertThat(replicaAliases.getAll()).isEqualTo(primary.getAll());
+    }
+  }
+
+  @Test
+  void replicaIsPromotedOnlyIntoADirectoryOfItsOwn() throws Exception {
+    MutationLog log = newLog("replica");
+    AliasDaoImpl aliases = new AliasDaoImpl(log);
+    Replication replication = new Replication();
+    set(replication, "daos", List.of(aliases));
+    set(replication, "log", log);
+    set(replication, "aliasDao", aliases);
+    set(replication, "role", "replica");
+    set(replication, "bindAddress", "127.0.0.1");
+    set(replication, "port", 0);
+    set(replication, "secret", "secret");
+    set(replication, "snapshotDirectory", dir.toString());
+    set(replication, "promotedDirectory", dir.resolve(".").toString());
+    replication.start();
+    try {
+      assertThatThrownBy(replication::promote).isInstanceOf(IllegalStateException.class);
+      assertThat(replication.isReplica()).isTrue();
+
+      set(replication, "promotedDirectory", dir.resolve("own").toString());
+      replication.promote();
+      assertThat(replication.isReplica()).isFalse();
+      assertThat(replication.promotedDirectory()).isEqualTo(dir.resolve("own").toAbsolutePath());
+    } finally {
+      replication.close();
+      log.close();
+    }
+  }
+
+  private static ReplicationLeader leader(MutationLog log, List<Serializible> tables)
+      throws IOException {
+    return new ReplicationLeader(log, tables, "127.0.0.1", 0, SECRET);
+  }
+
+  /**
+   * Dumps the table and publishes its manifest, the way {@link BigTableManager} does.
+   */
+  private void dump(AliasDao aliases, int level) throws IOException {
+    Path tmp = dir.resolve("alias.snap.tmp");
+    CheckedOutputStream checked =
+        new CheckedOutputStream(Files.newOutputStream(tmp), new CRC32());
+    try (OutputStream out = SnapshotCompression.compress(checked, level)) {
+      SnapshotFormat.BINARY.write(aliases, 0, out);
+    }
+    Files.move(tmp, dir.resolve("alias.snap"), StandardCopyOption.ATOMIC_MOVE);
+    new SnapshotManifest(System.nanoTime(), SnapshotFormat.BINARY,
+        Map.of("alias.snap", checked.getChecksum().getValue()))
+        .write(SnapshotManifest.path(aliases, dir));
+  }
+
+  private static void set(Object target, String name, Object value)
+      throws ReflectiveOperationException {
+    Field field = target.getClass().getDeclaredField(name);
+    field.setAccessible(true);
+    field.set(target, value);
+  }
+
+  private MutationLog newLog(String node) {
+    return new MutationLog(dir.resolve(node).toString(), Duration.ofMillis(5));
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+    while (!condition.getAsBoolean()) {
+      assertThat(System.nanoTime()).isLessThan(deadline);
+      Thread.sleep(10);
+    }
+  }
+}
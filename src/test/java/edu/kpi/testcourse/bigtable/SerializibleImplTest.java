@@ -1,7 +1,18 @@
 package edu.kpi.testcourse.bigtable;
 
-import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.junit.jupiter.api.Test;
 
 class SerializibleImplTest {
@@ -29,14 +40,12 @@ class SerializibleImplTest {
   @Test
   void checkTokenToJsonSerialize() {
     TokenDao dao = new TokenDaoImpl();
-    dao.add("test@mail.com", "asd");
+    dao.add("asd", 1000);
 
     String json = dao.toJson();
 
-    assertThat(json).isEqualTo("""
-      {"test@mail.com":["asd"]}""");
-    assertThat(json).isNotEqualTo("""
-      {"test@mail.com":["asdd"]}""");
+    assertThat(json).isEqualTo("{\"" + TokenDigest.of("asd") + "\":1000}");
+    assertThat(json).isNotEqualTo("{\"" + TokenDigest.of("asdd") + "\":1000}");
   }
 
   @Test
@@ -65,4 +74,149 @@ class SerializibleImplTest {
 
   }
 
+  @Test
+  void checkJsonToTokenDeserialize() {
+    TokenDao dao = new TokenDaoImpl();
+    dao.fromJson("""
+      {"test@mail.com":["asd","qwe"]}""");
+    dao.add("zxc");
+
+    assertThat(dao.isRevoked("asd")).isTrue();
+    assertThat(dao.isRevoked("qwe")).isTrue();
+    assertThat(dao.isRevoked("zxc")).isTrue();
+    assertThat(dao.isRevoked("test@mail.com")).isFalse();
+    assertThat(dao.size()).isEqualTo(3);
+  }
+
+  @Test
+  void checkAliasStreamingRoundTrip() throws IOException {
+    AliasDao dao = new AliasDaoImpl();
+    for (int i = 0; i < 100; i++) {
+      dao.add("a" + i, new Alias("a" + i, "http://example.com/" + i, "user" + i % 3));
+    }
+    StringWriter json = new StringWriter();
+    dao.writeJson(new JsonWriter(json));
+
+    AliasDao restored = new AliasDaoImpl();
+    restored.readJson(new JsonReader(new StringReader(json.toString())));
+
+    assertThat(restored.getAll()).isEqualTo(dao.getAll());
+  }
+
+  @Test
+  void checkBinaryRoundTripOfAllTables() throws IOException {
+    AliasDao aliases = new AliasDaoImpl();
+    UserDao users = new UserDaoImpl();
+    TokenDao tokens = new TokenDaoImpl();
+    for (int i = 0; i < 10_000; i++) {
+      aliases.add("a" + i, new Alias("a" + i, "http://example.com/" + i, "user" + i % 3, i));
+    }
+    users.put("test@mail.com", "hash");
+    tokens.add("asd");
+    tokens.add("qwe");
+
+    AliasDao restoredAliases = new AliasDaoImpl();
+    UserDao restoredUsers = new UserDaoImpl();
+    TokenDao restoredTokens = new TokenDaoImpl();
+    roundTrip(aliases, restoredAliases);
+    roundTrip(users, restoredUsers);
+    roundTrip(tokens, restoredTokens);
+
+    assertThat(restoredAliases.getAll()).isEqualTo(aliases.getAll());
+    assertThat(restoredUsers.getAll()).isEqualTo(users.getAll());
+    assertThat(restoredTokens.isRevoked("asd")).isTrue();
+    assertThat(restoredTokens.isRevoked("qwe")).isTrue();
+    assertThat(restoredTokens.size()).isEqualTo(2);
+  }
+
+  @Test
+  void checkShardedAliasesRoundTrip() throws IOException {
+    AliasDaoImpl dao = new AliasDaoImpl(new MutationLog(), 4);
+    for (int i = 0; i < 1000; i++) {
+      dao.add("a" + i, new Alias("a" + i, "http://example.com/" + i, "user", i));
+    }
+
+    AliasDao restored = new AliasDaoImpl();
+    int total = 0;
+    for (int shard = 0; shard < dao.getShardCount(); shard++) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      dao.writeBinary(new SnapshotWriter(out, dao.getTableName()), shard);
+      int before = restored.getAll().size();
+      restored.readBinary(new SnapshotReader(new ByteArrayInputStream(out.toByteArray()),
+          dao.getTableName()));
+      total += restored.getAll().size() - before;
+      assertThat(restored.getAll().size()).isGreaterThan(before);
+    }
+
+    assertThat(total).isEqualTo(1000);
+    assertThat(restored.getAll()).isEqualTo(dao.getAll());
+  }
+
+  @Test
+  void checkBinaryIsAtLeastTwiceSmallerThanJson() throws IOException {
+    AliasDao dao = new AliasDaoImpl();
+    for (int i = 0; i < 1000; i++) {
+      dao.add("alias" + i, new Alias("alias" + i, "http://example.com/" + i, "user@mail.com",
+          1_600_000_000_000L + i));
+    }
+
+    assertThat(binary(dao).length * 2).isLessThanOrEqualTo(dao.toJson().length());
+  }
+
+  @Test
+  void checkBinaryIsRestoredInParallelChunks() throws IOException {
+    AliasDao dao = new AliasDaoImpl();
+    for (int i = 0; i < 50_000; i++) {
+      dao.add("a" + i, new Alias("a" + i, "http://example.com/" + i, "user" + i % 7, i));
+    }
+
+    AliasDao restored = new AliasDaoImpl();
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      SnapshotFormat.BINARY.read(restored, new ByteArrayInputStream(binary(dao)), pool, 4);
+    } finally {
+      pool.shutdown();
+    }
+
+    assertThat(restored.getAll()).isEqualTo(dao.getAll());
+    assertThat(restored.getAllByUser("user3")).hasSize(dao.getAllByUser("user3").size());
+  }
+
+  @Test
+  void checkCorruptedBinaryIsRejected() throws IOException {
+    UserDao dao = new UserDaoImpl();
+    dao.put("test@mail.com", "hash");
+    byte[] snapshot = binary(dao);
+    snapshot[snapshot.length - 10] ^= 1;
+
+    assertThatThrownBy(() -> new UserDaoImpl().readBinary(
+        new SnapshotReader(new ByteArrayInputStream(snapshot), "users")))
+        .isInstanceOf(IOException.class);
+    assertThatThrownBy(() -> new UserDaoImpl().readBinary(
+        new SnapshotReader(new ByteArrayInputStream(binary(dao)), "tokens")))
+        .isInstanceOf(IOException.class);
+  }
+
+  @Test
+  void checkTruncatedBinaryIsRejected() throws IOException {
+    UserDao dao = new UserDaoImpl();
+    dao.put("test@mail.com", "hash");
+    byte[] snapshot = Arrays.copyOf(binary(dao), binary(dao).length - 4);
+
+    assertThatThrownBy(() -> new UserDaoImpl().readBinary(
+        new SnapshotReader(new ByteArrayInputStream(snapshot), "users")))
+        .isInstanceOf(IOException.class);
+  }
+
+  private static void roundTrip(Serializible from, Serializible to) throws IOException {
+    to.readBinary(new SnapshotReader(new ByteArrayInputStream(binary(from)),
+        from.getTableName()));
+  }
+
+  private static byte[] binary(Serializible dao) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    dao.writeBinary(new SnapshotWriter(out, dao.getTableName()));
+    return out.toByteArray();
+  }
+
 }
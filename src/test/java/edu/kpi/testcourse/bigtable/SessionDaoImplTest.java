@@ -0,0 +1,64 @@
+package edu.kpi.testcourse.bigtable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class SessionDaoImplTest {
+
+  @Test
+  void markOnlyMovesForward() {
+    SessionDao dao = new SessionDaoImpl();
+    assertThat(dao.isEmpty()).isTrue();
+    assertThat(dao.revokedUntil("alice")).isEqualTo(0);
+
+    dao.revokeAll("alice", 2000);
+    dao.revokeAll("alice", 1000);
+
+    assertThat(dao.isEmpty()).isFalse();
+    assertThat(dao.revokedUntil("alice")).isEqualTo(2000);
+    assertThat(dao.revokedUntil("bob")).isEqualTo(0);
+  }
+
+  @Test
+  void markIsRoundedUpToTheSecond() {
+    SessionDao dao = new SessionDaoImpl();
+    dao.revokeAll("alice", 2001);
+    dao.revokeAll("alice", 2500);
+    dao.revokeAll("bob", 2000);
+
+    assertThat(dao.revokedUntil("alice")).isEqualTo(3000);
+    assertThat(dao.revokedUntil("bob")).isEqualTo(2000);
+  }
+
+  @Test
+  void marksOlderThanTokenLifetimeAreRemoved() {
+    SessionDao dao = new SessionDaoImpl(new MutationLog(), 60);
+    dao.revokeAll("alice", 1000);
+    dao.revokeAll("bob", 30_000);
+
+    assertThat(dao.removeExpired(61_000)).isEqualTo(1);
+
+    assertThat(dao.revokedUntil("alice")).isEqualTo(0);
+    assertThat(dao.revokedUntil("bob")).isEqualTo(30_000);
+    assertThat(dao.removeExpired(90_000)).isEqualTo(1);
+    assertThat(dao.isEmpty()).isTrue();
+  }
+
+  @Test
+  void marksSurviveSnapshotAndReplay() {
+    SessionDao dao = new SessionDaoImpl();
+    dao.revokeAll("alice", 2000);
+
+    SessionDao fromJson = new SessionDaoImpl();
+    fromJson.fromJson(dao.toJson());
+    SessionDao replayed = new SessionDaoImpl();
+    replayed.apply(new Mutation("sessions", Mutation.PUT, "alice", "2000"));
+    replayed.apply(new Mutation("sessions", Mutation.PUT, "bob", "1000"));
+    replayed.apply(new Mutation("sessions", Mutation.REMOVE, "bob"));
+
+    assertThat(fromJson.revokedUntil("alice")).isEqualTo(2000);
+    assertThat(replayed.revokedUntil("alice")).isEqualTo(2000);
+    assertThat(replayed.revokedUntil("bob")).isEqualTo(0);
+  }
+}
@@ -0,0 +1,58 @@
+package edu.kpi.testcourse.bigtable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class ShortAliasIndexTest {
+
+  @Test
+  void encodesOnlyShortLowercaseAliases() {
+    assertThat(ShortAliasIndex.encode("abcdefgh")).isNotEqualTo(ShortAliasIndex.NONE);
+    assertThat(ShortAliasIndex.encode("zzzzzzzzzzzz")).isNotEqualTo(ShortAliasIndex.NONE);
+    assertThat(ShortAliasIndex.encode("")).isEqualTo(ShortAliasIndex.NONE);
+    assertThat(ShortAliasIndex.encode("abcdefghijklm")).isEqualTo(ShortAliasIndex.NONE);
+    assertThat(ShortAliasIndex.encode("my-link")).isEqualTo(ShortAliasIndex.NONE);
+    assertThat(ShortAliasIndex.encode("Abc")).isEqualTo(ShortAliasIndex.NONE);
+  }
+
+  @Test
+  void keysOfDifferentAliasesDiffer() {
+    Set<Long> keys = new HashSet<>();
+    for (String alias : new String[] {"a", "aa", "aaa", "b", "ab", "ba", "z", "za", "az"}) {
+      keys.add(ShortAliasIndex.encode(alias));
+    }
+
+    assertThat(keys).hasSize(9);
+  }
+
+  @Test
+  void keepsAliasesThroughGrowthAndRemoval() {
+    ShortAliasIndex index = new ShortAliasIndex();
+    for (int i = 0; i < 10_000; i++) {
+      String shorten = name(i);
+      index.put(ShortAliasIndex.encode(shorten),
+          new AliasRecord("http://a.com/" + shorten, "alice", i, 0, null));
+    }
+    for (int i = 0; i < 10_000; i += 2) {
+      index.put(ShortAliasIndex.encode(name(i)), null);
+    }
+
+    assertThat(index.size()).isEqualTo(5_000);
+    assertThat(index.get(ShortAliasIndex.encode(name(2)))).isNull();
+    assertThat(index.get(ShortAliasIndex.encode(name(3))).url())
+        .isEqualTo("http://a.com/" + name(3));
+    assertThat(index.get(ShortAliasIndex.encode(name(9_999))).createdAt()).isEqualTo(9_999);
+  }
+
+  private static String name(int i) {
+    StringBuilder name = new StringBuilder();
+    do {
+      name.append((char) ('a' + i % 26));
+      i /= 26;
+    } while (i > 0);
+    return name.toString();
+  }
+}
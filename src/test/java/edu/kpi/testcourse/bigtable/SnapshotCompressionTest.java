@@ -0,0 +1,39 @@
+package edu.kpi.testcourse.bigtable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import org.junit.jupiter.api.Test;
+
+class SnapshotCompressionTest {
+
+  @Test
+  void dumpsOfAnyLevelAreRestored() throws IOException {
+    AliasDao dao = new AliasDaoImpl();
+    for (int i = 0; i < 1000; i++) {
+      dao.add("a" + i, new Alias("a" + i, "https://example.com/page/" + i % 10, "alice", i));
+    }
+    for (SnapshotFormat format : SnapshotFormat.values()) {
+      byte[] raw = dump(dao, format, SnapshotCompression.NONE);
+      byte[] compressed = dump(dao, format, 6);
+
+      assertThat(compressed.length < raw.length / 2).isTrue();
+      for (byte[] dump : new byte[][] {raw, compressed}) {
+        AliasDao restored = new AliasDaoImpl();
+        format.read(restored, SnapshotCompression.decompress(new ByteArrayInputStream(dump)));
+        assertThat(restored.getAll()).isEqualTo(dao.getAll());
+      }
+    }
+  }
+
+  private static byte[] dump(AliasDao dao, SnapshotFormat format, int level) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    OutputStream out = SnapshotCompression.compress(bytes, level);
+    format.write(dao, 0, out);
+    SnapshotCompression.finish(out);
+    return bytes.toByteArray();
+  }
+}
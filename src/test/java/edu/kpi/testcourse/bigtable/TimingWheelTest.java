@@ -0,0 +1,61 @@
+package edu.kpi.testcourse.bigtable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class TimingWheelTest {
+
+  @Test
+  void keysFireWhenTheirDeadlineComes() {
+    TimingWheel wheel = new TimingWheel(10, 1000);
+    wheel.schedule("past", 500);
+    wheel.schedule("soon", 1015);
+    wheel.schedule("later", 1500);
+
+    assertThat(wheel.advance(1000)).containsExactly("past");
+    assertThat(wheel.advance(1010)).isEmpty();
+    assertThat(wheel.advance(1020)).containsExactly("soon");
+    assertThat(wheel.advance(1499)).isEmpty();
+    assertThat(wheel.advance(1500)).containsExactly("later");
+    assertThat(wheel.size()).isEqualTo(0);
+  }
+
+  @Test
+  void keysOfAllLevelsFireInTimeAndNeverEarly() {
+    TimingWheel wheel = new TimingWheel(1, 0);
+    Random random = new Random(7);
+    List<Long> deadlines = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      long deadline = 1 + (long) Math.pow(random.nextDouble(), 4) * 5_000_000;
+      deadlines.add(deadline);
+      wheel.schedule(Integer.toString(i), deadline);
+    }
+
+    long now = 0;
+    int fired = 0;
+    while (fired < deadlines.size()) {
+      now += 1 + random.nextInt(5000);
+      for (String key : wheel.advance(now)) {
+        long deadline = deadlines.get(Integer.parseInt(key));
+        assertThat(deadline).isBetween(now - 5000, now);
+        fired++;
+      }
+    }
+    assertThat(wheel.size()).isEqualTo(0);
+  }
+
+  @Test
+  void farDeadlinesWaitAtTheTopLevel() {
+    TimingWheel wheel = new TimingWheel(1000, 0);
+    long farAway = 1000L * (1L << 37);
+    wheel.schedule("far", farAway);
+
+    assertThat(wheel.advance(farAway / 2)).isEmpty();
+    assertThat(wheel.advance(farAway - 1000)).isEmpty();
+    assertThat(wheel.advance(farAway)).containsExactly("far");
+  }
+}
@@ -0,0 +1,97 @@
+package edu.kpi.testcourse.bigtable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+class TokenDaoImplTest {
+
+  @Test
+  void onlyExpiredTokensAreRemoved() {
+    TokenDaoImpl dao = new TokenDaoImpl();
+    long now = 10 * TokenDaoImpl.BUCKET_MILLIS;
+    dao.add("old", now - TokenDaoImpl.BUCKET_MILLIS);
+    dao.add("fresh", now + TokenDaoImpl.BUCKET_MILLIS);
+    dao.add("older", now - 3 * TokenDaoImpl.BUCKET_MILLIS);
+
+    assertThat(dao.removeExpired(now)).isEqualTo(2);
+
+    assertThat(dao.isRevoked("fresh")).isTrue();
+    assertThat(dao.isRevoked("old")).isFalse();
+    assertThat(dao.isRevoked("older")).isFalse();
+    assertThat(dao.size()).isEqualTo(1);
+    assertThat(dao.removeExpired(now)).isEqualTo(0);
+  }
+
+  @Test
+  void removedAndExtendedTokensAreSkippedByCleanup() {
+    TokenDaoImpl dao = new TokenDaoImpl();
+    dao.add("a", 1000);
+    dao.remove("a");
+    dao.add("b", 1000);
+    dao.add("b", 10 * TokenDaoImpl.BUCKET_MILLIS);
+
+    assertThat(dao.removeExpired(TokenDaoImpl.BUCKET_MILLIS)).isEqualTo(0);
+    assertThat(dao.isRevoked("b")).isTrue();
+  }
+
+  @Test
+  void journalsOfWholeAndDigestedTokensAreReplayed() {
+    TokenDaoImpl dao = new TokenDaoImpl();
+    dao.apply(new Mutation("tokens", Mutation.PUT, "alice", "legacy"));
+    dao.apply(new Mutation("tokens", Mutation.PUT, "alice", "expiring", "2000"));
+    dao.apply(new Mutation("tokens", Mutation.PUT, TokenDigest.of("new").toString(), "2000"));
+    dao.apply(new Mutation("tokens", Mutation.REMOVE, "alice", "expiring"));
+
+    assertThat(dao.isRevoked("legacy")).isTrue();
+    assertThat(dao.isRevoked("expiring")).isFalse();
+    assertThat(dao.isRevoked("new")).isTrue();
+
+    dao.apply(new Mutation("tokens", Mutation.REMOVE, TokenDigest.of("new").toString()));
+    assertThat(dao.isRevoked("new")).isFalse();
+  }
+
+  @Test
+  void tokensOfUnknownExpiryAreKeptForTheTokenLifetime() {
+    TokenDaoImpl dao = new TokenDaoImpl(new MutationLog(), 60);
+    dao.fromJson("""
+      {"alice":["legacy"]}""");
+
+    long now = System.currentTimeMillis();
+    assertThat(dao.removeExpired(now)).isEqualTo(0);
+    assertThat(dao.removeExpired(now + 60_000 + 2 * TokenDaoImpl.BUCKET_MILLIS)).isEqualTo(1);
+    assertThat(dao.isRevoked("legacy")).isFalse();
+  }
+
+  @Test
+  void snapshotsOfPerUserTokensAreReadWithAndWithoutExpiry() throws IOException {
+    long expiresAt = System.currentTimeMillis() + 60_000;
+    TokenDaoImpl dao = new TokenDaoImpl();
+    dao.readBinary(perUserSnapshot((byte) 2, "before", 0));
+    dao.readBinary(perUserSnapshot((byte) 3, "expiring", expiresAt));
+
+    assertThat(dao.isRevoked("before")).isTrue();
+    assertThat(dao.isRevoked("expiring")).isTrue();
+    assertThat(dao.removeExpired(expiresAt + TokenDaoImpl.BUCKET_MILLIS)).isEqualTo(1);
+    assertThat(dao.isRevoked("before")).isTrue();
+    assertThat(dao.isRevoked("expiring")).isFalse();
+  }
+
+  private static SnapshotReader perUserSnapshot(byte version, String token, long expiresAt)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    SnapshotWriter out = new SnapshotWriter(bytes, "tokens", version);
+    out.writeString("alice");
+    out.writeVarLong(1);
+    out.writeString(token);
+    if (version >= 3) {
+      out.writeVarLong(expiresAt);
+    }
+    out.endRecord();
+    out.finish();
+    return new SnapshotReader(new ByteArrayInputStream(bytes.toByteArray()), "tokens");
+  }
+}
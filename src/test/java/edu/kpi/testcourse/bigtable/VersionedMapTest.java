@@ -0,0 +1,112 @@
+package edu.kpi.testcourse.bigtable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class VersionedMapTest {
+
+  @Test
+  void onlyOneConcurrentPutIfAbsentWins() throws Exception {
+    VersionedMap<String, Integer> table = new VersionedMap<>();
+    AtomicInteger winners = new AtomicInteger();
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int thread = 0; thread < 8; thread++) {
+      int id = thread;
+      futures.add(pool.submit(() -> {
+        for (int key = 0; key < 1_000; key++) {
+          if (table.putIfAbsent("key" + key, id) == null) {
+            winners.incrementAndGet();
+          }
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    pool.shutdown();
+
+    assertThat(winners.get()).isEqualTo(1_000);
+    assertThat(table.size()).isEqualTo(1_000);
+    assertThat(table.snapshot()).hasSize(1_000);
+  }
+
+  @Test
+  void partsSplitTheTableWithoutOverlap() {
+    VersionedMap<String, Integer> table = new VersionedMap<>();
+    for (int i = 0; i < 1000; i++) {
+      table.put("key" + i, i);
+    }
+
+    Map<String, Integer> joined = new HashMap<>();
+    for (int part = 0; part < 5; part++) {
+      Map<String, Integer> snapshot = table.snapshot(part, 5);
+      snapshot.forEach((key, value) -> {
+        assertThat(joined.put(key, value)).isNull();
+        assertThat(snapshot.get(key)).isEqualTo(value);
+      });
+    }
+
+    assertThat(joined).isEqualTo(table.snapshot());
+  }
+
+  @Test
+  void conditionalOperationsCheckCurrentValue() {
+    VersionedMap<String, String> table = new VersionedMap<>();
+    table.put("alias", "alice");
+
+    assertThat(table.remove("alias", "bob"::equals)).isFalse();
+    assertThat(table.replace("alias", "bob", "carol")).isFalse();
+    assertThat(table.replace("alias", "alice", "bob")).isTrue();
+    assertThat(table.remove("alias", "bob"::equals)).isTrue();
+    assertThat(table.get("alias")).isNull();
+  }
+
+  @Test
+  void batchPutKeepsValuesItMayNotReplace() {
+    VersionedMap<String, String> table = new VersionedMap<>(4, (key, oldValue, newValue) -> { });
+    table.put("kept", "alice");
+    table.put("stale", "old");
+    List<String> keys = new ArrayList<>();
+    List<String> values = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      keys.add("key" + i);
+      values.add("value" + i);
+    }
+    keys.addAll(List.of("kept", "stale", "key0"));
+    values.addAll(List.of("bob", "new", "again"));
+
+    List<String> kept = table.putAllIfAbsent(keys, values, "old"::equals);
+
+    for (int i = 0; i < 100; i++) {
+      assertThat(kept.get(i)).isNull();
+      assertThat(table.get("key" + i)).isEqualTo("value" + i);
+    }
+    assertThat(kept.subList(100, 103)).containsExactly("alice", null, "value0");
+    assertThat(table.get("stale")).isEqualTo("new");
+    assertThat(table.size()).isEqualTo(102);
+  }
+
+  @Test
+  void listenerSeesOnlyEffectiveChanges() {
+    List<String> changes = new ArrayList<>();
+    VersionedMap<String, String> table = new VersionedMap<>(
+        (key, oldValue, newValue) -> changes.add(key + ":" + oldValue + "->" + newValue));
+    table.put("a", "1");
+    table.putIfAbsent("a", "2");
+    table.remove("b");
+    table.remove("a");
+
+    assertThat(changes).containsExactly("a:null->1", "a:1->null");
+  }
+
+}
@@ -2,7 +2,10 @@ package edu.kpi.testcourse.rest;
 
 import edu.kpi.testcourse.bigtable.Alias;
 import edu.kpi.testcourse.bigtable.AliasDao;
+import edu.kpi.testcourse.bigtable.AliasOrder;
+import edu.kpi.testcourse.bigtable.AliasPage;
 import edu.kpi.testcourse.rest.dto.UrlCreateResponse;
+import io.micronaut.context.annotation.Property;
 import io.micronaut.core.type.Argument;
 import io.micronaut.http.*;
 import io.micronaut.http.client.RxHttpClient;
@@ -37,6 +40,8 @@ import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
 @MicronautTest
+// The expired alias cleaner would otherwise touch the mocked table in the middle of a test
+@Property(name = "bigtable.alias.expiry-interval", value = "1h")
 class ApiControllerTest {
 
   private static final Logger log = LoggerFactory.getLogger(ApiControllerTest.class);
@@ -68,13 +73,12 @@ class ApiControllerTest {
   void createShortenUrlWhenUniqueAliasProvided() {
     String accessToken = authorize();
 
-    String url = "test";
+    String url = "http://test.com";
     String alias = "test_alias";
     Map<String, Object> saveAliasRequestBody = Map.of(
       "url", url,
       "alias", alias
     );
-    var expectedSaveParam = new Alias(alias, url, USERNAME);
     var expectedResult = new UrlCreateResponse(alias, url, USERNAME);
     var saveAliasRequest = HttpRequest.POST("/urls/shorten", saveAliasRequestBody)
       .bearerAuth(accessToken);
@@ -86,15 +90,87 @@ class ApiControllerTest {
       .isEqualTo(HttpStatus.OK);
     assertThat(result.body()).isEqualTo(expectedResult);
 
-    verify(aliasDao).get(alias);
-    verify(aliasDao).add(alias, expectedSaveParam);
+    ArgumentCaptor<Alias> aliasCaptor = ArgumentCaptor.forClass(Alias.class);
+    verify(aliasDao).putIfAbsent(eq(alias), aliasCaptor.capture());
+    assertThat(aliasCaptor.getValue())
+      .satisfies(aliasObject -> {
+        assertThat(aliasObject.getShorten()).isEqualTo(alias);
+        assertThat(aliasObject.getUrl()).isEqualTo(url);
+        assertThat(aliasObject.getUsername()).isEqualTo(USERNAME);
+        assertThat(aliasObject.getCreatedAt()).isPositive();
+      });
+  }
+
+  @Test
+  void createShortenUrlWithTimeToLive() {
+    String accessToken = authorize();
+
+    String alias = "test_alias";
+    Map<String, Object> saveAliasRequestBody = Map.of(
+      "url", "http://test.com",
+      "alias", alias,
+      "ttl", 60
+    );
+    var saveAliasRequest = HttpRequest.POST("/urls/shorten", saveAliasRequestBody)
+      .bearerAuth(accessToken);
+    long before = System.currentTimeMillis();
+
+    HttpResponse<String> result = client.toBlocking().exchange(saveAliasRequest, String.class);
+
+    assertThat(result).extracting(HttpResponse::status).isEqualTo(HttpStatus.OK);
+    ArgumentCaptor<Alias> aliasCaptor = ArgumentCaptor.forClass(Alias.class);
+    verify(aliasDao).putIfAbsent(eq(alias), aliasCaptor.capture());
+    assertThat(aliasCaptor.getValue().getExpiresAt())
+      .isBetween(before + 60_000, System.currentTimeMillis() + 60_000);
+  }
+
+  @Test
+  void createShortenUrlWithTtlAndExpiresAt() {
+    String accessToken = authorize();
+
+    Map<String, Object> saveAliasRequestBody = Map.of(
+      "url", "http://test.com",
+      "ttl", 60,
+      "expiresAt", System.currentTimeMillis() + 60_000
+    );
+    var saveAliasRequest = HttpRequest.POST("/urls/shorten", saveAliasRequestBody)
+      .bearerAuth(accessToken);
+
+    HttpResponse<?> result = assertThrows(
+      HttpClientResponseException.class,
+      () -> client.toBlocking().exchange(saveAliasRequest, String.class))
+      .getResponse();
+
+    assertThat(result).extracting(HttpResponse::status).isEqualTo(HttpStatus.BAD_REQUEST);
+    verifyNoInteractions(aliasDao);
+  }
+
+  @Test
+  void createShortenUrlWhenUrlInvalid() {
+    String accessToken = authorize();
+
+    Map<String, Object> saveAliasRequestBody = Map.of(
+      "url", "test",
+      "alias", "test_alias"
+    );
+    var saveAliasRequest = HttpRequest.POST("/urls/shorten", saveAliasRequestBody)
+      .bearerAuth(accessToken);
+
+    HttpResponse<?> result = assertThrows(
+      HttpClientResponseException.class,
+      () -> client.toBlocking().exchange(saveAliasRequest, String.class))
+      .getResponse();
+
+    assertThat(result).extracting(HttpResponse::status).isEqualTo(HttpStatus.BAD_REQUEST);
+    assertThat(result.body()).isEqualTo("Invalid url!");
+    verifyNoInteractions(aliasDao);
   }
 
   @Test
   void createShortenUrlWhenProvidedAliasNotUnique() {
     String accessToken = authorize();
 
-    String url = "test";
+    String url = "http://test.com";
     String alias = "test_alias";
     Map<String, Object> saveAliasRequestBody = Map.of(
       "url", url,
@@ -104,7 +180,7 @@ class ApiControllerTest {
     var saveAliasRequest = HttpRequest.POST("/urls/shorten", saveAliasRequestBody)
       .bearerAuth(accessToken);
 
-    when(aliasDao.get(alias))
+    when(aliasDao.putIfAbsent(eq(alias), any()))
       .thenReturn(mock(Alias.class));
 
     HttpResponse<?> result = assertThrows(
@@ -118,7 +194,7 @@ class ApiControllerTest {
       .isEqualTo(HttpStatus.BAD_REQUEST);
     assertThat(result.body()).isEqualTo(expectedResult);
 
-    verify(aliasDao).get(alias);
+    verify(aliasDao).putIfAbsent(eq(alias), any());
     verify(aliasDao, never()).add(anyString(), any());
   }
 
@@ -126,7 +202,7 @@ class ApiControllerTest {
   void createShortenUrlWhenNoAlias() {
     String accessToken = authorize();
 
-    String url = "test";
+    String url = "http://test.com";
     Map<String, Object> saveAliasRequestBody = Map.of(
       "url", url
     );
@@ -149,8 +225,7 @@ class ApiControllerTest {
 
     ArgumentCaptor<Alias> aliasCaptor = ArgumentCaptor.forClass(Alias.class);
     ArgumentCaptor<String> stringCaptor = ArgumentCaptor.forClass(String.class);
-    verify(aliasDao, atLeastOnce()).get(anyString());
-    verify(aliasDao).add(stringCaptor.capture(), aliasCaptor.capture());
+    verify(aliasDao).putIfAbsent(stringCaptor.capture(), aliasCaptor.capture());
 
     assertThat(aliasCaptor.getValue())
       .isNotNull()
@@ -168,7 +243,7 @@ class ApiControllerTest {
   void createShortenUrlWhenNoAliasAndCannotCreateUnique() {
     String accessToken = authorize();
 
-    String url = "test";
+    String url = "http://test.com";
     Map<String, Object> saveAliasRequestBody = Map.of(
       "url", url
     );
@@ -176,14 +251,13 @@ class ApiControllerTest {
     var saveAliasRequest = HttpRequest.POST("/urls/shorten", saveAliasRequestBody)
       .bearerAuth(accessToken);
 
-    when(aliasDao.get(anyString()))
+    when(aliasDao.putIfAbsent(anyString(), any()))
       .thenReturn(mock(Alias.class));
 
     assertTimeoutPreemptively(Duration.of(5, ChronoUnit.SECONDS), () -> client.toBlocking()
       .exchange(saveAliasRequest, UrlCreateResponse.class));
 
-    verify(aliasDao, atLeastOnce()).get(anyString());
-    verify(aliasDao, never()).add(anyString(), any());
+    verify(aliasDao, atLeastOnce()).putIfAbsent(anyString(), any());
   }
 
   @Test
@@ -210,7 +284,7 @@ class ApiControllerTest {
 
   @Test
   void createShortenUrlWhenUnauthorized() {
-    String url = "test";
+    String url = "http://test.com";
     String alias = "test_alias";
     Map<String, Object> saveAliasRequestBody = Map.of(
       "url", url,
@@ -339,6 +413,51 @@ class ApiControllerTest {
     verify(aliasDao).getAllByUser(USERNAME);
   }
 
+  @Test
+  void getUserAliasesPage() {
+    String token = authorize();
+
+    Alias userAlias = new Alias("test_alias", "test_url", USERNAME, 1);
+    UrlCreateResponse expected = new UrlCreateResponse("test_alias", "test_url", USERNAME);
+
+    MutableHttpRequest<Object> getAliasesRequest = HttpRequest.GET("/urls?limit=1&sort=alias")
+      .bearerAuth(token)
+      .accept(MediaType.APPLICATION_JSON_TYPE);
+
+    when(aliasDao.getPageByUser(USERNAME, AliasOrder.ALIAS, null, 1))
+      .thenReturn(new AliasPage(List.of(userAlias), "next_cursor"));
+
+    HttpResponse<List<UrlCreateResponse>> result = client.toBlocking()
+      .exchange(getAliasesRequest, Argument.listOf(UrlCreateResponse.class));
+
+    assertThat(result).extracting(HttpResponse::status).isEqualTo(HttpStatus.OK);
+    assertThat(result.getHeaders().get("X-Next-Cursor")).isEqualTo("next_cursor");
+    assertThat(result.getBody().get()).containsExactly(expected);
+
+    verify(aliasDao).getPageByUser(USERNAME, AliasOrder.ALIAS, null, 1);
+  }
+
+  @Test
+  void getUserAliasesPageWithInvalidCursor() {
+    String token = authorize();
+
+    MutableHttpRequest<Object> getAliasesRequest = HttpRequest.GET("/urls?cursor=broken")
+      .bearerAuth(token)
+      .accept(MediaType.APPLICATION_JSON_TYPE);
+
+    when(aliasDao.getPageByUser(USERNAME, AliasOrder.CREATED, "broken", 100))
+      .thenThrow(new IllegalArgumentException("Malformed cursor"));
+
+    HttpResponse<?> result = assertThrows(
+      HttpClientResponseException.class,
+      () -> client.toBlocking()
+        .exchange(getAliasesRequest, String.class))
+      .getResponse();
+
+    assertThat(result).extracting(HttpResponse::status)
+      .isEqualTo(HttpStatus.BAD_REQUEST);
+  }
+
   @Test
   void deleteWhenUnauthorized() {
     String shorter = "test_alias";
@@ -374,7 +493,7 @@ class ApiControllerTest {
     assertThat(result).extracting(HttpResponse::status)
       .isEqualTo(HttpStatus.BAD_REQUEST);
 
-    verify(aliasDao).get(shorten);
+    verify(aliasDao).removeIfOwnedBy(shorten, USERNAME);
     verify(aliasDao, never()).remove(shorten);
   }
 
@@ -383,12 +502,9 @@ class ApiControllerTest {
     String token = authorize();
 
     String shorten = "test_alias";
-    String url = "test_url";
-
-    Alias userAlias = new Alias(shorten, url, "another_username");
 
-    when(aliasDao.get(shorten))
-      .thenReturn(userAlias);
+    when(aliasDao.removeIfOwnedBy(shorten, USERNAME))
+      .thenReturn(false);
 
     var getAliasesRequest = HttpRequest.DELETE("/urls/" + shorten)
       .bearerAuth(token);
@@ -402,8 +518,7 @@ class ApiControllerTest {
     assertThat(result).extracting(HttpResponse::status)
       .isEqualTo(HttpStatus.BAD_REQUEST);
 
-    verify(aliasDao).get(shorten);
-    verify(aliasDao, never()).remove(shorten);
+    verify(aliasDao).removeIfOwnedBy(shorten, USERNAME);
   }
 
   @Test
@@ -411,12 +526,9 @@ class ApiControllerTest {
     String token = authorize();
 
     String shorten = "test_alias";
-    String url = "test_url";
-
-    Alias userAlias = new Alias(shorten, url, USERNAME);
 
-    when(aliasDao.get(shorten))
-      .thenReturn(userAlias);
+    when(aliasDao.removeIfOwnedBy(shorten, USERNAME))
+      .thenReturn(true);
 
     var getAliasesRequest = HttpRequest.DELETE("/urls/" + shorten)
       .bearerAuth(token);
@@ -427,8 +539,85 @@ class ApiControllerTest {
     assertThat(result).extracting(HttpResponse::status)
       .isEqualTo(HttpStatus.OK);
 
-    verify(aliasDao).get(shorten);
-    verify(aliasDao).remove(shorten);
+    verify(aliasDao).removeIfOwnedBy(shorten, USERNAME);
+  }
+
+  @Test
+  void createShortenUrlsInBatch() {
+    String accessToken = authorize();
+    when(aliasDao.putAllIfAbsent(any())).thenAnswer(invocation -> {
+      List<Alias> aliases = invocation.getArgument(0);
+      List<Alias> taken = new ArrayList<>();
+      for (Alias alias : aliases) {
+        taken.add(alias.getShorten().equals("taken") ? alias : null);
+      }
+      return taken;
+    });
+    String body = """
+      {"url": "http://a.com", "alias": "a"}
+      {"url": "http://b.com", "alias": "taken"}
+      {"alias": "c"}
+      {"url": "http://d.com", "ttl": 60}
+      """;
+    var batchRequest = HttpRequest.POST("/urls/batch", body)
+      .contentType(AdminController.APPLICATION_NDJSON)
+      .bearerAuth(accessToken);
+
+    HttpResponse<String> result = client.toBlocking().exchange(batchRequest, String.class);
+
+    assertThat(result).extracting(HttpResponse::status).isEqualTo(HttpStatus.OK);
+    String[] lines = result.body().split("\n");
+    assertThat(lines).hasSize(4);
+    assertThat(lines[0]).contains("\"index\":0", "\"shorten\":\"a\"");
+    assertThat(lines[1]).contains("\"index\":1", "Alias is not unique!");
+    assertThat(lines[2]).contains("\"index\":2", "Url is required!");
+    assertThat(lines[3]).contains("\"index\":3", "\"url\":\"http://d.com\"");
+    verify(aliasDao, never()).putIfAbsent(anyString(), any());
+  }
+
+  @Test
+  void createShortenUrlsInBatchFromJsonArrayEndingWithMalformedItem() {
+    String accessToken = authorize();
+    when(aliasDao.putAllIfAbsent(any())).thenAnswer(invocation ->
+      new ArrayList<>(Collections.nCopies(invocation.<List<Alias>>getArgument(0).size(), null)));
+    String body = "[{\"url\": \"http://a.com\", \"alias\": \"a\"}, {\"url\": ]";
+    var batchRequest = HttpRequest.POST("/urls/batch", body)
+      .contentType(MediaType.APPLICATION_JSON)
+      .bearerAuth(accessToken);
+
+    HttpResponse<String> result = client.toBlocking().exchange(batchRequest, String.class);
+
+    assertThat(result).extracting(HttpResponse::status).isEqualTo(HttpStatus.OK);
+    String[] lines = result.body().split("\n");
+    assertThat(lines).hasSize(2);
+    assertThat(lines[0]).contains("\"index\":0", "\"shorten\":\"a\"");
+    assertThat(lines[1]).contains("\"index\":1", "Malformed item!");
+  }
+
+  @Test
+  void deleteAliasesCreatedBefore() {
+    String accessToken = authorize();
+    when(aliasDao.removeAllCreatedBefore(USERNAME, 1000L)).thenReturn(3);
+    var deleteRequest = HttpRequest.POST("/urls/delete", Map.of("createdBefore", 1000))
+      .bearerAuth(accessToken);
+
+    HttpResponse<String> result = client.toBlocking().exchange(deleteRequest, String.class);
+
+    assertThat(result).extracting(HttpResponse::status).isEqualTo(HttpStatus.OK);
+    assertThat(result.body()).isEqualTo("{\"deleted\":3}");
+  }
+
+  @Test
+  void deleteAliasesWithoutCriteria() {
+    String accessToken = authorize();
+    var deleteRequest = HttpRequest.POST("/urls/delete", Map.of())
+      .bearerAuth(accessToken);
+
+    HttpResponse<?> result = assertThrows(HttpClientResponseException.class,
+      () -> client.toBlocking().exchange(deleteRequest, String.class)).getResponse();
+
+    assertThat(result).extracting(HttpResponse::status).isEqualTo(HttpStatus.BAD_REQUEST);
+    verify(aliasDao, never()).removeAllOwnedBy(any(), anyString());
   }
 
   private String authorize() {
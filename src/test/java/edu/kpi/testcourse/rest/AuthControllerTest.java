@@ -1,5 +1,7 @@
 package edu.kpi.testcourse.rest;
 
+import edu.kpi.testcourse.auth.JwtUtils;
+import edu.kpi.testcourse.bigtable.SessionDao;
 import edu.kpi.testcourse.bigtable.TokenDao;
 import edu.kpi.testcourse.bigtable.UserDao;
 import io.micronaut.http.HttpRequest;
@@ -13,7 +15,9 @@ import io.micronaut.security.token.jwt.render.BearerAccessRefreshToken;
 import io.micronaut.test.annotation.MockBean;
 import io.micronaut.test.extensions.junit5.annotation.MicronautTest;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 
+import java.text.ParseException;
 import javax.inject.Inject;
 
 import static edu.kpi.testcourse.rest.MockAuthenticationProvider.*;
@@ -43,6 +47,14 @@ public class AuthControllerTest {
     return mock(TokenDao.class);
   }
 
+  @Inject
+  private SessionDao sessionDao;
+
+  @MockBean(SessionDao.class)
+  public SessionDao sessionDao() {
+    return mock(SessionDao.class);
+  }
+
   @Inject
   private AuthenticationProvider authenticationProvider;
 
@@ -65,7 +77,7 @@ public class AuthControllerTest {
 
     assertThat(result.getStatus()).isEqualTo(HttpStatus.OK);
 
-    verify(userDao).get(credentials.getUsername());
+    verify(userDao).putIfAbsent(eq(credentials.getUsername()), anyString());
   }
 
   @Test
@@ -74,8 +86,8 @@ public class AuthControllerTest {
 
     var signUpRequest = HttpRequest.POST("/signup", credentials);
 
-    when(userDao.get(credentials.getUsername()))
-      .thenReturn(credentials.getUsername());
+    when(userDao.putIfAbsent(eq(credentials.getUsername()), anyString()))
+      .thenReturn(credentials.getPassword());
 
     var result = assertThrows(
       HttpClientResponseException.class,
@@ -86,7 +98,23 @@ public class AuthControllerTest {
     assertThat(result.getStatus()).isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
     assertThat(result.body()).isEqualTo(expectedResult);
 
-    verify(userDao).get(credentials.getUsername());
+    verify(userDao).putIfAbsent(eq(credentials.getUsername()), anyString());
+  }
+
+  @Test
+  void testSignUpWhenUserAlreadyExistDoesNotHashPassword() {
+    var signUpRequest = HttpRequest.POST("/signup", credentials);
+
+    when(userDao.get(credentials.getUsername())).thenReturn(credentials.getPassword());
+
+    var result = assertThrows(
+      HttpClientResponseException.class,
+      () -> client.toBlocking()
+        .exchange(signUpRequest, String.class)
+    ).getResponse();
+
+    assertThat(result.getStatus()).isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+    verify(userDao, never()).putIfAbsent(anyString(), anyString());
   }
 
   @Test
@@ -118,7 +146,92 @@ public class AuthControllerTest {
     var result = client.toBlocking().exchange(signOut);
 
     assertThat(result.getStatus()).isEqualTo(HttpStatus.OK);
-    verify(tokenDao).add(USERNAME, token);
+    verify(tokenDao).add(eq(token), longThat(expiresAt -> expiresAt > 0));
+  }
+
+  @Test
+  void testSignOutEverywhere() {
+    var credentials = new UsernamePasswordCredentials(LOGIN, PASSWORD);
+    var signIn = HttpRequest
+      .POST("/signin", credentials);
+
+    String token = client.toBlocking()
+      .retrieve(signIn, BearerAccessRefreshToken.class)
+      .getAccessToken();
+    long before = System.currentTimeMillis();
+
+    var signOut = HttpRequest.POST("/signout/all", "").bearerAuth(token);
+
+    var result = client.toBlocking().exchange(signOut);
+
+    assertThat(result.getStatus()).isEqualTo(HttpStatus.OK);
+    verify(sessionDao).revokeAll(eq(USERNAME), longThat(time -> time >= before));
+  }
+
+  @Test
+  void testTokenIssuedBeforeSignOutEverywhereIsRejected() throws ParseException {
+    var credentials = new UsernamePasswordCredentials(LOGIN, PASSWORD);
+    var signIn = HttpRequest
+      .POST("/signin", credentials);
+
+    String token = client.toBlocking()
+      .retrieve(signIn, BearerAccessRefreshToken.class)
+      .getAccessToken();
+
+    when(sessionDao.isEmpty()).thenReturn(false);
+    when(sessionDao.revokedUntil(USERNAME)).thenReturn(issueTime(token) + 1000);
+
+    var signOut = HttpRequest.GET("/signout").bearerAuth(token);
+
+    var result = assertThrows(
+      HttpClientResponseException.class,
+      () -> client.toBlocking().exchange(signOut, String.class)
+    ).getResponse();
+
+    assertThat(result.getStatus()).isEqualTo(HttpStatus.UNAUTHORIZED);
+  }
+
+  @Test
+  void testTokenIssuedInTheSecondOfSignOutEverywhereIsRejected() throws ParseException {
+    var credentials = new UsernamePasswordCredentials(LOGIN, PASSWORD);
+    var signIn = HttpRequest
+      .POST("/signin", credentials);
+
+    String token = client.toBlocking()
+      .retrieve(signIn, BearerAccessRefreshToken.class)
+      .getAccessToken();
+    client.toBlocking().exchange(HttpRequest.POST("/signout/all", "").bearerAuth(token));
+
+    ArgumentCaptor<Long> signedOutAt = ArgumentCaptor.forClass(Long.class);
+    verify(sessionDao).revokeAll(eq(USERNAME), signedOutAt.capture());
+    // Signing in and out takes milliseconds, so the token is issued in the second of the mark.
+    when(sessionDao.isEmpty()).thenReturn(false);
+    when(sessionDao.revokedUntil(USERNAME)).thenReturn(SessionDao.markOf(signedOutAt.getValue()));
+
+    var result = assertThrows(
+      HttpClientResponseException.class,
+      () -> client.toBlocking().exchange(HttpRequest.GET("/signout").bearerAuth(token))
+    ).getResponse();
+
+    assertThat(result.getStatus()).isEqualTo(HttpStatus.UNAUTHORIZED);
+  }
+
+  @Test
+  void testTokenIssuedAfterTheSecondOfSignOutEverywhereIsAccepted() throws ParseException {
+    var credentials = new UsernamePasswordCredentials(LOGIN, PASSWORD);
+    var signIn = HttpRequest
+      .POST("/signin", credentials);
+
+    String token = client.toBlocking()
+      .retrieve(signIn, BearerAccessRefreshToken.class)
+      .getAccessToken();
+
+    when(sessionDao.isEmpty()).thenReturn(false);
+    when(sessionDao.revokedUntil(USERNAME)).thenReturn(issueTime(token));
+
+    var result = client.toBlocking().exchange(HttpRequest.GET("/signout").bearerAuth(token));
+
+    assertThat(result.getStatus()).isEqualTo(HttpStatus.OK);
   }
 
   @Test
@@ -150,4 +263,8 @@ public class AuthControllerTest {
       .getResponse();
     assertThat(result.getStatus()).isEqualTo(HttpStatus.UNAUTHORIZED);
   }
+
+  private static long issueTime(String token) throws ParseException {
+    return JwtUtils.getClaimsSet(token).getIssueTime().getTime();
+  }
 }